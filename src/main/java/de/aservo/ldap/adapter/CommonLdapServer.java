@@ -43,6 +43,9 @@ import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.response.CompareResponseHandler;
+import org.apache.directory.server.ldap.handlers.response.SearchResultDoneHandler;
+import org.apache.directory.server.ldap.handlers.response.SearchResultEntryHandler;
+import org.apache.directory.server.ldap.handlers.response.SearchResultReferenceHandler;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.slf4j.Logger;
@@ -144,6 +147,8 @@ public class CommonLdapServer {
             server.setMaxSizeLimit(serverConfig.getResponseMaxSizeLimit());
             server.setMaxTimeLimit(serverConfig.getResponseMaxTimeLimit());
             server.setCompareHandlers(new CompareRequestHandler(), new CompareResponseHandler());
+            server.setSearchHandlers(new CommonSearchRequestHandler(), new SearchResultEntryHandler(),
+                    new SearchResultReferenceHandler(), new SearchResultDoneHandler());
 
             server.start();
 
@@ -22,16 +22,19 @@
 
 package de.aservo.ldap.adapter;
 
+import de.aservo.ldap.adapter.api.DnCache;
 import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.cursor.Cursor;
 import de.aservo.ldap.adapter.api.cursor.MappableCursor;
+import de.aservo.ldap.adapter.api.cursor.PrefetchingCursor;
 import de.aservo.ldap.adapter.api.cursor.apacheds.EntryFilteringWrapperCursor;
 import de.aservo.ldap.adapter.api.cursor.apacheds.IterableEntryCursor;
 import de.aservo.ldap.adapter.api.database.Row;
-import de.aservo.ldap.adapter.api.database.exception.UnknownColumnException;
 import de.aservo.ldap.adapter.api.entity.*;
 import de.aservo.ldap.adapter.api.query.AndLogicExpression;
 import de.aservo.ldap.adapter.api.query.BooleanValue;
 import de.aservo.ldap.adapter.api.query.EqualOperator;
+import de.aservo.ldap.adapter.api.query.ExpressionCompiler;
 import de.aservo.ldap.adapter.api.query.QueryExpression;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
@@ -39,7 +42,17 @@ import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortResponse;
+import org.apache.directory.api.ldap.model.message.controls.SortResponseImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortResultCode;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
@@ -53,6 +66,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 
 /**
@@ -65,9 +86,11 @@ public class CommonPartition
 
     private final DirectoryBackendFactory directoryFactory;
     private final ServerConfiguration serverConfig;
+    private final ExecutorService prefetchExecutor;
     private DomainEntity domainEntity;
     private GroupUnitEntity groupUnitEntity;
     private UserUnitEntity userUnitEntity;
+    private EntryCache entryCache;
 
     /**
      * Instantiates a new partition based on directory backend implementation.
@@ -80,6 +103,11 @@ public class CommonPartition
         this.serverConfig = serverConfig;
         this.directoryFactory = directoryFactory;
 
+        // without a queue tasks are rejected instead of waiting for threads held by blocked searches
+        prefetchExecutor =
+                new ThreadPoolExecutor(0, serverConfig.getResponsePrefetchThreads(), 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<>());
+
         setId(directoryFactory.getPermanentDirectory().getId());
     }
 
@@ -95,11 +123,32 @@ public class CommonPartition
 
         groupUnitEntity = new GroupUnitEntity(serverConfig.getBaseDnGroupsDescription());
         userUnitEntity = new UserUnitEntity(serverConfig.getBaseDnUsersDescription());
+
+        int entryCacheSize = serverConfig.getResponseEntryCacheSize();
+
+        if (entryCacheSize > 0) {
+
+            EntryCache cache = new EntryCache(entryCacheSize, serverConfig.isFlatteningEnabled());
+
+            // without notifications about modifications cached entries would become stale
+            if (directoryFactory.addEntityChangeListener(cache))
+                entryCache = cache;
+            else
+                logger.info("Entries are not cached because the directory backend does not report modifications.");
+        }
     }
 
     @Override
     protected void doDestroy()
             throws LdapException {
+
+        prefetchExecutor.shutdown();
+
+        DnCache dnCache = LdapUtils.getDnCache();
+
+        logger.info("The DN cache answered {} of {} requests from {} cached DNs (hit rate {}) and evicted {} DNs.",
+                dnCache.getHitCount(), dnCache.getHitCount() + dnCache.getMissCount(), dnCache.size(),
+                String.format("%.2f", dnCache.getHitRate()), dnCache.getEvictionCount());
     }
 
     @Override
@@ -205,7 +254,30 @@ public class CommonPartition
         PartitionTxn transaction = context.getTransaction();
         QueryExpression expression = LdapUtils.createQueryExpression(context.getFilter());
         Set<String> attributes = LdapUtils.getAttributes(context);
-        MappableCursor<Entry> entries = findEntries(expression, context.getDn(), attributes, transaction, true);
+        PagedResults pagedResults = (PagedResults) context.getRequestControl(PagedResults.OID);
+        SortRequest sortRequest = (SortRequest) context.getRequestControl(SortRequest.OID);
+        Page page = Page.unlimited();
+        List<SortKey> sortKeys = Collections.emptyList();
+
+        if (pagedResults != null && supportsControls(context.getDn(), pagedResults, sortRequest)) {
+
+            PagedResults pagedResultsResponse = new PagedResultsImpl();
+
+            page = Page.fromCookie(pagedResults.getCookie(), pagedResults.getSize(), pagedResultsResponse);
+            context.addResponseControl(pagedResultsResponse);
+        }
+
+        if (sortRequest != null && supportsControls(context.getDn(), pagedResults, sortRequest)) {
+
+            SortResponse sortResponse = new SortResponseImpl();
+
+            sortResponse.setSortResult(SortResultCode.SUCCESS);
+            sortKeys = sortRequest.getSortKeys();
+            context.addResponseControl(sortResponse);
+        }
+
+        MappableCursor<Entry> entries =
+                findEntries(expression, context.getDn(), attributes, transaction, true, page, sortKeys);
 
         return new EntryFilteringWrapperCursor(new IterableEntryCursor(logger, entries), context);
     }
@@ -218,9 +290,47 @@ public class CommonPartition
         return findManyOnFirstLevel(context);
     }
 
+    /**
+     * Indicates whether the paged results control or the server side sort control of a search request is processed
+     * by this partition itself. Both controls are supported, but not in combination. Sorting is only supported below
+     * the groups or users entry and for sort keys with attributes from {@link LdapUtils#SORTABLE_ATTRIBUTES}.
+     *
+     * @param dn           the normalized DN of the search base
+     * @param pagedResults the paged results control or null
+     * @param sortRequest  the sort control or null
+     * @return true if the controls are processed by the partition
+     */
+    public boolean supportsControls(Dn dn, PagedResults pagedResults, SortRequest sortRequest) {
+
+        if (sortRequest == null)
+            return pagedResults != null;
+
+        if (pagedResults != null)
+            return false;
+
+        Dn groupsDn = LdapUtils.createDn(schemaManager, EntityType.GROUP_UNIT, getId());
+        Dn usersDn = LdapUtils.createDn(schemaManager, EntityType.USER_UNIT, getId());
+
+        // the entries of a sorted query must be of a single entity type
+        if (!dn.equals(groupsDn) && !dn.isDescendantOf(groupsDn) && !dn.equals(usersDn) && !dn.isDescendantOf(usersDn))
+            return false;
+
+        return sortRequest.getSortKeys().stream()
+                .allMatch(x -> x.getMatchingRuleId() == null &&
+                        LdapUtils.SORTABLE_ATTRIBUTES.contains(LdapUtils.normalizeAttribute(x.getAttributeTypeDesc())));
+    }
+
     private MappableCursor<Entry> findEntries(QueryExpression expression, Dn queryDn, Set<String> attributes,
                                               PartitionTxn transaction, boolean multiple) {
 
+        return findEntries(expression, queryDn, attributes, transaction, multiple, Page.unlimited(),
+                Collections.emptyList());
+    }
+
+    private MappableCursor<Entry> findEntries(QueryExpression expression, Dn queryDn, Set<String> attributes,
+                                              PartitionTxn transaction, boolean multiple, Page page,
+                                              List<SortKey> sortKeys) {
+
         Dn rootDn = LdapUtils.createDn(schemaManager, EntityType.DOMAIN, getId());
         Dn groupsDn = LdapUtils.createDn(schemaManager, EntityType.GROUP_UNIT, getId());
         Dn usersDn = LdapUtils.createDn(schemaManager, EntityType.USER_UNIT, getId());
@@ -230,18 +340,31 @@ public class CommonPartition
 
         String txId = ((SimpleReadOnlyPartition.ReadTransaction) transaction).getId();
 
+        // entries built from rows of the queries below may be cached unless a modification happens meanwhile;
+        // the generation is requested before the first query opens the transaction of the directory backend
+        long generation = entryCache == null ? 0 : entryCache.getGeneration();
+
+        // one more entity than requested tells whether there is another page
+        int limit = page.getSize() == 0 ? 0 : page.getSize() + 1;
+
+        // unit entries have no sortable attributes and follow all other entries in ascending order
+        boolean unitLast = !sortKeys.isEmpty() && !sortKeys.get(0).isReverseOrder();
+
         return directoryFactory.withSession(directory -> {
 
             List<MappableCursor<Row>> cursors = new ArrayList<>();
 
             if (queryDn.equals(groupsDn)) {
 
-                if (LdapUtils.evaluateExpression(LdapUtils.preEvaluateExpression(expression, groupUnitEntity)))
+                if (page.isAfter(EntityType.GROUP_UNIT, groupUnitEntity.getId()) &&
+                        ExpressionCompiler.compile(expression, EntityType.GROUP_UNIT).test(groupUnitEntity))
                     cursors.add(MappableCursor.fromIterable(Collections.singleton(groupUnitEntity)));
 
-                if (multiple) {
+                if (multiple && page.reaches(EntityType.GROUP)) {
 
-                    cursors.add(directory.runQueryExpression(txId, schemaManager, expression, EntityType.GROUP));
+                    cursors.add(unitLast ? 0 : cursors.size(), directory.runQueryExpression(txId, schemaManager,
+                            expression, EntityType.GROUP, attributes, page.getLastId(EntityType.GROUP), limit,
+                            sortKeys));
                 }
 
             } else if (queryDn.getParent().equals(groupsDn)) {
@@ -252,16 +375,19 @@ public class CommonPartition
                 QueryExpression expr =
                         new AndLogicExpression(Arrays.asList(new EqualOperator(attribute, value), expression));
 
-                cursors.add(directory.runQueryExpression(txId, schemaManager, expr, EntityType.GROUP));
+                cursors.add(directory.runQueryExpression(txId, schemaManager, expr, EntityType.GROUP, attributes));
 
             } else if (queryDn.equals(usersDn)) {
 
-                if (LdapUtils.evaluateExpression(LdapUtils.preEvaluateExpression(expression, userUnitEntity)))
+                if (page.isAfter(EntityType.USER_UNIT, userUnitEntity.getId()) &&
+                        ExpressionCompiler.compile(expression, EntityType.USER_UNIT).test(userUnitEntity))
                     cursors.add(MappableCursor.fromIterable(Collections.singleton(userUnitEntity)));
 
-                if (multiple) {
+                if (multiple && page.reaches(EntityType.USER)) {
 
-                    cursors.add(directory.runQueryExpression(txId, schemaManager, expression, EntityType.USER));
+                    cursors.add(unitLast ? 0 : cursors.size(), directory.runQueryExpression(txId, schemaManager,
+                            expression, EntityType.USER, attributes, page.getLastId(EntityType.USER), limit,
+                            sortKeys));
                 }
 
             } else if (queryDn.getParent().equals(usersDn)) {
@@ -272,23 +398,35 @@ public class CommonPartition
                 QueryExpression expr =
                         new AndLogicExpression(Arrays.asList(new EqualOperator(attribute, value), expression));
 
-                cursors.add(directory.runQueryExpression(txId, schemaManager, expr, EntityType.USER));
+                cursors.add(directory.runQueryExpression(txId, schemaManager, expr, EntityType.USER, attributes));
 
             } else if (queryDn.equals(rootDn)) {
 
-                if (LdapUtils.evaluateExpression(LdapUtils.preEvaluateExpression(expression, domainEntity)))
+                if (page.isAfter(EntityType.DOMAIN, domainEntity.getId()) &&
+                        ExpressionCompiler.compile(expression, EntityType.DOMAIN).test(domainEntity))
                     cursors.add(MappableCursor.fromIterable(Collections.singleton(domainEntity)));
 
                 if (multiple) {
 
-                    if (LdapUtils.evaluateExpression(LdapUtils.preEvaluateExpression(expression, groupUnitEntity)))
+                    if (page.isAfter(EntityType.GROUP_UNIT, groupUnitEntity.getId()) &&
+                            ExpressionCompiler.compile(expression, EntityType.GROUP_UNIT).test(groupUnitEntity))
                         cursors.add(MappableCursor.fromIterable(Collections.singleton(groupUnitEntity)));
 
-                    if (LdapUtils.evaluateExpression(LdapUtils.preEvaluateExpression(expression, userUnitEntity)))
+                    if (page.isAfter(EntityType.USER_UNIT, userUnitEntity.getId()) &&
+                            ExpressionCompiler.compile(expression, EntityType.USER_UNIT).test(userUnitEntity))
                         cursors.add(MappableCursor.fromIterable(Collections.singleton(userUnitEntity)));
 
-                    cursors.add(directory.runQueryExpression(txId, schemaManager, expression, EntityType.GROUP));
-                    cursors.add(directory.runQueryExpression(txId, schemaManager, expression, EntityType.USER));
+                    List<Function<String, MappableCursor<Row>>> queries = new ArrayList<>();
+
+                    if (page.reaches(EntityType.GROUP))
+                        queries.add(queryTxId -> directory.runQueryExpression(queryTxId, schemaManager, expression,
+                                EntityType.GROUP, attributes, page.getLastId(EntityType.GROUP), limit, sortKeys));
+
+                    if (page.reaches(EntityType.USER))
+                        queries.add(queryTxId -> directory.runQueryExpression(queryTxId, schemaManager, expression,
+                                EntityType.USER, attributes, page.getLastId(EntityType.USER), limit, sortKeys));
+
+                    cursors.add(runQueries(txId, queries));
                 }
 
             } else if (queryDn.getParent().equals(rootDn) && multiple) {
@@ -299,14 +437,61 @@ public class CommonPartition
                 QueryExpression expr =
                         new AndLogicExpression(Arrays.asList(new EqualOperator(attribute, value), expression));
 
-                cursors.add(directory.runQueryExpression(txId, schemaManager, expr, EntityType.GROUP));
-                cursors.add(directory.runQueryExpression(txId, schemaManager, expr, EntityType.USER));
+                List<Function<String, MappableCursor<Row>>> queries = new ArrayList<>();
+
+                if (page.reaches(EntityType.GROUP))
+                    queries.add(queryTxId -> directory.runQueryExpression(queryTxId, schemaManager, expr,
+                            EntityType.GROUP, attributes, page.getLastId(EntityType.GROUP), limit, sortKeys));
+
+                if (page.reaches(EntityType.USER))
+                    queries.add(queryTxId -> directory.runQueryExpression(queryTxId, schemaManager, expr,
+                            EntityType.USER, attributes, page.getLastId(EntityType.USER), limit, sortKeys));
+
+                cursors.add(runQueries(txId, queries));
             }
 
-            return createEntries(MappableCursor.flatten(cursors), attributes);
+            return createEntries(limitEntities(MappableCursor.flatten(cursors), page), attributes, generation);
         });
     }
 
+    private MappableCursor<Row> runQueries(String txId, List<Function<String, MappableCursor<Row>>> queries) {
+
+        int prefetchSize = serverConfig.getResponsePrefetchSize();
+
+        if (prefetchSize == 0 || queries.size() < 2) {
+
+            return MappableCursor.flatten(queries.stream()
+                    .map(x -> x.apply(txId))
+                    .collect(Collectors.toList()));
+        }
+
+        List<Supplier<? extends Cursor<Row>>> suppliers = new ArrayList<>();
+
+        // concurrent queries require separate connections and thus separate transactions, so the queries may see
+        // different synchronization runs as documented for the prefetch size;
+        // buffered rows must not refer to the current position of a result set
+        for (int i = 0; i < queries.size(); i++) {
+
+            Function<String, MappableCursor<Row>> query = queries.get(i);
+            String queryTxId = txId + "-" + i;
+
+            suppliers.add(() -> query.apply(queryTxId).map(Row::copy));
+        }
+
+        try {
+
+            return new PrefetchingCursor<>(suppliers, prefetchSize, prefetchExecutor);
+
+        } catch (RejectedExecutionException e) {
+
+            logger.debug("Run queries one after another because all prefetching threads are busy.");
+
+            return MappableCursor.flatten(queries.stream()
+                    .map(x -> x.apply(txId))
+                    .collect(Collectors.toList()));
+        }
+    }
+
     private Entry createEntry(Row entity, Set<String> attributes) {
 
         EntityType entityType = EntityType.fromString(entity.apply(ColumnNames.TYPE, String.class));
@@ -539,116 +724,157 @@ public class CommonPartition
 
                         if (!serverConfig.isFlatteningEnabled()) {
 
-                            String memberNameGroup = null;
+                            addRelationship(entry, entity, SchemaConstants.MEMBER_AT, EntityType.GROUP,
+                                    "member_group_name", "member_group_names");
+                        }
 
-                            try {
+                        addRelationship(entry, entity, SchemaConstants.MEMBER_AT, EntityType.USER,
+                                "member_user_username", "member_user_usernames");
+                    }
 
-                                memberNameGroup = entity.apply("member_group_name", String.class);
+                    if (attributes.isEmpty() || attributes.contains(LdapUtils.MEMBER_OF_AT_OID)) {
 
-                            } catch (UnknownColumnException e) {
+                        if (!serverConfig.isFlatteningEnabled()) {
 
-                                logger.trace("Cannot find column member_group_name in group row.");
-                            }
+                            addRelationship(entry, entity, LdapUtils.MEMBER_OF_AT, EntityType.GROUP,
+                                    "parent_group_name", "parent_group_names");
+                        }
+                    }
 
-                            if (memberNameGroup != null) {
+                    break;
+                }
 
-                                Dn dn = LdapUtils.createDn(schemaManager, EntityType.GROUP, memberNameGroup, getId());
+                case USER: {
 
-                                entry.add(SchemaConstants.MEMBER_AT, dn.getName());
-                            }
-                        }
+                    if (attributes.isEmpty() || attributes.contains(LdapUtils.MEMBER_OF_AT_OID)) {
 
-                        {
-                            String memberNameUser = null;
+                        addRelationship(entry, entity, LdapUtils.MEMBER_OF_AT, EntityType.GROUP,
+                                "parent_group_name", "parent_group_names");
+                    }
 
-                            try {
+                    break;
+                }
 
-                                memberNameUser = entity.apply("member_user_username", String.class);
+                default:
+                    break;
+            }
 
-                            } catch (UnknownColumnException e) {
+        } catch (LdapException e) {
 
-                                logger.trace("Cannot find column member_user_username in group row.");
-                            }
+            throw new IllegalArgumentException("Cannot handle attributes correctly.", e);
+        }
+    }
 
-                            if (memberNameUser != null) {
+    private void addRelationship(Entry entry, Row entity, String attribute, EntityType relatedEntityType,
+                                 String columnName, String aggregatedColumnName)
+            throws LdapException {
 
-                                Dn dn = LdapUtils.createDn(schemaManager, EntityType.USER, memberNameUser, getId());
+        List<String> names;
 
-                                entry.add(SchemaConstants.MEMBER_AT, dn.getName());
-                            }
-                        }
-                    }
+        // aggregated rows carry all related names of an entry in a single column
+        if (entity.hasColumn(aggregatedColumnName)) {
 
-                    if (attributes.isEmpty() || attributes.contains(LdapUtils.MEMBER_OF_AT_OID)) {
+            String value = entity.apply(aggregatedColumnName, String.class);
 
-                        if (!serverConfig.isFlatteningEnabled()) {
+            if (value == null)
+                return;
 
-                            String memberOfName = null;
+            names = LdapUtils.splitAggregatedNames(value);
 
-                            try {
+        } else if (entity.hasColumn(columnName)) {
 
-                                memberOfName = entity.apply("parent_group_name", String.class);
+            String value = entity.apply(columnName, String.class);
 
-                            } catch (UnknownColumnException e) {
+            if (value == null)
+                return;
 
-                                logger.trace("Cannot find column parent_group_name in group row.");
-                            }
+            names = Collections.singletonList(value);
 
-                            if (memberOfName != null) {
+        } else {
 
-                                Dn dn = LdapUtils.createDn(schemaManager, EntityType.GROUP, memberOfName, getId());
+            logger.trace("Cannot find column {} in {} row.", columnName, entity.apply(ColumnNames.TYPE, String.class));
 
-                                entry.add(LdapUtils.MEMBER_OF_AT, dn.getName());
-                            }
-                        }
-                    }
+            return;
+        }
 
-                    break;
-                }
+        for (String name : names) {
 
-                case USER: {
+            Dn dn = LdapUtils.createDn(schemaManager, relatedEntityType, name, getId());
 
-                    if (attributes.isEmpty() || attributes.contains(LdapUtils.MEMBER_OF_AT_OID)) {
+            entry.add(attribute, dn.getName());
+        }
+    }
 
-                        String memberOfName = null;
+    private MappableCursor<Row> limitEntities(MappableCursor<Row> cursor, Page page) {
 
-                        try {
+        if (page.getSize() == 0)
+            return cursor;
 
-                            memberOfName = entity.apply("parent_group_name", String.class);
+        return new MappableCursor<Row>() {
 
-                        } catch (UnknownColumnException e) {
+            private int count = 0;
+            private boolean exhausted = false;
+            private EntityType lastEntityType;
+            private String lastId;
 
-                            logger.trace("Cannot find column parent_group_name in user row.");
-                        }
+            @Override
+            public boolean next() {
 
-                        if (memberOfName != null) {
+                if (exhausted || !cursor.next()) {
 
-                            Dn dn = LdapUtils.createDn(schemaManager, EntityType.GROUP, memberOfName, getId());
+                    exhausted = true;
 
-                            entry.add(LdapUtils.MEMBER_OF_AT, dn.getName());
-                        }
+                    return false;
+                }
+
+                EntityType entityType = EntityType.fromString(cursor.get().apply(ColumnNames.TYPE, String.class));
+                String id = cursor.get().apply(ColumnNames.ID, String.class);
+
+                // rows of the same entity follow each other
+                if (entityType != lastEntityType || !id.equals(lastId)) {
+
+                    if (count == page.getSize()) {
+
+                        // the cursor is not read any further; the next page continues after the last entity
+                        page.setNextCookie(lastEntityType, lastId);
+                        exhausted = true;
+
+                        return false;
                     }
 
-                    break;
+                    count++;
+                    lastEntityType = entityType;
+                    lastId = id;
                 }
 
-                default:
-                    break;
+                return true;
             }
 
-        } catch (LdapException e) {
+            @Override
+            public Row get() {
 
-            throw new IllegalArgumentException("Cannot handle attributes correctly.", e);
-        }
+                return cursor.get();
+            }
+
+            @Override
+            public void close()
+                    throws IOException {
+
+                cursor.close();
+            }
+        };
     }
 
-    private MappableCursor<Entry> createEntries(MappableCursor<Row> cursor, Set<String> attributes) {
+    private MappableCursor<Entry> createEntries(MappableCursor<Row> cursor, Set<String> attributes,
+                                                long generation) {
 
         return new MappableCursor<Entry>() {
 
             private boolean initialized = false;
+            private EntityType nextType;
             private String nextId;
             private Entry nextEntry;
+            private boolean nextCached;
             private Entry currentEntry;
 
             @Override
@@ -658,27 +884,26 @@ public class CommonPartition
 
                     initialized = true;
 
-                    if (cursor.next()) {
-
-                        nextId = cursor.get().apply(ColumnNames.ID, String.class);
-                        nextEntry = createEntry(cursor.get(), attributes);
-                        addRelationshipToEntries(nextEntry, cursor.get(), attributes);
-                    }
+                    if (cursor.next())
+                        startEntry(cursor.get());
                 }
 
+                EntityType currentType = nextType;
+                String currentId = nextId;
+                boolean currentCached = nextCached;
+
                 currentEntry = nextEntry;
 
                 while (cursor.next()) {
 
                     if (cursor.get().apply(ColumnNames.ID, String.class).equals(nextId)) {
 
-                        addRelationshipToEntries(currentEntry, cursor.get(), attributes);
+                        if (!currentCached)
+                            addRelationshipToEntries(currentEntry, cursor.get(), attributes);
 
                     } else {
 
-                        nextId = cursor.get().apply(ColumnNames.ID, String.class);
-                        nextEntry = createEntry(cursor.get(), attributes);
-                        addRelationshipToEntries(nextEntry, cursor.get(), attributes);
+                        startEntry(cursor.get());
                         break;
                     }
                 }
@@ -689,6 +914,9 @@ public class CommonPartition
                     nextEntry = null;
                 }
 
+                if (currentEntry != null && !currentCached && isCacheable(currentType))
+                    entryCache.put(currentType, currentId, attributes, currentEntry, generation);
+
                 return currentEntry != null;
             }
 
@@ -704,6 +932,103 @@ public class CommonPartition
 
                 cursor.close();
             }
+
+            private void startEntry(Row row) {
+
+                nextType = EntityType.fromString(row.apply(ColumnNames.TYPE, String.class));
+                nextId = row.apply(ColumnNames.ID, String.class);
+                nextEntry = null;
+
+                if (isCacheable(nextType))
+                    nextEntry = entryCache.get(nextType, nextId, attributes).orElse(null);
+
+                nextCached = nextEntry != null;
+
+                if (!nextCached) {
+
+                    nextEntry = createEntry(row, attributes);
+                    addRelationshipToEntries(nextEntry, row, attributes);
+                }
+            }
         };
     }
+
+    private boolean isCacheable(EntityType entityType) {
+
+        return entryCache != null && (entityType == EntityType.GROUP || entityType == EntityType.USER);
+    }
+
+    private static class Page {
+
+        private static final String COOKIE_SEPARATOR = ":";
+
+        private final EntityType lastEntityType;
+        private final String lastId;
+        private final int size;
+        private final PagedResults response;
+
+        private Page(EntityType lastEntityType, String lastId, int size, PagedResults response) {
+
+            this.lastEntityType = lastEntityType;
+            this.lastId = lastId;
+            this.size = size;
+            this.response = response;
+        }
+
+        public static Page unlimited() {
+
+            return new Page(null, null, 0, null);
+        }
+
+        public static Page fromCookie(byte[] cookie, int size, PagedResults response)
+                throws LdapException {
+
+            if (Strings.isEmpty(cookie))
+                return new Page(null, null, size, response);
+
+            // the cookie carries the position of the last entry of the previous page
+            String position = Strings.utf8ToString(cookie);
+            int index = position.indexOf(COOKIE_SEPARATOR);
+
+            try {
+
+                if (index < 0)
+                    throw new IllegalArgumentException("Cannot find separator in page cookie.");
+
+                return new Page(EntityType.fromString(position.substring(0, index)), position.substring(index + 1),
+                        size, response);
+
+            } catch (IllegalArgumentException e) {
+
+                throw new LdapOperationException(ResultCodeEnum.UNWILLING_TO_PERFORM,
+                        "Cannot accept invalid cookie for paged results.", e);
+            }
+        }
+
+        public int getSize() {
+
+            return size;
+        }
+
+        public boolean reaches(EntityType entityType) {
+
+            return lastEntityType == null || entityType.compareTo(lastEntityType) >= 0;
+        }
+
+        public boolean isAfter(EntityType entityType, String id) {
+
+            return lastEntityType == null || entityType.compareTo(lastEntityType) > 0 ||
+                    entityType == lastEntityType && id.compareTo(lastId) > 0;
+        }
+
+        public String getLastId(EntityType entityType) {
+
+            return entityType == lastEntityType ? lastId : null;
+        }
+
+        public void setNextCookie(EntityType entityType, String id) {
+
+            response.setCookie(Strings.getBytesUtf8(entityType + COOKIE_SEPARATOR + id));
+        }
+    }
 }
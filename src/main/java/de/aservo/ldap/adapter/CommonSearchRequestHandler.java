@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.*;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortResponse;
+import org.apache.directory.api.ldap.model.message.controls.SortResponseImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortResultCode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
+import org.apache.directory.server.ldap.handlers.request.SearchRequestHandler;
+
+
+/**
+ * A search request handler that passes the paged results control and the server side sort control through to
+ * partitions of type {@link CommonPartition}. The cookie of each page describes the position of its last entry, so
+ * that no cursor is held in the session between pages, and sorted entries are streamed in the order of the database
+ * instead of being sorted in memory. All other search requests are handled by the default search request handler.
+ */
+public class CommonSearchRequestHandler
+        extends LdapRequestHandler<SearchRequest> {
+
+    private final SearchRequestHandler defaultHandler = new SearchRequestHandler();
+
+    public CommonSearchRequestHandler() {
+    }
+
+    public void handle(LdapSession session, SearchRequest searchRequest)
+            throws Exception {
+
+        PagedResults pagedResults = (PagedResults) searchRequest.getControl(PagedResults.OID);
+        SortRequest sortRequest = (SortRequest) searchRequest.getControl(SortRequest.OID);
+
+        if (!supportsControls(session, searchRequest.getBase(), pagedResults, sortRequest)) {
+
+            defaultHandler.setLdapServer(getLdapServer());
+            defaultHandler.handle(session, searchRequest);
+
+            return;
+        }
+
+        SearchResultDone searchResultDone = (SearchResultDone) searchRequest.getResultResponse();
+
+        try {
+
+            searchResultDone.getLdapResult().setResultCode(ResultCodeEnum.SUCCESS);
+            searchResultDone.addAllControls(search(session, searchRequest, searchResultDone.getLdapResult(),
+                    pagedResults, sortRequest));
+            session.getIoSession().write(searchResultDone);
+
+        } catch (Exception e) {
+
+            handleException(session, searchRequest, searchResultDone, e);
+        }
+    }
+
+    private Control[] search(LdapSession session, SearchRequest searchRequest, LdapResult ldapResult,
+                             PagedResults pagedResults, SortRequest sortRequest)
+            throws LdapException {
+
+        long maxSizeLimit = getLdapServer().getMaxSizeLimit();
+        long sizeLimit = computeSizeLimit(session, searchRequest);
+        long timeLimit = computeTimeLimit(session, searchRequest);
+        long deadline = timeLimit == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeLimit * 1000L;
+        long count = 0;
+
+        // a page size of zero abandons the paged search
+        if (pagedResults != null && pagedResults.getSize() == 0)
+            return new Control[]{new PagedResultsImpl()};
+
+        if (pagedResults != null && maxSizeLimit > 0 && pagedResults.getSize() > maxSizeLimit)
+            pagedResults.setSize((int) maxSizeLimit);
+
+        SearchOperationContext searchContext = new SearchOperationContext(session.getCoreSession(), searchRequest);
+        DirectoryService directoryService = session.getCoreSession().getDirectoryService();
+
+        try (EntryFilteringCursor cursor = directoryService.getOperationManager().search(searchContext)) {
+
+            while (!searchRequest.isAbandoned() && cursor.next()) {
+
+                if (sizeLimit != 0 && count >= sizeLimit) {
+
+                    ldapResult.setResultCode(ResultCodeEnum.SIZE_LIMIT_EXCEEDED);
+
+                    break;
+                }
+
+                if (System.currentTimeMillis() > deadline) {
+
+                    ldapResult.setResultCode(ResultCodeEnum.TIME_LIMIT_EXCEEDED);
+
+                    break;
+                }
+
+                Entry entry = cursor.get();
+                SearchResultEntry searchResultEntry = new SearchResultEntryImpl(searchRequest.getMessageId());
+
+                searchResultEntry.setEntry(entry);
+                searchResultEntry.setObjectName(entry.getDn());
+                session.getIoSession().write(searchResultEntry);
+                count++;
+            }
+
+        } catch (LdapException e) {
+
+            throw e;
+
+        } catch (Exception e) {
+
+            throw new LdapException(e);
+        }
+
+        // searches for a single entry do not provide response controls
+        if (pagedResults != null && !searchContext.hasResponseControl(PagedResults.OID))
+            searchContext.addResponseControl(new PagedResultsImpl());
+
+        if (sortRequest != null && !searchContext.hasResponseControl(SortResponse.OID)) {
+
+            SortResponse sortResponse = new SortResponseImpl();
+
+            sortResponse.setSortResult(SortResultCode.SUCCESS);
+            searchContext.addResponseControl(sortResponse);
+        }
+
+        return searchContext.getResponseControls();
+    }
+
+    private long computeSizeLimit(LdapSession session, SearchRequest searchRequest) {
+
+        long requestLimit = searchRequest.getSizeLimit();
+        long serverLimit = getLdapServer().getMaxSizeLimit();
+
+        // administrators are only limited by their own request like in the default search request handler
+        if (session.getCoreSession().isAnAdministrator() || serverLimit == 0)
+            return requestLimit;
+
+        if (requestLimit == 0)
+            return serverLimit;
+
+        return Math.min(requestLimit, serverLimit);
+    }
+
+    private long computeTimeLimit(LdapSession session, SearchRequest searchRequest) {
+
+        long requestLimit = searchRequest.getTimeLimit();
+        long serverLimit = getLdapServer().getMaxTimeLimit();
+
+        if (session.getCoreSession().isAnAdministrator() || serverLimit == 0)
+            return requestLimit;
+
+        if (requestLimit == 0)
+            return serverLimit;
+
+        return Math.min(requestLimit, serverLimit);
+    }
+
+    private boolean supportsControls(LdapSession session, Dn dn, PagedResults pagedResults,
+                                     SortRequest sortRequest) {
+
+        if (pagedResults == null && sortRequest == null)
+            return false;
+
+        try {
+
+            DirectoryService directoryService = session.getCoreSession().getDirectoryService();
+            Partition partition = directoryService.getPartitionNexus().getPartition(dn);
+
+            return partition instanceof CommonPartition &&
+                    ((CommonPartition) partition).supportsControls(
+                            new Dn(directoryService.getSchemaManager(), dn.getName()), pagedResults, sortRequest);
+
+        } catch (LdapException e) {
+
+            return false;
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package de.aservo.ldap.adapter;
 
 import de.aservo.ldap.adapter.api.directory.DirectoryBackend;
+import de.aservo.ldap.adapter.api.directory.EntityChangeListener;
 import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
 
 import java.util.List;
@@ -88,6 +89,11 @@ public class DirectoryBackendFactory {
         });
     }
 
+    public boolean addEntityChangeListener(EntityChangeListener listener) {
+
+        return directoryBackend.addEntityChangeListener(listener);
+    }
+
     public void startup() {
 
         directoryBackend.startup();
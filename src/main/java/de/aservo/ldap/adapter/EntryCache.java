@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter;
+
+import de.aservo.ldap.adapter.api.directory.EntityChangeListener;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+import java.util.*;
+
+
+/**
+ * A bounded and thread-safe cache for fully built LDAP entries of groups and users keyed by the entity and the set of
+ * requested attributes. Each set of requested attributes counts as a separate entry against the limit, and the least
+ * recently used entry is evicted. The cache is kept up-to-date by modification notifications of the directory backend.
+ * Entries are copied on the way in and out, so that callers are free to modify them.
+ */
+public class EntryCache
+        implements EntityChangeListener {
+
+    private final Map<Pair<Pair<EntityType, String>, Set<String>>, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Pair<EntityType, String>, Set<Set<String>>> variants = new HashMap<>();
+    private final int maxSize;
+    private final boolean flattening;
+    private long generation = 0;
+
+    /**
+     * Instantiates a new entry cache.
+     *
+     * @param maxSize    the maximum number of cached entries over all entities and sets of requested attributes
+     * @param flattening whether memberships are flattened so that a membership affects transitive members
+     */
+    public EntryCache(int maxSize, boolean flattening) {
+
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Expect a positive size for the entry cache.");
+
+        this.maxSize = maxSize;
+        this.flattening = flattening;
+    }
+
+    /**
+     * Gets the current generation, which changes with every modification. Entries built from entities read after
+     * the generation was requested are cached with this generation.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+
+        synchronized (entries) {
+
+            return generation;
+        }
+    }
+
+    /**
+     * Gets a copy of a cached entry.
+     *
+     * @param entityType the entity type
+     * @param id         the entity ID
+     * @param attributes the requested attributes
+     * @return the entry or empty if there is no cached entry
+     */
+    public Optional<Entry> get(EntityType entityType, String id, Set<String> attributes) {
+
+        Entry entry;
+
+        synchronized (entries) {
+
+            entry = entries.get(Pair.of(createKey(entityType, id), attributes));
+        }
+
+        return entry == null ? Optional.empty() : Optional.of(entry.clone());
+    }
+
+    /**
+     * Caches a copy of an entry unless the entity was modified since the given generation. The least recently used
+     * entry is evicted if the limit is exceeded.
+     *
+     * @param entityType the entity type
+     * @param id         the entity ID
+     * @param attributes the requested attributes
+     * @param entry      the entry
+     * @param generation the generation requested before the entity was read
+     */
+    public void put(EntityType entityType, String id, Set<String> attributes, Entry entry, long generation) {
+
+        Pair<EntityType, String> key = createKey(entityType, id);
+        Set<String> attributeSet = Set.copyOf(attributes);
+        Entry copy = entry.clone();
+
+        synchronized (entries) {
+
+            if (this.generation != generation)
+                return;
+
+            variants.computeIfAbsent(key, x -> new HashSet<>()).add(attributeSet);
+            entries.put(Pair.of(key, attributeSet), copy);
+
+            // the entries are in access order, so the first one is the least recently used
+            if (entries.size() > maxSize) {
+
+                Iterator<Pair<Pair<EntityType, String>, Set<String>>> iterator = entries.keySet().iterator();
+
+                removeVariant(iterator.next());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cached entries over all entities and sets of requested attributes.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+
+        synchronized (entries) {
+
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void entityChanged(EntityType entityType, String id) {
+
+        synchronized (entries) {
+
+            generation++;
+            removeEntity(createKey(entityType, id));
+        }
+    }
+
+    @Override
+    public void membershipChanged(MembershipEntity membership) {
+
+        if (flattening) {
+
+            allEntitiesChanged();
+
+            return;
+        }
+
+        synchronized (entries) {
+
+            generation++;
+            removeEntity(createKey(EntityType.GROUP, membership.getParentGroupId()));
+
+            for (String id : membership.getMemberGroupIds())
+                removeEntity(createKey(EntityType.GROUP, id));
+
+            for (String id : membership.getMemberUserIds())
+                removeEntity(createKey(EntityType.USER, id));
+        }
+    }
+
+    @Override
+    public void allEntitiesChanged() {
+
+        synchronized (entries) {
+
+            generation++;
+            entries.clear();
+            variants.clear();
+        }
+    }
+
+    private void removeEntity(Pair<EntityType, String> key) {
+
+        Set<Set<String>> attributeSets = variants.remove(key);
+
+        if (attributeSets == null)
+            return;
+
+        for (Set<String> attributes : attributeSets)
+            entries.remove(Pair.of(key, attributes));
+    }
+
+    private void removeVariant(Pair<Pair<EntityType, String>, Set<String>> key) {
+
+        Set<Set<String>> attributeSets = variants.get(key.getLeft());
+
+        if (attributeSets != null) {
+
+            attributeSets.remove(key.getRight());
+
+            if (attributeSets.isEmpty())
+                variants.remove(key.getLeft());
+        }
+    }
+
+    private Pair<EntityType, String> createKey(EntityType entityType, String id) {
+
+        // IDs of membership entities are not necessarily normalized
+        return Pair.of(entityType, id.toLowerCase());
+    }
+}
@@ -63,6 +63,18 @@ public class ServerConfiguration {
      * The constant CONFIG_RESPONSE_MAX_TIME_LIMIT.
      */
     public static final String CONFIG_RESPONSE_MAX_TIME_LIMIT = "mode.response.max-time-limit";
+    /**
+     * The constant CONFIG_RESPONSE_PREFETCH_SIZE.
+     */
+    public static final String CONFIG_RESPONSE_PREFETCH_SIZE = "mode.response.prefetch-size";
+    /**
+     * The constant CONFIG_RESPONSE_PREFETCH_THREADS.
+     */
+    public static final String CONFIG_RESPONSE_PREFETCH_THREADS = "mode.response.prefetch-threads";
+    /**
+     * The constant CONFIG_RESPONSE_ENTRY_CACHE_SIZE.
+     */
+    public static final String CONFIG_RESPONSE_ENTRY_CACHE_SIZE = "mode.response.entry-cache-size";
     /**
      * The constant CONFIG_CONNECTION_BACK_LOG.
      */
@@ -110,6 +122,9 @@ public class ServerConfiguration {
     private final boolean flattening;
     private final int responseMaxSizeLimit;
     private final int responseMaxTimeLimit;
+    private final int responsePrefetchSize;
+    private final int responsePrefetchThreads;
+    private final int responseEntryCacheSize;
     private final int connectionBackLog;
     private final int connectionActiveThreads;
     private final List<String> permanentDirectoryBackendClasses;
@@ -173,6 +188,15 @@ public class ServerConfiguration {
         responseMaxTimeLimit =
                 Integer.parseInt(serverProperties.getProperty(CONFIG_RESPONSE_MAX_SIZE_LIMIT, "1000"));
 
+        responsePrefetchSize =
+                Integer.parseInt(serverProperties.getProperty(CONFIG_RESPONSE_PREFETCH_SIZE, "0"));
+
+        responsePrefetchThreads =
+                Integer.parseInt(serverProperties.getProperty(CONFIG_RESPONSE_PREFETCH_THREADS, "8"));
+
+        responseEntryCacheSize =
+                Integer.parseInt(serverProperties.getProperty(CONFIG_RESPONSE_ENTRY_CACHE_SIZE, "10000"));
+
         connectionBackLog =
                 Integer.parseInt(serverProperties.getProperty(CONFIG_CONNECTION_BACK_LOG, "100"));
 
@@ -183,6 +207,18 @@ public class ServerConfiguration {
             throw new IllegalArgumentException("Expect value for " +
                     CONFIG_RESPONSE_MAX_SIZE_LIMIT + " greater than zero.");
 
+        if (responsePrefetchSize < 0)
+            throw new IllegalArgumentException("Expect value for " +
+                    CONFIG_RESPONSE_PREFETCH_SIZE + " greater than or equal to zero.");
+
+        if (responsePrefetchThreads <= 0)
+            throw new IllegalArgumentException("Expect value for " +
+                    CONFIG_RESPONSE_PREFETCH_THREADS + " greater than zero.");
+
+        if (responseEntryCacheSize < 0)
+            throw new IllegalArgumentException("Expect value for " +
+                    CONFIG_RESPONSE_ENTRY_CACHE_SIZE + " greater than or equal to zero.");
+
         String permanentDirectoryBackendClassesValue = serverProperties.getProperty(CONFIG_DIRECTORY_BACKEND_PERMANENT);
         String sessionDirectoryBackendClassesValue = serverProperties.getProperty(CONFIG_DIRECTORY_BACKEND_SESSION);
 
@@ -312,6 +348,37 @@ public class ServerConfiguration {
         return responseMaxTimeLimit;
     }
 
+    /**
+     * Gets the number of rows buffered for each concurrently executed query of a search.
+     * The queries do not share a transaction, so groups and users may reflect different synchronization runs.
+     *
+     * @return the number of rows or zero if the queries are executed one after another
+     */
+    public int getResponsePrefetchSize() {
+
+        return responsePrefetchSize;
+    }
+
+    /**
+     * Gets the maximum number of threads executing queries of searches concurrently.
+     *
+     * @return the number of threads
+     */
+    public int getResponsePrefetchThreads() {
+
+        return responsePrefetchThreads;
+    }
+
+    /**
+     * Gets the maximum number of built entries of groups and users which are cached.
+     *
+     * @return the number of entries or zero if entries are not cached
+     */
+    public int getResponseEntryCacheSize() {
+
+        return responseEntryCacheSize;
+    }
+
     /**
      * Gets the number of incoming requests queued when all the threads are busy.
      *
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+
+/**
+ * A concurrent and bounded cache for parsed and normalized DNs. The cache consists of two generations; new DNs are
+ * added to the young generation and DNs found in the old generation are promoted. Once the young generation is full
+ * it replaces the old generation, whose DNs are evicted. So only DNs which were not requested for a while are evicted.
+ */
+public class DnCache {
+
+    private final int generationSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile Map<String, Dn> youngGeneration = new ConcurrentHashMap<>();
+    private volatile Map<String, Dn> oldGeneration = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new DN cache.
+     *
+     * @param maxSize the maximum number of cached DNs
+     */
+    public DnCache(int maxSize) {
+
+        generationSize = Math.max(1, maxSize / 2);
+    }
+
+    /**
+     * Gets a cached DN or creates and caches a new one.
+     *
+     * @param schemaManager the schema manager the DN is normalized with
+     * @param key           the key which identifies the DN together with the schema manager
+     * @param supplier      the supplier for a new DN
+     * @return the DN
+     */
+    public Dn get(SchemaManager schemaManager, String key, Supplier<Dn> supplier) {
+
+        Map<String, Dn> young = youngGeneration;
+        Dn dn = young.get(key);
+
+        if (dn == null) {
+
+            dn = oldGeneration.get(key);
+
+            if (dn != null)
+                young.put(key, dn);
+        }
+
+        // servers with separate schema managers do not share DNs
+        if (dn != null && dn.getSchemaManager() == schemaManager) {
+
+            hits.incrementAndGet();
+
+            return dn;
+        }
+
+        misses.incrementAndGet();
+        dn = supplier.get();
+        young.put(key, dn);
+
+        if (young.size() >= generationSize)
+            rotate(young);
+
+        return dn;
+    }
+
+    /**
+     * Removes all DNs.
+     */
+    public synchronized void clear() {
+
+        evictions.addAndGet(youngGeneration.size() + oldGeneration.size());
+        youngGeneration = new ConcurrentHashMap<>();
+        oldGeneration = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the number of requests answered with a cached DN.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of requests which required the creation of a DN.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+
+        return misses.get();
+    }
+
+    /**
+     * Gets the ratio of hits to all requests.
+     *
+     * @return the hit rate between zero and one
+     */
+    public double getHitRate() {
+
+        long hitCount = hits.get();
+        long requestCount = hitCount + misses.get();
+
+        return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Gets the number of evicted DNs.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+
+        return evictions.get();
+    }
+
+    /**
+     * Gets the approximate number of cached DNs.
+     *
+     * @return the number of DNs
+     */
+    public int size() {
+
+        return youngGeneration.size() + oldGeneration.size();
+    }
+
+    private synchronized void rotate(Map<String, Dn> young) {
+
+        // another thread has already rotated the generations
+        if (youngGeneration != young)
+            return;
+
+        evictions.addAndGet(oldGeneration.size());
+        oldGeneration = young;
+        youngGeneration = new ConcurrentHashMap<>();
+    }
+}
@@ -17,6 +17,7 @@
 
 package de.aservo.ldap.adapter.api;
 
+import de.aservo.ldap.adapter.api.entity.ColumnNames;
 import de.aservo.ldap.adapter.api.entity.DomainEntity;
 import de.aservo.ldap.adapter.api.entity.EntityType;
 import de.aservo.ldap.adapter.api.entity.UnitEntity;
@@ -34,6 +35,7 @@ import org.apache.directory.server.core.api.interceptor.context.FilteringOperati
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 /**
@@ -41,6 +43,8 @@ import java.util.stream.Collectors;
  */
 public class LdapUtils {
 
+    private static final DnCache DN_CACHE = new DnCache(100000);
+
     private LdapUtils() {
     }
 
@@ -63,6 +67,61 @@ public class LdapUtils {
      */
     public static final String MEMBER_OF_AT_OID = "1.2.840.113556.1.2.102";
 
+    /**
+     * The constant SORTABLE_ATTRIBUTES.
+     * Contains the normalized attributes which can be used as sort keys by directory backends.
+     */
+    public static final Set<String> SORTABLE_ATTRIBUTES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                    SchemaConstants.UID_AT_OID,
+                    SchemaConstants.CN_AT_OID,
+                    SchemaConstants.SN_AT_OID,
+                    SchemaConstants.GN_AT_OID,
+                    SchemaConstants.DISPLAY_NAME_AT_OID,
+                    SchemaConstants.MAIL_AT_OID
+            )));
+
+    /**
+     * Gets the column by which entities are sorted for an attribute from {@link #SORTABLE_ATTRIBUTES}.
+     *
+     * @param entityType the entity type
+     * @param attribute  the attribute
+     * @return the column name or null if entities of this type do not have the attribute
+     */
+    public static String getSortColumn(EntityType entityType, String attribute) {
+
+        switch (normalizeAttribute(attribute)) {
+
+            case SchemaConstants.UID_AT_OID:
+
+                return entityType == EntityType.USER ? ColumnNames.ID : null;
+
+            case SchemaConstants.CN_AT_OID:
+
+                return entityType == EntityType.GROUP ? ColumnNames.NAME : ColumnNames.USERNAME;
+
+            case SchemaConstants.SN_AT_OID:
+
+                return entityType == EntityType.USER ? ColumnNames.LAST_NAME : null;
+
+            case SchemaConstants.GN_AT_OID:
+
+                return entityType == EntityType.USER ? ColumnNames.FIRST_NAME : null;
+
+            case SchemaConstants.DISPLAY_NAME_AT_OID:
+
+                return entityType == EntityType.USER ? ColumnNames.DISPLAY_NAME : null;
+
+            case SchemaConstants.MAIL_AT_OID:
+
+                return entityType == EntityType.USER ? ColumnNames.EMAIL : null;
+
+            default:
+
+                throw new IllegalArgumentException("Cannot sort by unsupported attribute " + attribute + ".");
+        }
+    }
+
     /**
      * Creates a DN with suffix.
      *
@@ -105,26 +164,38 @@ public class LdapUtils {
      */
     public static Dn createDn(SchemaManager schemaManager, EntityType entityType, String name, String dcId) {
 
-        try {
+        if (entityType != EntityType.GROUP && entityType != EntityType.USER)
+            return createDn(schemaManager, entityType, dcId);
 
-            switch (entityType) {
+        // DNs are immutable and the same members are referenced by many entries
+        String key = entityType + "," + dcId + "," + name;
+
+        return DN_CACHE.get(schemaManager, key, () -> {
 
-                case GROUP:
+            try {
+
+                if (entityType == EntityType.GROUP)
                     return new Dn(schemaManager, String.format("cn=%s,ou=%s,dc=%s",
                             Rdn.escapeValue(name), LdapUtils.OU_GROUPS, dcId));
 
-                case USER:
-                    return new Dn(schemaManager, String.format("cn=%s,ou=%s,dc=%s",
-                            Rdn.escapeValue(name), LdapUtils.OU_USERS, dcId));
+                return new Dn(schemaManager, String.format("cn=%s,ou=%s,dc=%s",
+                        Rdn.escapeValue(name), LdapUtils.OU_USERS, dcId));
 
-                default:
-                    return createDn(schemaManager, entityType, dcId);
+            } catch (LdapInvalidDnException e) {
+
+                throw new RuntimeException(e);
             }
+        });
+    }
 
-        } catch (LdapInvalidDnException e) {
+    /**
+     * Gets the cache for the DNs of groups and users, for example to request its statistics.
+     *
+     * @return the DN cache
+     */
+    public static DnCache getDnCache() {
 
-            throw new RuntimeException(e);
-        }
+        return DN_CACHE;
     }
 
     /**
@@ -426,6 +497,54 @@ public class LdapUtils {
         }
     }
 
+    /**
+     * Bring a query expression into a canonical form.
+     * Nested conjunctions and disjunctions are flattened and their operands are ordered by shape,
+     * so that equivalent filters with a different operand order result in the same shape.
+     *
+     * @param expression the query expression
+     * @return the transformed query expression
+     */
+    public static QueryExpression normalizeExpression(QueryExpression expression) {
+
+        if (expression instanceof AndLogicExpression) {
+
+            return new AndLogicExpression(normalizeOperands(((AndLogicExpression) expression).getChildren(),
+                    AndLogicExpression.class));
+
+        } else if (expression instanceof OrLogicExpression) {
+
+            return new OrLogicExpression(normalizeOperands(((OrLogicExpression) expression).getChildren(),
+                    OrLogicExpression.class));
+
+        } else if (expression instanceof NotLogicExpression) {
+
+            return new NotLogicExpression(((NotLogicExpression) expression).getChildren().stream()
+                    .map(LdapUtils::normalizeExpression)
+                    .collect(Collectors.toList()));
+
+        } else {
+
+            return expression;
+        }
+    }
+
+    /**
+     * Get the shape of a query expression.
+     * The shape describes logic operations, operators and attributes but omits all values.
+     *
+     * @param expression the query expression
+     * @return the shape as string
+     */
+    public static String getExpressionShape(QueryExpression expression) {
+
+        StringBuilder builder = new StringBuilder();
+
+        appendExpressionShape(builder, expression);
+
+        return builder.toString();
+    }
+
     /**
      * Prepare a domain entity related query expression for a final execution.
      *
@@ -804,4 +923,124 @@ public class LdapUtils {
 
         return attribute;
     }
+
+    /**
+     * Join names to the aggregated form of a column with related names.
+     * The separator and the escape character within names are escaped in the same way as the SQL aggregation does.
+     *
+     * @param names the names
+     * @return the aggregated value or null if there are no names
+     */
+    public static String joinAggregatedNames(Stream<String> names) {
+
+        String escape = ColumnNames.AGGREGATE_ESCAPE;
+
+        String value = names
+                .map(x -> x
+                        .replace(escape, escape + escape)
+                        .replace(ColumnNames.AGGREGATE_SEPARATOR, escape + ColumnNames.AGGREGATE_ESCAPED_SEPARATOR))
+                .sorted()
+                .collect(Collectors.joining(ColumnNames.AGGREGATE_SEPARATOR));
+
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Split the aggregated form of a column with related names.
+     *
+     * @param value the aggregated value
+     * @return the names
+     */
+    public static List<String> splitAggregatedNames(String value) {
+
+        char separator = ColumnNames.AGGREGATE_SEPARATOR.charAt(0);
+        char escape = ColumnNames.AGGREGATE_ESCAPE.charAt(0);
+        char escapedSeparator = ColumnNames.AGGREGATE_ESCAPED_SEPARATOR.charAt(0);
+        List<String> names = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+
+            if (c == escape && i + 1 < value.length()) {
+
+                char next = value.charAt(++i);
+
+                builder.append(next == escapedSeparator ? separator : next);
+
+            } else if (c == separator) {
+
+                names.add(builder.toString());
+                builder.setLength(0);
+
+            } else {
+
+                builder.append(c);
+            }
+        }
+
+        names.add(builder.toString());
+
+        return names;
+    }
+
+    private static List<QueryExpression> normalizeOperands(List<QueryExpression> children,
+                                                           Class<? extends LogicExpression> clazz) {
+
+        List<QueryExpression> operands = new ArrayList<>();
+
+        for (QueryExpression child : children) {
+
+            QueryExpression normalized = normalizeExpression(child);
+
+            if (clazz.isInstance(normalized))
+                operands.addAll(((LogicExpression) normalized).getChildren());
+            else
+                operands.add(normalized);
+        }
+
+        Map<QueryExpression, String> shapes = new IdentityHashMap<>();
+
+        operands.forEach(x -> shapes.put(x, getExpressionShape(x)));
+        operands.sort(Comparator.comparing(shapes::get));
+
+        return operands;
+    }
+
+    private static void appendExpressionShape(StringBuilder builder, QueryExpression expression) {
+
+        if (expression instanceof LogicExpression) {
+
+            if (expression instanceof AndLogicExpression)
+                builder.append("&(");
+            else if (expression instanceof OrLogicExpression)
+                builder.append("|(");
+            else
+                builder.append("!(");
+
+            for (QueryExpression child : ((LogicExpression) expression).getChildren())
+                appendExpressionShape(builder, child);
+
+            builder.append(')');
+
+        } else if (expression instanceof OperatorExpression) {
+
+            OperatorExpression<?> operator = (OperatorExpression<?>) expression;
+
+            builder
+                    .append('(')
+                    .append(normalizeAttribute(operator.getAttribute()))
+                    .append(operator.isNegated() ? "!" : "")
+                    .append(expression.getClass().getSimpleName())
+                    .append(')');
+
+        } else if (expression instanceof BooleanValue) {
+
+            builder.append("(?)");
+
+        } else
+            throw new IllegalArgumentException("Cannot process unexpected query expression " +
+                    expression.getClass().getName());
+    }
 }
@@ -0,0 +1,203 @@
+package de.aservo.ldap.adapter.api.cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+
+/**
+ * A cursor that flattens several cursors like {@link MappableCursor#flatten(java.util.Collection)}, but opens and
+ * reads all of them concurrently. Each cursor is read by its own task into a bounded buffer; the elements are
+ * returned in the same order as with sequential flattening.
+ *
+ * @param <T> the element type
+ */
+public class PrefetchingCursor<T>
+        extends MappableCursor<T> {
+
+    private static final Object END_OF_CURSOR = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final List<BlockingQueue<Object>> buffers = new ArrayList<>();
+    private final List<Future<?>> tasks = new ArrayList<>();
+    private volatile boolean closed = false;
+    private int index = 0;
+    private T element;
+
+    /**
+     * Instantiates a new prefetching cursor and waits until all cursors are opened.
+     *
+     * @param cursorSuppliers the suppliers opening the cursors
+     * @param bufferSize      the maximum number of buffered elements per cursor
+     * @param executor        the executor running the tasks; it must not queue tasks while all threads are busy
+     * @throws RejectedExecutionException if the executor cannot run all tasks; already started tasks are stopped
+     */
+    public PrefetchingCursor(List<Supplier<? extends Cursor<T>>> cursorSuppliers, int bufferSize,
+                             ExecutorService executor) {
+
+        CountDownLatch opened = new CountDownLatch(cursorSuppliers.size());
+
+        for (Supplier<? extends Cursor<T>> cursorSupplier : cursorSuppliers) {
+
+            BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(bufferSize);
+
+            buffers.add(buffer);
+
+            try {
+
+                tasks.add(executor.submit(() -> prefetch(cursorSupplier, buffer, opened)));
+
+            } catch (RejectedExecutionException e) {
+
+                close();
+
+                throw e;
+            }
+        }
+
+        try {
+
+            opened.await();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            closeUnchecked();
+
+            throw new IllegalStateException("Interrupted while opening prefetching cursors.", e);
+        }
+    }
+
+    @Override
+    public boolean next() {
+
+        while (index < buffers.size()) {
+
+            Object value;
+
+            try {
+
+                value = buffers.get(index).take();
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException("Interrupted while waiting for prefetched elements.", e);
+            }
+
+            if (value == END_OF_CURSOR) {
+
+                index++;
+
+            } else if (value instanceof Failure) {
+
+                throw ((Failure) value).exception;
+
+            } else {
+
+                element = (T) value;
+
+                return true;
+            }
+        }
+
+        element = null;
+
+        return false;
+    }
+
+    @Override
+    public T get() {
+
+        return element;
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+
+        // tasks notice the flag while waiting for free buffer space and close their cursors
+        for (Future<?> task : tasks) {
+
+            try {
+
+                task.get();
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            } catch (ExecutionException e) {
+
+                // failures are reported to the reading thread
+            }
+        }
+    }
+
+    private void prefetch(Supplier<? extends Cursor<T>> cursorSupplier, BlockingQueue<Object> buffer,
+                          CountDownLatch opened) {
+
+        Cursor<T> cursor;
+
+        try {
+
+            cursor = cursorSupplier.get();
+
+        } catch (RuntimeException e) {
+
+            offer(buffer, new Failure(e));
+
+            return;
+
+        } finally {
+
+            opened.countDown();
+        }
+
+        try {
+
+            while (!closed && cursor.next())
+                if (!offer(buffer, cursor.get()))
+                    return;
+
+            offer(buffer, END_OF_CURSOR);
+
+        } catch (RuntimeException e) {
+
+            offer(buffer, new Failure(e));
+
+        } finally {
+
+            cursor.closeUnchecked();
+        }
+    }
+
+    private boolean offer(BlockingQueue<Object> buffer, Object value) {
+
+        try {
+
+            while (!closed)
+                if (buffer.offer(value, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                    return true;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    private static class Failure {
+
+        private final RuntimeException exception;
+
+        public Failure(RuntimeException exception) {
+
+            this.exception = exception;
+        }
+    }
+}
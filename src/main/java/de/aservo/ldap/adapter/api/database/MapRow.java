@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.database;
+
+import de.aservo.ldap.adapter.api.database.exception.UnknownColumnException;
+
+import java.util.Map;
+
+
+/**
+ * A row with column values held in a map for directory backends which answer queries without a database.
+ */
+public class MapRow
+        implements Row {
+
+    private final Map<String, Object> columns;
+
+    /**
+     * Instantiates a new map row.
+     *
+     * @param columns the values by column name
+     */
+    public MapRow(Map<String, Object> columns) {
+
+        this.columns = columns;
+    }
+
+    public <T> T apply(String columnName, Class<T> clazz) {
+
+        if (!columns.containsKey(columnName))
+            throw new UnknownColumnException("Cannot find column " + columnName + " in current row.");
+
+        return clazz.cast(columns.get(columnName));
+    }
+
+    public boolean hasColumn(String columnName) {
+
+        return columns.containsKey(columnName);
+    }
+}
@@ -20,6 +20,7 @@ package de.aservo.ldap.adapter.api.database;
 import de.aservo.ldap.adapter.api.database.result.Result;
 
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -51,4 +52,13 @@ public interface QueryDef {
      * @return the result set
      */
     <T extends Result> T execute(Class<T> clazz);
+
+    /**
+     * Executes a query once per set of arguments within a single JDBC batch.
+     * The arguments of each set are merged with the arguments already added to the query.
+     *
+     * @param batchArguments the list of argument sets
+     * @return the number of executed argument sets
+     */
+    int executeBatch(List<Map<String, Object>> batchArguments);
 }
@@ -17,6 +17,8 @@
 
 package de.aservo.ldap.adapter.api.database;
 
+import de.aservo.ldap.adapter.api.database.exception.UnknownColumnException;
+
 
 /**
  * The database row used for type mapping.
@@ -31,4 +33,34 @@ public interface Row {
      * @return the value of a column
      */
     <T> T apply(String columnName, Class<T> clazz);
+
+    /**
+     * Checks if this row contains a column.
+     *
+     * @param columnName the column name
+     * @return true if the column exists
+     */
+    default boolean hasColumn(String columnName) {
+
+        try {
+
+            apply(columnName, Object.class);
+
+        } catch (UnknownColumnException e) {
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a copy of this row which remains valid after the underlying cursor has moved on.
+     *
+     * @return the row copy
+     */
+    default Row copy() {
+
+        return this;
+    }
 }
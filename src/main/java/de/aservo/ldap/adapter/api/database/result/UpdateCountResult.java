@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.database.result;
+
+
+/**
+ * Result for the number of rows changed by a statement.
+ */
+public interface UpdateCountResult
+        extends Result {
+
+    /**
+     * Gets the number of inserted, updated or deleted rows.
+     *
+     * @return the update count
+     */
+    int getUpdateCount();
+}
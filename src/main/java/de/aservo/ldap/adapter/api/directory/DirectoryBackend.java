@@ -17,6 +17,7 @@
 
 package de.aservo.ldap.adapter.api.directory;
 
+import de.aservo.ldap.adapter.api.LdapUtils;
 import de.aservo.ldap.adapter.api.cursor.MappableCursor;
 import de.aservo.ldap.adapter.api.database.Row;
 import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
@@ -24,8 +25,11 @@ import de.aservo.ldap.adapter.api.entity.EntityType;
 import de.aservo.ldap.adapter.api.entity.GroupEntity;
 import de.aservo.ldap.adapter.api.entity.UserEntity;
 import de.aservo.ldap.adapter.api.query.QueryExpression;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 
@@ -58,10 +62,33 @@ public interface DirectoryBackend {
      * @param schemaManager the schema manager
      * @param expression    the query expression
      * @param entityType    the entity type
+     * @param attributes    the normalized attributes requested by the client; an empty set requests all attributes
+     * @return the query generator
+     */
+    default MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager,
+                                                   QueryExpression expression, EntityType entityType,
+                                                   Set<String> attributes) {
+
+        return runQueryExpression(txId, schemaManager, expression, entityType, attributes, null, 0,
+                Collections.emptyList());
+    }
+
+    /**
+     * Runs a query expression for a single page of entities ordered by sort keys and ID.
+     *
+     * @param txId          the transaction ID
+     * @param schemaManager the schema manager
+     * @param expression    the query expression
+     * @param entityType    the entity type
+     * @param attributes    the normalized attributes requested by the client; an empty set requests all attributes
+     * @param lastId        the ID of the last entity of the previous page or null for the first page
+     * @param limit         the maximum number of entities or zero for no limit
+     * @param sortKeys      the sort keys with attributes from {@link LdapUtils#SORTABLE_ATTRIBUTES}
      * @return the query generator
      */
     MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
-                                           EntityType entityType);
+                                           EntityType entityType, Set<String> attributes, String lastId, int limit,
+                                           List<SortKey> sortKeys);
 
     /**
      * Gets group info.
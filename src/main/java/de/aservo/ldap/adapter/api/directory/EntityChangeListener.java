@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.directory;
+
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+
+
+/**
+ * The interface for listeners to modifications of cached entities.
+ * A listener is notified as soon as the modifications are visible to read sessions.
+ */
+public interface EntityChangeListener {
+
+    /**
+     * Handles a modified entity whose memberships are unchanged.
+     *
+     * @param entityType the entity type
+     * @param id         the entity ID
+     */
+    void entityChanged(EntityType entityType, String id);
+
+    /**
+     * Handles an added or removed membership.
+     *
+     * @param membership the membership entity
+     */
+    void membershipChanged(MembershipEntity membership);
+
+    /**
+     * Handles modifications which may affect any entity.
+     */
+    void allEntitiesChanged();
+}
@@ -18,8 +18,14 @@
 package de.aservo.ldap.adapter.api.directory;
 
 import de.aservo.ldap.adapter.api.cursor.MappableCursor;
+import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
 import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Supplier;
 
 
@@ -89,6 +95,50 @@ public interface NestedDirectoryBackend
         return false;
     }
 
+    /**
+     * Check if full updates can be loaded into staging tables before they are published.
+     *
+     * @return the boolean
+     */
+    default boolean supportsStaging() {
+
+        return false;
+    }
+
+    /**
+     * Executes a session in which all upserts and drops are applied to the staging area.
+     * Backends with a separate staging area do not block readers, which keep seeing the published entities;
+     * without it this is a plain write session.
+     *
+     * @param block the supplier object executed within the session
+     * @return the result of the supplier code block
+     */
+    default <T> T withStagingAccess(Supplier<T> block) {
+
+        return withWriteAccess(block);
+    }
+
+    /**
+     * Executes a session in which all upserts and drops are applied to the staging area.
+     *
+     * @param block the runnable object executed within the session
+     */
+    default void withStagingAccess(Runnable block) {
+
+        withStagingAccess(() -> {
+
+            block.run();
+            return null;
+        });
+    }
+
+    /**
+     * Replaces the published entities with the staged ones.
+     * Must be called within a write session, which lasts as long as the staged rows take to copy.
+     */
+    default void publishStagedEntities() {
+    }
+
     /**
      * To keep the cache up-to-date a group entity is updated or inserted.
      *
@@ -159,6 +209,42 @@ public interface NestedDirectoryBackend
         return 0;
     }
 
+    /**
+     * To restore the cache from a snapshot or from downloaded pages the given group entities are updated or inserted.
+     * In contrast to the other upsert methods the entities are not requested from nested backends.
+     *
+     * @param entities the group entities
+     */
+    default void restoreGroups(Collection<GroupEntity> entities) {
+    }
+
+    /**
+     * To restore the cache from a snapshot or from downloaded pages the given user entities are updated or inserted.
+     * In contrast to the other upsert methods the entities are not requested from nested backends.
+     *
+     * @param entities the user entities
+     */
+    default void restoreUsers(Collection<UserEntity> entities) {
+    }
+
+    /**
+     * To keep the cache up-to-date the given group entities are updated or inserted.
+     * In contrast to {@link #upsertGroup(String)} the entities are not requested from nested backends.
+     *
+     * @param entities the group entities
+     */
+    default void upsertGroups(Collection<GroupEntity> entities) {
+    }
+
+    /**
+     * To keep the cache up-to-date the given user entities are updated or inserted.
+     * In contrast to {@link #upsertUser(String)} the entities are not requested from nested backends.
+     *
+     * @param entities the user entities
+     */
+    default void upsertUsers(Collection<UserEntity> entities) {
+    }
+
     /**
      * To keep the cache up-to-date a membership entity is updated or inserted.
      *
@@ -203,10 +289,85 @@ public interface NestedDirectoryBackend
     default void dropMembership(MembershipEntity membership) {
     }
 
+    /**
+     * Registers a listener to modifications of entities.
+     *
+     * @param listener the listener
+     * @return true if the listener is notified about all modifications
+     */
+    default boolean addEntityChangeListener(EntityChangeListener listener) {
+
+        return false;
+    }
+
     /**
      * Returns a cursor for membership entities.
      *
      * @return the cursor with membership elements
      */
     MappableCursor<MembershipEntity> getMemberships();
+
+    /**
+     * Returns a cursor for the direct memberships as seen by the read methods of this backend.
+     * Unlike {@link #getMemberships()}, which caching backends pass to the backend which is the source of the cached
+     * entities, caching backends read the memberships from their cache.
+     *
+     * @return the cursor with membership elements
+     */
+    default MappableCursor<MembershipEntity> getDirectMemberships() {
+
+        return getMemberships();
+    }
+
+    /**
+     * Requests the current group entities from the backend which is the source of the cached entities.
+     * Caching backends pass the request to their nested backend. Groups which do not exist are skipped.
+     *
+     * @param ids the group IDs
+     * @return the group entities
+     */
+    default Set<GroupEntity> fetchGroups(Collection<String> ids) {
+
+        Set<GroupEntity> entities = new HashSet<>();
+
+        for (String id : ids) {
+
+            try {
+
+                entities.add(getGroup(id));
+
+            } catch (EntityNotFoundException e) {
+
+                // the group was removed in the meantime
+            }
+        }
+
+        return entities;
+    }
+
+    /**
+     * Requests the current user entities from the backend which is the source of the cached entities.
+     * Caching backends pass the request to their nested backend. Users which do not exist are skipped.
+     *
+     * @param ids the user IDs
+     * @return the user entities
+     */
+    default Set<UserEntity> fetchUsers(Collection<String> ids) {
+
+        Set<UserEntity> entities = new HashSet<>();
+
+        for (String id : ids) {
+
+            try {
+
+                entities.add(getUser(id));
+
+            } catch (EntityNotFoundException e) {
+
+                // the user was removed in the meantime
+            }
+        }
+
+        return entities;
+    }
 }
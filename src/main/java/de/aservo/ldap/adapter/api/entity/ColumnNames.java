@@ -29,4 +29,7 @@ public interface ColumnNames {
     String DISPLAY_NAME = "display_name";
     String EMAIL = "email";
     String ACTIVE = "active";
+    String AGGREGATE_SEPARATOR = "\u001e";
+    String AGGREGATE_ESCAPE = "\u001f";
+    String AGGREGATE_ESCAPED_SEPARATOR = "\u001d";
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.entity;
+
+import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.database.MapRow;
+import de.aservo.ldap.adapter.api.database.Row;
+import de.aservo.ldap.adapter.api.membership.MembershipLookup;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+
+import java.util.*;
+import java.util.function.Function;
+
+
+/**
+ * Builds the rows and the sort order of query results for directory backends which keep their entities in memory.
+ * The rows have the columns of the SQL based cache with related names in their aggregated form.
+ */
+public class EntityRowBuilder {
+
+    private final boolean flattening;
+    private final Function<String, ? extends GroupEntity> groupLookup;
+    private final Function<String, ? extends UserEntity> userLookup;
+    private final MembershipLookup membershipLookup;
+
+    /**
+     * Instantiates a new row builder for one consistent state of a directory backend.
+     *
+     * @param flattening       the flag to resolve nested memberships of users
+     * @param groupLookup      the lookup of groups by ID which returns null for unknown groups
+     * @param userLookup       the lookup of users by ID which returns null for unknown or hidden users
+     * @param membershipLookup the lookup of memberships
+     */
+    public EntityRowBuilder(boolean flattening, Function<String, ? extends GroupEntity> groupLookup,
+                            Function<String, ? extends UserEntity> userLookup, MembershipLookup membershipLookup) {
+
+        this.flattening = flattening;
+        this.groupLookup = groupLookup;
+        this.userLookup = userLookup;
+        this.membershipLookup = membershipLookup;
+    }
+
+    /**
+     * Gets a page of entities in the iteration order of a collection. Like with Crowd a page beyond the last entity
+     * is empty.
+     *
+     * @param entities   the entities
+     * @param startIndex the index of the first entity of the page
+     * @param maxResults the maximum number of entities of the page
+     * @return the entities of the page
+     */
+    public static <T> Set<T> getPage(Collection<T> entities, int startIndex, int maxResults) {
+
+        List<T> list = new ArrayList<>(entities);
+
+        return new HashSet<>(list.subList(Math.min(startIndex, list.size()),
+                (int) Math.min((long) startIndex + maxResults, list.size())));
+    }
+
+    /**
+     * Creates a comparator for entity IDs by sort keys with the ID as last sort key.
+     *
+     * @param entityType the entity type
+     * @param sortKeys   the sort keys
+     * @return the comparator
+     */
+    public Comparator<String> createComparator(EntityType entityType, List<SortKey> sortKeys) {
+
+        Comparator<String> comparator = (x, y) -> 0;
+
+        for (SortKey sortKey : sortKeys) {
+
+            String column = LdapUtils.getSortColumn(entityType, sortKey.getAttributeTypeDesc());
+
+            // entities of this type without the attribute are equal in respect of this sort key
+            if (column == null)
+                continue;
+
+            // like in the SQL based cache missing values are ordered as if they were greater than all other values,
+            // so they come first for reverse sort keys as required by RFC 2891
+            Comparator<String> keyComparator =
+                    Comparator.comparing((String x) -> Optional.ofNullable(findEntity(entityType, x)
+                                    .apply(column, String.class))
+                                    .map(String::toLowerCase)
+                                    .orElse(null),
+                            Comparator.nullsLast(Comparator.naturalOrder()));
+
+            comparator = comparator.thenComparing(sortKey.isReverseOrder() ? keyComparator.reversed() : keyComparator);
+        }
+
+        // the ID is always the last sort key
+        return comparator.thenComparing(Comparator.naturalOrder());
+    }
+
+    /**
+     * Creates the row of an entity with the related names needed for the requested attributes.
+     *
+     * @param entityType the entity type
+     * @param id         the entity ID
+     * @param attributes the requested attributes or an empty set for all attributes
+     * @return the row
+     */
+    public Row createRow(EntityType entityType, String id, Set<String> attributes) {
+
+        Map<String, Object> columns = new HashMap<>();
+        boolean withMembers = attributes.isEmpty() || attributes.contains(SchemaConstants.MEMBER_AT_OID);
+        boolean withParents = attributes.isEmpty() || attributes.contains(LdapUtils.MEMBER_OF_AT_OID);
+
+        columns.put(ColumnNames.TYPE, entityType.toString().toLowerCase());
+        columns.put(ColumnNames.ID, id);
+
+        if (entityType == EntityType.GROUP) {
+
+            GroupEntity entity = groupLookup.apply(id);
+
+            columns.put(ColumnNames.NAME, entity.getName());
+            columns.put(ColumnNames.DESCRIPTION, entity.getDescription());
+
+            // related names are passed in the aggregated form of the SQL based cache
+            if (withParents && !flattening) {
+
+                columns.put("parent_group_names",
+                        aggregateGroupNames(membershipLookup.getDirectParentGroupIds(id)));
+            }
+
+            if (withMembers && !flattening) {
+
+                columns.put("member_group_names",
+                        aggregateGroupNames(membershipLookup.getDirectChildGroupIds(id)));
+            }
+
+            if (withMembers) {
+
+                Set<String> userIds =
+                        flattening
+                                ? membershipLookup.getTransitiveUserIdsOfGroup(id)
+                                : membershipLookup.getDirectUserIdsOfGroup(id);
+
+                columns.put("member_user_usernames", LdapUtils.joinAggregatedNames(userIds.stream()
+                        .map(userLookup)
+                        .filter(Objects::nonNull)
+                        .map(UserEntity::getUsername)));
+            }
+
+        } else {
+
+            UserEntity entity = userLookup.apply(id);
+
+            columns.put(ColumnNames.USERNAME, entity.getUsername());
+            columns.put(ColumnNames.LAST_NAME, entity.getLastName());
+            columns.put(ColumnNames.FIRST_NAME, entity.getFirstName());
+            columns.put(ColumnNames.DISPLAY_NAME, entity.getDisplayName());
+            columns.put(ColumnNames.EMAIL, entity.getEmail());
+            columns.put(ColumnNames.ACTIVE, entity.isActive());
+
+            if (withParents) {
+
+                Set<String> groupIds =
+                        flattening
+                                ? membershipLookup.getTransitiveGroupIdsOfUser(id)
+                                : membershipLookup.getDirectGroupIdsOfUser(id);
+
+                columns.put("parent_group_names", aggregateGroupNames(groupIds));
+            }
+        }
+
+        return new MapRow(columns);
+    }
+
+    private Entity findEntity(EntityType entityType, String id) {
+
+        return entityType == EntityType.GROUP ? groupLookup.apply(id) : userLookup.apply(id);
+    }
+
+    private String aggregateGroupNames(Set<String> groupIds) {
+
+        return LdapUtils.joinAggregatedNames(groupIds.stream()
+                .map(groupLookup)
+                .filter(Objects::nonNull)
+                .map(GroupEntity::getName));
+    }
+}
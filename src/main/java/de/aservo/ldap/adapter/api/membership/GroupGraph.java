@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.membership;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+
+/**
+ * A cycle-safe graph of groups and their member groups with dense int values as group IDs. The strongly connected
+ * components are computed once when the graph is created, so groups which are members of each other collapse to a
+ * single node of an acyclic graph. The groups reachable from a component are resolved once on demand from the
+ * already resolved components below or above it and are shared by all groups of the component.
+ * The graph is immutable and can be used by several threads at once.
+ */
+public class GroupGraph {
+
+    private final int[] components;
+    private final int[][] members;
+    private final int[][] childComponents;
+    private final int[][] parentComponents;
+    private final boolean[] cyclic;
+    private final Map<Integer, IdBitmap> descendants = new ConcurrentHashMap<>();
+    private final Map<Integer, IdBitmap> ancestors = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new graph.
+     *
+     * @param size        the number of groups; the groups are the values from zero to size - 1
+     * @param childGroups the direct member groups of a group
+     */
+    public GroupGraph(int size, IntFunction<IdBitmap> childGroups) {
+
+        int[][] edges = new int[size][];
+
+        for (int group = 0; group < size; group++)
+            edges[group] = toArray(childGroups.apply(group));
+
+        components = new int[size];
+
+        int componentCount = findComponents(edges);
+
+        members = groupMembers(componentCount);
+        cyclic = new boolean[componentCount];
+        childComponents = new int[componentCount][];
+        parentComponents = new int[componentCount][];
+
+        IdBitmap[] children = new IdBitmap[componentCount];
+        IdBitmap[] parents = new IdBitmap[componentCount];
+
+        for (int component = 0; component < componentCount; component++) {
+
+            children[component] = new IdBitmap();
+            parents[component] = new IdBitmap();
+            cyclic[component] = members[component].length > 1;
+        }
+
+        for (int group = 0; group < size; group++) {
+
+            int component = components[group];
+
+            for (int child : edges[group]) {
+
+                int childComponent = components[child];
+
+                // a group which is a member of itself forms a cycle as well
+                if (childComponent == component) {
+
+                    cyclic[component] = true;
+
+                } else {
+
+                    children[component].add(childComponent);
+                    parents[childComponent].add(component);
+                }
+            }
+        }
+
+        for (int component = 0; component < componentCount; component++) {
+
+            childComponents[component] = toArray(children[component]);
+            parentComponents[component] = toArray(parents[component]);
+        }
+    }
+
+    /**
+     * Gets the number of groups.
+     *
+     * @return the number of groups
+     */
+    public int size() {
+
+        return components.length;
+    }
+
+    /**
+     * Gets the number of strongly connected components.
+     *
+     * @return the number of components
+     */
+    public int getComponentCount() {
+
+        return members.length;
+    }
+
+    /**
+     * Gets the strongly connected component of a group. All groups of a component share their transitive relations.
+     *
+     * @param group the group
+     * @return the component
+     */
+    public int getComponent(int group) {
+
+        return components[group];
+    }
+
+    /**
+     * Checks whether a group is part of a membership cycle.
+     *
+     * @param group the group
+     * @return true if the group is a direct or nested member of itself
+     */
+    public boolean isCyclic(int group) {
+
+        return cyclic[components[group]];
+    }
+
+    /**
+     * Gets the direct and nested member groups of a group. The group itself is included if it is part of a cycle.
+     * The bitmap is shared and must not be modified.
+     *
+     * @param group the group
+     * @return the member groups
+     */
+    public IdBitmap getDescendants(int group) {
+
+        return resolve(components[group], childComponents, descendants);
+    }
+
+    /**
+     * Gets the direct and nested parent groups of a group. The group itself is included if it is part of a cycle.
+     * The bitmap is shared and must not be modified.
+     *
+     * @param group the group
+     * @return the parent groups
+     */
+    public IdBitmap getAncestors(int group) {
+
+        return resolve(components[group], parentComponents, ancestors);
+    }
+
+    /**
+     * Estimates the number of bytes allocated by the components and the resolved relations.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+
+        long size = 16 + 4L * components.length + 4L * components.length + 2L * 16 * members.length;
+
+        for (int component = 0; component < members.length; component++)
+            size += 16 + 4L * (members[component].length + childComponents[component].length +
+                    parentComponents[component].length);
+
+        for (Map<Integer, IdBitmap> relation : Arrays.asList(descendants, ancestors)) {
+
+            // a map entry with its boxed key
+            size += 64L * relation.size();
+
+            for (IdBitmap bitmap : relation.values())
+                size += bitmap.getSizeInBytes();
+        }
+
+        return size;
+    }
+
+    private int findComponents(int[][] edges) {
+
+        int size = edges.length;
+        int[] index = new int[size];
+        int[] lowLink = new int[size];
+        int[] nextEdge = new int[size];
+        int[] path = new int[size];
+        int[] stack = new int[size];
+        boolean[] onStack = new boolean[size];
+        int nextIndex = 0;
+        int stackSize = 0;
+        int componentCount = 0;
+
+        Arrays.fill(index, -1);
+
+        // Tarjan's algorithm with an explicit path instead of recursion, so deep hierarchies cannot overflow the stack
+        for (int root = 0; root < size; root++) {
+
+            if (index[root] >= 0)
+                continue;
+
+            int depth = 0;
+
+            path[0] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+
+                int group = path[depth];
+
+                if (nextEdge[group] < edges[group].length) {
+
+                    int child = edges[group][nextEdge[group]++];
+
+                    if (index[child] < 0) {
+
+                        path[++depth] = child;
+                        index[child] = lowLink[child] = nextIndex++;
+                        stack[stackSize++] = child;
+                        onStack[child] = true;
+
+                    } else if (onStack[child]) {
+
+                        lowLink[group] = Math.min(lowLink[group], index[child]);
+                    }
+
+                } else {
+
+                    if (lowLink[group] == index[group]) {
+
+                        int member;
+
+                        do {
+
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+                            components[member] = componentCount;
+
+                        } while (member != group);
+
+                        componentCount++;
+                    }
+
+                    if (--depth >= 0)
+                        lowLink[path[depth]] = Math.min(lowLink[path[depth]], lowLink[group]);
+                }
+            }
+        }
+
+        return componentCount;
+    }
+
+    private int[][] groupMembers(int componentCount) {
+
+        int[] counts = new int[componentCount];
+        int[][] result = new int[componentCount][];
+
+        for (int component : components)
+            counts[component]++;
+
+        for (int component = 0; component < componentCount; component++)
+            result[component] = new int[counts[component]];
+
+        Arrays.fill(counts, 0);
+
+        for (int group = 0; group < components.length; group++)
+            result[components[group]][counts[components[group]]++] = group;
+
+        return result;
+    }
+
+    private IdBitmap resolve(int component, int[][] relatedComponents, Map<Integer, IdBitmap> resolved) {
+
+        IdBitmap result = resolved.get(component);
+
+        if (result != null)
+            return result;
+
+        Deque<Integer> pending = new ArrayDeque<>();
+
+        pending.push(component);
+
+        // the components are resolved bottom-up without recursion; the condensed graph has no cycles
+        while (!pending.isEmpty()) {
+
+            int next = pending.peek();
+
+            if (resolved.containsKey(next)) {
+
+                pending.pop();
+                continue;
+            }
+
+            boolean complete = true;
+
+            for (int related : relatedComponents[next]) {
+
+                if (!resolved.containsKey(related)) {
+
+                    pending.push(related);
+                    complete = false;
+                }
+            }
+
+            if (!complete)
+                continue;
+
+            pending.pop();
+
+            IdBitmap bitmap = new IdBitmap();
+
+            if (cyclic[next])
+                for (int group : members[next])
+                    bitmap.add(group);
+
+            for (int related : relatedComponents[next]) {
+
+                for (int group : members[related])
+                    bitmap.add(group);
+
+                bitmap.or(resolved.get(related));
+            }
+
+            resolved.putIfAbsent(next, bitmap);
+        }
+
+        return resolved.get(component);
+    }
+
+    private static int[] toArray(IdBitmap bitmap) {
+
+        int[] result = new int[bitmap.getCardinality()];
+        int[] position = new int[1];
+
+        bitmap.forEach(x -> result[position[0]++] = x);
+
+        return result;
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.membership;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+
+/**
+ * A compressed set of non-negative int values in the layout of roaring bitmaps. The values are partitioned by their
+ * upper 16 bits; each partition keeps its lower 16 bits in a sorted array while it is sparse and in a bitmap of
+ * 8 KiB once it holds more than 4096 values. The set is not thread-safe.
+ */
+public class IdBitmap {
+
+    private static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+    private static final int BITMAP_CONTAINER_WORDS = 1024;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size = 0;
+
+    /**
+     * Instantiates a new empty bitmap.
+     */
+    public IdBitmap() {
+    }
+
+    private IdBitmap(IdBitmap that) {
+
+        keys = Arrays.copyOf(that.keys, that.size);
+        containers = new Container[that.size];
+        size = that.size;
+
+        for (int i = 0; i < size; i++)
+            containers[i] = that.containers[i].copy();
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the non-negative value
+     * @return true if the value was not contained before
+     */
+    public boolean add(int value) {
+
+        if (value < 0)
+            throw new IllegalArgumentException("Expect a non-negative value for a bitmap.");
+
+        char key = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, 0, size, key);
+
+        if (index < 0) {
+
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+        }
+
+        int cardinality = containers[index].getCardinality();
+
+        containers[index] = containers[index].add((char) value);
+
+        return containers[index].getCardinality() > cardinality;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value the value
+     * @return true if the value was contained before
+     */
+    public boolean remove(int value) {
+
+        if (value < 0)
+            return false;
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+
+        if (index < 0)
+            return false;
+
+        int cardinality = containers[index].getCardinality();
+        Container container = containers[index].remove((char) value);
+
+        if (container.getCardinality() == cardinality)
+            return false;
+
+        if (container.getCardinality() == 0)
+            removeContainer(index);
+        else
+            containers[index] = container;
+
+        return true;
+    }
+
+    /**
+     * Checks whether a value is contained.
+     *
+     * @param value the value
+     * @return true if the value is contained
+     */
+    public boolean contains(int value) {
+
+        if (value < 0)
+            return false;
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * Adds all values of another bitmap.
+     *
+     * @param that the other bitmap
+     */
+    public void or(IdBitmap that) {
+
+        for (int i = 0; i < that.size; i++) {
+
+            char key = that.keys[i];
+            int index = Arrays.binarySearch(keys, 0, size, key);
+
+            if (index < 0)
+                insertContainer(-index - 1, key, that.containers[i].copy());
+            else
+                containers[index] = containers[index].or(that.containers[i]);
+        }
+    }
+
+    /**
+     * Checks whether no value is contained.
+     *
+     * @return true if the bitmap is empty
+     */
+    public boolean isEmpty() {
+
+        return size == 0;
+    }
+
+    /**
+     * Gets the number of contained values.
+     *
+     * @return the cardinality
+     */
+    public int getCardinality() {
+
+        int cardinality = 0;
+
+        for (int i = 0; i < size; i++)
+            cardinality += containers[i].getCardinality();
+
+        return cardinality;
+    }
+
+    /**
+     * Passes all values in ascending order to a consumer.
+     *
+     * @param consumer the consumer
+     */
+    public void forEach(IntConsumer consumer) {
+
+        for (int i = 0; i < size; i++)
+            containers[i].forEach(keys[i] << 16, consumer);
+    }
+
+    /**
+     * Estimates the number of bytes allocated by the bitmap.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+
+        // object headers, references and array headers of a 64-bit VM with compressed pointers
+        long bytes = 16 + 16 + 2L * keys.length + 16 + 4L * containers.length;
+
+        for (int i = 0; i < size; i++)
+            bytes += containers[i].getSizeInBytes();
+
+        return bytes;
+    }
+
+    /**
+     * Creates an independent copy of the bitmap.
+     *
+     * @return the copy
+     */
+    public IdBitmap copy() {
+
+        return new IdBitmap(this);
+    }
+
+    private void insertContainer(int index, char key, Container container) {
+
+        if (size == keys.length) {
+
+            int capacity = Math.max(4, size * 2);
+
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+
+        containers[--size] = null;
+    }
+
+    private interface Container {
+
+        Container add(char value);
+
+        Container remove(char value);
+
+        boolean contains(char value);
+
+        Container or(Container that);
+
+        int getCardinality();
+
+        void forEach(int base, IntConsumer consumer);
+
+        long getSizeInBytes();
+
+        Container copy();
+    }
+
+    private static class ArrayContainer
+            implements Container {
+
+        private char[] values;
+        private int cardinality;
+
+        public ArrayContainer() {
+
+            this(new char[4], 0);
+        }
+
+        public ArrayContainer(char[] values, int cardinality) {
+
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        public Container add(char value) {
+
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+
+            if (index >= 0)
+                return this;
+
+            if (cardinality == ARRAY_CONTAINER_MAX_SIZE)
+                return toBitmapContainer().add(value);
+
+            index = -index - 1;
+
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX_SIZE, cardinality * 2));
+
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+
+            values[index] = value;
+            cardinality++;
+
+            return this;
+        }
+
+        public Container remove(char value) {
+
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+
+            if (index < 0)
+                return this;
+
+            System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+            cardinality--;
+
+            return this;
+        }
+
+        public boolean contains(char value) {
+
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        public Container or(Container that) {
+
+            if (that instanceof BitmapContainer)
+                return that.copy().or(this);
+
+            ArrayContainer other = (ArrayContainer) that;
+            char[] merged = new char[cardinality + other.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+
+            while (i < cardinality && j < other.cardinality) {
+
+                if (values[i] < other.values[j])
+                    merged[k++] = values[i++];
+                else if (values[i] > other.values[j])
+                    merged[k++] = other.values[j++];
+                else {
+
+                    merged[k++] = values[i++];
+                    j++;
+                }
+            }
+
+            while (i < cardinality)
+                merged[k++] = values[i++];
+
+            while (j < other.cardinality)
+                merged[k++] = other.values[j++];
+
+            ArrayContainer result = new ArrayContainer(merged, k);
+
+            return k > ARRAY_CONTAINER_MAX_SIZE ? result.toBitmapContainer() : result;
+        }
+
+        public int getCardinality() {
+
+            return cardinality;
+        }
+
+        public void forEach(int base, IntConsumer consumer) {
+
+            for (int i = 0; i < cardinality; i++)
+                consumer.accept(base | values[i]);
+        }
+
+        public long getSizeInBytes() {
+
+            return 16 + 16 + 2L * values.length;
+        }
+
+        public Container copy() {
+
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        private BitmapContainer toBitmapContainer() {
+
+            BitmapContainer container = new BitmapContainer();
+
+            for (int i = 0; i < cardinality; i++)
+                container.add(values[i]);
+
+            return container;
+        }
+    }
+
+    private static class BitmapContainer
+            implements Container {
+
+        private final long[] words;
+        private int cardinality;
+
+        public BitmapContainer() {
+
+            this(new long[BITMAP_CONTAINER_WORDS], 0);
+        }
+
+        public BitmapContainer(long[] words, int cardinality) {
+
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        public Container add(char value) {
+
+            long word = words[value >>> 6];
+            long updated = word | (1L << value);
+
+            if (word != updated) {
+
+                words[value >>> 6] = updated;
+                cardinality++;
+            }
+
+            return this;
+        }
+
+        public Container remove(char value) {
+
+            long word = words[value >>> 6];
+            long updated = word & ~(1L << value);
+
+            if (word == updated)
+                return this;
+
+            words[value >>> 6] = updated;
+            cardinality--;
+
+            // sparse partitions are kept as arrays again
+            return cardinality <= ARRAY_CONTAINER_MAX_SIZE ? toArrayContainer() : this;
+        }
+
+        public boolean contains(char value) {
+
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        public Container or(Container that) {
+
+            if (that instanceof ArrayContainer) {
+
+                ArrayContainer other = (ArrayContainer) that;
+
+                for (int i = 0; i < other.cardinality; i++)
+                    add(other.values[i]);
+
+                return this;
+            }
+
+            long[] otherWords = ((BitmapContainer) that).words;
+
+            cardinality = 0;
+
+            for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++) {
+
+                words[i] |= otherWords[i];
+                cardinality += Long.bitCount(words[i]);
+            }
+
+            return this;
+        }
+
+        public int getCardinality() {
+
+            return cardinality;
+        }
+
+        public void forEach(int base, IntConsumer consumer) {
+
+            for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++) {
+
+                long word = words[i];
+
+                while (word != 0) {
+
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        public long getSizeInBytes() {
+
+            return 16 + 16 + 8L * BITMAP_CONTAINER_WORDS;
+        }
+
+        public Container copy() {
+
+            return new BitmapContainer(Arrays.copyOf(words, BITMAP_CONTAINER_WORDS), cardinality);
+        }
+
+        private ArrayContainer toArrayContainer() {
+
+            ArrayContainer container = new ArrayContainer(new char[cardinality], 0);
+
+            forEach(0, x -> container.values[container.cardinality++] = (char) x);
+
+            return container;
+        }
+    }
+}
@@ -0,0 +1,691 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.membership;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+
+/**
+ * A thread-safe store of direct and transitive memberships for nested directory backends.
+ * Group and user IDs are interned to dense int values, so that each relation is a compressed bitmap. Transitive
+ * relations of groups are resolved by a {@link GroupGraph} which is built once per generation of the memberships and
+ * kept until the next modification; cycles are allowed. IDs are compared case-insensitively and returned in lower
+ * case.
+ */
+public class MembershipEngine
+        implements MembershipLookup {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Interner groupIds = new Interner();
+    private final Interner userIds = new Interner();
+    private final List<IdBitmap> childGroupsOfGroups = new ArrayList<>();
+    private final List<IdBitmap> parentGroupsOfGroups = new ArrayList<>();
+    private final List<IdBitmap> usersOfGroups = new ArrayList<>();
+    private final List<IdBitmap> groupsOfUsers = new ArrayList<>();
+    private final Map<Integer, IdBitmap> transitiveUsers = new ConcurrentHashMap<>();
+    private volatile GroupGraph graph;
+
+    /**
+     * Adds a group as member of another group.
+     *
+     * @param parentGroupId the ID of the parent group
+     * @param memberGroupId the ID of the member group
+     */
+    public void addGroupMembership(String parentGroupId, String memberGroupId) {
+
+        withWriteLock(() -> {
+
+            int parent = groupIds.intern(parentGroupId);
+            int member = groupIds.intern(memberGroupId);
+
+            getOrCreate(childGroupsOfGroups, parent).add(member);
+            getOrCreate(parentGroupsOfGroups, member).add(parent);
+        });
+    }
+
+    /**
+     * Adds a user as member of a group.
+     *
+     * @param parentGroupId the ID of the group
+     * @param memberUserId  the ID of the user
+     */
+    public void addUserMembership(String parentGroupId, String memberUserId) {
+
+        withWriteLock(() -> {
+
+            int parent = groupIds.intern(parentGroupId);
+            int member = userIds.intern(memberUserId);
+
+            getOrCreate(usersOfGroups, parent).add(member);
+            getOrCreate(groupsOfUsers, member).add(parent);
+        });
+    }
+
+    /**
+     * Removes a group from the members of another group.
+     *
+     * @param parentGroupId the ID of the parent group
+     * @param memberGroupId the ID of the member group
+     */
+    public void removeGroupMembership(String parentGroupId, String memberGroupId) {
+
+        withWriteLock(() -> {
+
+            int parent = groupIds.find(parentGroupId);
+            int member = groupIds.find(memberGroupId);
+
+            if (parent >= 0 && member >= 0) {
+
+                remove(childGroupsOfGroups, parent, member);
+                remove(parentGroupsOfGroups, member, parent);
+                releaseGroupIfUnused(parent);
+                releaseGroupIfUnused(member);
+            }
+        });
+    }
+
+    /**
+     * Removes a user from the members of a group.
+     *
+     * @param parentGroupId the ID of the group
+     * @param memberUserId  the ID of the user
+     */
+    public void removeUserMembership(String parentGroupId, String memberUserId) {
+
+        withWriteLock(() -> {
+
+            int parent = groupIds.find(parentGroupId);
+            int member = userIds.find(memberUserId);
+
+            if (parent >= 0 && member >= 0) {
+
+                remove(usersOfGroups, parent, member);
+                remove(groupsOfUsers, member, parent);
+                releaseGroupIfUnused(parent);
+                releaseUserIfUnused(member);
+            }
+        });
+    }
+
+    /**
+     * Removes all memberships of a group.
+     *
+     * @param groupId the ID of the group
+     */
+    public void removeGroup(String groupId) {
+
+        withWriteLock(() -> {
+
+            int group = groupIds.find(groupId);
+
+            if (group < 0)
+                return;
+
+            IdBitmap childGroups = get(childGroupsOfGroups, group);
+            IdBitmap parentGroups = get(parentGroupsOfGroups, group);
+            IdBitmap users = get(usersOfGroups, group);
+
+            childGroups.forEach(x -> remove(parentGroupsOfGroups, x, group));
+            parentGroups.forEach(x -> remove(childGroupsOfGroups, x, group));
+            users.forEach(x -> remove(groupsOfUsers, x, group));
+
+            set(childGroupsOfGroups, group, null);
+            set(parentGroupsOfGroups, group, null);
+            set(usersOfGroups, group, null);
+
+            // related groups and users may have lost their last membership as well
+            childGroups.forEach(this::releaseGroupIfUnused);
+            parentGroups.forEach(this::releaseGroupIfUnused);
+            users.forEach(this::releaseUserIfUnused);
+            releaseGroupIfUnused(group);
+        });
+    }
+
+    /**
+     * Removes all memberships of a user.
+     *
+     * @param userId the ID of the user
+     */
+    public void removeUser(String userId) {
+
+        withWriteLock(() -> {
+
+            int user = userIds.find(userId);
+
+            if (user < 0)
+                return;
+
+            IdBitmap groups = get(groupsOfUsers, user);
+
+            groups.forEach(x -> remove(usersOfGroups, x, user));
+            set(groupsOfUsers, user, null);
+
+            groups.forEach(this::releaseGroupIfUnused);
+            releaseUserIfUnused(user);
+        });
+    }
+
+    /**
+     * Removes all memberships and interned IDs.
+     */
+    public void clear() {
+
+        withWriteLock(() -> {
+
+            groupIds.clear();
+            userIds.clear();
+            childGroupsOfGroups.clear();
+            parentGroupsOfGroups.clear();
+            usersOfGroups.clear();
+            groupsOfUsers.clear();
+        });
+    }
+
+    /**
+     * Gets the IDs of the direct member groups of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member groups
+     */
+    @Override
+    public Set<String> getDirectChildGroupIds(String groupId) {
+
+        return withReadLock(() -> groupIds.resolve(get(childGroupsOfGroups, groupIds.find(groupId))));
+    }
+
+    /**
+     * Gets the IDs of the direct parent groups of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the parent groups
+     */
+    @Override
+    public Set<String> getDirectParentGroupIds(String groupId) {
+
+        return withReadLock(() -> groupIds.resolve(get(parentGroupsOfGroups, groupIds.find(groupId))));
+    }
+
+    /**
+     * Gets the IDs of the direct member users of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member users
+     */
+    @Override
+    public Set<String> getDirectUserIdsOfGroup(String groupId) {
+
+        return withReadLock(() -> userIds.resolve(get(usersOfGroups, groupIds.find(groupId))));
+    }
+
+    /**
+     * Gets the IDs of the groups a user is a direct member of.
+     *
+     * @param userId the ID of the user
+     * @return the IDs of the groups
+     */
+    @Override
+    public Set<String> getDirectGroupIdsOfUser(String userId) {
+
+        return withReadLock(() -> groupIds.resolve(get(groupsOfUsers, userIds.find(userId))));
+    }
+
+    /**
+     * Gets the IDs of the direct and nested member groups of a group without the group itself.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member groups
+     */
+    public Set<String> getTransitiveChildGroupIds(String groupId) {
+
+        return withReadLock(() -> resolveWithout(getTransitiveChildGroups(groupIds.find(groupId)), groupId));
+    }
+
+    /**
+     * Gets the IDs of the direct and nested parent groups of a group without the group itself.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the parent groups
+     */
+    public Set<String> getTransitiveParentGroupIds(String groupId) {
+
+        return withReadLock(() -> resolveWithout(getTransitiveParentGroups(groupIds.find(groupId)), groupId));
+    }
+
+    /**
+     * Gets the IDs of the users which are members of a group or of one of its nested member groups.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member users
+     */
+    @Override
+    public Set<String> getTransitiveUserIdsOfGroup(String groupId) {
+
+        return withReadLock(() -> userIds.resolve(getTransitiveUsers(groupIds.find(groupId))));
+    }
+
+    /**
+     * Gets the IDs of the groups a user is a direct or nested member of.
+     *
+     * @param userId the ID of the user
+     * @return the IDs of the groups
+     */
+    @Override
+    public Set<String> getTransitiveGroupIdsOfUser(String userId) {
+
+        return withReadLock(() -> {
+
+            IdBitmap directGroups = get(groupsOfUsers, userIds.find(userId));
+            IdBitmap result = directGroups.copy();
+
+            directGroups.forEach(x -> result.or(getTransitiveParentGroups(x)));
+
+            return groupIds.resolve(result);
+        });
+    }
+
+    /**
+     * Checks whether a group is a direct or nested member of itself.
+     *
+     * @param groupId the ID of the group
+     * @return true if the group is part of a membership cycle
+     */
+    public boolean isPartOfCycle(String groupId) {
+
+        return withReadLock(() -> {
+
+            int group = groupIds.find(groupId);
+
+            return group >= 0 && getGraph().isCyclic(group);
+        });
+    }
+
+    /**
+     * Checks whether a user is a member of a group or of one of its nested member groups.
+     *
+     * @param groupId the ID of the group
+     * @param userId  the ID of the user
+     * @return true if the user is a member
+     */
+    public boolean isTransitiveMember(String groupId, String userId) {
+
+        return withReadLock(() -> getTransitiveUsers(groupIds.find(groupId)).contains(userIds.find(userId)));
+    }
+
+    /**
+     * Estimates the number of bytes allocated by interned IDs, direct relations and resolved transitive relations.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+
+        return withReadLock(() -> {
+
+            MemoryReport report = createMemoryReport();
+
+            return report.internedIds + report.directRelations + report.transitiveRelations;
+        });
+    }
+
+    /**
+     * Describes the number of interned IDs and the estimated memory footprint of all relations.
+     *
+     * @return the memory report
+     */
+    public String getMemoryReport() {
+
+        return withReadLock(() -> {
+
+            MemoryReport report = createMemoryReport();
+
+            return String.format("groups=%d, users=%d, interned-ids=%.1f MiB, direct-relations=%.1f MiB, " +
+                            "transitive-relations=%.1f MiB (%d resolved components)",
+                    groupIds.size(), userIds.size(), toMebibytes(report.internedIds),
+                    toMebibytes(report.directRelations), toMebibytes(report.transitiveRelations),
+                    transitiveUsers.size());
+        });
+    }
+
+    /**
+     * Creates an independent copy of the direct memberships. The copy resolves transitive relations again on demand,
+     * so that it can be modified without affecting readers of this instance.
+     *
+     * @return the copy
+     */
+    public MembershipEngine copy() {
+
+        return withReadLock(() -> {
+
+            MembershipEngine engine = new MembershipEngine();
+
+            engine.groupIds.copyFrom(groupIds);
+            engine.userIds.copyFrom(userIds);
+            copyRelation(childGroupsOfGroups, engine.childGroupsOfGroups);
+            copyRelation(parentGroupsOfGroups, engine.parentGroupsOfGroups);
+            copyRelation(usersOfGroups, engine.usersOfGroups);
+            copyRelation(groupsOfUsers, engine.groupsOfUsers);
+
+            return engine;
+        });
+    }
+
+    @Override
+    public String toString() {
+
+        return getMemoryReport();
+    }
+
+    private GroupGraph getGraph() {
+
+        GroupGraph currentGraph = graph;
+
+        if (currentGraph != null)
+            return currentGraph;
+
+        synchronized (this) {
+
+            // concurrent readers build the graph of the current generation only once
+            if (graph == null)
+                graph = new GroupGraph(groupIds.getCapacity(), x -> get(childGroupsOfGroups, x));
+
+            return graph;
+        }
+    }
+
+    private void releaseGroupIfUnused(int group) {
+
+        // the int value of a group without any membership is reused for the next interned group
+        if (get(childGroupsOfGroups, group).isEmpty() && get(parentGroupsOfGroups, group).isEmpty() &&
+                get(usersOfGroups, group).isEmpty())
+            groupIds.release(group);
+    }
+
+    private void releaseUserIfUnused(int user) {
+
+        if (get(groupsOfUsers, user).isEmpty())
+            userIds.release(user);
+    }
+
+    private IdBitmap getTransitiveChildGroups(int group) {
+
+        if (group < 0)
+            return new IdBitmap();
+
+        return getGraph().getDescendants(group);
+    }
+
+    private IdBitmap getTransitiveParentGroups(int group) {
+
+        if (group < 0)
+            return new IdBitmap();
+
+        return getGraph().getAncestors(group);
+    }
+
+    private IdBitmap getTransitiveUsers(int group) {
+
+        if (group < 0)
+            return new IdBitmap();
+
+        // all groups of a cycle have the same transitive users
+        return transitiveUsers.computeIfAbsent(getGraph().getComponent(group), x -> {
+
+            IdBitmap result = get(usersOfGroups, group).copy();
+
+            getTransitiveChildGroups(group).forEach(y -> result.or(get(usersOfGroups, y)));
+
+            return result;
+        });
+    }
+
+    private Set<String> resolveWithout(IdBitmap bitmap, String groupId) {
+
+        Set<String> result = groupIds.resolve(bitmap);
+
+        // the group itself is part of the resolved relation if it is in a cycle
+        result.remove(groupId.toLowerCase());
+
+        return result;
+    }
+
+    private MemoryReport createMemoryReport() {
+
+        MemoryReport report = new MemoryReport();
+
+        report.internedIds = groupIds.getSizeInBytes() + userIds.getSizeInBytes();
+
+        for (List<IdBitmap> relation :
+                Arrays.asList(childGroupsOfGroups, parentGroupsOfGroups, usersOfGroups, groupsOfUsers)) {
+
+            report.directRelations += 16 + 4L * relation.size();
+
+            for (IdBitmap bitmap : relation)
+                if (bitmap != null)
+                    report.directRelations += bitmap.getSizeInBytes();
+        }
+
+        GroupGraph currentGraph = graph;
+
+        if (currentGraph != null)
+            report.transitiveRelations += currentGraph.getSizeInBytes();
+
+        // a map entry with its boxed key
+        report.transitiveRelations += 64L * transitiveUsers.size();
+
+        for (IdBitmap bitmap : transitiveUsers.values())
+            report.transitiveRelations += bitmap.getSizeInBytes();
+
+        return report;
+    }
+
+    private void withWriteLock(Runnable block) {
+
+        lock.writeLock().lock();
+
+        try {
+
+            block.run();
+
+            // the graph and resolved relations are computed again on demand
+            graph = null;
+            transitiveUsers.clear();
+
+        } finally {
+
+            lock.writeLock().unlock();
+        }
+    }
+
+    private <T> T withReadLock(Supplier<T> block) {
+
+        lock.readLock().lock();
+
+        try {
+
+            return block.get();
+
+        } finally {
+
+            lock.readLock().unlock();
+        }
+    }
+
+    private static IdBitmap get(List<IdBitmap> relation, int index) {
+
+        IdBitmap bitmap = index >= 0 && index < relation.size() ? relation.get(index) : null;
+
+        return bitmap == null ? new IdBitmap() : bitmap;
+    }
+
+    private static IdBitmap getOrCreate(List<IdBitmap> relation, int index) {
+
+        while (relation.size() <= index)
+            relation.add(null);
+
+        IdBitmap bitmap = relation.get(index);
+
+        if (bitmap == null) {
+
+            bitmap = new IdBitmap();
+            relation.set(index, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    private static void set(List<IdBitmap> relation, int index, IdBitmap bitmap) {
+
+        if (index < relation.size())
+            relation.set(index, bitmap);
+    }
+
+    private static void copyRelation(List<IdBitmap> source, List<IdBitmap> target) {
+
+        for (IdBitmap bitmap : source)
+            target.add(bitmap == null ? null : bitmap.copy());
+    }
+
+    private static void remove(List<IdBitmap> relation, int index, int value) {
+
+        IdBitmap bitmap = index < relation.size() ? relation.get(index) : null;
+
+        if (bitmap == null)
+            return;
+
+        bitmap.remove(value);
+
+        if (bitmap.isEmpty())
+            relation.set(index, null);
+    }
+
+    private static double toMebibytes(long bytes) {
+
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static class MemoryReport {
+
+        private long internedIds;
+        private long directRelations;
+        private long transitiveRelations;
+    }
+
+    private static class Interner {
+
+        private final Map<String, Integer> values = new HashMap<>();
+        private final List<String> ids = new ArrayList<>();
+        private final Deque<Integer> releasedValues = new ArrayDeque<>();
+        private long idBytes = 0;
+
+        public int intern(String id) {
+
+            String key = id.toLowerCase();
+            Integer value = values.get(key);
+
+            if (value != null)
+                return value;
+
+            // released values keep the values dense and the relations short
+            if (releasedValues.isEmpty()) {
+
+                value = ids.size();
+                ids.add(key);
+
+            } else {
+
+                value = releasedValues.pop();
+                ids.set(value, key);
+            }
+
+            values.put(key, value);
+
+            // a string with its byte array in Latin-1 and a hash map entry with a boxed key
+            idBytes += getSizeInBytes(key);
+
+            return value;
+        }
+
+        public void release(int value) {
+
+            String key = value < ids.size() ? ids.get(value) : null;
+
+            if (key == null)
+                return;
+
+            values.remove(key);
+            ids.set(value, null);
+            releasedValues.push(value);
+            idBytes -= getSizeInBytes(key);
+        }
+
+        public int find(String id) {
+
+            Integer value = values.get(id.toLowerCase());
+
+            return value == null ? -1 : value;
+        }
+
+        public Set<String> resolve(IdBitmap bitmap) {
+
+            Set<String> result = new HashSet<>();
+
+            bitmap.forEach(x -> result.add(ids.get(x)));
+
+            return result;
+        }
+
+        public int size() {
+
+            return values.size();
+        }
+
+        public int getCapacity() {
+
+            return ids.size();
+        }
+
+        public long getSizeInBytes() {
+
+            return idBytes + 16 + 4L * ids.size() + 48 + 4L * values.size() + 16L * releasedValues.size();
+        }
+
+        public void clear() {
+
+            values.clear();
+            ids.clear();
+            releasedValues.clear();
+            idBytes = 0;
+        }
+
+        public void copyFrom(Interner that) {
+
+            values.putAll(that.values);
+            ids.addAll(that.ids);
+            releasedValues.addAll(that.releasedValues);
+            idBytes = that.idBytes;
+        }
+
+        private static long getSizeInBytes(String key) {
+
+            return 24 + 16 + key.length() + 48 + 16;
+        }
+    }
+}
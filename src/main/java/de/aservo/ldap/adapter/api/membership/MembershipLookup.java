@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.membership;
+
+import java.util.Set;
+
+
+/**
+ * Read access to the direct and transitive memberships of groups and users. IDs are returned in lower case.
+ */
+public interface MembershipLookup {
+
+    /**
+     * Gets the IDs of the direct member groups of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member groups
+     */
+    Set<String> getDirectChildGroupIds(String groupId);
+
+    /**
+     * Gets the IDs of the direct parent groups of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the parent groups
+     */
+    Set<String> getDirectParentGroupIds(String groupId);
+
+    /**
+     * Gets the IDs of the direct member users of a group.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member users
+     */
+    Set<String> getDirectUserIdsOfGroup(String groupId);
+
+    /**
+     * Gets the IDs of the groups a user is a direct member of.
+     *
+     * @param userId the ID of the user
+     * @return the IDs of the groups
+     */
+    Set<String> getDirectGroupIdsOfUser(String userId);
+
+    /**
+     * Gets the IDs of the users which are members of a group or of one of its nested member groups.
+     *
+     * @param groupId the ID of the group
+     * @return the IDs of the member users
+     */
+    Set<String> getTransitiveUserIdsOfGroup(String groupId);
+
+    /**
+     * Gets the IDs of the groups a user is a direct or nested member of.
+     *
+     * @param userId the ID of the user
+     * @return the IDs of the groups
+     */
+    Set<String> getTransitiveGroupIdsOfUser(String userId);
+}
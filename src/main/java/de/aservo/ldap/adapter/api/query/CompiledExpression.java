@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.query;
+
+import de.aservo.ldap.adapter.api.database.Row;
+
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+
+/**
+ * A query expression compiled by {@link ExpressionCompiler} to a predicate over rows of a single entity type.
+ * The values of the expression are bound to a plan which is shared by all expressions of the same shape.
+ * Instances are immutable and can be used by several threads at once.
+ */
+public final class CompiledExpression
+        implements Predicate<Row> {
+
+    private final ExpressionCompiler.Plan plan;
+    private final Object[] parameters;
+    private final BiPredicate<Row, OperatorExpression<?>> membershipTest;
+
+    CompiledExpression(ExpressionCompiler.Plan plan, Object[] parameters,
+                       BiPredicate<Row, OperatorExpression<?>> membershipTest) {
+
+        this.plan = plan;
+        this.parameters = parameters;
+        this.membershipTest = membershipTest;
+    }
+
+    /**
+     * Creates a copy of the compiled expression which evaluates the operators for the member and memberOf
+     * attributes with the given test. Without such a test these operators never match.
+     *
+     * @param membershipTest the test for a row and a membership related operator
+     * @return the compiled expression
+     */
+    public CompiledExpression withMembershipTest(BiPredicate<Row, OperatorExpression<?>> membershipTest) {
+
+        return new CompiledExpression(plan, parameters, membershipTest);
+    }
+
+    /**
+     * Evaluates the expression for a row.
+     *
+     * @param row the row of an entity
+     * @return true if the entity matches the expression
+     */
+    @Override
+    public boolean test(Row row) {
+
+        return plan.getRoot().test(row, this);
+    }
+
+    Object getParameter(int slot) {
+
+        return parameters[slot];
+    }
+
+    boolean testMembership(Row row, int slot) {
+
+        return membershipTest != null && membershipTest.test(row, (OperatorExpression<?>) parameters[slot]);
+    }
+}
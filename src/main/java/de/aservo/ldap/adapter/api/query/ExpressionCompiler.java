@@ -0,0 +1,674 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.api.query;
+
+import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.database.Row;
+import de.aservo.ldap.adapter.api.entity.ColumnNames;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+
+/**
+ * A compiler for query expressions to predicates over rows of groups, users, units or the domain.
+ * The attributes of the expression are resolved to columns or constants of the entity type once per shape of the
+ * expression; the resulting plan orders the operands of conjunctions and disjunctions from cheap to expensive
+ * operators and is cached, whereby the least recently used plan is evicted. Compiling an expression only binds its
+ * lower case literals and wildcard segments to the plan. The attributes are mapped like in
+ * {@link LdapUtils#preEvaluateExpressionForGroup(QueryExpression)} and the related methods; an entity without a value
+ * for an attribute never matches an operator on this attribute.
+ */
+public final class ExpressionCompiler {
+
+    private static final int MAX_CACHED_PLANS = 1000;
+
+    private static final Map<String, Plan> plans = new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+
+            return size() > MAX_CACHED_PLANS;
+        }
+    };
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles a query expression.
+     *
+     * @param expression the query expression
+     * @param entityType the type of the entities the expression is evaluated for
+     * @return the compiled expression
+     */
+    public static CompiledExpression compile(QueryExpression expression, EntityType entityType) {
+
+        List<QueryExpression> leaves = new ArrayList<>();
+
+        collectLeaves(expression, leaves);
+
+        String key = createKey(expression, entityType, leaves);
+        Plan plan;
+
+        synchronized (plans) {
+
+            plan = plans.get(key);
+        }
+
+        // plans are immutable, so concurrent compilations of a new shape may build the same plan twice
+        if (plan == null) {
+
+            plan = createPlan(expression, entityType);
+
+            synchronized (plans) {
+
+                plans.put(key, plan);
+            }
+        }
+
+        Object[] parameters = new Object[leaves.size()];
+
+        for (int i = 0; i < parameters.length; i++)
+            parameters[i] = plan.slots[i].bind(leaves.get(i));
+
+        return new CompiledExpression(plan, parameters, null);
+    }
+
+    /**
+     * Compiles the value of a binary operator to a matcher for attribute values. The negation of the operator is not
+     * part of the matcher.
+     *
+     * @param operator the binary operator
+     * @return the matcher
+     */
+    public static Predicate<String> compileValueMatcher(BinaryOperator<?> operator) {
+
+        boolean ignoreCase = operator.isIgnoreCase();
+
+        if (operator instanceof WildcardOperator) {
+
+            String[] segments = createSegments((WildcardOperator) operator, ignoreCase);
+
+            return x -> matchesSegments(x, segments, ignoreCase);
+        }
+
+        String literal = ignoreCase ? operator.getValue().toLowerCase() : operator.getValue();
+
+        return x -> ignoreCase ? literal.equalsIgnoreCase(x) : literal.equals(x);
+    }
+
+    private static String createKey(QueryExpression expression, EntityType entityType, List<QueryExpression> leaves) {
+
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(entityType).append(':');
+
+        // the shape does not tell whether values are compared case sensitive
+        for (QueryExpression leaf : leaves)
+            builder.append(leaf instanceof BinaryOperator && !((BinaryOperator<?>) leaf).isIgnoreCase() ? 'c' : 'i');
+
+        return builder.append(':').append(LdapUtils.getExpressionShape(expression)).toString();
+    }
+
+    private static Plan createPlan(QueryExpression expression, EntityType entityType) {
+
+        List<Slot> slots = new ArrayList<>();
+        Node root = createNode(expression, entityType, slots);
+
+        return new Plan(root, slots.toArray(new Slot[0]));
+    }
+
+    private static Node createNode(QueryExpression expression, EntityType entityType, List<Slot> slots) {
+
+        if (expression instanceof LogicExpression) {
+
+            List<QueryExpression> children = ((LogicExpression) expression).getChildren();
+            Node[] nodes = new Node[children.size()];
+
+            // the slots follow the original order of the operands
+            for (int i = 0; i < nodes.length; i++)
+                nodes[i] = createNode(children.get(i), entityType, slots);
+
+            Arrays.sort(nodes, Comparator.comparingInt(Node::getCost));
+
+            if (expression instanceof AndLogicExpression)
+                return new AndNode(nodes);
+
+            if (expression instanceof OrLogicExpression)
+                return new OrNode(nodes);
+
+            return new NotNode(nodes);
+
+        } else if (expression instanceof BooleanValue) {
+
+            slots.add(Slot.BOOLEAN);
+
+            return new BooleanNode(slots.size() - 1);
+
+        } else if (expression instanceof OperatorExpression) {
+
+            return createOperatorNode((OperatorExpression<?>) expression, entityType, slots);
+
+        } else
+            throw new IllegalArgumentException("Cannot process unexpected query expression " +
+                    expression.getClass().getName());
+    }
+
+    private static Node createOperatorNode(OperatorExpression<?> operator, EntityType entityType, List<Slot> slots) {
+
+        String attribute = LdapUtils.normalizeAttribute(operator.getAttribute());
+        Set<String> constants = getConstants(attribute, entityType);
+
+        // object classes and units are checked against constant values already at binding time
+        if (constants != null) {
+
+            slots.add(new Slot(constants));
+
+            return new BooleanNode(slots.size() - 1);
+        }
+
+        if (isMembershipAttribute(attribute, entityType)) {
+
+            slots.add(Slot.OPERATOR);
+
+            return new MembershipNode(slots.size() - 1);
+        }
+
+        String column = getColumn(attribute, entityType);
+
+        if (operator instanceof PresenceOperator) {
+
+            slots.add(Slot.NONE);
+
+            return new ConstantNode(column != null != operator.isNegated());
+        }
+
+        if (column == null) {
+
+            slots.add(Slot.NONE);
+
+            return new ConstantNode(false);
+        }
+
+        boolean ignoreCase = ((BinaryOperator<?>) operator).isIgnoreCase();
+
+        if (operator instanceof WildcardOperator) {
+
+            slots.add(ignoreCase ? Slot.LOWER_CASE_SEGMENTS : Slot.SEGMENTS);
+
+            return new WildcardNode(slots.size() - 1, column, operator.isNegated(), ignoreCase);
+        }
+
+        slots.add(ignoreCase ? Slot.LOWER_CASE_LITERAL : Slot.LITERAL);
+
+        return new EqualNode(slots.size() - 1, column, operator.isNegated(), ignoreCase);
+    }
+
+    private static Set<String> getConstants(String attribute, EntityType entityType) {
+
+        if (attribute.equals(SchemaConstants.OBJECT_CLASS_AT_OID)) {
+
+            switch (entityType) {
+
+                case DOMAIN:
+                    return Set.of(SchemaConstants.DOMAIN_OC, SchemaConstants.TOP_OC);
+
+                case GROUP_UNIT:
+                case USER_UNIT:
+                    return Set.of(SchemaConstants.ORGANIZATIONAL_UNIT_OC, SchemaConstants.TOP_OC);
+
+                case GROUP:
+                    return Set.of(SchemaConstants.GROUP_OF_NAMES_OC, SchemaConstants.GROUP_OF_UNIQUE_NAMES_OC,
+                            SchemaConstants.TOP_OC);
+
+                default:
+                    return Set.of(SchemaConstants.INET_ORG_PERSON_OC, SchemaConstants.ORGANIZATIONAL_PERSON_OC,
+                            SchemaConstants.PERSON_OC, SchemaConstants.TOP_OC);
+            }
+        }
+
+        if (attribute.equals(SchemaConstants.OU_AT_OID)) {
+
+            if (entityType == EntityType.GROUP)
+                return Set.of(LdapUtils.OU_GROUPS);
+
+            if (entityType == EntityType.USER)
+                return Set.of(LdapUtils.OU_USERS);
+        }
+
+        return null;
+    }
+
+    private static boolean isMembershipAttribute(String attribute, EntityType entityType) {
+
+        if (attribute.equals(LdapUtils.MEMBER_OF_AT_OID))
+            return entityType == EntityType.GROUP || entityType == EntityType.USER;
+
+        return entityType == EntityType.GROUP &&
+                (attribute.equals(SchemaConstants.MEMBER_AT_OID) ||
+                        attribute.equals(SchemaConstants.UNIQUE_MEMBER_AT_OID));
+    }
+
+    private static String getColumn(String attribute, EntityType entityType) {
+
+        switch (entityType) {
+
+            case DOMAIN:
+
+                if (attribute.equals(SchemaConstants.DC_AT))
+                    return ColumnNames.ID;
+
+                return attribute.equals(SchemaConstants.DESCRIPTION_AT_OID) ? ColumnNames.DESCRIPTION : null;
+
+            case GROUP_UNIT:
+            case USER_UNIT:
+
+                if (attribute.equals(SchemaConstants.OU_AT_OID))
+                    return ColumnNames.ID;
+
+                return attribute.equals(SchemaConstants.DESCRIPTION_AT_OID) ? ColumnNames.DESCRIPTION : null;
+
+            case GROUP:
+
+                if (attribute.equals(SchemaConstants.CN_AT_OID))
+                    return ColumnNames.NAME;
+
+                return attribute.equals(SchemaConstants.DESCRIPTION_AT_OID) ? ColumnNames.DESCRIPTION : null;
+
+            default:
+
+                switch (attribute) {
+
+                    case SchemaConstants.UID_AT_OID:
+                        return ColumnNames.ID;
+
+                    case SchemaConstants.CN_AT_OID:
+                        return ColumnNames.USERNAME;
+
+                    case SchemaConstants.SN_AT_OID:
+                        return ColumnNames.LAST_NAME;
+
+                    case SchemaConstants.GN_AT_OID:
+                        return ColumnNames.FIRST_NAME;
+
+                    case SchemaConstants.DISPLAY_NAME_AT_OID:
+                        return ColumnNames.DISPLAY_NAME;
+
+                    case SchemaConstants.MAIL_AT_OID:
+                        return ColumnNames.EMAIL;
+
+                    default:
+                        return null;
+                }
+        }
+    }
+
+    private static void collectLeaves(QueryExpression expression, List<QueryExpression> leaves) {
+
+        if (expression instanceof LogicExpression) {
+
+            for (QueryExpression child : ((LogicExpression) expression).getChildren())
+                collectLeaves(child, leaves);
+
+        } else
+            leaves.add(expression);
+    }
+
+    private static String[] createSegments(WildcardOperator operator, boolean lowerCase) {
+
+        List<String> middleSegments = operator.getMiddleSegments();
+        String[] segments = new String[middleSegments.size() + 2];
+
+        segments[0] = operator.getInitialSegment();
+        segments[1] = operator.getFinalSegment();
+
+        for (int i = 0; i < middleSegments.size(); i++)
+            segments[i + 2] = middleSegments.get(i);
+
+        if (lowerCase)
+            for (int i = 0; i < segments.length; i++)
+                if (segments[i] != null)
+                    segments[i] = segments[i].toLowerCase();
+
+        return segments;
+    }
+
+    private static boolean matchesSegments(String value, String[] segments, boolean ignoreCase) {
+
+        String initialSegment = segments[0];
+        String finalSegment = segments[1];
+        int start = 0;
+        int end = value.length();
+
+        if (initialSegment != null) {
+
+            if (!value.regionMatches(ignoreCase, 0, initialSegment, 0, initialSegment.length()))
+                return false;
+
+            start = initialSegment.length();
+        }
+
+        if (finalSegment != null) {
+
+            end -= finalSegment.length();
+
+            if (end < start || !value.regionMatches(ignoreCase, end, finalSegment, 0, finalSegment.length()))
+                return false;
+        }
+
+        // the middle segments are matched from left to right without overlapping each other
+        for (int i = 2; i < segments.length; i++) {
+
+            String segment = segments[i];
+            int position = start;
+
+            while (position + segment.length() <= end &&
+                    !value.regionMatches(ignoreCase, position, segment, 0, segment.length()))
+                position++;
+
+            if (position + segment.length() > end)
+                return false;
+
+            start = position + segment.length();
+        }
+
+        return true;
+    }
+
+    static final class Plan {
+
+        private final Node root;
+        private final Slot[] slots;
+
+        private Plan(Node root, Slot[] slots) {
+
+            this.root = root;
+            this.slots = slots;
+        }
+
+        Node getRoot() {
+
+            return root;
+        }
+    }
+
+    private static final class Slot {
+
+        static final Slot NONE = new Slot(null);
+        static final Slot BOOLEAN = new Slot(null);
+        static final Slot OPERATOR = new Slot(null);
+        static final Slot LITERAL = new Slot(null);
+        static final Slot LOWER_CASE_LITERAL = new Slot(null);
+        static final Slot SEGMENTS = new Slot(null);
+        static final Slot LOWER_CASE_SEGMENTS = new Slot(null);
+
+        private final Set<String> constants;
+
+        private Slot(Set<String> constants) {
+
+            this.constants = constants;
+        }
+
+        Object bind(QueryExpression leaf) {
+
+            if (constants != null) {
+
+                OperatorExpression<?> operator = (OperatorExpression<?>) leaf;
+
+                return constants.stream().anyMatch(operator::check);
+            }
+
+            if (this == BOOLEAN)
+                return ((BooleanValue) leaf).getValue();
+
+            if (this == OPERATOR)
+                return leaf;
+
+            if (this == LITERAL)
+                return ((BinaryOperator<?>) leaf).getValue();
+
+            if (this == LOWER_CASE_LITERAL)
+                return ((BinaryOperator<?>) leaf).getValue().toLowerCase();
+
+            if (this == SEGMENTS || this == LOWER_CASE_SEGMENTS)
+                return createSegments((WildcardOperator) leaf, this == LOWER_CASE_SEGMENTS);
+
+            return null;
+        }
+    }
+
+    interface Node {
+
+        boolean test(Row row, CompiledExpression expression);
+
+        int getCost();
+    }
+
+    private static final class AndNode
+            implements Node {
+
+        private final Node[] children;
+        private final int cost;
+
+        private AndNode(Node[] children) {
+
+            this.children = children;
+            this.cost = Arrays.stream(children).mapToInt(Node::getCost).sum() + 1;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            for (Node child : children)
+                if (!child.test(row, expression))
+                    return false;
+
+            return AndLogicExpression.EMPTY_SEQ_BOOLEAN || children.length > 0;
+        }
+
+        public int getCost() {
+
+            return cost;
+        }
+    }
+
+    private static final class OrNode
+            implements Node {
+
+        private final Node[] children;
+        private final int cost;
+
+        private OrNode(Node[] children) {
+
+            this.children = children;
+            this.cost = Arrays.stream(children).mapToInt(Node::getCost).sum() + 1;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            for (Node child : children)
+                if (child.test(row, expression))
+                    return true;
+
+            return OrLogicExpression.EMPTY_SEQ_BOOLEAN && children.length == 0;
+        }
+
+        public int getCost() {
+
+            return cost;
+        }
+    }
+
+    private static final class NotNode
+            implements Node {
+
+        private final Node[] children;
+        private final int cost;
+
+        private NotNode(Node[] children) {
+
+            this.children = children;
+            this.cost = Arrays.stream(children).mapToInt(Node::getCost).sum() + 1;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            for (Node child : children)
+                if (child.test(row, expression))
+                    return false;
+
+            return NotLogicExpression.EMPTY_SEQ_BOOLEAN || children.length > 0;
+        }
+
+        public int getCost() {
+
+            return cost;
+        }
+    }
+
+    private static final class ConstantNode
+            implements Node {
+
+        private final boolean value;
+
+        private ConstantNode(boolean value) {
+
+            this.value = value;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            return value;
+        }
+
+        public int getCost() {
+
+            return 0;
+        }
+    }
+
+    private static final class BooleanNode
+            implements Node {
+
+        private final int slot;
+
+        private BooleanNode(int slot) {
+
+            this.slot = slot;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            return (Boolean) expression.getParameter(slot);
+        }
+
+        public int getCost() {
+
+            return 0;
+        }
+    }
+
+    private static final class EqualNode
+            implements Node {
+
+        private final int slot;
+        private final String column;
+        private final boolean negated;
+        private final boolean ignoreCase;
+
+        private EqualNode(int slot, String column, boolean negated, boolean ignoreCase) {
+
+            this.slot = slot;
+            this.column = column;
+            this.negated = negated;
+            this.ignoreCase = ignoreCase;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            String value = row.apply(column, String.class);
+
+            if (value == null)
+                return false;
+
+            String literal = (String) expression.getParameter(slot);
+
+            return (ignoreCase ? literal.equalsIgnoreCase(value) : literal.equals(value)) != negated;
+        }
+
+        public int getCost() {
+
+            return 1;
+        }
+    }
+
+    private static final class WildcardNode
+            implements Node {
+
+        private final int slot;
+        private final String column;
+        private final boolean negated;
+        private final boolean ignoreCase;
+
+        private WildcardNode(int slot, String column, boolean negated, boolean ignoreCase) {
+
+            this.slot = slot;
+            this.column = column;
+            this.negated = negated;
+            this.ignoreCase = ignoreCase;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            String value = row.apply(column, String.class);
+
+            if (value == null)
+                return false;
+
+            return matchesSegments(value, (String[]) expression.getParameter(slot), ignoreCase) != negated;
+        }
+
+        public int getCost() {
+
+            return 2;
+        }
+    }
+
+    private static final class MembershipNode
+            implements Node {
+
+        private final int slot;
+
+        private MembershipNode(int slot) {
+
+            this.slot = slot;
+        }
+
+        public boolean test(Row row, CompiledExpression expression) {
+
+            return expression.testMembership(row, slot);
+        }
+
+        public int getCost() {
+
+            return 4;
+        }
+    }
+}
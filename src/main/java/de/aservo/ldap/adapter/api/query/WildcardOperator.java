@@ -108,6 +108,21 @@ public final class WildcardOperator
         return pattern;
     }
 
+    public String getInitialSegment() {
+
+        return initialSegment;
+    }
+
+    public String getFinalSegment() {
+
+        return finalSegment;
+    }
+
+    public List<String> getMiddleSegments() {
+
+        return new ArrayList<>(middleSegments);
+    }
+
     public WildcardOperator negate() {
 
         return new WildcardOperator(getAttribute(), pattern, initialSegment, finalSegment, middleSegments,
@@ -18,14 +18,297 @@
 package de.aservo.ldap.adapter.backend;
 
 import de.aservo.ldap.adapter.ServerConfiguration;
+import de.aservo.ldap.adapter.api.cursor.MappableCursor;
+import de.aservo.ldap.adapter.api.directory.EntityChangeListener;
 import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 public abstract class CachedDirectoryBackend
         extends ProxyDirectoryBackend {
 
+    private final Logger logger = LoggerFactory.getLogger(CachedDirectoryBackend.class);
+    private final List<EntityChangeListener> entityChangeListeners = new CopyOnWriteArrayList<>();
+    private final Queue<Consumer<EntityChangeListener>> pendingEntityChanges = new ConcurrentLinkedQueue<>();
+
     protected CachedDirectoryBackend(ServerConfiguration config, NestedDirectoryBackend directoryBackend) {
 
         super(config, directoryBackend);
     }
+
+    @Override
+    public void startup() {
+
+        super.startup();
+
+        // a source which reloads its data in the background, like a watched JSON file, reports it this way
+        if (directoryBackend.addEntityChangeListener(new SourceChangeListener()))
+            logger.info("The cache is reloaded with modifications reported by the nested directory backend.");
+    }
+
+    @Override
+    public boolean addEntityChangeListener(EntityChangeListener listener) {
+
+        entityChangeListeners.add(listener);
+
+        return true;
+    }
+
+    @Override
+    public void upsertGroup(String id) {
+
+        super.upsertGroup(id);
+        recordEntityChange(x -> x.entityChanged(EntityType.GROUP, id));
+    }
+
+    @Override
+    public int upsertAllGroups(int startIndex, int maxResults) {
+
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+
+        return super.upsertAllGroups(startIndex, maxResults);
+    }
+
+    @Override
+    public int upsertAllGroups() {
+
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+
+        return super.upsertAllGroups();
+    }
+
+    @Override
+    public void upsertUser(String id) {
+
+        super.upsertUser(id);
+        recordEntityChange(x -> x.entityChanged(EntityType.USER, id));
+    }
+
+    @Override
+    public void upsertUser(String id, String idOther) {
+
+        // memberships refer to the renamed user
+        super.upsertUser(id, idOther);
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public int upsertAllUsers(int startIndex, int maxResults) {
+
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+
+        return super.upsertAllUsers(startIndex, maxResults);
+    }
+
+    @Override
+    public int upsertAllUsers() {
+
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+
+        return super.upsertAllUsers();
+    }
+
+    @Override
+    public void restoreGroups(Collection<GroupEntity> entities) {
+
+        super.restoreGroups(entities);
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public void restoreUsers(Collection<UserEntity> entities) {
+
+        super.restoreUsers(entities);
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public void upsertGroups(Collection<GroupEntity> entities) {
+
+        super.upsertGroups(entities);
+
+        for (GroupEntity entity : entities)
+            recordEntityChange(x -> x.entityChanged(EntityType.GROUP, entity.getId()));
+    }
+
+    @Override
+    public void upsertUsers(Collection<UserEntity> entities) {
+
+        super.upsertUsers(entities);
+
+        for (UserEntity entity : entities)
+            recordEntityChange(x -> x.entityChanged(EntityType.USER, entity.getId()));
+    }
+
+    @Override
+    public void upsertMembership(MembershipEntity membership) {
+
+        super.upsertMembership(membership);
+        recordEntityChange(x -> x.membershipChanged(membership));
+    }
+
+    @Override
+    public void dropGroup(String id) {
+
+        // memberships refer to the dropped group
+        super.dropGroup(id);
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public void dropAllGroups() {
+
+        super.dropAllGroups();
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public void dropUser(String id) {
+
+        // memberships refer to the dropped user
+        super.dropUser(id);
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public void dropAllUsers() {
+
+        super.dropAllUsers();
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public void dropMembership(MembershipEntity membership) {
+
+        super.dropMembership(membership);
+        recordEntityChange(x -> x.membershipChanged(membership));
+    }
+
+    @Override
+    public void publishStagedEntities() {
+
+        super.publishStagedEntities();
+        recordEntityChange(EntityChangeListener::allEntitiesChanged);
+    }
+
+    @Override
+    public MappableCursor<MembershipEntity> getDirectMemberships() {
+
+        List<MembershipEntity> memberships = new ArrayList<>();
+
+        // caches which can read all memberships at once avoid the requests per group
+        for (GroupEntity entity : getAllGroups()) {
+
+            Set<String> memberGroupIds = getDirectChildGroupsOfGroup(entity.getId()).stream()
+                    .map(GroupEntity::getId)
+                    .collect(Collectors.toSet());
+
+            Set<String> memberUserIds = getDirectUsersOfGroup(entity.getId()).stream()
+                    .map(UserEntity::getId)
+                    .collect(Collectors.toSet());
+
+            if (!memberGroupIds.isEmpty() || !memberUserIds.isEmpty())
+                memberships.add(new MembershipEntity(entity.getId(), memberGroupIds, memberUserIds));
+        }
+
+        return MappableCursor.fromIterable(memberships);
+    }
+
+    /**
+     * Notifies the registered listeners about all modifications recorded since the last notification.
+     * Implementations call this method once the modifications are visible to read sessions.
+     */
+    protected void notifyEntityChangeListeners() {
+
+        Consumer<EntityChangeListener> change;
+
+        while ((change = pendingEntityChanges.poll()) != null)
+            for (EntityChangeListener listener : entityChangeListeners)
+                change.accept(listener);
+    }
+
+    /**
+     * Replaces all cached entities and memberships by the current ones of the nested directory backend.
+     */
+    protected void reloadAllEntities() {
+
+        Runnable block = () -> {
+
+            dropAllGroups();
+            dropAllUsers();
+            upsertAllGroups();
+            upsertAllUsers();
+
+            for (MembershipEntity membership : getMemberships())
+                upsertMembership(membership);
+        };
+
+        if (supportsStaging()) {
+
+            withStagingAccess(block);
+            withWriteAccess(this::publishStagedEntities);
+
+        } else {
+
+            withWriteAccess(block);
+        }
+    }
+
+    private void recordEntityChange(Consumer<EntityChangeListener> change) {
+
+        if (!entityChangeListeners.isEmpty())
+            pendingEntityChanges.add(change);
+    }
+
+    private class SourceChangeListener
+            implements EntityChangeListener {
+
+        @Override
+        public void entityChanged(EntityType entityType, String id) {
+
+            reload();
+        }
+
+        @Override
+        public void membershipChanged(MembershipEntity membership) {
+
+            reload();
+        }
+
+        @Override
+        public void allEntitiesChanged() {
+
+            reload();
+        }
+
+        private void reload() {
+
+            // the source reports modifications rarely, so the whole cache is reloaded
+            try {
+
+                reloadAllEntities();
+
+                logger.info("Reloaded the cache after a modification of the nested directory backend.");
+
+            } catch (RuntimeException e) {
+
+                logger.error("Cannot reload the cache after a modification of the nested directory backend.", e);
+            }
+        }
+    }
 }
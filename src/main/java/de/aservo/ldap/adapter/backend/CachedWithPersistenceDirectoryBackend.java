@@ -32,9 +32,12 @@ import de.aservo.ldap.adapter.api.entity.EntityType;
 import de.aservo.ldap.adapter.api.entity.GroupEntity;
 import de.aservo.ldap.adapter.api.entity.MembershipEntity;
 import de.aservo.ldap.adapter.api.entity.UserEntity;
+import de.aservo.ldap.adapter.api.membership.MembershipEngine;
 import de.aservo.ldap.adapter.api.query.QueryExpression;
 import de.aservo.ldap.adapter.sql.impl.DatabaseService;
 import de.aservo.ldap.adapter.sql.impl.QueryGenerator;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +52,7 @@ import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 
 /**
@@ -109,16 +113,32 @@ public class CachedWithPersistenceDirectoryBackend
      * The constant CONFIG_PASS_ACTIVE_USERS_ONLY.
      */
     public static final String CONFIG_PASS_ACTIVE_USERS_ONLY = "persistence.pass-active-users-only";
+    /**
+     * The constant CONFIG_USE_STAGING_TABLES.
+     */
+    public static final String CONFIG_USE_STAGING_TABLES = "persistence.use-staging-tables";
+    /**
+     * The constant CONFIG_STATEMENT_CACHE_SIZE.
+     */
+    public static final String CONFIG_STATEMENT_CACHE_SIZE = "persistence.statement-cache-size";
+    /**
+     * The constant CONFIG_AGGREGATE_MEMBERSHIPS.
+     */
+    public static final String CONFIG_AGGREGATE_MEMBERSHIPS = "persistence.aggregate-memberships";
 
     private final Logger logger = LoggerFactory.getLogger(CachedWithPersistenceDirectoryBackend.class);
     private final Map<Long, QueryDefFactory> queryDefFactories = Collections.synchronizedMap(new HashMap<>());
     private final Map<String, CloseableTransactionWrapper> closeableTransactions = Collections.synchronizedMap(new HashMap<>());
+    private final Set<Long> stagingThreads = Collections.synchronizedSet(new HashSet<>());
+    private final Set<Long> rebuildThreads = Collections.synchronizedSet(new HashSet<>());
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private final DatabaseService dbService;
     private final int transactionTimeout;
     private final boolean applyNativeSql;
     private final boolean useMaterializedViews;
     private final boolean activeUsersOnly;
+    private final boolean useStagingTables;
+    private final boolean aggregateMemberships;
 
     /**
      * Instantiates a new directory backend.
@@ -151,6 +171,10 @@ public class CachedWithPersistenceDirectoryBackend
         applyNativeSql = Boolean.parseBoolean(properties.getProperty(CONFIG_APPLY_NATIVE_SQL, "false"));
         useMaterializedViews = Boolean.parseBoolean(properties.getProperty(CONFIG_USE_MATERIALIZED_VIEWS, "false"));
         activeUsersOnly = Boolean.parseBoolean(properties.getProperty(CONFIG_PASS_ACTIVE_USERS_ONLY, "true"));
+        useStagingTables = Boolean.parseBoolean(properties.getProperty(CONFIG_USE_STAGING_TABLES, "false"));
+        aggregateMemberships = Boolean.parseBoolean(properties.getProperty(CONFIG_AGGREGATE_MEMBERSHIPS, "false"));
+
+        int statementCacheSize = Integer.parseInt(properties.getProperty(CONFIG_STATEMENT_CACHE_SIZE, "500"));
 
         if (driver == null)
             throw new IllegalArgumentException("Missing value for " + CONFIG_DB_DRIVER);
@@ -203,7 +227,7 @@ public class CachedWithPersistenceDirectoryBackend
             throw new IllegalArgumentException("Expect valid isolation level.");
 
         dbService = new DatabaseService(logger, driver, url, user, password, minIdle, maxIdle, maxTotal,
-                maxOpenPreparedStatements, isolationLevel, applyNativeSql);
+                maxOpenPreparedStatements, isolationLevel, applyNativeSql, statementCacheSize);
     }
 
     @Override
@@ -211,7 +235,18 @@ public class CachedWithPersistenceDirectoryBackend
 
         super.startup();
         dbService.startup();
-        scheduler.scheduleAtFixedRate(this::clearCloseableTransaction, 3, 4, TimeUnit.SECONDS);
+
+        // the closure tables are only maintained while they are in use
+        if (useMaterializedViews)
+            withWriteAccess(this::rebuildAllTransitiveMemberships);
+
+        // expired transactions are closed at the latest a quarter of the timeout after their expiry
+        long sweepInterval = Math.max(transactionTimeout / 4, 1000);
+
+        scheduler.scheduleAtFixedRate(this::clearCloseableTransaction, sweepInterval, sweepInterval,
+                TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(() -> logger.debug("Statement cache statistics: {}",
+                dbService.getStatementCache()), 60, 60, TimeUnit.SECONDS);
     }
 
     @Override
@@ -240,29 +275,32 @@ public class CachedWithPersistenceDirectoryBackend
     @Override
     public <T> T withWriteAccess(Supplier<T> block) {
 
-        return processTransaction(false, () -> {
+        try {
 
-            T result = block.get();
+            return processTransaction(false, () -> {
 
-            if (useMaterializedViews) {
+                long id = Thread.currentThread().getId();
 
-                QueryDefFactory factory = getCurrentQueryDefFactory();
+                try {
 
-                logger.debug("Starting materialized views refresh.");
+                    T result = block.get();
 
-                factory
-                        .queryById("refresh_materialized_view_for_transitive_group_memberships")
-                        .execute(IgnoredResult.class);
+                    if (rebuildThreads.contains(id))
+                        rebuildAllTransitiveMemberships();
 
-                factory
-                        .queryById("refresh_materialized_view_for_transitive_user_memberships")
-                        .execute(IgnoredResult.class);
+                    return result;
 
-                logger.debug("Finished materialized views refresh.");
-            }
+                } finally {
 
-            return result;
-        });
+                    rebuildThreads.remove(id);
+                }
+            });
+
+        } finally {
+
+            // the transaction is committed or rolled back at this point
+            notifyEntityChangeListeners();
+        }
     }
 
     @Override
@@ -282,22 +320,128 @@ public class CachedWithPersistenceDirectoryBackend
     }
 
     @Override
-    public void upsertGroup(String id) {
+    public boolean supportsStaging() {
 
-        super.upsertGroup(id);
+        return useStagingTables;
+    }
+
+    @Override
+    public <T> T withStagingAccess(Supplier<T> block) {
+
+        if (!useStagingTables)
+            return withWriteAccess(block);
 
         try {
 
-            GroupEntity entity = directoryBackend.getGroup(id);
+            return processTransaction(false, () -> {
+
+                long id = Thread.currentThread().getId();
+
+                stagingThreads.add(id);
+
+                try {
+
+                    T result = block.get();
+
+                    // the closure rows are built before the publication, so that it only has to copy them
+                    if (useMaterializedViews)
+                        rebuildAllTransitiveMemberships();
+
+                    return result;
+
+                } finally {
+
+                    stagingThreads.remove(id);
+                }
+            });
+
+        } finally {
+
+            notifyEntityChangeListeners();
+        }
+    }
+
+    @Override
+    public void withStagingAccess(Runnable block) {
+
+        withStagingAccess(() -> {
+
+            block.run();
+            return null;
+        });
+    }
+
+    @Override
+    public void publishStagedEntities() {
+
+        super.publishStagedEntities();
+
+        if (!useStagingTables)
+            return;
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+
+        // all rows are still deleted and copied within the write session, so it takes time in proportion to the
+        // size of the directory; concurrent writers wait for it and readers only see the previous entities meanwhile
+        // if the database does not block reads of uncommitted changes
+        logger.debug("Starting publication of staged entities.");
+
+        factory
+                .queryById("remove_all_groups")
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById("remove_all_users")
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById("publish_staged_groups")
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById("publish_staged_users")
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById("publish_staged_group_memberships")
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById("publish_staged_user_memberships")
+                .execute(IgnoredResult.class);
+
+        if (useMaterializedViews) {
 
-            QueryDefFactory factory = getCurrentQueryDefFactory();
+            factory
+                    .queryById("publish_staged_transitive_group_memberships")
+                    .execute(IgnoredResult.class);
 
             factory
-                    .queryById("create_or_update_group")
-                    .on("id", entity.getId())
-                    .on("name", entity.getName())
-                    .on("description", Optional.ofNullable(entity.getDescription()))
+                    .queryById("publish_staged_transitive_user_memberships")
                     .execute(IgnoredResult.class);
+        }
+
+        factory
+                .queryById("remove_all_staged_groups")
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById("remove_all_staged_users")
+                .execute(IgnoredResult.class);
+
+        logger.debug("Finished publication of staged entities.");
+    }
+
+    @Override
+    public void upsertGroup(String id) {
+
+        super.upsertGroup(id);
+
+        try {
+
+            GroupEntity entity = directoryBackend.getGroup(id);
+
+            upsertGroupEntities(Collections.singleton(entity));
 
         } catch (EntityNotFoundException e) {
 
@@ -312,19 +456,7 @@ public class CachedWithPersistenceDirectoryBackend
 
         Set<GroupEntity> entities = directoryBackend.getAllGroups(startIndex, maxResults);
 
-        entities.forEach(entity -> {
-
-            QueryDefFactory factory = getCurrentQueryDefFactory();
-
-            factory
-                    .queryById("create_or_update_group")
-                    .on("id", entity.getId())
-                    .on("name", entity.getName())
-                    .on("description", Optional.ofNullable(entity.getDescription()))
-                    .execute(IgnoredResult.class);
-        });
-
-        return entities.size();
+        return upsertGroupEntities(entities);
     }
 
     @Override
@@ -334,19 +466,7 @@ public class CachedWithPersistenceDirectoryBackend
 
         Set<GroupEntity> entities = directoryBackend.getAllGroups();
 
-        entities.forEach(entity -> {
-
-            QueryDefFactory factory = getCurrentQueryDefFactory();
-
-            factory
-                    .queryById("create_or_update_group")
-                    .on("id", entity.getId())
-                    .on("name", entity.getName())
-                    .on("description", Optional.ofNullable(entity.getDescription()))
-                    .execute(IgnoredResult.class);
-        });
-
-        return entities.size();
+        return upsertGroupEntities(entities);
     }
 
     @Override
@@ -358,18 +478,7 @@ public class CachedWithPersistenceDirectoryBackend
 
             UserEntity entity = directoryBackend.getUser(id);
 
-            QueryDefFactory factory = getCurrentQueryDefFactory();
-
-            factory
-                    .queryById("create_or_update_user")
-                    .on("id", entity.getId())
-                    .on("username", entity.getUsername())
-                    .on("last_name", Optional.ofNullable(entity.getLastName()))
-                    .on("first_name", Optional.ofNullable(entity.getFirstName()))
-                    .on("display_name", Optional.ofNullable(entity.getDisplayName()))
-                    .on("email", Optional.ofNullable(entity.getEmail()))
-                    .on("active", entity.isActive())
-                    .execute(IgnoredResult.class);
+            upsertUserEntities(Collections.singleton(entity));
 
         } catch (EntityNotFoundException e) {
 
@@ -382,18 +491,21 @@ public class CachedWithPersistenceDirectoryBackend
 
         super.upsertUser(id, idOther);
 
+        requireNoStaging();
+
         upsertUser(id);
 
         QueryDefFactory factory = getCurrentQueryDefFactory();
 
-        getDirectGroupsOfUser(idOther).forEach(group -> {
-
-            factory
-                    .queryById("create_user_membership_if_not_exists")
-                    .on("parent_group_id", group.getName())
-                    .on("member_user_id", id)
-                    .execute(IgnoredResult.class);
-        });
+        factory
+                .queryById("create_user_membership_if_not_exists")
+                .on("member_user_id", id)
+                .executeBatch(toBatchArguments("parent_group_id", getDirectGroupsOfUser(idOther).stream()
+                        .map(GroupEntity::getName)
+                        .collect(Collectors.toList())));
+
+        if (isTransitiveMembershipMaintained())
+            rebuildTransitiveMembershipsOfUsers(Collections.singleton(id));
     }
 
     @Override
@@ -403,23 +515,7 @@ public class CachedWithPersistenceDirectoryBackend
 
         Set<UserEntity> entities = directoryBackend.getAllUsers(startIndex, maxResults);
 
-        entities.forEach(entity -> {
-
-            QueryDefFactory factory = getCurrentQueryDefFactory();
-
-            factory
-                    .queryById("create_or_update_user")
-                    .on("id", entity.getId())
-                    .on("username", entity.getUsername())
-                    .on("last_name", Optional.ofNullable(entity.getLastName()))
-                    .on("first_name", Optional.ofNullable(entity.getFirstName()))
-                    .on("display_name", Optional.ofNullable(entity.getDisplayName()))
-                    .on("email", Optional.ofNullable(entity.getEmail()))
-                    .on("active", entity.isActive())
-                    .execute(IgnoredResult.class);
-        });
-
-        return entities.size();
+        return upsertUserEntities(entities);
     }
 
     @Override
@@ -429,23 +525,39 @@ public class CachedWithPersistenceDirectoryBackend
 
         Set<UserEntity> entities = directoryBackend.getAllUsers();
 
-        entities.forEach(entity -> {
+        return upsertUserEntities(entities);
+    }
+
+    @Override
+    public void restoreGroups(Collection<GroupEntity> entities) {
 
-            QueryDefFactory factory = getCurrentQueryDefFactory();
+        super.restoreGroups(entities);
 
-            factory
-                    .queryById("create_or_update_user")
-                    .on("id", entity.getId())
-                    .on("username", entity.getUsername())
-                    .on("last_name", Optional.ofNullable(entity.getLastName()))
-                    .on("first_name", Optional.ofNullable(entity.getFirstName()))
-                    .on("display_name", Optional.ofNullable(entity.getDisplayName()))
-                    .on("email", Optional.ofNullable(entity.getEmail()))
-                    .on("active", entity.isActive())
-                    .execute(IgnoredResult.class);
-        });
+        upsertGroupEntities(entities);
+    }
 
-        return entities.size();
+    @Override
+    public void restoreUsers(Collection<UserEntity> entities) {
+
+        super.restoreUsers(entities);
+
+        upsertUserEntities(entities);
+    }
+
+    @Override
+    public void upsertGroups(Collection<GroupEntity> entities) {
+
+        super.upsertGroups(entities);
+
+        upsertGroupEntities(entities);
+    }
+
+    @Override
+    public void upsertUsers(Collection<UserEntity> entities) {
+
+        super.upsertUsers(entities);
+
+        upsertUserEntities(entities);
     }
 
     @Override
@@ -455,23 +567,35 @@ public class CachedWithPersistenceDirectoryBackend
 
         QueryDefFactory factory = getCurrentQueryDefFactory();
 
-        membership.getMemberGroupIds().forEach(id -> {
+        factory
+                .queryById(selectQuery("create_group_membership_if_not_exists",
+                        "create_staged_group_membership_if_not_exists"))
+                .on("parent_group_id", membership.getParentGroupId())
+                .executeBatch(toBatchArguments("member_group_id", membership.getMemberGroupIds()));
+
+        factory
+                .queryById(selectQuery("create_user_membership_if_not_exists",
+                        "create_staged_user_membership_if_not_exists"))
+                .on("parent_group_id", membership.getParentGroupId())
+                .executeBatch(toBatchArguments("member_user_id", membership.getMemberUserIds()));
+
+        if (isTransitiveMembershipMaintained()) {
 
             factory
-                    .queryById("create_group_membership_if_not_exists")
+                    .queryById("create_transitive_group_memberships_for_group_membership")
                     .on("parent_group_id", membership.getParentGroupId())
-                    .on("member_group_id", id)
-                    .execute(IgnoredResult.class);
-        });
+                    .executeBatch(toBatchArguments("member_group_id", membership.getMemberGroupIds()));
 
-        membership.getMemberUserIds().forEach(id -> {
+            factory
+                    .queryById("create_transitive_user_memberships_for_group_membership")
+                    .on("parent_group_id", membership.getParentGroupId())
+                    .executeBatch(toBatchArguments("member_group_id", membership.getMemberGroupIds()));
 
             factory
-                    .queryById("create_user_membership_if_not_exists")
+                    .queryById("create_transitive_user_memberships_for_user_membership")
                     .on("parent_group_id", membership.getParentGroupId())
-                    .on("member_user_id", id)
-                    .execute(IgnoredResult.class);
-        });
+                    .executeBatch(toBatchArguments("member_user_id", membership.getMemberUserIds()));
+        }
     }
 
     @Override
@@ -479,12 +603,23 @@ public class CachedWithPersistenceDirectoryBackend
 
         super.dropGroup(id);
 
+        requireNoStaging();
+
         QueryDefFactory factory = getCurrentQueryDefFactory();
+        boolean maintained = isTransitiveMembershipMaintained();
+        Set<String> parentGroupIds = maintained ? findTransitiveParentGroupIds(id) : Collections.emptySet();
 
         factory
                 .queryById("remove_group_if_exists")
                 .on("id", id)
                 .execute(IgnoredResult.class);
+
+        // the closure rows of the group itself are removed by cascade
+        if (maintained) {
+
+            parentGroupIds.remove(id);
+            rebuildTransitiveMemberships(parentGroupIds);
+        }
     }
 
     @Override
@@ -495,8 +630,11 @@ public class CachedWithPersistenceDirectoryBackend
         QueryDefFactory factory = getCurrentQueryDefFactory();
 
         factory
-                .queryById("remove_all_groups")
+                .queryById(selectQuery("remove_all_groups", "remove_all_staged_groups"))
                 .execute(IgnoredResult.class);
+
+        if (!isStagingSession())
+            requireTransitiveMembershipRebuild();
     }
 
     @Override
@@ -504,6 +642,8 @@ public class CachedWithPersistenceDirectoryBackend
 
         super.dropUser(id);
 
+        requireNoStaging();
+
         QueryDefFactory factory = getCurrentQueryDefFactory();
 
         factory
@@ -520,8 +660,11 @@ public class CachedWithPersistenceDirectoryBackend
         QueryDefFactory factory = getCurrentQueryDefFactory();
 
         factory
-                .queryById("remove_all_users")
+                .queryById(selectQuery("remove_all_users", "remove_all_staged_users"))
                 .execute(IgnoredResult.class);
+
+        if (!isStagingSession())
+            requireTransitiveMembershipRebuild();
     }
 
     @Override
@@ -529,37 +672,41 @@ public class CachedWithPersistenceDirectoryBackend
 
         super.dropMembership(membership);
 
+        requireNoStaging();
+
         QueryDefFactory factory = getCurrentQueryDefFactory();
 
-        membership.getMemberGroupIds().forEach(id -> {
+        factory
+                .queryById("remove_group_membership_if_exists")
+                .on("parent_group_id", membership.getParentGroupId())
+                .executeBatch(toBatchArguments("member_group_id", membership.getMemberGroupIds()));
 
-            factory
-                    .queryById("remove_group_membership_if_exists")
-                    .on("parent_group_id", membership.getParentGroupId())
-                    .on("member_group_id", id)
-                    .execute(IgnoredResult.class);
-        });
+        factory
+                .queryById("remove_user_membership_if_exists")
+                .on("parent_group_id", membership.getParentGroupId())
+                .executeBatch(toBatchArguments("member_user_id", membership.getMemberUserIds()));
 
-        membership.getMemberUserIds().forEach(id -> {
+        if (isTransitiveMembershipMaintained()) {
 
-            factory
-                    .queryById("remove_user_membership_if_exists")
-                    .on("parent_group_id", membership.getParentGroupId())
-                    .on("member_user_id", id)
-                    .execute(IgnoredResult.class);
-        });
+            // only the closure rows of the parent group and its ancestors can lose a path
+            if (!membership.getMemberGroupIds().isEmpty())
+                rebuildTransitiveMemberships(findTransitiveParentGroupIds(membership.getParentGroupId()));
+
+            rebuildTransitiveMembershipsOfUsers(membership.getMemberUserIds());
+        }
     }
 
     @Override
     public MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
-                                                  EntityType entityType) {
+                                                  EntityType entityType, Set<String> attributes, String lastId,
+                                                  int limit, List<SortKey> sortKeys) {
 
         QueryGenerator generator =
                 new QueryGenerator(schemaManager, getId(), config.isFlatteningEnabled(), activeUsersOnly,
-                        useMaterializedViews);
+                        useMaterializedViews, aggregateMemberships);
 
         return addCursorCleanup(txId, generator.generate(entityType, getCloseableTransaction(txId).getQueryDefFactory(),
-                        expression)
+                        expression, attributes, lastId, limit, sortKeys)
                 .execute(CursorResult.class)
                 .transform(Function.identity()));
     }
@@ -616,6 +763,36 @@ public class CachedWithPersistenceDirectoryBackend
                 .transform(this::mapUserEntity));
     }
 
+    @Override
+    public MappableCursor<MembershipEntity> getDirectMemberships() {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+        Map<String, Pair<Set<String>, Set<String>>> memberships = new HashMap<>();
+
+        List<Pair<String, String>> userMemberships = factory
+                .queryById("find_all_direct_user_memberships")
+                .on("active_only", activeUsersOnly)
+                .execute(IndexedSeqResult.class)
+                .transform(x -> Pair.of(
+                        x.apply("parent_group_id", String.class),
+                        x.apply("member_user_id", String.class)));
+
+        for (Pair<String, String> membership : findAllDirectGroupMemberships())
+            memberships.computeIfAbsent(membership.getLeft(), x -> Pair.of(new HashSet<>(), new HashSet<>()))
+                    .getLeft().add(membership.getRight());
+
+        for (Pair<String, String> membership : userMemberships)
+            memberships.computeIfAbsent(membership.getLeft(), x -> Pair.of(new HashSet<>(), new HashSet<>()))
+                    .getRight().add(membership.getRight());
+
+        List<MembershipEntity> result = new ArrayList<>();
+
+        memberships.forEach((parentGroupId, members) ->
+                result.add(new MembershipEntity(parentGroupId, members.getLeft(), members.getRight())));
+
+        return MappableCursor.fromIterable(result);
+    }
+
     @Override
     public Set<UserEntity> getDirectUsersOfGroup(String id)
             throws EntityNotFoundException {
@@ -834,6 +1011,256 @@ public class CachedWithPersistenceDirectoryBackend
         return queryDefFactories.get(Thread.currentThread().getId());
     }
 
+    private int upsertGroupEntities(Collection<GroupEntity> entities) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+
+        return factory
+                .queryById(selectQuery("create_or_update_group", "create_or_update_staged_group"))
+                .executeBatch(entities.stream()
+                        .map(entity -> {
+
+                            Map<String, Object> arguments = new HashMap<>();
+
+                            arguments.put("id", entity.getId());
+                            arguments.put("name", entity.getName());
+                            arguments.put("description", Optional.ofNullable(entity.getDescription()));
+
+                            return arguments;
+                        })
+                        .collect(Collectors.toList()));
+    }
+
+    private int upsertUserEntities(Collection<UserEntity> entities) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+
+        return factory
+                .queryById(selectQuery("create_or_update_user", "create_or_update_staged_user"))
+                .executeBatch(entities.stream()
+                        .map(entity -> {
+
+                            Map<String, Object> arguments = new HashMap<>();
+
+                            arguments.put("id", entity.getId());
+                            arguments.put("username", entity.getUsername());
+                            arguments.put("last_name", Optional.ofNullable(entity.getLastName()));
+                            arguments.put("first_name", Optional.ofNullable(entity.getFirstName()));
+                            arguments.put("display_name", Optional.ofNullable(entity.getDisplayName()));
+                            arguments.put("email", Optional.ofNullable(entity.getEmail()));
+                            arguments.put("active", entity.isActive());
+
+                            return arguments;
+                        })
+                        .collect(Collectors.toList()));
+    }
+
+    private List<Map<String, Object>> toBatchArguments(String key, Collection<String> values) {
+
+        return values.stream()
+                .map(value -> Collections.<String, Object>singletonMap(key, value))
+                .collect(Collectors.toList());
+    }
+
+    private boolean isTransitiveMembershipMaintained() {
+
+        long id = Thread.currentThread().getId();
+
+        return useMaterializedViews && !stagingThreads.contains(id) && !rebuildThreads.contains(id);
+    }
+
+    private void requireTransitiveMembershipRebuild() {
+
+        if (useMaterializedViews)
+            rebuildThreads.add(Thread.currentThread().getId());
+    }
+
+    private Set<String> findTransitiveParentGroupIds(String id) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+        Set<String> result = new HashSet<>();
+
+        result.add(id);
+
+        factory
+                .queryById("find_transitive_parent_groups_of_group")
+                .on("group_id", id)
+                .execute(IndexedSeqResult.class)
+                .transform(this::mapGroupEntity)
+                .forEach(x -> result.add(x.getId()));
+
+        return result;
+    }
+
+    private void rebuildTransitiveMemberships(Collection<String> groupIds) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+        List<Map<String, Object>> batchArguments = toBatchArguments("group_id", groupIds);
+
+        factory
+                .queryById("remove_transitive_group_memberships_of_group")
+                .executeBatch(batchArguments);
+
+        factory
+                .queryById("remove_transitive_user_memberships_of_group")
+                .executeBatch(batchArguments);
+
+        createTransitiveGroupMemberships(findGroupMembershipsBelow(groupIds), groupIds);
+
+        factory
+                .queryById("create_transitive_user_memberships_of_group")
+                .executeBatch(batchArguments);
+    }
+
+    private void rebuildTransitiveMembershipsOfUsers(Collection<String> userIds) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+        List<Map<String, Object>> batchArguments = toBatchArguments("user_id", userIds);
+
+        factory
+                .queryById("remove_transitive_user_memberships_of_user")
+                .executeBatch(batchArguments);
+
+        factory
+                .queryById("create_transitive_user_memberships_of_user")
+                .executeBatch(batchArguments);
+    }
+
+    private List<Pair<String, String>> findAllDirectGroupMemberships() {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+
+        return factory
+                .queryById(selectQuery("find_all_direct_group_memberships",
+                        "find_all_direct_staged_group_memberships"))
+                .execute(IndexedSeqResult.class)
+                .transform(x -> Pair.of(
+                        x.apply("parent_group_id", String.class),
+                        x.apply("member_group_id", String.class)));
+    }
+
+    private List<Pair<String, String>> findGroupMembershipsBelow(Collection<String> groupIds) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+        Set<String> rebuiltGroupIds = new HashSet<>(groupIds);
+        Set<String> boundaryGroupIds = new HashSet<>();
+        List<Pair<String, String>> memberships = new ArrayList<>();
+
+        for (String groupId : rebuiltGroupIds) {
+
+            factory
+                    .queryById("find_direct_child_groups_of_group")
+                    .on("group_id", groupId)
+                    .execute(IndexedSeqResult.class)
+                    .transform(this::mapGroupEntity)
+                    .forEach(x -> {
+
+                        memberships.add(Pair.of(groupId, x.getId()));
+
+                        if (!rebuiltGroupIds.contains(x.getId()))
+                            boundaryGroupIds.add(x.getId());
+                    });
+        }
+
+        // groups outside of the rebuilt ones cannot reach a modified membership, so their closure rows are still
+        // valid and stand in for the memberships further below
+        for (String groupId : boundaryGroupIds) {
+
+            factory
+                    .queryById("find_transitive_child_groups_of_group")
+                    .on("group_id", groupId)
+                    .execute(IndexedSeqResult.class)
+                    .transform(this::mapGroupEntity)
+                    .forEach(x -> {
+
+                        if (!x.getId().equals(groupId))
+                            memberships.add(Pair.of(groupId, x.getId()));
+                    });
+        }
+
+        return memberships;
+    }
+
+    private void createTransitiveGroupMemberships(List<Pair<String, String>> memberships,
+                                                  Collection<String> groupIds) {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+        MembershipEngine membershipEngine = new MembershipEngine();
+        List<Map<String, Object>> batchArguments = new ArrayList<>();
+
+        // the closure is resolved in memory with collapsed cycles instead of joining the closure table repeatedly
+        memberships.forEach(x -> membershipEngine.addGroupMembership(x.getLeft(), x.getRight()));
+
+        for (String groupId : groupIds) {
+
+            Set<String> memberGroupIds = membershipEngine.getTransitiveChildGroupIds(groupId);
+
+            // a group which is a nested member of itself has a closure row for itself like with a recursive query
+            if (membershipEngine.isPartOfCycle(groupId))
+                memberGroupIds.add(groupId.toLowerCase());
+
+            for (String memberGroupId : memberGroupIds) {
+
+                Map<String, Object> arguments = new HashMap<>();
+
+                arguments.put("parent_group_id", groupId);
+                arguments.put("member_group_id", memberGroupId);
+                batchArguments.add(arguments);
+            }
+        }
+
+        factory
+                .queryById(selectQuery("create_transitive_group_membership",
+                        "create_transitive_staged_group_membership"))
+                .executeBatch(batchArguments);
+    }
+
+    private void rebuildAllTransitiveMemberships() {
+
+        QueryDefFactory factory = getCurrentQueryDefFactory();
+
+        logger.debug("Starting rebuild of transitive memberships.");
+
+        factory
+                .queryById(selectQuery("remove_all_transitive_group_memberships",
+                        "remove_all_transitive_staged_group_memberships"))
+                .execute(IgnoredResult.class);
+
+        factory
+                .queryById(selectQuery("remove_all_transitive_user_memberships",
+                        "remove_all_transitive_staged_user_memberships"))
+                .execute(IgnoredResult.class);
+
+        List<Pair<String, String>> memberships = findAllDirectGroupMemberships();
+
+        createTransitiveGroupMemberships(memberships, memberships.stream()
+                .map(Pair::getLeft)
+                .collect(Collectors.toSet()));
+
+        factory
+                .queryById(selectQuery("create_all_transitive_user_memberships",
+                        "create_all_transitive_staged_user_memberships"))
+                .execute(IgnoredResult.class);
+
+        logger.debug("Finished rebuild of transitive memberships.");
+    }
+
+    private boolean isStagingSession() {
+
+        return stagingThreads.contains(Thread.currentThread().getId());
+    }
+
+    private String selectQuery(String queryId, String stagedQueryId) {
+
+        return isStagingSession() ? stagedQueryId : queryId;
+    }
+
+    private void requireNoStaging() {
+
+        if (isStagingSession())
+            throw new IllegalStateException("Operation is not supported within a staging session.");
+    }
+
     private MappableCursor<Row> addCursorCleanup(String txId, MappableCursor<Row> rows) {
 
         return new MappableCursor<Row>() {
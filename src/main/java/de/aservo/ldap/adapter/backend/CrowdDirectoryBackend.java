@@ -24,6 +24,7 @@ import com.atlassian.crowd.model.group.Group;
 import com.atlassian.crowd.model.user.User;
 import com.atlassian.crowd.search.query.entity.restriction.*;
 import com.atlassian.crowd.search.query.entity.restriction.constants.GroupTermKeys;
+import com.atlassian.crowd.search.query.entity.restriction.constants.UserTermKeys;
 import com.atlassian.crowd.service.client.ClientProperties;
 import com.atlassian.crowd.service.client.ClientPropertiesImpl;
 import com.atlassian.crowd.service.client.CrowdClient;
@@ -44,10 +45,14 @@ import de.aservo.ldap.adapter.api.query.EqualOperator;
 import de.aservo.ldap.adapter.api.query.OrLogicExpression;
 import de.aservo.ldap.adapter.api.query.QueryExpression;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -112,7 +117,8 @@ public class CrowdDirectoryBackend
     }
 
     public MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
-                                                  EntityType entityType) {
+                                                  EntityType entityType, Set<String> attributes, String lastId,
+                                                  int limit, List<SortKey> sortKeys) {
 
         throw new UnsupportedOperationException("Query generation not supported for Crowd directory backend.");
     }
@@ -477,6 +483,72 @@ public class CrowdDirectoryBackend
         }
     }
 
+    public Set<GroupEntity> fetchGroups(Collection<String> ids) {
+
+        logger.info("Backend call: fetchGroups; count={}", ids.size());
+
+        if (ids.isEmpty())
+            return new HashSet<>();
+
+        // all groups are requested at once with a disjunction of their names
+        SearchRestriction restriction =
+                new BooleanRestrictionImpl(
+                        BooleanRestriction.BooleanLogic.OR,
+                        ids.stream()
+                                .<SearchRestriction>map(x ->
+                                        new TermRestriction<>(GroupTermKeys.NAME, MatchMode.EXACTLY_MATCHES, x))
+                                .collect(Collectors.toList()));
+
+        try {
+
+            return crowdClient.searchGroups(restriction, 0, ids.size()).stream()
+                    .map(this::createGroupEntity)
+                    .collect(Collectors.toSet());
+
+        } catch (ApplicationPermissionException |
+                InvalidAuthenticationException e) {
+
+            throw new SecurityProblemException(e);
+
+        } catch (OperationFailedException e) {
+
+            throw new DirectoryAccessFailureException(e);
+        }
+    }
+
+    public Set<UserEntity> fetchUsers(Collection<String> ids) {
+
+        logger.info("Backend call: fetchUsers; count={}", ids.size());
+
+        if (ids.isEmpty())
+            return new HashSet<>();
+
+        // all users are requested at once with a disjunction of their names
+        SearchRestriction restriction =
+                new BooleanRestrictionImpl(
+                        BooleanRestriction.BooleanLogic.OR,
+                        ids.stream()
+                                .<SearchRestriction>map(x ->
+                                        new TermRestriction<>(UserTermKeys.USERNAME, MatchMode.EXACTLY_MATCHES, x))
+                                .collect(Collectors.toList()));
+
+        try {
+
+            return crowdClient.searchUsers(restriction, 0, ids.size()).stream()
+                    .map(this::createUserEntity)
+                    .collect(Collectors.toSet());
+
+        } catch (ApplicationPermissionException |
+                InvalidAuthenticationException e) {
+
+            throw new SecurityProblemException(e);
+
+        } catch (OperationFailedException e) {
+
+            throw new DirectoryAccessFailureException(e);
+        }
+    }
+
     private GroupEntity createGroupEntity(Group group) {
 
         return new GroupEntity(
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A thread-safe client for the REST endpoints of the Crowd server. All requests share a pool of persistent
+ * connections so that TCP and TLS handshakes are only paid when a connection is opened. Compressed responses are
+ * decoded transparently.
+ */
+public class CrowdRestClient
+        implements Closeable {
+
+    private static final Gson gson = new Gson();
+
+    private final Logger logger = LoggerFactory.getLogger(CrowdRestClient.class);
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final String baseUrl;
+    private final String authorization;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Instantiates a new REST client.
+     *
+     * @param baseUrl        the base URL of the Crowd server
+     * @param username       the name of the user used for REST access
+     * @param password       the password of the user
+     * @param maxTotal       the maximum number of pooled connections
+     * @param maxPerRoute    the maximum number of pooled connections per route
+     * @param connectTimeout the timeout in milliseconds for establishing a connection
+     * @param socketTimeout  the timeout in milliseconds for waiting for data and for leasing a pooled connection
+     * @param keepAlive      the maximum time in milliseconds an idle connection is kept open
+     */
+    public CrowdRestClient(String baseUrl, String username, String password, int maxTotal, int maxPerRoute,
+                           int connectTimeout, int socketTimeout, long keepAlive) {
+
+        if (maxTotal < 1 || maxPerRoute < 1)
+            throw new IllegalArgumentException("The number of connections cannot be less than one.");
+
+        if (connectTimeout < 0 || socketTimeout < 0 || keepAlive < 0)
+            throw new IllegalArgumentException("Expect non-negative timeouts for the REST client.");
+
+        this.baseUrl = baseUrl;
+
+        authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        RequestConfig requestConfig =
+                RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout)
+                        .setConnectionRequestTimeout(socketTimeout)
+                        .build();
+
+        // the server may announce a shorter keep-alive time but never a longer one
+        httpClient =
+                HttpClientBuilder.create()
+                        .setConnectionManager(connectionManager)
+                        .setDefaultRequestConfig(requestConfig)
+                        .setRedirectStrategy(new LaxRedirectStrategy())
+                        .setKeepAliveStrategy((response, context) -> {
+
+                            long duration =
+                                    DefaultConnectionKeepAliveStrategy.INSTANCE
+                                            .getKeepAliveDuration(response, context);
+
+                            return duration < 0 ? keepAlive : Math.min(duration, keepAlive);
+                        })
+                        .evictExpiredConnections()
+                        .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                        .build();
+    }
+
+    /**
+     * Sends a GET request.
+     *
+     * @param route        the route relative to the base URL
+     * @param expectResult the flag to parse the response as JSON object
+     * @return the JSON object or empty if no result is expected
+     * @throws IOException if the request fails
+     */
+    public Optional<JsonObject> get(String route, boolean expectResult)
+            throws IOException {
+
+        return execute(new HttpGet(baseUrl + route), expectResult);
+    }
+
+    /**
+     * Sends a POST request.
+     *
+     * @param route        the route relative to the base URL
+     * @param node         the JSON object sent as request body; can be null
+     * @param expectResult the flag to parse the response as JSON object
+     * @return the JSON object or empty if no result is expected
+     * @throws IOException if the request fails
+     */
+    public Optional<JsonObject> post(String route, JsonObject node, boolean expectResult)
+            throws IOException {
+
+        HttpPost request = new HttpPost(baseUrl + route);
+
+        if (node != null)
+            request.setEntity(new StringEntity(gson.toJson(node), ContentType.APPLICATION_JSON));
+
+        return execute(request, expectResult);
+    }
+
+    private Optional<JsonObject> execute(HttpRequestBase request, boolean expectResult)
+            throws IOException {
+
+        request.setHeader("Authorization", authorization);
+        request.setHeader("Accept", "application/json");
+
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+
+            HttpEntity entity = response.getEntity();
+
+            // a fully read entity returns the connection to the pool
+            if (!expectResult) {
+
+                EntityUtils.consume(entity);
+                failed = false;
+
+                return Optional.empty();
+            }
+
+            String result = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+
+            try {
+
+                JsonObject object = gson.fromJson(result, JsonObject.class);
+
+                failed = false;
+
+                return Optional.of(object);
+
+            } catch (JsonSyntaxException e) {
+
+                logger.error("Cannot parse JSON object. Status code: {}; Result:\n {}",
+                        response.getStatusLine().getStatusCode(), result);
+
+                throw e;
+            }
+
+        } finally {
+
+            long duration = System.nanoTime() - start;
+
+            requests.incrementAndGet();
+            totalNanos.addAndGet(duration);
+            maxNanos.accumulateAndGet(duration, Math::max);
+
+            if (failed)
+                failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of sent requests.
+     *
+     * @return the number of requests
+     */
+    public long getRequests() {
+
+        return requests.get();
+    }
+
+    /**
+     * Gets the number of failed requests.
+     *
+     * @return the number of failures
+     */
+    public long getFailures() {
+
+        return failures.get();
+    }
+
+    /**
+     * Gets the usage of the connection pool.
+     *
+     * @return the pool statistics
+     */
+    public PoolStats getPoolStats() {
+
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+
+        httpClient.close();
+    }
+
+    @Override
+    public String toString() {
+
+        long requestCount = getRequests();
+        PoolStats stats = getPoolStats();
+
+        return String.format("requests=%d, failures=%d, avg-latency=%.1fms, max-latency=%.1fms, " +
+                        "leased=%d, available=%d, pending=%d, max=%d",
+                requestCount, getFailures(),
+                requestCount == 0 ? 0.0 : totalNanos.get() / 1e6 / requestCount, maxNanos.get() / 1e6,
+                stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+}
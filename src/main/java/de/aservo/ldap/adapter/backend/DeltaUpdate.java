@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+
+/**
+ * The changes of a sequence of audit log entries reduced to the final state of each entity and membership. Changes
+ * are added in the order in which they happened. Only the last change of an entity is applied, and a membership
+ * change is skipped if one of its entities is dropped later because dropping an entity removes its memberships.
+ * A renamed user is a barrier: the changes before it are applied before the user inherits the memberships of the
+ * old user.
+ */
+public class DeltaUpdate {
+
+    private final Logger logger = LoggerFactory.getLogger(DeltaUpdate.class);
+
+    private final NestedDirectoryBackend directoryBackend;
+    private final Function<List<String>, List<GroupEntity>> groupFetcher;
+    private final Function<List<String>, List<UserEntity>> userFetcher;
+    private final Map<String, Integer> droppedGroups = new HashMap<>();
+    private final Map<String, Integer> droppedUsers = new HashMap<>();
+    private final Map<String, Boolean> groupStates = new LinkedHashMap<>();
+    private final Map<String, Boolean> userStates = new LinkedHashMap<>();
+    private final Map<Pair<String, String>, Pair<Boolean, Integer>> groupMemberships = new LinkedHashMap<>();
+    private final Map<Pair<String, String>, Pair<Boolean, Integer>> userMemberships = new LinkedHashMap<>();
+    private int position = 0;
+
+    /**
+     * Instantiates a new delta update.
+     *
+     * @param directoryBackend the directory backend which receives the changes
+     * @param groupFetcher     the function which downloads the current state of groups by their IDs
+     * @param userFetcher      the function which downloads the current state of users by their IDs
+     */
+    public DeltaUpdate(NestedDirectoryBackend directoryBackend,
+                       Function<List<String>, List<GroupEntity>> groupFetcher,
+                       Function<List<String>, List<UserEntity>> userFetcher) {
+
+        this.directoryBackend = directoryBackend;
+        this.groupFetcher = groupFetcher;
+        this.userFetcher = userFetcher;
+    }
+
+    /**
+     * Adds a created or updated group.
+     *
+     * @param id the group ID
+     */
+    public void validateGroup(String id) {
+
+        position++;
+        groupStates.put(id.toLowerCase(), true);
+    }
+
+    /**
+     * Adds a deleted group.
+     *
+     * @param id the group ID
+     */
+    public void invalidateGroup(String id) {
+
+        position++;
+        groupStates.put(id.toLowerCase(), false);
+        droppedGroups.put(id.toLowerCase(), position);
+    }
+
+    /**
+     * Adds a created or updated user.
+     *
+     * @param id the user ID
+     */
+    public void validateUser(String id) {
+
+        position++;
+        userStates.put(id.toLowerCase(), true);
+    }
+
+    /**
+     * Adds a deleted user.
+     *
+     * @param id the user ID
+     */
+    public void invalidateUser(String id) {
+
+        position++;
+        userStates.put(id.toLowerCase(), false);
+        droppedUsers.put(id.toLowerCase(), position);
+    }
+
+    /**
+     * Applies all changes added so far and lets a renamed user inherit the memberships of the old user.
+     *
+     * @param id    the new user ID
+     * @param oldId the old user ID
+     */
+    public void renameUser(String id, String oldId) {
+
+        apply();
+        directoryBackend.upsertUser(id.toLowerCase(), oldId.toLowerCase());
+    }
+
+    /**
+     * Adds added memberships.
+     *
+     * @param membership the membership entity
+     */
+    public void validateMembership(MembershipEntity membership) {
+
+        addMembership(membership, true);
+    }
+
+    /**
+     * Adds removed memberships.
+     *
+     * @param membership the membership entity
+     */
+    public void invalidateMembership(MembershipEntity membership) {
+
+        addMembership(membership, false);
+    }
+
+    /**
+     * Applies all changes added so far and starts over with an empty delta.
+     */
+    public void apply() {
+
+        droppedGroups.keySet().forEach(directoryBackend::dropGroup);
+        droppedUsers.keySet().forEach(directoryBackend::dropUser);
+
+        List<String> groupIds = findValidated(groupStates);
+        List<String> userIds = findValidated(userStates);
+
+        if (!groupIds.isEmpty()) {
+
+            List<GroupEntity> groups = groupFetcher.apply(groupIds);
+
+            if (groups.size() < groupIds.size())
+                logger.warn("Skip {} of {} group entities which no longer exist.",
+                        groupIds.size() - groups.size(), groupIds.size());
+
+            directoryBackend.upsertGroups(groups);
+        }
+
+        if (!userIds.isEmpty()) {
+
+            List<UserEntity> users = userFetcher.apply(userIds);
+
+            if (users.size() < userIds.size())
+                logger.warn("Skip {} of {} user entities which no longer exist.",
+                        userIds.size() - users.size(), userIds.size());
+
+            directoryBackend.upsertUsers(users);
+        }
+
+        Map<String, Pair<Set<String>, Set<String>>> addedMemberships = new LinkedHashMap<>();
+        Map<String, Pair<Set<String>, Set<String>>> removedMemberships = new LinkedHashMap<>();
+
+        groupMemberships.forEach((key, state) -> {
+
+            if (state.getRight() > droppedGroups.getOrDefault(key.getLeft(), 0) &&
+                    state.getRight() > droppedGroups.getOrDefault(key.getRight(), 0))
+                collectMember(state.getLeft() ? addedMemberships : removedMemberships, key, true);
+        });
+
+        userMemberships.forEach((key, state) -> {
+
+            if (state.getRight() > droppedGroups.getOrDefault(key.getLeft(), 0) &&
+                    state.getRight() > droppedUsers.getOrDefault(key.getRight(), 0))
+                collectMember(state.getLeft() ? addedMemberships : removedMemberships, key, false);
+        });
+
+        addedMemberships.forEach((key, members) ->
+                directoryBackend.upsertMembership(
+                        new MembershipEntity(key, members.getLeft(), members.getRight())));
+
+        removedMemberships.forEach((key, members) ->
+                directoryBackend.dropMembership(
+                        new MembershipEntity(key, members.getLeft(), members.getRight())));
+
+        droppedGroups.clear();
+        droppedUsers.clear();
+        groupStates.clear();
+        userStates.clear();
+        groupMemberships.clear();
+        userMemberships.clear();
+    }
+
+    private void addMembership(MembershipEntity membership, boolean added) {
+
+        Pair<Boolean, Integer> state = Pair.of(added, ++position);
+
+        for (String memberGroupId : membership.getMemberGroupIds())
+            groupMemberships.put(Pair.of(membership.getParentGroupId(), memberGroupId), state);
+
+        for (String memberUserId : membership.getMemberUserIds())
+            userMemberships.put(Pair.of(membership.getParentGroupId(), memberUserId), state);
+    }
+
+    private List<String> findValidated(Map<String, Boolean> states) {
+
+        return states.entrySet().stream()
+                .filter(Map.Entry::getValue)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    private void collectMember(Map<String, Pair<Set<String>, Set<String>>> memberships,
+                               Pair<String, String> key, boolean group) {
+
+        Pair<Set<String>, Set<String>> members =
+                memberships.computeIfAbsent(key.getLeft(), x -> Pair.of(new HashSet<>(), new HashSet<>()));
+
+        (group ? members.getLeft() : members.getRight()).add(key.getRight());
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.cursor.MappableCursor;
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+
+/**
+ * A full synchronization which downloads pages of groups, users and memberships concurrently while the calling
+ * thread writes the downloaded pages. Every fetcher claims the next page of groups or users until a short page marks
+ * the end; another fetcher reads the membership cursor in batches. The bounded buffers stop the fetchers if writing
+ * is slower than downloading. Memberships are written after all groups and users.
+ */
+public class FullSyncPipeline {
+
+    private static final Object END_OF_PAGES = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final NestedDirectoryBackend directoryBackend;
+    private final ExecutorService executor;
+    private final int fetchThreads;
+    private final int pageSize;
+    private final BlockingQueue<Object> entityPages;
+    private final BlockingQueue<Object> membershipPages;
+    private final List<Future<?>> tasks = new ArrayList<>();
+    private volatile boolean groupsDone = false;
+    private volatile boolean usersDone = false;
+    private volatile boolean closed = false;
+    private int nextGroupPage = 0;
+    private int nextUserPage = 0;
+    private boolean claimGroupPage = true;
+
+    /**
+     * Instantiates a new full synchronization.
+     *
+     * @param directoryBackend the directory backend which requests the entities from its nested backends
+     * @param executor         the executor running the fetchers; it must not queue tasks while all threads are busy
+     * @param fetchThreads     the number of fetchers for pages of groups and users
+     * @param pageSize         the number of entities per page
+     * @param bufferSize       the maximum number of downloaded pages waiting to be written
+     */
+    public FullSyncPipeline(NestedDirectoryBackend directoryBackend, ExecutorService executor, int fetchThreads,
+                            int pageSize, int bufferSize) {
+
+        if (fetchThreads < 1)
+            throw new IllegalArgumentException("The number of fetchers cannot be less than one.");
+
+        if (pageSize < 1 || bufferSize < 1)
+            throw new IllegalArgumentException("The page and buffer size cannot be less than one.");
+
+        this.directoryBackend = directoryBackend;
+        this.executor = executor;
+        this.fetchThreads = fetchThreads;
+        this.pageSize = pageSize;
+
+        entityPages = new ArrayBlockingQueue<>(bufferSize);
+        membershipPages = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    /**
+     * Downloads and writes all entities. The entities are written by the calling thread.
+     */
+    public void run() {
+
+        try {
+
+            for (int i = 0; i < fetchThreads; i++)
+                tasks.add(executor.submit(this::fetchEntities));
+
+            tasks.add(executor.submit(this::fetchMemberships));
+
+            // memberships refer to groups and users which must be written before
+            for (int pending = fetchThreads; pending > 0; )
+                if (write(entityPages))
+                    pending--;
+
+            for (boolean done = false; !done; )
+                done = write(membershipPages);
+
+        } finally {
+
+            close();
+        }
+    }
+
+    private boolean write(BlockingQueue<Object> pages) {
+
+        Object value;
+
+        try {
+
+            value = pages.take();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while waiting for downloaded pages.", e);
+        }
+
+        if (value == END_OF_PAGES)
+            return true;
+
+        if (value instanceof Failure)
+            throw ((Failure) value).exception;
+
+        ((Runnable) value).run();
+
+        return false;
+    }
+
+    private void close() {
+
+        closed = true;
+
+        // fetchers notice the flag while waiting for free buffer space
+        for (Future<?> task : tasks) {
+
+            try {
+
+                task.get();
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            } catch (ExecutionException e) {
+
+                // failures are reported to the writing thread
+            }
+        }
+    }
+
+    private void fetchEntities() {
+
+        try {
+
+            for (Supplier<Boolean> fetch = claimPage(); fetch != null; fetch = claimPage())
+                if (!fetch.get())
+                    return;
+
+            offer(entityPages, END_OF_PAGES);
+
+        } catch (RuntimeException e) {
+
+            offer(entityPages, new Failure(e));
+        }
+    }
+
+    private synchronized Supplier<Boolean> claimPage() {
+
+        if (closed || (groupsDone && usersDone))
+            return null;
+
+        // groups and users are claimed alternately as long as both have pages left
+        if (!groupsDone && (usersDone || claimGroupPage)) {
+
+            int page = nextGroupPage++;
+
+            claimGroupPage = false;
+
+            return () -> fetchGroupPage(page);
+        }
+
+        int page = nextUserPage++;
+
+        claimGroupPage = true;
+
+        return () -> fetchUserPage(page);
+    }
+
+    private boolean fetchGroupPage(int page) {
+
+        Set<GroupEntity> entities = directoryBackend.getAllGroups(page * pageSize, pageSize);
+
+        if (entities.size() < pageSize)
+            groupsDone = true;
+
+        return entities.isEmpty() || offer(entityPages, (Runnable) () -> directoryBackend.restoreGroups(entities));
+    }
+
+    private boolean fetchUserPage(int page) {
+
+        Set<UserEntity> entities = directoryBackend.getAllUsers(page * pageSize, pageSize);
+
+        if (entities.size() < pageSize)
+            usersDone = true;
+
+        return entities.isEmpty() || offer(entityPages, (Runnable) () -> directoryBackend.restoreUsers(entities));
+    }
+
+    private void fetchMemberships() {
+
+        MappableCursor<MembershipEntity> cursor;
+
+        try {
+
+            cursor = directoryBackend.getMemberships();
+
+        } catch (RuntimeException e) {
+
+            offer(membershipPages, new Failure(e));
+
+            return;
+        }
+
+        try {
+
+            List<MembershipEntity> batch = new ArrayList<>();
+
+            while (!closed && cursor.next()) {
+
+                batch.add(cursor.get());
+
+                if (batch.size() == pageSize) {
+
+                    if (!offerMemberships(batch))
+                        return;
+
+                    batch = new ArrayList<>();
+                }
+            }
+
+            if (!batch.isEmpty() && !offerMemberships(batch))
+                return;
+
+            offer(membershipPages, END_OF_PAGES);
+
+        } catch (RuntimeException e) {
+
+            offer(membershipPages, new Failure(e));
+
+        } finally {
+
+            cursor.closeUnchecked();
+        }
+    }
+
+    private boolean offerMemberships(List<MembershipEntity> batch) {
+
+        return offer(membershipPages, (Runnable) () -> batch.forEach(directoryBackend::upsertMembership));
+    }
+
+    private boolean offer(BlockingQueue<Object> pages, Object value) {
+
+        try {
+
+            while (!closed)
+                if (pages.offer(value, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                    return true;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    private static class Failure {
+
+        private final RuntimeException exception;
+
+        public Failure(RuntimeException exception) {
+
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,1481 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.ServerConfiguration;
+import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.cursor.ClosableIterator;
+import de.aservo.ldap.adapter.api.cursor.MappableCursor;
+import de.aservo.ldap.adapter.api.database.Row;
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
+import de.aservo.ldap.adapter.api.entity.EntityRowBuilder;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import de.aservo.ldap.adapter.api.membership.MembershipEngine;
+import de.aservo.ldap.adapter.api.membership.MembershipLookup;
+import de.aservo.ldap.adapter.api.query.*;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+/**
+ * A proxy for directory backends to cache entities in immutable, hash indexed snapshots on the heap.
+ * Each write session works on a copy of the current snapshot which is published at the end of the session,
+ * so read sessions and queries never wait for writers. The copy shares its maps with the published snapshot and
+ * copies only the maps and value sets it modifies; the hash indexes are maintained along with each modification.
+ * Read sessions and open query cursors pin the snapshot they started with; a replaced snapshot releases its lazily
+ * resolved transitive memberships once the last pin is gone.
+ * <p>
+ * The heap holds a full copy of all entities and direct memberships in addition to the nested directory backend,
+ * plus the transitive memberships resolved so far. A write session which modifies most entities, like a full
+ * synchronization, copies all maps, so the heap needs room for two snapshots until the old one is released.
+ */
+public class InMemoryIndexedDirectoryBackend
+        extends CachedDirectoryBackend {
+
+    /**
+     * The constant CONFIG_PASS_ACTIVE_USERS_ONLY.
+     */
+    public static final String CONFIG_PASS_ACTIVE_USERS_ONLY = "memory.pass-active-users-only";
+
+    private static final int MAX_PIN_ATTEMPTS = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(InMemoryIndexedDirectoryBackend.class);
+    private final Map<Long, Snapshot> boundSnapshots = new ConcurrentHashMap<>();
+    private final Set<Long> writingThreads = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final boolean activeUsersOnly;
+    private volatile Snapshot snapshot = new Snapshot();
+
+    /**
+     * Instantiates a new directory backend.
+     *
+     * @param config           config the config instance of the server
+     * @param directoryBackend the directory backend
+     */
+    public InMemoryIndexedDirectoryBackend(ServerConfiguration config, NestedDirectoryBackend directoryBackend) {
+
+        super(config, directoryBackend);
+
+        Properties properties = config.getBackendProperties();
+
+        activeUsersOnly = Boolean.parseBoolean(properties.getProperty(CONFIG_PASS_ACTIVE_USERS_ONLY, "true"));
+    }
+
+    @Override
+    public void shutdown() {
+
+        publishSnapshot(new Snapshot());
+        super.shutdown();
+    }
+
+    @Override
+    public <T> T withReadAccess(Supplier<T> block) {
+
+        long id = Thread.currentThread().getId();
+
+        if (boundSnapshots.containsKey(id))
+            return super.withReadAccess(block);
+
+        // all reads of a session refer to the same snapshot
+        Snapshot pinnedSnapshot = pinSnapshot();
+
+        boundSnapshots.put(id, pinnedSnapshot);
+
+        try {
+
+            return super.withReadAccess(block);
+
+        } finally {
+
+            boundSnapshots.remove(id);
+            unpinSnapshot(pinnedSnapshot);
+        }
+    }
+
+    @Override
+    public void withReadAccess(Runnable block) {
+
+        withReadAccess(() -> {
+
+            block.run();
+            return null;
+        });
+    }
+
+    @Override
+    public <T> T withWriteAccess(Supplier<T> block) {
+
+        long id = Thread.currentThread().getId();
+
+        if (writingThreads.contains(id))
+            return super.withWriteAccess(block);
+
+        writeLock.lock();
+
+        Snapshot boundSnapshot = boundSnapshots.get(id);
+
+        try {
+
+            Snapshot workingSnapshot = snapshot.copy();
+
+            writingThreads.add(id);
+            boundSnapshots.put(id, workingSnapshot);
+
+            T result = super.withWriteAccess(block);
+
+            publishSnapshot(workingSnapshot);
+
+            return result;
+
+        } finally {
+
+            writingThreads.remove(id);
+
+            if (boundSnapshot == null)
+                boundSnapshots.remove(id);
+            else
+                boundSnapshots.put(id, boundSnapshot);
+
+            writeLock.unlock();
+            notifyEntityChangeListeners();
+        }
+    }
+
+    @Override
+    public void withWriteAccess(Runnable block) {
+
+        withWriteAccess(() -> {
+
+            block.run();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean requireReset() {
+
+        // the heap holds no entities after a restart
+        return true;
+    }
+
+    @Override
+    public boolean supportsStaging() {
+
+        // readers keep seeing the published snapshot during a write session anyway
+        return false;
+    }
+
+    @Override
+    public <T> T withStagingAccess(Supplier<T> block) {
+
+        return withWriteAccess(block);
+    }
+
+    @Override
+    public void withStagingAccess(Runnable block) {
+
+        withWriteAccess(block);
+    }
+
+    @Override
+    public void publishStagedEntities() {
+    }
+
+    @Override
+    public void upsertGroup(String id) {
+
+        super.upsertGroup(id);
+
+        try {
+
+            GroupEntity entity = directoryBackend.getGroup(id);
+
+            getWorkingSnapshot().putGroup(entity);
+
+        } catch (EntityNotFoundException e) {
+
+            logger.warn("The group entity no longer exists.", e);
+        }
+    }
+
+    @Override
+    public int upsertAllGroups(int startIndex, int maxResults) {
+
+        // the page is downloaded only once and handed down to nested caches, which would download it again
+        Set<GroupEntity> entities = directoryBackend.getAllGroups(startIndex, maxResults);
+
+        super.restoreGroups(entities);
+
+        return upsertGroupEntities(entities);
+    }
+
+    @Override
+    public int upsertAllGroups() {
+
+        super.upsertAllGroups();
+
+        Set<GroupEntity> entities = directoryBackend.getAllGroups();
+
+        return upsertGroupEntities(entities);
+    }
+
+    @Override
+    public void upsertUser(String id) {
+
+        super.upsertUser(id);
+
+        try {
+
+            UserEntity entity = directoryBackend.getUser(id);
+
+            getWorkingSnapshot().putUser(entity);
+
+        } catch (EntityNotFoundException e) {
+
+            logger.warn("The user entity no longer exists.", e);
+        }
+    }
+
+    @Override
+    public void upsertUser(String id, String idOther) {
+
+        super.upsertUser(id, idOther);
+
+        upsertUser(id);
+
+        Snapshot workingSnapshot = getWorkingSnapshot();
+
+        for (String groupId : workingSnapshot.getDirectGroupIdsOfUser(idOther.toLowerCase()))
+            workingSnapshot.putUserMembership(groupId, id.toLowerCase());
+    }
+
+    @Override
+    public int upsertAllUsers(int startIndex, int maxResults) {
+
+        // the page is downloaded only once and handed down to nested caches, which would download it again
+        Set<UserEntity> entities = directoryBackend.getAllUsers(startIndex, maxResults);
+
+        super.restoreUsers(entities);
+
+        return upsertUserEntities(entities);
+    }
+
+    @Override
+    public int upsertAllUsers() {
+
+        super.upsertAllUsers();
+
+        Set<UserEntity> entities = directoryBackend.getAllUsers();
+
+        return upsertUserEntities(entities);
+    }
+
+    @Override
+    public void restoreGroups(Collection<GroupEntity> entities) {
+
+        super.restoreGroups(entities);
+
+        upsertGroupEntities(entities);
+    }
+
+    @Override
+    public void restoreUsers(Collection<UserEntity> entities) {
+
+        super.restoreUsers(entities);
+
+        upsertUserEntities(entities);
+    }
+
+    @Override
+    public void upsertGroups(Collection<GroupEntity> entities) {
+
+        super.upsertGroups(entities);
+
+        upsertGroupEntities(entities);
+    }
+
+    @Override
+    public void upsertUsers(Collection<UserEntity> entities) {
+
+        super.upsertUsers(entities);
+
+        upsertUserEntities(entities);
+    }
+
+    @Override
+    public void upsertMembership(MembershipEntity membership) {
+
+        super.upsertMembership(membership);
+
+        Snapshot workingSnapshot = getWorkingSnapshot();
+
+        for (String memberGroupId : membership.getMemberGroupIds())
+            workingSnapshot.putGroupMembership(membership.getParentGroupId(), memberGroupId);
+
+        for (String memberUserId : membership.getMemberUserIds())
+            workingSnapshot.putUserMembership(membership.getParentGroupId(), memberUserId);
+    }
+
+    @Override
+    public void dropGroup(String id) {
+
+        super.dropGroup(id);
+
+        getWorkingSnapshot().removeGroup(id.toLowerCase());
+    }
+
+    @Override
+    public void dropAllGroups() {
+
+        super.dropAllGroups();
+
+        getWorkingSnapshot().removeAllGroups();
+    }
+
+    @Override
+    public void dropUser(String id) {
+
+        super.dropUser(id);
+
+        getWorkingSnapshot().removeUser(id.toLowerCase());
+    }
+
+    @Override
+    public void dropAllUsers() {
+
+        super.dropAllUsers();
+
+        getWorkingSnapshot().removeAllUsers();
+    }
+
+    @Override
+    public void dropMembership(MembershipEntity membership) {
+
+        super.dropMembership(membership);
+
+        Snapshot workingSnapshot = getWorkingSnapshot();
+
+        for (String memberGroupId : membership.getMemberGroupIds())
+            workingSnapshot.removeGroupMembership(membership.getParentGroupId(), memberGroupId);
+
+        for (String memberUserId : membership.getMemberUserIds())
+            workingSnapshot.removeUserMembership(membership.getParentGroupId(), memberUserId);
+    }
+
+    @Override
+    public MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
+                                                  EntityType entityType, Set<String> attributes, String lastId,
+                                                  int limit, List<SortKey> sortKeys) {
+
+        if (entityType == EntityType.GROUP)
+            expression = LdapUtils.preEvaluateExpressionForGroup(expression);
+        else if (entityType == EntityType.USER)
+            expression = LdapUtils.preEvaluateExpressionForUser(expression);
+        else
+            throw new IllegalArgumentException("Expect supported entity type.");
+
+        expression = LdapUtils.removeNotExpressions(LdapUtils.removeValueExpressions(expression));
+
+        if (lastId != null && !sortKeys.isEmpty())
+            throw new IllegalArgumentException("Cannot continue after an entity ID with custom sort keys.");
+
+        // the cursor keeps its snapshot pinned until it is closed
+        Snapshot pinnedSnapshot = pinSnapshot();
+        EntityRowBuilder rowBuilder = new EntityRowBuilder(config.isFlatteningEnabled(), pinnedSnapshot.groups::get,
+                x -> Optional.ofNullable(pinnedSnapshot.users.get(x)).filter(this::isPassed).orElse(null),
+                pinnedSnapshot);
+        List<String> ids;
+
+        try {
+
+            ids = evaluateExpression(pinnedSnapshot, schemaManager, entityType, expression).stream()
+                    .filter(x -> entityType == EntityType.GROUP || isPassed(pinnedSnapshot.users.get(x)))
+                    .filter(x -> lastId == null || x.compareTo(lastId) > 0)
+                    .sorted(rowBuilder.createComparator(entityType, sortKeys))
+                    .limit(limit > 0 ? limit : Long.MAX_VALUE)
+                    .collect(Collectors.toList());
+
+        } catch (RuntimeException e) {
+
+            unpinSnapshot(pinnedSnapshot);
+
+            throw e;
+        }
+
+        Iterator<String> iterator = ids.iterator();
+        AtomicBoolean closed = new AtomicBoolean(false);
+
+        return MappableCursor.fromIterator(new ClosableIterator<String>() {
+
+            @Override
+            public boolean hasNext() {
+
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+
+                if (closed.compareAndSet(false, true))
+                    unpinSnapshot(pinnedSnapshot);
+            }
+        }).map(x -> rowBuilder.createRow(entityType, x, attributes));
+    }
+
+    /**
+     * Replaces the current snapshot by one loaded from the read methods of the nested directory backend.
+     */
+    protected void loadSnapshot() {
+
+        writeLock.lock();
+
+        try {
+
+            Snapshot loadedSnapshot = snapshot.next();
+
+            directoryBackend.withReadAccess(() -> {
+
+                directoryBackend.getAllGroups().forEach(loadedSnapshot::putGroup);
+                directoryBackend.getAllUsers().forEach(loadedSnapshot::putUser);
+
+                // a single pass over all memberships instead of two requests per group
+                for (MembershipEntity membership : directoryBackend.getDirectMemberships()) {
+
+                    for (String memberGroupId : membership.getMemberGroupIds())
+                        loadedSnapshot.putGroupMembership(membership.getParentGroupId(), memberGroupId);
+
+                    for (String memberUserId : membership.getMemberUserIds())
+                        loadedSnapshot.putUserMembership(membership.getParentGroupId(), memberUserId);
+                }
+            });
+
+            publishSnapshot(loadedSnapshot);
+
+        } finally {
+
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public GroupEntity getGroup(String id)
+            throws EntityNotFoundException {
+
+        GroupEntity entity = getCurrentSnapshot().groups.get(id.toLowerCase());
+
+        if (entity == null)
+            throw new EntityNotFoundException("Cannot find group in memory cache.");
+
+        return entity;
+    }
+
+    @Override
+    public UserEntity getUser(String id)
+            throws EntityNotFoundException {
+
+        UserEntity entity = getCurrentSnapshot().users.get(id.toLowerCase());
+
+        if (entity == null || !isPassed(entity))
+            throw new EntityNotFoundException("Cannot find user in memory cache.");
+
+        return entity;
+    }
+
+    @Override
+    public Set<GroupEntity> getAllGroups() {
+
+        return new HashSet<>(getCurrentSnapshot().groups.values());
+    }
+
+    @Override
+    public Set<UserEntity> getAllUsers() {
+
+        return getCurrentSnapshot().users.values().stream()
+                .filter(this::isPassed)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<UserEntity> getDirectUsersOfGroup(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        return mapUsers(currentSnapshot, currentSnapshot.getDirectUserIdsOfGroup(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<GroupEntity> getDirectGroupsOfUser(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        if (!isPassed(currentSnapshot.users.get(id.toLowerCase())))
+            return new HashSet<>();
+
+        return mapGroups(currentSnapshot, currentSnapshot.getDirectGroupIdsOfUser(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<UserEntity> getTransitiveUsersOfGroup(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        return mapUsers(currentSnapshot, currentSnapshot.getTransitiveUserIdsOfGroup(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<GroupEntity> getTransitiveGroupsOfUser(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        if (!isPassed(currentSnapshot.users.get(id.toLowerCase())))
+            return new HashSet<>();
+
+        return mapGroups(currentSnapshot, currentSnapshot.getTransitiveGroupIdsOfUser(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<GroupEntity> getDirectChildGroupsOfGroup(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        return mapGroups(currentSnapshot, currentSnapshot.getDirectChildGroupIds(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<GroupEntity> getDirectParentGroupsOfGroup(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        return mapGroups(currentSnapshot, currentSnapshot.getDirectParentGroupIds(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<GroupEntity> getTransitiveChildGroupsOfGroup(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        return mapGroups(currentSnapshot, currentSnapshot.getTransitiveChildGroupIds(id.toLowerCase()));
+    }
+
+    @Override
+    public Set<GroupEntity> getTransitiveParentGroupsOfGroup(String id)
+            throws EntityNotFoundException {
+
+        Snapshot currentSnapshot = getCurrentSnapshot();
+
+        return mapGroups(currentSnapshot, currentSnapshot.getTransitiveParentGroupIds(id.toLowerCase()));
+    }
+
+    private void publishSnapshot(Snapshot publishedSnapshot) {
+
+        Snapshot previousSnapshot = snapshot;
+
+        snapshot = publishedSnapshot;
+        unpinSnapshot(previousSnapshot);
+
+        logger.debug("[Thread ID {}] - Published snapshot generation {} with {} groups and {} users.",
+                Thread.currentThread().getId(), publishedSnapshot.generation, publishedSnapshot.groups.size(),
+                publishedSnapshot.users.size());
+    }
+
+    private Snapshot pinSnapshot() {
+
+        Snapshot boundSnapshot = boundSnapshots.get(Thread.currentThread().getId());
+
+        if (boundSnapshot != null && boundSnapshot.pin())
+            return boundSnapshot;
+
+        // a snapshot is only released after it was replaced, so each failed attempt finds a newer snapshot
+        for (int i = 0; i < MAX_PIN_ATTEMPTS; i++) {
+
+            Snapshot currentSnapshot = snapshot;
+
+            if (currentSnapshot.pin())
+                return currentSnapshot;
+
+            Thread.onSpinWait();
+        }
+
+        // the current snapshot cannot be released while no writer is able to replace it
+        writeLock.lock();
+
+        try {
+
+            Snapshot currentSnapshot = snapshot;
+
+            if (!currentSnapshot.pin())
+                throw new IllegalStateException("Cannot pin the current snapshot.");
+
+            return currentSnapshot;
+
+        } finally {
+
+            writeLock.unlock();
+        }
+    }
+
+    private void unpinSnapshot(Snapshot pinnedSnapshot) {
+
+        if (pinnedSnapshot.unpin())
+            logger.debug("Released snapshot generation {}.", pinnedSnapshot.generation);
+    }
+
+    private Snapshot getCurrentSnapshot() {
+
+        Snapshot boundSnapshot = boundSnapshots.get(Thread.currentThread().getId());
+
+        return boundSnapshot == null ? snapshot : boundSnapshot;
+    }
+
+    private Snapshot getWorkingSnapshot() {
+
+        long id = Thread.currentThread().getId();
+
+        if (!writingThreads.contains(id))
+            throw new IllegalStateException("Cannot modify the memory cache outside of a write session.");
+
+        return boundSnapshots.get(id);
+    }
+
+    private int upsertGroupEntities(Collection<GroupEntity> entities) {
+
+        Snapshot workingSnapshot = getWorkingSnapshot();
+
+        entities.forEach(workingSnapshot::putGroup);
+
+        return entities.size();
+    }
+
+    private int upsertUserEntities(Collection<UserEntity> entities) {
+
+        Snapshot workingSnapshot = getWorkingSnapshot();
+
+        entities.forEach(workingSnapshot::putUser);
+
+        return entities.size();
+    }
+
+    private boolean isPassed(UserEntity entity) {
+
+        return entity != null && (entity.isActive() || !activeUsersOnly);
+    }
+
+    private Set<GroupEntity> mapGroups(Snapshot currentSnapshot, Set<String> ids) {
+
+        return ids.stream()
+                .map(currentSnapshot.groups::get)
+                .collect(Collectors.toSet());
+    }
+
+    private Set<UserEntity> mapUsers(Snapshot currentSnapshot, Set<String> ids) {
+
+        return ids.stream()
+                .map(currentSnapshot.users::get)
+                .filter(this::isPassed)
+                .collect(Collectors.toSet());
+    }
+
+    private Set<String> evaluateExpression(Snapshot currentSnapshot, SchemaManager schemaManager,
+                                           EntityType entityType, QueryExpression expression) {
+
+        if (expression instanceof BooleanValue) {
+
+            if (!((BooleanValue) expression).getValue())
+                return Collections.emptySet();
+
+            return entityType == EntityType.GROUP ? currentSnapshot.groups.keySet() : currentSnapshot.users.keySet();
+
+        } else if (expression instanceof AndLogicExpression) {
+
+            List<Set<String>> results = new ArrayList<>();
+
+            for (QueryExpression child : ((AndLogicExpression) expression).getChildren()) {
+
+                Set<String> result = evaluateExpression(currentSnapshot, schemaManager, entityType, child);
+
+                // no further index lookups are needed for an empty intersection
+                if (result.isEmpty())
+                    return Collections.emptySet();
+
+                results.add(result);
+            }
+
+            if (results.isEmpty())
+                return evaluateExpression(currentSnapshot, schemaManager, entityType,
+                        new BooleanValue(AndLogicExpression.EMPTY_SEQ_BOOLEAN));
+
+            results.sort(Comparator.comparingInt(Set::size));
+
+            Set<String> intersection = new HashSet<>(results.get(0));
+
+            for (int i = 1; i < results.size() && !intersection.isEmpty(); i++)
+                intersection.retainAll(results.get(i));
+
+            return intersection;
+
+        } else if (expression instanceof OrLogicExpression) {
+
+            List<QueryExpression> children = ((OrLogicExpression) expression).getChildren();
+
+            if (children.isEmpty())
+                return evaluateExpression(currentSnapshot, schemaManager, entityType,
+                        new BooleanValue(OrLogicExpression.EMPTY_SEQ_BOOLEAN));
+
+            Set<String> union = new HashSet<>();
+
+            for (QueryExpression child : children)
+                union.addAll(evaluateExpression(currentSnapshot, schemaManager, entityType, child));
+
+            return union;
+
+        } else if (expression instanceof OperatorExpression) {
+
+            return evaluateOperator(currentSnapshot, schemaManager, entityType, (OperatorExpression) expression);
+
+        } else
+            throw new IllegalArgumentException("Cannot process unexpected query expression " +
+                    expression.getClass().getName());
+    }
+
+    private Set<String> evaluateOperator(Snapshot currentSnapshot, SchemaManager schemaManager,
+                                         EntityType entityType, OperatorExpression expression) {
+
+        String attribute = LdapUtils.normalizeAttribute(expression.getAttribute());
+
+        switch (attribute) {
+
+            case SchemaConstants.MEMBER_AT_OID:
+            case SchemaConstants.UNIQUE_MEMBER_AT_OID:
+
+                if (entityType != EntityType.GROUP)
+                    return Collections.emptySet();
+
+                return evaluateMemberOperator(currentSnapshot, schemaManager, expression);
+
+            case LdapUtils.MEMBER_OF_AT_OID:
+
+                return evaluateMemberOfOperator(currentSnapshot, schemaManager, entityType, expression);
+
+            default:
+
+                Map<String, Set<String>> index = currentSnapshot.getIndex(entityType, attribute);
+
+                if (index == null || !(expression instanceof BinaryOperator))
+                    return Collections.emptySet();
+
+                return evaluateBinaryOperator(index, (BinaryOperator<?>) expression);
+        }
+    }
+
+    private Set<String> evaluateBinaryOperator(Map<String, Set<String>> index, BinaryOperator<?> expression) {
+
+        // the index keys are lower case values like the columns compared by the SQL based cache
+        if (expression instanceof EqualOperator && !expression.isNegated())
+            return index.getOrDefault(expression.getValue().toLowerCase(), Collections.emptySet());
+
+        Set<String> result = new HashSet<>();
+        Predicate<String> matcher = ExpressionCompiler.compileValueMatcher(expression);
+
+        index.forEach((value, ids) -> {
+
+            // entities without a value never match, not even a negated operator
+            if (matcher.test(value) != expression.isNegated())
+                result.addAll(ids);
+        });
+
+        return result;
+    }
+
+    private Set<String> evaluateMemberOperator(Snapshot currentSnapshot, SchemaManager schemaManager,
+                                               OperatorExpression expression) {
+
+        Set<String> result = new HashSet<>();
+
+        if (expression instanceof EqualOperator) {
+
+            String value = ((EqualOperator) expression).getValue();
+            String groupId =
+                    config.isFlatteningEnabled() ? null : LdapUtils.getGroupIdFromDn(schemaManager, value, getId());
+            String userId = LdapUtils.getUserIdFromDn(schemaManager, value, getId());
+
+            if (groupId != null)
+                result.addAll(currentSnapshot.getDirectParentGroupIds(groupId));
+
+            if (userId != null) {
+
+                if (config.isFlatteningEnabled())
+                    result.addAll(currentSnapshot.getTransitiveGroupIdsOfUser(userId));
+                else
+                    result.addAll(currentSnapshot.getDirectGroupIdsOfUser(userId));
+            }
+
+        } else if (expression instanceof PresenceOperator) {
+
+            for (String groupId : currentSnapshot.groups.keySet()) {
+
+                Set<String> userIds =
+                        config.isFlatteningEnabled()
+                                ? currentSnapshot.getTransitiveUserIdsOfGroup(groupId)
+                                : currentSnapshot.getDirectUserIdsOfGroup(groupId);
+
+                if (!config.isFlatteningEnabled() && !currentSnapshot.getDirectChildGroupIds(groupId).isEmpty() ||
+                        userIds.stream().anyMatch(x -> isPassed(currentSnapshot.users.get(x))))
+                    result.add(groupId);
+            }
+
+        } else
+            return Collections.emptySet();
+
+        return expression.isNegated() ? complement(currentSnapshot.groups.keySet(), result) : result;
+    }
+
+    private Set<String> evaluateMemberOfOperator(Snapshot currentSnapshot, SchemaManager schemaManager,
+                                                 EntityType entityType, OperatorExpression expression) {
+
+        Set<String> result = new HashSet<>();
+
+        if (expression instanceof EqualOperator) {
+
+            String groupId =
+                    LdapUtils.getGroupIdFromDn(schemaManager, ((EqualOperator) expression).getValue(), getId());
+
+            if (groupId == null)
+                return Collections.emptySet();
+
+            if (entityType == EntityType.GROUP) {
+
+                if (config.isFlatteningEnabled())
+                    return Collections.emptySet();
+
+                result.addAll(currentSnapshot.getDirectChildGroupIds(groupId));
+
+            } else if (config.isFlatteningEnabled()) {
+
+                result.addAll(currentSnapshot.getTransitiveUserIdsOfGroup(groupId));
+
+            } else {
+
+                result.addAll(currentSnapshot.getDirectUserIdsOfGroup(groupId));
+            }
+
+        } else if (expression instanceof PresenceOperator) {
+
+            if (entityType == EntityType.GROUP) {
+
+                if (!config.isFlatteningEnabled())
+                    result.addAll(currentSnapshot.parentGroupIdsOfGroups.keySet());
+
+            } else {
+
+                result.addAll(currentSnapshot.parentGroupIdsOfUsers.keySet());
+            }
+
+        } else
+            return Collections.emptySet();
+
+        Set<String> ids =
+                entityType == EntityType.GROUP ? currentSnapshot.groups.keySet() : currentSnapshot.users.keySet();
+
+        return expression.isNegated() ? complement(ids, result) : result;
+    }
+
+    private Set<String> complement(Set<String> ids, Set<String> excludedIds) {
+
+        return ids.stream()
+                .filter(x -> !excludedIds.contains(x))
+                .collect(Collectors.toSet());
+    }
+
+    private static class Snapshot
+            implements MembershipLookup {
+
+        private static final int MAX_MEMBERSHIP_CHANGES = 10000;
+
+        private final long generation;
+        private final AtomicInteger pins = new AtomicInteger(1);
+        private final Table<GroupEntity> groups;
+        private final Table<UserEntity> users;
+        private final Relation memberGroupIds;
+        private final Relation parentGroupIdsOfGroups;
+        private final Relation memberUserIds;
+        private final Relation parentGroupIdsOfUsers;
+        private Map<String, Relation> groupIndexes;
+        private Map<String, Relation> userIndexes;
+        private volatile MembershipEngine membershipEngine;
+        private MembershipEngine previousMembershipEngine;
+        private List<Consumer<MembershipEngine>> membershipChanges;
+
+        public Snapshot() {
+
+            this(0, new Table<>(), new Table<>(), new Relation(), new Relation(), new Relation(), new Relation(),
+                    new HashMap<>(), new HashMap<>());
+        }
+
+        private Snapshot(long generation, Table<GroupEntity> groups, Table<UserEntity> users,
+                         Relation memberGroupIds, Relation parentGroupIdsOfGroups,
+                         Relation memberUserIds, Relation parentGroupIdsOfUsers,
+                         Map<String, Relation> groupIndexes, Map<String, Relation> userIndexes) {
+
+            this.generation = generation;
+            this.groups = groups;
+            this.users = users;
+            this.memberGroupIds = memberGroupIds;
+            this.parentGroupIdsOfGroups = parentGroupIdsOfGroups;
+            this.memberUserIds = memberUserIds;
+            this.parentGroupIdsOfUsers = parentGroupIdsOfUsers;
+            this.groupIndexes = groupIndexes;
+            this.userIndexes = userIndexes;
+        }
+
+        public Snapshot copy() {
+
+            // the copy shares all maps with this snapshot and copies only those it modifies
+            Snapshot snapshot =
+                    new Snapshot(generation + 1, groups.share(), users.share(), memberGroupIds.share(),
+                            parentGroupIdsOfGroups.share(), memberUserIds.share(), parentGroupIdsOfUsers.share(),
+                            shareIndexes(groupIndexes), shareIndexes(userIndexes));
+
+            // the resolved memberships are carried forward with the modifications of the copy
+            snapshot.previousMembershipEngine = membershipEngine;
+
+            if (snapshot.previousMembershipEngine != null)
+                snapshot.membershipChanges = new ArrayList<>();
+
+            return snapshot;
+        }
+
+        public Snapshot next() {
+
+            return new Snapshot(generation + 1, new Table<>(), new Table<>(), new Relation(), new Relation(),
+                    new Relation(), new Relation(), new HashMap<>(), new HashMap<>());
+        }
+
+        public boolean pin() {
+
+            while (true) {
+
+                int count = pins.get();
+
+                // a released snapshot cannot be pinned again
+                if (count <= 0)
+                    return false;
+
+                if (pins.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+
+        public boolean unpin() {
+
+            if (pins.decrementAndGet() > 0)
+                return false;
+
+            // unpinned readers of a released snapshot resolve transitive relations again on demand
+            invalidate();
+
+            return true;
+        }
+
+        public Map<String, Set<String>> getIndex(EntityType entityType, String attribute) {
+
+            Map<String, Relation> indexes;
+
+            if (entityType == EntityType.GROUP)
+                indexes = groupIndexes;
+            else if (entityType == EntityType.USER)
+                indexes = userIndexes;
+            else
+                return null;
+
+            Relation index = indexes.get(attribute);
+
+            return index == null ? Collections.emptyMap() : index.asMap();
+        }
+
+        @Override
+        public Set<String> getDirectChildGroupIds(String id) {
+
+            return memberGroupIds.get(id);
+        }
+
+        @Override
+        public Set<String> getDirectParentGroupIds(String id) {
+
+            return parentGroupIdsOfGroups.get(id);
+        }
+
+        @Override
+        public Set<String> getDirectUserIdsOfGroup(String id) {
+
+            return memberUserIds.get(id);
+        }
+
+        @Override
+        public Set<String> getDirectGroupIdsOfUser(String id) {
+
+            return parentGroupIdsOfUsers.get(id);
+        }
+
+        public Set<String> getTransitiveChildGroupIds(String id) {
+
+            return getMembershipEngine().getTransitiveChildGroupIds(id);
+        }
+
+        public Set<String> getTransitiveParentGroupIds(String id) {
+
+            return getMembershipEngine().getTransitiveParentGroupIds(id);
+        }
+
+        @Override
+        public Set<String> getTransitiveUserIdsOfGroup(String id) {
+
+            return getMembershipEngine().getTransitiveUserIdsOfGroup(id);
+        }
+
+        @Override
+        public Set<String> getTransitiveGroupIdsOfUser(String id) {
+
+            return getMembershipEngine().getTransitiveGroupIdsOfUser(id);
+        }
+
+        private MembershipEngine getMembershipEngine() {
+
+            MembershipEngine currentMembershipEngine = membershipEngine;
+
+            if (currentMembershipEngine != null)
+                return currentMembershipEngine;
+
+            // the memberships of a snapshot are resolved at most once per generation by concurrent readers
+            synchronized (this) {
+
+                if (membershipEngine == null) {
+
+                    MembershipEngine createdMembershipEngine;
+
+                    if (previousMembershipEngine != null) {
+
+                        createdMembershipEngine = previousMembershipEngine.copy();
+                        membershipChanges.forEach(x -> x.accept(createdMembershipEngine));
+
+                    } else {
+
+                        createdMembershipEngine = new MembershipEngine();
+
+                        memberGroupIds.asMap().forEach((parentGroupId, ids) ->
+                                ids.forEach(x -> createdMembershipEngine.addGroupMembership(parentGroupId, x)));
+
+                        memberUserIds.asMap().forEach((parentGroupId, ids) ->
+                                ids.forEach(x -> createdMembershipEngine.addUserMembership(parentGroupId, x)));
+                    }
+
+                    previousMembershipEngine = null;
+                    membershipChanges = null;
+                    membershipEngine = createdMembershipEngine;
+                }
+
+                return membershipEngine;
+            }
+        }
+
+        public void putGroup(GroupEntity entity) {
+
+            // subclasses of other backends may carry data which must not be cached
+            GroupEntity cachedEntity = new GroupEntity(entity.getName(), entity.getDescription());
+            GroupEntity previousEntity = groups.put(cachedEntity.getId(), cachedEntity);
+
+            if (previousEntity != null)
+                indexGroup(previousEntity, false);
+
+            indexGroup(cachedEntity, true);
+        }
+
+        public void putUser(UserEntity entity) {
+
+            UserEntity cachedEntity = new UserEntity(entity.getUsername(), entity.getLastName(),
+                    entity.getFirstName(), entity.getDisplayName(), entity.getEmail(), entity.isActive());
+            UserEntity previousEntity = users.put(cachedEntity.getId(), cachedEntity);
+
+            if (previousEntity != null)
+                indexUser(previousEntity, false);
+
+            indexUser(cachedEntity, true);
+        }
+
+        public void putGroupMembership(String parentGroupId, String memberGroupId) {
+
+            if (!groups.containsKey(parentGroupId) || !groups.containsKey(memberGroupId))
+                return;
+
+            memberGroupIds.add(parentGroupId, memberGroupId);
+            parentGroupIdsOfGroups.add(memberGroupId, parentGroupId);
+            recordMembershipChange(x -> x.addGroupMembership(parentGroupId, memberGroupId));
+        }
+
+        public void putUserMembership(String parentGroupId, String memberUserId) {
+
+            if (!groups.containsKey(parentGroupId) || !users.containsKey(memberUserId))
+                return;
+
+            memberUserIds.add(parentGroupId, memberUserId);
+            parentGroupIdsOfUsers.add(memberUserId, parentGroupId);
+            recordMembershipChange(x -> x.addUserMembership(parentGroupId, memberUserId));
+        }
+
+        public void removeGroupMembership(String parentGroupId, String memberGroupId) {
+
+            memberGroupIds.remove(parentGroupId, memberGroupId);
+            parentGroupIdsOfGroups.remove(memberGroupId, parentGroupId);
+            recordMembershipChange(x -> x.removeGroupMembership(parentGroupId, memberGroupId));
+        }
+
+        public void removeUserMembership(String parentGroupId, String memberUserId) {
+
+            memberUserIds.remove(parentGroupId, memberUserId);
+            parentGroupIdsOfUsers.remove(memberUserId, parentGroupId);
+            recordMembershipChange(x -> x.removeUserMembership(parentGroupId, memberUserId));
+        }
+
+        public void removeGroup(String id) {
+
+            for (String memberGroupId : new ArrayList<>(getDirectChildGroupIds(id)))
+                removeGroupMembership(id, memberGroupId);
+
+            for (String parentGroupId : new ArrayList<>(getDirectParentGroupIds(id)))
+                removeGroupMembership(parentGroupId, id);
+
+            for (String memberUserId : new ArrayList<>(getDirectUserIdsOfGroup(id)))
+                removeUserMembership(id, memberUserId);
+
+            GroupEntity previousEntity = groups.remove(id);
+
+            if (previousEntity != null)
+                indexGroup(previousEntity, false);
+        }
+
+        public void removeUser(String id) {
+
+            for (String parentGroupId : new ArrayList<>(getDirectGroupIdsOfUser(id)))
+                removeUserMembership(parentGroupId, id);
+
+            UserEntity previousEntity = users.remove(id);
+
+            if (previousEntity != null)
+                indexUser(previousEntity, false);
+        }
+
+        public void removeAllGroups() {
+
+            groups.clear();
+            memberGroupIds.clear();
+            parentGroupIdsOfGroups.clear();
+            memberUserIds.clear();
+            parentGroupIdsOfUsers.clear();
+            groupIndexes = new HashMap<>();
+            invalidate();
+        }
+
+        public void removeAllUsers() {
+
+            users.clear();
+            memberUserIds.clear();
+            parentGroupIdsOfUsers.clear();
+            userIndexes = new HashMap<>();
+            invalidate();
+        }
+
+        private void invalidate() {
+
+            membershipEngine = null;
+            previousMembershipEngine = null;
+            membershipChanges = null;
+        }
+
+        private void recordMembershipChange(Consumer<MembershipEngine> change) {
+
+            MembershipEngine currentMembershipEngine = membershipEngine;
+
+            // a resolved engine of a snapshot which is still modified is not visible to other readers yet
+            if (currentMembershipEngine != null) {
+
+                change.accept(currentMembershipEngine);
+
+                return;
+            }
+
+            if (membershipChanges == null)
+                return;
+
+            // replaying many changes is not cheaper than resolving all memberships again
+            if (membershipChanges.size() < MAX_MEMBERSHIP_CHANGES)
+                membershipChanges.add(change);
+            else
+                invalidate();
+        }
+
+        private void indexGroup(GroupEntity entity, boolean add) {
+
+            updateIndex(groupIndexes, SchemaConstants.CN_AT_OID, entity.getName(), entity.getId(), add);
+            updateIndex(groupIndexes, SchemaConstants.DESCRIPTION_AT_OID, entity.getDescription(), entity.getId(),
+                    add);
+        }
+
+        private void indexUser(UserEntity entity, boolean add) {
+
+            updateIndex(userIndexes, SchemaConstants.UID_AT_OID, entity.getId(), entity.getId(), add);
+            updateIndex(userIndexes, SchemaConstants.CN_AT_OID, entity.getUsername(), entity.getId(), add);
+            updateIndex(userIndexes, SchemaConstants.SN_AT_OID, entity.getLastName(), entity.getId(), add);
+            updateIndex(userIndexes, SchemaConstants.GN_AT_OID, entity.getFirstName(), entity.getId(), add);
+            updateIndex(userIndexes, SchemaConstants.DISPLAY_NAME_AT_OID, entity.getDisplayName(), entity.getId(),
+                    add);
+            updateIndex(userIndexes, SchemaConstants.MAIL_AT_OID, entity.getEmail(), entity.getId(), add);
+        }
+
+        private static void updateIndex(Map<String, Relation> indexes, String attribute, String value, String id,
+                                        boolean add) {
+
+            if (value == null)
+                return;
+
+            if (add)
+                indexes.computeIfAbsent(attribute, x -> new Relation()).add(value.toLowerCase(), id);
+            else if (indexes.containsKey(attribute))
+                indexes.get(attribute).remove(value.toLowerCase(), id);
+        }
+
+        private static Map<String, Relation> shareIndexes(Map<String, Relation> indexes) {
+
+            Map<String, Relation> result = new HashMap<>();
+
+            indexes.forEach((attribute, index) -> result.put(attribute, index.share()));
+
+            return result;
+        }
+    }
+
+    /**
+     * A map shared by snapshots until one of them modifies it.
+     */
+    private static class Table<V> {
+
+        private Map<String, V> values;
+        private boolean owned;
+
+        public Table() {
+
+            this(new HashMap<>(), true);
+        }
+
+        private Table(Map<String, V> values, boolean owned) {
+
+            this.values = values;
+            this.owned = owned;
+        }
+
+        public Table<V> share() {
+
+            return new Table<>(values, false);
+        }
+
+        public V get(String key) {
+
+            return values.get(key);
+        }
+
+        public boolean containsKey(String key) {
+
+            return values.containsKey(key);
+        }
+
+        public Set<String> keySet() {
+
+            return Collections.unmodifiableSet(values.keySet());
+        }
+
+        public Collection<V> values() {
+
+            return Collections.unmodifiableCollection(values.values());
+        }
+
+        public int size() {
+
+            return values.size();
+        }
+
+        public V put(String key, V value) {
+
+            return modify().put(key, value);
+        }
+
+        public V remove(String key) {
+
+            if (!values.containsKey(key))
+                return null;
+
+            return modify().remove(key);
+        }
+
+        public void clear() {
+
+            values = new HashMap<>();
+            owned = true;
+        }
+
+        private Map<String, V> modify() {
+
+            if (!owned) {
+
+                values = new HashMap<>(values);
+                owned = true;
+            }
+
+            return values;
+        }
+    }
+
+    /**
+     * A multimap shared by snapshots; a modification copies the map and the modified value set only.
+     */
+    private static class Relation {
+
+        private final Set<String> ownedKeys = new HashSet<>();
+        private Map<String, Set<String>> values;
+        private boolean owned;
+
+        public Relation() {
+
+            this(new HashMap<>(), true);
+        }
+
+        private Relation(Map<String, Set<String>> values, boolean owned) {
+
+            this.values = values;
+            this.owned = owned;
+        }
+
+        public Relation share() {
+
+            return new Relation(values, false);
+        }
+
+        public Set<String> get(String key) {
+
+            return Collections.unmodifiableSet(values.getOrDefault(key, Collections.emptySet()));
+        }
+
+        public Set<String> keySet() {
+
+            return Collections.unmodifiableSet(values.keySet());
+        }
+
+        public Map<String, Set<String>> asMap() {
+
+            return Collections.unmodifiableMap(values);
+        }
+
+        public void add(String key, String value) {
+
+            Set<String> currentValues = values.get(key);
+
+            if (currentValues != null && currentValues.contains(value))
+                return;
+
+            modify();
+
+            if (currentValues == null || !ownedKeys.contains(key)) {
+
+                currentValues = currentValues == null ? new HashSet<>() : new HashSet<>(currentValues);
+                values.put(key, currentValues);
+                ownedKeys.add(key);
+            }
+
+            currentValues.add(value);
+        }
+
+        public void remove(String key, String value) {
+
+            Set<String> currentValues = values.get(key);
+
+            if (currentValues == null || !currentValues.contains(value))
+                return;
+
+            modify();
+
+            if (currentValues.size() == 1) {
+
+                values.remove(key);
+                ownedKeys.remove(key);
+
+                return;
+            }
+
+            if (ownedKeys.add(key)) {
+
+                currentValues = new HashSet<>(currentValues);
+                values.put(key, currentValues);
+            }
+
+            currentValues.remove(value);
+        }
+
+        public void clear() {
+
+            values = new HashMap<>();
+            owned = true;
+            ownedKeys.clear();
+        }
+
+        private void modify() {
+
+            if (!owned) {
+
+                values = new HashMap<>(values);
+                owned = true;
+            }
+        }
+    }
+}
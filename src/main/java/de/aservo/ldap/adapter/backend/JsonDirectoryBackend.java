@@ -17,22 +17,26 @@
 
 package de.aservo.ldap.adapter.backend;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import de.aservo.ldap.adapter.ServerConfiguration;
+import de.aservo.ldap.adapter.api.LdapUtils;
 import de.aservo.ldap.adapter.api.cursor.MappableCursor;
 import de.aservo.ldap.adapter.api.database.Row;
+import de.aservo.ldap.adapter.api.directory.EntityChangeListener;
 import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
-import de.aservo.ldap.adapter.api.directory.exception.DirectoryAccessFailureException;
 import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
 import de.aservo.ldap.adapter.api.directory.exception.SecurityProblemException;
+import de.aservo.ldap.adapter.api.entity.ColumnNames;
+import de.aservo.ldap.adapter.api.entity.EntityRowBuilder;
 import de.aservo.ldap.adapter.api.entity.EntityType;
 import de.aservo.ldap.adapter.api.entity.GroupEntity;
 import de.aservo.ldap.adapter.api.entity.MembershipEntity;
 import de.aservo.ldap.adapter.api.entity.UserEntity;
-import de.aservo.ldap.adapter.api.query.QueryExpression;
+import de.aservo.ldap.adapter.api.membership.MembershipEngine;
+import de.aservo.ldap.adapter.api.query.*;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,22 +45,39 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 
 /**
- * The JSON directory backend API for test scenarios.
+ * The JSON directory backend API for test scenarios. The file is read with a streaming parser and the entities are
+ * held in hash indexes, so queries are answered directly without a caching directory backend.
+ * Optionally the file is watched and reloaded in the background; a reloaded data set replaces the current one at
+ * once, while calls and cursors which already started keep working on the previous data set. Caching directory
+ * backends in front of this backend are notified about the reload and replace their copy of the data.
  */
 public class JsonDirectoryBackend
         implements NestedDirectoryBackend {
 
+    /**
+     * The constant CONFIG_WATCH_FILE.
+     */
+    public static final String CONFIG_WATCH_FILE = "json.watch-file";
+
+    private static final long RELOAD_DELAY = 500;
+
     private final Logger logger = LoggerFactory.getLogger(JsonDirectoryBackend.class);
-    private final Set<Group> groupSet = new HashSet<>();
-    private final Set<User> userSet = new HashSet<>();
+    private final List<EntityChangeListener> entityChangeListeners = new CopyOnWriteArrayList<>();
+    private final ServerConfiguration config;
     private final File dbFile;
+    private final boolean watchFile;
+    private volatile DataSet dataSet = new DataSet();
+    private WatchService watchService;
+    private Thread watcherThread;
 
     /**
      * Instantiates a new JSON directory backend.
@@ -65,6 +86,8 @@ public class JsonDirectoryBackend
      */
     public JsonDirectoryBackend(ServerConfiguration config) {
 
+        this.config = config;
+
         try {
 
             String urlString = config.getBackendProperties().getProperty("db-uri");
@@ -92,6 +115,8 @@ public class JsonDirectoryBackend
 
             throw new IllegalArgumentException(e);
         }
+
+        watchFile = Boolean.parseBoolean(config.getBackendProperties().getProperty(CONFIG_WATCH_FILE, "false"));
     }
 
     public String getId() {
@@ -101,77 +126,62 @@ public class JsonDirectoryBackend
 
     public void startup() {
 
-        try {
-
-            Gson gson = new Gson();
+        dataSet = loadDataSet();
 
-            JsonObject jsonObject =
-                    gson.fromJson(
-                            new InputStreamReader(new FileInputStream(dbFile), StandardCharsets.UTF_8),
-                            JsonObject.class);
-
-            JsonArray groupNode = jsonObject.getAsJsonArray("groups");
-            JsonArray userNode = jsonObject.getAsJsonArray("users");
-
-            for (JsonElement element : userNode) {
+        if (watchFile)
+            startWatcher();
+    }
 
-                userSet.add(new User(
-                        element.getAsJsonObject().get("username").getAsString(),
-                        element.getAsJsonObject().get("last_name").getAsString(),
-                        element.getAsJsonObject().get("first_name").getAsString(),
-                        element.getAsJsonObject().get("display_name").getAsString(),
-                        element.getAsJsonObject().get("email").getAsString(),
-                        element.getAsJsonObject().get("password").getAsString(),
-                        element.getAsJsonObject().get("active").getAsBoolean()
-                ));
-            }
+    public void shutdown() {
 
-            for (JsonElement x : groupNode) {
+        stopWatcher();
+        dataSet = new DataSet();
+    }
 
-                groupSet.add(new Group(
-                        x.getAsJsonObject().get("name").getAsString(),
-                        x.getAsJsonObject().get("description").getAsString()
-                ));
-            }
+    @Override
+    public boolean addEntityChangeListener(EntityChangeListener listener) {
 
-            for (JsonElement x : groupNode) {
+        // the data only changes with a reload which is reported for all entities
+        entityChangeListeners.add(listener);
 
-                String groupId = x.getAsJsonObject().get("name").getAsString();
-                JsonArray groupMemberNode = x.getAsJsonObject().getAsJsonArray("group_members");
-                JsonArray userMemberNode = x.getAsJsonObject().getAsJsonArray("user_members");
+        return true;
+    }
 
-                Group group = groupSet.stream().filter(z -> z.getId().equalsIgnoreCase(groupId)).findAny()
-                        .orElseThrow(() -> new IllegalArgumentException("Unknown error."));
+    public MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
+                                                  EntityType entityType, Set<String> attributes, String lastId,
+                                                  int limit, List<SortKey> sortKeys) {
 
-                for (JsonElement y : groupMemberNode)
-                    group.addGroup(groupSet.stream().filter(z -> z.getId().equalsIgnoreCase(y.getAsString())).findAny()
-                            .orElseThrow(() -> new IllegalArgumentException(
-                                    "Cannot find group member with id " + y.getAsString()
-                            )));
+        logger.info("Call: runQueryExpression; entityType={}", entityType);
 
-                for (JsonElement y : userMemberNode)
-                    group.addUser(userSet.stream().filter(z -> z.getId().equalsIgnoreCase(y.getAsString())).findAny()
-                            .orElseThrow(() -> new IllegalArgumentException(
-                                    "Cannot find user member with id " + y.getAsString()
-                            )));
-            }
+        if (entityType == EntityType.GROUP)
+            expression = LdapUtils.preEvaluateExpressionForGroup(expression);
+        else if (entityType == EntityType.USER)
+            expression = LdapUtils.preEvaluateExpressionForUser(expression);
+        else
+            throw new IllegalArgumentException("Expect supported entity type.");
 
-        } catch (IOException e) {
+        expression = LdapUtils.removeNotExpressions(LdapUtils.removeValueExpressions(expression));
 
-            throw new UncheckedIOException(e);
-        }
-    }
+        if (lastId != null && !sortKeys.isEmpty())
+            throw new IllegalArgumentException("Cannot continue after an entity ID with custom sort keys.");
 
-    public void shutdown() {
+        // the cursor keeps the data set it started with when the file is reloaded
+        DataSet currentDataSet = dataSet;
+        EntityRowBuilder rowBuilder = new EntityRowBuilder(config.isFlatteningEnabled(), currentDataSet.groups::get,
+                currentDataSet.users::get, currentDataSet.membershipEngine);
 
-        groupSet.clear();
-        userSet.clear();
-    }
+        CompiledExpression compiledExpression =
+                ExpressionCompiler.compile(expression, entityType)
+                        .withMembershipTest(new MembershipTest(currentDataSet, schemaManager, entityType));
 
-    public MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
-                                                  EntityType entityType) {
+        List<String> ids = findCandidateIds(currentDataSet, entityType, expression).stream()
+                .filter(x -> lastId == null || x.compareTo(lastId) > 0)
+                .filter(x -> compiledExpression.test(currentDataSet.findEntity(entityType, x)))
+                .sorted(rowBuilder.createComparator(entityType, sortKeys))
+                .limit(limit > 0 ? limit : Long.MAX_VALUE)
+                .collect(Collectors.toList());
 
-        throw new UnsupportedOperationException("Query generation not supported for JSON directory backend.");
+        return MappableCursor.fromIterable(ids).map(x -> rowBuilder.createRow(entityType, x, attributes));
     }
 
     public GroupEntity getGroup(String id)
@@ -179,7 +189,7 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getGroup; id={}", id);
 
-        return findGroupById(id);
+        return dataSet.findGroupById(id);
     }
 
     public UserEntity getUser(String id)
@@ -187,7 +197,7 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getUser; id={}", id);
 
-        return findUserById(id);
+        return dataSet.findUserById(id);
     }
 
     public UserEntity getAuthenticatedUser(String id, String password)
@@ -195,7 +205,7 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getAuthenticatedUser; id={}", id);
 
-        User user = findUserById(id);
+        User user = dataSet.findUserById(id);
 
         if (!user.getPassword().equals(password))
             throw new SecurityProblemException("Could not authenticate user with id " + id);
@@ -207,26 +217,26 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getGroups");
 
-        return new HashSet<>(groupSet);
+        return new HashSet<>(dataSet.groups.values());
     }
 
     @Override
     public Set<GroupEntity> getAllGroups(int startIndex, int maxResults) {
 
-        return new HashSet<>(new ArrayList<>(groupSet).subList(startIndex, startIndex + maxResults));
+        return EntityRowBuilder.getPage(dataSet.groups.values(), startIndex, maxResults);
     }
 
     public Set<UserEntity> getAllUsers() {
 
         logger.info("Call: getUsers");
 
-        return new HashSet<>(userSet);
+        return new HashSet<>(dataSet.users.values());
     }
 
     @Override
     public Set<UserEntity> getAllUsers(int startIndex, int maxResults) {
 
-        return new HashSet<>(new ArrayList<>(userSet).subList(startIndex, startIndex + maxResults));
+        return EntityRowBuilder.getPage(dataSet.users.values(), startIndex, maxResults);
     }
 
     public Set<UserEntity> getDirectUsersOfGroup(String id)
@@ -234,11 +244,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getDirectUsersOfGroup; id={}", id);
 
-        Group group = findGroupById(id);
+        DataSet currentDataSet = dataSet;
 
-        return group.getUserMembers().stream()
-                .map(x -> (UserEntity) x)
-                .collect(Collectors.toSet());
+        return currentDataSet.findUsersByIds(
+                currentDataSet.membershipEngine.getDirectUserIdsOfGroup(currentDataSet.findGroupById(id).getId()));
     }
 
     public Set<GroupEntity> getDirectGroupsOfUser(String id)
@@ -246,11 +255,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getDirectGroupsOfUser; id={}", id);
 
-        User user = findUserById(id);
+        DataSet currentDataSet = dataSet;
 
-        return groupSet.stream()
-                .filter(x -> x.getUserMembers().contains(user))
-                .collect(Collectors.toSet());
+        return currentDataSet.findGroupsByIds(
+                currentDataSet.membershipEngine.getDirectGroupIdsOfUser(currentDataSet.findUserById(id).getId()));
     }
 
     public Set<UserEntity> getTransitiveUsersOfGroup(String id)
@@ -258,12 +266,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getTransitiveUsersOfGroup; id={}", id);
 
-        Set<UserEntity> users = getDirectUsersOfGroup(id);
+        DataSet currentDataSet = dataSet;
 
-        for (GroupEntity group : getTransitiveChildGroupsOfGroup(id))
-            users.addAll(getDirectUsersOfGroup(group.getId()));
-
-        return users;
+        return currentDataSet.findUsersByIds(
+                currentDataSet.membershipEngine.getTransitiveUserIdsOfGroup(currentDataSet.findGroupById(id).getId()));
     }
 
     public Set<GroupEntity> getTransitiveGroupsOfUser(String id)
@@ -271,12 +277,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getTransitiveGroupsOfUser; id={}", id);
 
-        Set<GroupEntity> groups = getDirectGroupsOfUser(id);
-
-        for (GroupEntity group : new ArrayList<>(groups))
-            groups.addAll(getTransitiveParentGroupsOfGroup(group.getId()));
+        DataSet currentDataSet = dataSet;
 
-        return groups;
+        return currentDataSet.findGroupsByIds(
+                currentDataSet.membershipEngine.getTransitiveGroupIdsOfUser(currentDataSet.findUserById(id).getId()));
     }
 
     public Set<GroupEntity> getDirectChildGroupsOfGroup(String id)
@@ -284,11 +288,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getDirectChildGroupsOfGroup; id={}", id);
 
-        Group group = findGroupById(id);
+        DataSet currentDataSet = dataSet;
 
-        return group.getGroupMembers().stream()
-                .filter(x -> !x.equals(group))
-                .collect(Collectors.toSet());
+        return currentDataSet.findGroupsByIds(
+                currentDataSet.membershipEngine.getDirectChildGroupIds(currentDataSet.findGroupById(id).getId()));
     }
 
     public Set<GroupEntity> getDirectParentGroupsOfGroup(String id)
@@ -296,12 +299,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getDirectParentGroupsOfGroup; id={}", id);
 
-        Group group = findGroupById(id);
+        DataSet currentDataSet = dataSet;
 
-        return groupSet.stream()
-                .filter(x -> x.getGroupMembers().contains(group))
-                .filter(x -> !x.equals(group))
-                .collect(Collectors.toSet());
+        return currentDataSet.findGroupsByIds(
+                currentDataSet.membershipEngine.getDirectParentGroupIds(currentDataSet.findGroupById(id).getId()));
     }
 
     public Set<GroupEntity> getTransitiveChildGroupsOfGroup(String id)
@@ -309,14 +310,10 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getTransitiveChildGroupsOfGroup; id={}", id);
 
-        Set<Group> groups = new HashSet<>();
-        Group group = findGroupById(id);
+        DataSet currentDataSet = dataSet;
 
-        groups.add(group);
-        resolveGroupsDownwards(group, groups);
-        groups.remove(group);
-
-        return new HashSet<>(groups);
+        return currentDataSet.findGroupsByIds(
+                currentDataSet.membershipEngine.getTransitiveChildGroupIds(currentDataSet.findGroupById(id).getId()));
     }
 
     public Set<GroupEntity> getTransitiveParentGroupsOfGroup(String id)
@@ -324,132 +321,558 @@ public class JsonDirectoryBackend
 
         logger.info("Call: getTransitiveParentGroupsOfGroup; id={}", id);
 
-        Set<Group> groups = new HashSet<>();
-        Group group = findGroupById(id);
-
-        groups.add(group);
-        resolveGroupsUpwards(group, groups);
-        groups.remove(group);
+        DataSet currentDataSet = dataSet;
 
-        return new HashSet<>(groups);
+        return currentDataSet.findGroupsByIds(
+                currentDataSet.membershipEngine.getTransitiveParentGroupIds(currentDataSet.findGroupById(id).getId()));
     }
 
     public MappableCursor<MembershipEntity> getMemberships() {
 
         logger.info("Backend call: getMemberships");
 
-        return MappableCursor.fromIterable(groupSet).map(group -> {
+        DataSet currentDataSet = dataSet;
+
+        return MappableCursor.fromIterable(currentDataSet.groups.values()).map(group -> {
 
             return new MembershipEntity(group.getName(),
-                    getDirectChildGroupsOfGroup(group.getId()).stream()
+                    currentDataSet.findGroupsByIds(
+                            currentDataSet.membershipEngine.getDirectChildGroupIds(group.getId())).stream()
                             .map(GroupEntity::getName)
                             .collect(Collectors.toSet()),
-                    getDirectUsersOfGroup(group.getId()).stream()
+                    currentDataSet.findUsersByIds(
+                            currentDataSet.membershipEngine.getDirectUserIdsOfGroup(group.getId())).stream()
                             .map(UserEntity::getUsername)
                             .collect(Collectors.toSet()));
         });
     }
 
-    private Group findGroupById(String id)
-            throws EntityNotFoundException {
+    private DataSet loadDataSet() {
 
-        return groupSet.stream()
-                .filter(x -> x.getId().equalsIgnoreCase(id))
-                .findAny()
-                .orElseThrow(() -> new EntityNotFoundException("Cannot find group with id " + id));
+        long startTime = System.currentTimeMillis();
+        DataSet newDataSet = new DataSet();
+        List<MembershipEntity> memberships = new ArrayList<>();
+
+        try (JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(new FileInputStream(dbFile), StandardCharsets.UTF_8)))) {
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+
+                switch (reader.nextName()) {
+
+                    case "groups":
+
+                        reader.beginArray();
+
+                        while (reader.hasNext())
+                            readGroup(reader, newDataSet, memberships);
+
+                        reader.endArray();
+                        break;
+
+                    case "users":
+
+                        reader.beginArray();
+
+                        while (reader.hasNext())
+                            readUser(reader, newDataSet);
+
+                        reader.endArray();
+                        break;
+
+                    default:
+
+                        reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+
+        } catch (IOException e) {
+
+            throw new UncheckedIOException(e);
+        }
+
+        // memberships are resolved after all entities are known because groups may precede users in the file
+        for (MembershipEntity membership : memberships) {
+
+            for (String memberGroupId : membership.getMemberGroupIds()) {
+
+                if (!newDataSet.groups.containsKey(memberGroupId))
+                    throw new IllegalArgumentException("Cannot find group member with id " + memberGroupId);
+
+                // a group is never exposed as a member of itself
+                if (memberGroupId.equals(membership.getParentGroupId()))
+                    continue;
+
+                newDataSet.membershipEngine.addGroupMembership(membership.getParentGroupId(), memberGroupId);
+            }
+
+            for (String memberUserId : membership.getMemberUserIds()) {
+
+                if (!newDataSet.users.containsKey(memberUserId))
+                    throw new IllegalArgumentException("Cannot find user member with id " + memberUserId);
+
+                newDataSet.membershipEngine.addUserMembership(membership.getParentGroupId(), memberUserId);
+            }
+        }
+
+        logger.debug("Loaded {} groups and {} users in {} ms.", newDataSet.groups.size(), newDataSet.users.size(),
+                System.currentTimeMillis() - startTime);
+
+        logger.debug("Resolved memberships: {}", newDataSet.membershipEngine.getMemoryReport());
+
+        return newDataSet;
     }
 
-    private User findUserById(String id)
-            throws EntityNotFoundException {
+    private void startWatcher() {
+
+        Path file = dbFile.toPath().toAbsolutePath();
+
+        try {
+
+            watchService = file.getFileSystem().newWatchService();
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
 
-        return userSet.stream()
-                .filter(x -> x.getId().equalsIgnoreCase(id))
-                .findAny()
-                .orElseThrow(() -> new EntityNotFoundException("Cannot find user with id " + id));
+        } catch (IOException e) {
+
+            throw new UncheckedIOException(e);
+        }
+
+        watcherThread = new Thread(() -> watchFile(file.getFileName()), "json-backend-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+
+        logger.info("Watching file {} for modifications.", file);
     }
 
-    private void resolveGroupsDownwards(Group group, Set<Group> acc)
-            throws DirectoryAccessFailureException, SecurityProblemException, EntityNotFoundException {
+    private void stopWatcher() {
+
+        if (watcherThread == null)
+            return;
+
+        watcherThread.interrupt();
 
-        Set<Group> result = group.getGroupMembers();
+        try {
+
+            watchService.close();
+            watcherThread.join();
+
+        } catch (IOException e) {
 
-        result.removeAll(acc);
-        acc.addAll(result);
+            logger.warn("Cannot close the watch service for the JSON file.", e);
 
-        for (Group x : result)
-            resolveGroupsDownwards(x, acc);
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+        }
+
+        watcherThread = null;
+        watchService = null;
     }
 
-    private void resolveGroupsUpwards(Group group, Set<Group> acc)
-            throws DirectoryAccessFailureException, SecurityProblemException, EntityNotFoundException {
+    private void watchFile(Path fileName) {
+
+        try {
+
+            while (!Thread.currentThread().isInterrupted()) {
+
+                if (!pollFileEvents(watchService.take(), fileName))
+                    continue;
+
+                // a file is usually written with several events; these are collected before the file is parsed
+                WatchKey key;
 
-        Set<Group> result =
-                groupSet.stream()
-                        .filter(x -> x.getGroupMembers().contains(group))
-                        .collect(Collectors.toSet());
+                while ((key = watchService.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS)) != null)
+                    pollFileEvents(key, fileName);
 
-        result.removeAll(acc);
-        acc.addAll(result);
+                reloadDataSet();
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException e) {
 
-        for (Group x : result)
-            resolveGroupsUpwards(x, acc);
+            logger.debug("Stopped watching the JSON file.");
+        }
     }
 
-    private static class Group
-            extends GroupEntity {
+    private boolean pollFileEvents(WatchKey key, Path fileName) {
 
-        private final Set<Group> groupMembers = new HashSet<>();
-        private final Set<User> userMembers = new HashSet<>();
+        boolean modified = key.pollEvents().stream()
+                .anyMatch(x -> x.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(x.context()));
 
-        /**
-         * Instantiates a new Group.
-         *
-         * @param name        the id
-         * @param description the description
-         */
-        public Group(String name, String description) {
+        key.reset();
+
+        return modified;
+    }
+
+    private void reloadDataSet() {
+
+        DataSet newDataSet;
+
+        try {
 
-            super(name, description);
+            newDataSet = loadDataSet();
+
+        } catch (RuntimeException e) {
+
+            logger.warn("Keep the current data because the modified file {} cannot be loaded.", dbFile, e);
+
+            return;
         }
 
-        /**
-         * Add group.
-         *
-         * @param group the group
-         */
-        public void addGroup(Group group) {
+        dataSet = newDataSet;
+
+        logger.info("Reloaded {} groups and {} users from file {}.", newDataSet.groups.size(),
+                newDataSet.users.size(), dbFile);
+
+        entityChangeListeners.forEach(EntityChangeListener::allEntitiesChanged);
+    }
+
+    private void readGroup(JsonReader reader, DataSet newDataSet, List<MembershipEntity> memberships)
+            throws IOException {
+
+        String name = null;
+        String description = null;
+        Set<String> groupMembers = Collections.emptySet();
+        Set<String> userMembers = Collections.emptySet();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+
+            switch (reader.nextName()) {
+
+                case "name":
+
+                    name = readString(reader);
+                    break;
+
+                case "description":
+
+                    description = readString(reader);
+                    break;
+
+                case "group_members":
+
+                    groupMembers = readStrings(reader);
+                    break;
+
+                case "user_members":
+
+                    userMembers = readStrings(reader);
+                    break;
+
+                default:
 
-            groupMembers.add(group);
+                    reader.skipValue();
+            }
         }
 
-        /**
-         * Add user.
-         *
-         * @param user the user
-         */
-        public void addUser(User user) {
+        reader.endObject();
+
+        if (name == null)
+            throw new IllegalArgumentException("Missing name of group at " + reader.getPath());
+
+        GroupEntity group = new GroupEntity(name, description);
+
+        newDataSet.groups.put(group.getId(), group);
+        memberships.add(new MembershipEntity(name, groupMembers, userMembers));
+    }
 
-            userMembers.add(user);
+    private void readUser(JsonReader reader, DataSet newDataSet)
+            throws IOException {
+
+        Map<String, String> values = new HashMap<>();
+        boolean active = false;
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+
+            String fieldName = reader.nextName();
+
+            if (fieldName.equals("active"))
+                active = reader.nextBoolean();
+            else
+                values.put(fieldName, readString(reader));
         }
 
-        /**
-         * Gets group members.
-         *
-         * @return the group members
-         */
-        public Set<Group> getGroupMembers() {
+        reader.endObject();
+
+        if (values.get("username") == null)
+            throw new IllegalArgumentException("Missing username of user at " + reader.getPath());
+
+        User user = new User(values.get("username"), values.get("last_name"), values.get("first_name"),
+                values.get("display_name"), values.get("email"), values.get("password"), active);
+
+        newDataSet.users.put(user.getId(), user);
+
+        // the ID is the lower-cased username, so the ID index serves lookups by username as well
+        if (user.getEmail() != null)
+            newDataSet.userIdsByEmail.computeIfAbsent(user.getEmail().toLowerCase(), x -> new HashSet<>())
+                    .add(user.getId());
+    }
+
+    private String readString(JsonReader reader)
+            throws IOException {
+
+        if (reader.peek() == JsonToken.NULL) {
+
+            reader.nextNull();
+
+            return null;
+        }
+
+        if (reader.peek() == JsonToken.BEGIN_ARRAY || reader.peek() == JsonToken.BEGIN_OBJECT) {
+
+            reader.skipValue();
+
+            return null;
+        }
+
+        return reader.nextString();
+    }
+
+    private Set<String> readStrings(JsonReader reader)
+            throws IOException {
+
+        Set<String> values = new HashSet<>();
+
+        reader.beginArray();
+
+        while (reader.hasNext())
+            values.add(reader.nextString());
+
+        reader.endArray();
+
+        return values;
+    }
+
+    private Collection<String> findCandidateIds(DataSet currentDataSet, EntityType entityType,
+                                                QueryExpression expression) {
+
+        Set<String> ids = findIndexedIds(currentDataSet, entityType, expression);
+
+        if (ids == null && expression instanceof AndLogicExpression) {
+
+            for (QueryExpression child : ((AndLogicExpression) expression).getChildren()) {
+
+                ids = findIndexedIds(currentDataSet, entityType, child);
+
+                if (ids != null)
+                    break;
+            }
+        }
+
+        if (ids != null)
+            return ids;
+
+        return entityType == EntityType.GROUP ? currentDataSet.groups.keySet() : currentDataSet.users.keySet();
+    }
+
+    private Set<String> findIndexedIds(DataSet currentDataSet, EntityType entityType, QueryExpression expression) {
+
+        if (!(expression instanceof EqualOperator) || ((EqualOperator) expression).isNegated())
+            return null;
+
+        // the indexes are case insensitive; the compiled expression decides on the exact match
+        String attribute = LdapUtils.normalizeAttribute(((EqualOperator) expression).getAttribute());
+        String value = ((EqualOperator) expression).getValue().toLowerCase();
+
+        if (entityType == EntityType.GROUP) {
+
+            if (attribute.equals(SchemaConstants.CN_AT_OID))
+                return currentDataSet.groups.containsKey(value) ? Collections.singleton(value) : Collections.emptySet();
+
+            return null;
+        }
+
+        switch (attribute) {
+
+            case SchemaConstants.UID_AT_OID:
+            case SchemaConstants.CN_AT_OID:
+
+                return currentDataSet.users.containsKey(value) ? Collections.singleton(value) : Collections.emptySet();
+
+            case SchemaConstants.MAIL_AT_OID:
+
+                return currentDataSet.userIdsByEmail.getOrDefault(value, Collections.emptySet());
+
+            default:
 
-            return new HashSet<>(groupMembers);
+                return null;
         }
+    }
+
+    private class MembershipTest
+            implements BiPredicate<Row, OperatorExpression<?>> {
+
+        private final Map<String, Optional<String>> groupIdsByDn = new HashMap<>();
+        private final Map<String, Optional<String>> userIdsByDn = new HashMap<>();
+        private final MembershipEngine membershipEngine;
+        private final SchemaManager schemaManager;
+        private final EntityType entityType;
 
         /**
-         * Gets user members.
+         * Instantiates a new membership test for a query. The IDs of the DNs in the query are resolved only once.
          *
-         * @return the user members
+         * @param currentDataSet the data set of the query
+         * @param schemaManager  the schema manager
+         * @param entityType     the entity type of the query
          */
-        public Set<User> getUserMembers() {
+        public MembershipTest(DataSet currentDataSet, SchemaManager schemaManager, EntityType entityType) {
+
+            this.membershipEngine = currentDataSet.membershipEngine;
+            this.schemaManager = schemaManager;
+            this.entityType = entityType;
+        }
+
+        @Override
+        public boolean test(Row row, OperatorExpression<?> operator) {
+
+            String id = row.apply(ColumnNames.ID, String.class);
+
+            if (LdapUtils.normalizeAttribute(operator.getAttribute()).equals(LdapUtils.MEMBER_OF_AT_OID))
+                return testMemberOf(id, operator);
+
+            return testMember(id, operator);
+        }
+
+        private boolean testMember(String groupId, OperatorExpression<?> operator) {
+
+            boolean result;
+
+            if (operator instanceof EqualOperator) {
+
+                String value = ((EqualOperator) operator).getValue();
+                String memberGroupId = config.isFlatteningEnabled() ? null : getGroupId(value);
+                String memberUserId = getUserId(value);
+
+                result = memberGroupId != null &&
+                        membershipEngine.getDirectChildGroupIds(groupId).contains(memberGroupId) ||
+                        memberUserId != null && (config.isFlatteningEnabled()
+                                ? membershipEngine.isTransitiveMember(groupId, memberUserId)
+                                : membershipEngine.getDirectUserIdsOfGroup(groupId).contains(memberUserId));
+
+            } else if (operator instanceof PresenceOperator) {
+
+                result = !config.isFlatteningEnabled() &&
+                        !membershipEngine.getDirectChildGroupIds(groupId).isEmpty() ||
+                        !(config.isFlatteningEnabled()
+                                ? membershipEngine.getTransitiveUserIdsOfGroup(groupId)
+                                : membershipEngine.getDirectUserIdsOfGroup(groupId)).isEmpty();
+
+            } else
+                return false;
+
+            return result != operator.isNegated();
+        }
+
+        private boolean testMemberOf(String id, OperatorExpression<?> operator) {
+
+            boolean result;
+
+            if (operator instanceof EqualOperator) {
+
+                String groupId = getGroupId(((EqualOperator) operator).getValue());
+
+                if (groupId == null)
+                    return false;
+
+                if (entityType == EntityType.GROUP) {
+
+                    if (config.isFlatteningEnabled())
+                        return false;
+
+                    result = membershipEngine.getDirectParentGroupIds(id).contains(groupId);
+
+                } else if (config.isFlatteningEnabled()) {
+
+                    result = membershipEngine.isTransitiveMember(groupId, id);
+
+                } else {
+
+                    result = membershipEngine.getDirectGroupIdsOfUser(id).contains(groupId);
+                }
+
+            } else if (operator instanceof PresenceOperator) {
+
+                if (entityType == EntityType.GROUP)
+                    result = !config.isFlatteningEnabled() &&
+                            !membershipEngine.getDirectParentGroupIds(id).isEmpty();
+                else
+                    result = !membershipEngine.getDirectGroupIdsOfUser(id).isEmpty();
+
+            } else
+                return false;
+
+            return result != operator.isNegated();
+        }
+
+        private String getGroupId(String dn) {
+
+            return groupIdsByDn.computeIfAbsent(dn, x ->
+                    Optional.ofNullable(LdapUtils.getGroupIdFromDn(schemaManager, x, getId()))).orElse(null);
+        }
+
+        private String getUserId(String dn) {
+
+            return userIdsByDn.computeIfAbsent(dn, x ->
+                    Optional.ofNullable(LdapUtils.getUserIdFromDn(schemaManager, x, getId()))).orElse(null);
+        }
+    }
+
+    private static class DataSet {
+
+        private final Map<String, GroupEntity> groups = new HashMap<>();
+        private final Map<String, User> users = new HashMap<>();
+        private final Map<String, Set<String>> userIdsByEmail = new HashMap<>();
+        private final MembershipEngine membershipEngine = new MembershipEngine();
+
+        private GroupEntity findGroupById(String id)
+                throws EntityNotFoundException {
+
+            GroupEntity group = groups.get(id.toLowerCase());
+
+            if (group == null)
+                throw new EntityNotFoundException("Cannot find group with id " + id);
+
+            return group;
+        }
+
+        private User findUserById(String id)
+                throws EntityNotFoundException {
+
+            User user = users.get(id.toLowerCase());
+
+            if (user == null)
+                throw new EntityNotFoundException("Cannot find user with id " + id);
+
+            return user;
+        }
+
+        private Set<GroupEntity> findGroupsByIds(Set<String> ids) {
+
+            return ids.stream()
+                    .map(groups::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+        }
+
+        private Set<UserEntity> findUsersByIds(Set<String> ids) {
+
+            return ids.stream()
+                    .map(users::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+        }
+
+        private Row findEntity(EntityType entityType, String id) {
 
-            return new HashSet<>(userMembers);
+            return entityType == EntityType.GROUP ? groups.get(id) : users.get(id);
         }
     }
 
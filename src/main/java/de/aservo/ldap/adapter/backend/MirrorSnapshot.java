@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * A binary snapshot of mirrored entities and memberships together with the position in the Crowd audit log up to
+ * which all changes are included. The file consists of a header, the entities and memberships with length prefixed
+ * UTF-8 strings, and a trailing CRC-32 checksum of all preceding bytes. Files are replaced atomically.
+ */
+public class MirrorSnapshot {
+
+    private static final int MAGIC = 0x4c434153;
+    private static final short VERSION = 1;
+
+    private final long auditLogId;
+    private final long createdAt;
+    private final List<GroupEntity> groups;
+    private final List<UserEntity> users;
+    private final List<MembershipEntity> memberships;
+
+    /**
+     * Instantiates a new snapshot.
+     *
+     * @param auditLogId  the ID of the last audit log entry whose changes are included
+     * @param createdAt   the creation time in milliseconds since epoch
+     * @param groups      the group entities
+     * @param users       the user entities
+     * @param memberships the membership entities
+     */
+    public MirrorSnapshot(long auditLogId, long createdAt, Collection<GroupEntity> groups,
+                          Collection<UserEntity> users, Collection<MembershipEntity> memberships) {
+
+        this.auditLogId = auditLogId;
+        this.createdAt = createdAt;
+        this.groups = new ArrayList<>(groups);
+        this.users = new ArrayList<>(users);
+        this.memberships = new ArrayList<>(memberships);
+    }
+
+    /**
+     * Gets the ID of the last audit log entry whose changes are included.
+     *
+     * @return the audit log ID
+     */
+    public long getAuditLogId() {
+
+        return auditLogId;
+    }
+
+    /**
+     * Gets the creation time.
+     *
+     * @return the creation time in milliseconds since epoch
+     */
+    public long getCreatedAt() {
+
+        return createdAt;
+    }
+
+    /**
+     * Gets the group entities.
+     *
+     * @return the group entities
+     */
+    public List<GroupEntity> getGroups() {
+
+        return Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * Gets the user entities.
+     *
+     * @return the user entities
+     */
+    public List<UserEntity> getUsers() {
+
+        return Collections.unmodifiableList(users);
+    }
+
+    /**
+     * Gets the membership entities.
+     *
+     * @return the membership entities
+     */
+    public List<MembershipEntity> getMemberships() {
+
+        return Collections.unmodifiableList(memberships);
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it to the given path.
+     *
+     * @param path the path of the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path)
+            throws IOException {
+
+        Path directory = path.toAbsolutePath().getParent();
+
+        Files.createDirectories(directory);
+
+        Path tempFile = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+        try {
+
+            try (FileOutputStream fileStream = new FileOutputStream(tempFile.toFile())) {
+
+                CRC32 checksum = new CRC32();
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(fileStream));
+                DataOutputStream checkedStream = new DataOutputStream(new CheckedOutputStream(stream, checksum));
+
+                writeContent(checkedStream);
+                checkedStream.flush();
+                stream.writeLong(checksum.getValue());
+                stream.flush();
+
+                // the content is on disk before the file replaces the previous snapshot
+                fileStream.getFD().sync();
+            }
+
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a memory mapped file.
+     *
+     * @param path the path of the snapshot file
+     * @return the snapshot or empty if there is no file
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    public static Optional<MirrorSnapshot> read(Path path)
+            throws IOException {
+
+        if (!Files.isRegularFile(path))
+            return Optional.empty();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long size = channel.size();
+
+            if (size < Long.BYTES || size > Integer.MAX_VALUE)
+                throw new IOException("Cannot read snapshot file with unexpected size " + size + ".");
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer content = buffer.duplicate();
+            CRC32 checksum = new CRC32();
+
+            content.limit((int) size - Long.BYTES);
+            checksum.update(content);
+
+            if (buffer.getLong((int) size - Long.BYTES) != checksum.getValue())
+                throw new IOException("Cannot read snapshot file with invalid checksum.");
+
+            buffer.limit((int) size - Long.BYTES);
+
+            try {
+
+                return Optional.of(readContent(buffer));
+
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+
+                throw new IOException("Cannot read snapshot file with invalid content.", e);
+            }
+        }
+    }
+
+    private void writeContent(DataOutputStream stream)
+            throws IOException {
+
+        stream.writeInt(MAGIC);
+        stream.writeShort(VERSION);
+        stream.writeLong(auditLogId);
+        stream.writeLong(createdAt);
+
+        stream.writeInt(groups.size());
+
+        for (GroupEntity entity : groups) {
+
+            writeString(stream, entity.getName());
+            writeString(stream, entity.getDescription());
+        }
+
+        stream.writeInt(users.size());
+
+        for (UserEntity entity : users) {
+
+            writeString(stream, entity.getUsername());
+            writeString(stream, entity.getLastName());
+            writeString(stream, entity.getFirstName());
+            writeString(stream, entity.getDisplayName());
+            writeString(stream, entity.getEmail());
+            stream.writeBoolean(entity.isActive());
+        }
+
+        stream.writeInt(memberships.size());
+
+        for (MembershipEntity entity : memberships) {
+
+            writeString(stream, entity.getParentGroupId());
+            writeStrings(stream, entity.getMemberGroupIds());
+            writeStrings(stream, entity.getMemberUserIds());
+        }
+    }
+
+    private static MirrorSnapshot readContent(ByteBuffer buffer)
+            throws IOException {
+
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Cannot read snapshot file with unknown format.");
+
+        short version = buffer.getShort();
+
+        if (version != VERSION)
+            throw new IOException("Cannot read snapshot file with unsupported version " + version + ".");
+
+        long auditLogId = buffer.getLong();
+        long createdAt = buffer.getLong();
+        List<GroupEntity> groups = new ArrayList<>();
+        List<UserEntity> users = new ArrayList<>();
+        List<MembershipEntity> memberships = new ArrayList<>();
+
+        for (int i = buffer.getInt(); i > 0; i--)
+            groups.add(new GroupEntity(readString(buffer), readString(buffer)));
+
+        for (int i = buffer.getInt(); i > 0; i--)
+            users.add(new UserEntity(readString(buffer), readString(buffer), readString(buffer), readString(buffer),
+                    readString(buffer), buffer.get() != 0));
+
+        for (int i = buffer.getInt(); i > 0; i--)
+            memberships.add(new MembershipEntity(readString(buffer), readStrings(buffer), readStrings(buffer)));
+
+        if (buffer.hasRemaining())
+            throw new IOException("Cannot read snapshot file with trailing content.");
+
+        return new MirrorSnapshot(auditLogId, createdAt, groups, users, memberships);
+    }
+
+    private static void writeString(DataOutputStream stream, String value)
+            throws IOException {
+
+        if (value == null) {
+
+            stream.writeInt(-1);
+
+        } else {
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            stream.writeInt(bytes.length);
+            stream.write(bytes);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream stream, Collection<String> values)
+            throws IOException {
+
+        stream.writeInt(values.size());
+
+        for (String value : values)
+            writeString(stream, value);
+    }
+
+    private static String readString(ByteBuffer buffer)
+            throws IOException {
+
+        int length = buffer.getInt();
+
+        if (length == -1)
+            return null;
+
+        // a broken length must not allocate arrays before the content is found to be too short
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("Cannot read snapshot file with invalid string length " + length + ".");
+
+        byte[] bytes = new byte[length];
+
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Set<String> readStrings(ByteBuffer buffer)
+            throws IOException {
+
+        Set<String> values = new HashSet<>();
+
+        for (int i = buffer.getInt(); i > 0; i--)
+            values.add(readString(buffer));
+
+        return values;
+    }
+}
@@ -22,29 +22,26 @@ import com.google.gson.*;
 import de.aservo.ldap.adapter.ServerConfiguration;
 import de.aservo.ldap.adapter.api.cursor.MappableCursor;
 import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
 import de.aservo.ldap.adapter.api.entity.MembershipEntity;
-import org.apache.commons.io.IOUtils;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.LaxRedirectStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 
@@ -71,6 +68,22 @@ public class MirroredCrowdDirectoryBackend
      * The constant CONFIG_SYNC_PAGE_SIZE.
      */
     public static final String CONFIG_SYNC_PAGE_SIZE = "mirror.sync.page-size";
+    /**
+     * The constant CONFIG_SYNC_FETCH_THREADS.
+     */
+    public static final String CONFIG_SYNC_FETCH_THREADS = "mirror.sync.fetch-threads";
+    /**
+     * The constant CONFIG_SYNC_BUFFER_SIZE.
+     */
+    public static final String CONFIG_SYNC_BUFFER_SIZE = "mirror.sync.buffer-size";
+    /**
+     * The constant CONFIG_SYNC_MIN_INTERVAL.
+     */
+    public static final String CONFIG_SYNC_MIN_INTERVAL = "mirror.sync.min-interval";
+    /**
+     * The constant CONFIG_SYNC_MAX_INTERVAL.
+     */
+    public static final String CONFIG_SYNC_MAX_INTERVAL = "mirror.sync.max-interval";
     /**
      * The constant CONFIG_AUDIT_LOG_PAGE_SIZE.
      */
@@ -83,12 +96,56 @@ public class MirroredCrowdDirectoryBackend
      * The constant CONFIG_FORCE_FULL_SYNC_ON_BOOT.
      */
     public static final String CONFIG_FORCE_FULL_SYNC_ON_BOOT = "mirror.force-full-sync-on-boot";
+    /**
+     * The constant CONFIG_SNAPSHOT_FILE.
+     */
+    public static final String CONFIG_SNAPSHOT_FILE = "mirror.snapshot.file";
+    /**
+     * The constant CONFIG_SNAPSHOT_INTERVAL.
+     */
+    public static final String CONFIG_SNAPSHOT_INTERVAL = "mirror.snapshot.interval";
+    /**
+     * The constant CONFIG_SYNC_BIND_WAIT.
+     */
+    public static final String CONFIG_SYNC_BIND_WAIT = "mirror.sync.bind-wait";
+    /**
+     * The constant CONFIG_REST_MAX_CONNECTIONS.
+     */
+    public static final String CONFIG_REST_MAX_CONNECTIONS = "rest.connection.max-total";
+    /**
+     * The constant CONFIG_REST_MAX_CONNECTIONS_PER_ROUTE.
+     */
+    public static final String CONFIG_REST_MAX_CONNECTIONS_PER_ROUTE = "rest.connection.max-per-route";
+    /**
+     * The constant CONFIG_REST_CONNECT_TIMEOUT.
+     */
+    public static final String CONFIG_REST_CONNECT_TIMEOUT = "rest.connection.connect-timeout";
+    /**
+     * The constant CONFIG_REST_SOCKET_TIMEOUT.
+     */
+    public static final String CONFIG_REST_SOCKET_TIMEOUT = "rest.connection.socket-timeout";
+    /**
+     * The constant CONFIG_REST_KEEP_ALIVE.
+     */
+    public static final String CONFIG_REST_KEEP_ALIVE = "rest.connection.keep-alive";
+
+    private static final int DELTA_FETCH_BATCH_SIZE = 100;
 
     private final Logger logger = LoggerFactory.getLogger(MirroredCrowdDirectoryBackend.class);
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final ExecutorService fetchExecutor;
     private final CountDownLatch latch = new CountDownLatch(1);
+    private final Object syncMonitor = new Object();
     private final MirrorStrategy mirrorStrategy;
+    private final CrowdRestClient restClient;
     private final AuditLogProcessor auditLogProcessor;
+    private final Path snapshotFile;
+    private final long snapshotInterval;
+    private final PollingInterval syncInterval;
+    private final long bindWait;
+    private ScheduledFuture<?> nextSync;
+    private boolean syncRequested = false;
+    private CompletableFuture<Boolean> pendingSync = new CompletableFuture<>();
 
     /**
      * Instantiates a new directory backend.
@@ -107,9 +164,21 @@ public class MirroredCrowdDirectoryBackend
         String restUserPassword = properties.getProperty(CONFIG_REST_USER_PW);
         String restBaseUrl = properties.getProperty(CONFIG_REST_BASE_URL);
         String syncPageSizeValue = properties.getProperty(CONFIG_SYNC_PAGE_SIZE);
+        String syncFetchThreadsValue = properties.getProperty(CONFIG_SYNC_FETCH_THREADS, "4");
+        String syncBufferSizeValue = properties.getProperty(CONFIG_SYNC_BUFFER_SIZE, "4");
+        String syncMinIntervalValue = properties.getProperty(CONFIG_SYNC_MIN_INTERVAL, "4000");
+        String syncMaxIntervalValue = properties.getProperty(CONFIG_SYNC_MAX_INTERVAL, "60000");
         String auditLogPageSizeValue = properties.getProperty(CONFIG_AUDIT_LOG_PAGE_SIZE);
         String auditLogPageLimitValue = properties.getProperty(CONFIG_AUDIT_LOG_PAGE_LIMIT);
         String forceFullSyncOnBootValue = properties.getProperty(CONFIG_FORCE_FULL_SYNC_ON_BOOT);
+        String snapshotFileValue = properties.getProperty(CONFIG_SNAPSHOT_FILE, "");
+        String snapshotIntervalValue = properties.getProperty(CONFIG_SNAPSHOT_INTERVAL, "600000");
+        String bindWaitValue = properties.getProperty(CONFIG_SYNC_BIND_WAIT, "10000");
+        String restMaxConnectionsValue = properties.getProperty(CONFIG_REST_MAX_CONNECTIONS, "10");
+        String restMaxConnectionsPerRouteValue = properties.getProperty(CONFIG_REST_MAX_CONNECTIONS_PER_ROUTE, "5");
+        String restConnectTimeoutValue = properties.getProperty(CONFIG_REST_CONNECT_TIMEOUT, "10000");
+        String restSocketTimeoutValue = properties.getProperty(CONFIG_REST_SOCKET_TIMEOUT, "60000");
+        String restKeepAliveValue = properties.getProperty(CONFIG_REST_KEEP_ALIVE, "30000");
 
         if (appName == null)
             throw new IllegalArgumentException("Missing value for " + CONFIG_APP_NAME);
@@ -136,24 +205,54 @@ public class MirroredCrowdDirectoryBackend
             throw new IllegalArgumentException("Missing value for " + CONFIG_FORCE_FULL_SYNC_ON_BOOT);
 
         int syncPageSize = Integer.parseInt(syncPageSizeValue);
+        int syncFetchThreads = Integer.parseInt(syncFetchThreadsValue);
+        int syncBufferSize = Integer.parseInt(syncBufferSizeValue);
+        long syncMinInterval = Long.parseLong(syncMinIntervalValue);
+        long syncMaxInterval = Long.parseLong(syncMaxIntervalValue);
         int auditLogPageSize = Integer.parseInt(auditLogPageSizeValue);
         int auditLogPageLimit = Integer.parseInt(auditLogPageLimitValue);
         boolean forceFullSyncOnBoot = Boolean.parseBoolean(forceFullSyncOnBootValue);
+        long snapshotIntervalMillis = Long.parseLong(snapshotIntervalValue);
+        long bindWaitMillis = Long.parseLong(bindWaitValue);
+        int restMaxConnections = Integer.parseInt(restMaxConnectionsValue);
+        int restMaxConnectionsPerRoute = Integer.parseInt(restMaxConnectionsPerRouteValue);
+        int restConnectTimeout = Integer.parseInt(restConnectTimeoutValue);
+        int restSocketTimeout = Integer.parseInt(restSocketTimeoutValue);
+        long restKeepAlive = Long.parseLong(restKeepAliveValue);
 
         if (syncPageSize < 1)
             throw new IllegalArgumentException("The page size cannot be less than one.");
 
+        if (syncFetchThreads < 0)
+            throw new IllegalArgumentException("The number of fetch threads cannot be negative.");
+
+        if (syncBufferSize < 1)
+            throw new IllegalArgumentException("The buffer size cannot be less than one.");
+
+        if (snapshotIntervalMillis < 1)
+            throw new IllegalArgumentException("The snapshot interval cannot be less than one millisecond.");
+
+        if (bindWaitMillis < 0)
+            throw new IllegalArgumentException("The wait time for a synchronization on bind cannot be negative.");
+
         if (auditLogPageSize < 1)
             throw new IllegalArgumentException("The page limit cannot be less than one.");
 
         if (auditLogPageLimit < 1)
             throw new IllegalArgumentException("The page limit cannot be less than one.");
 
-        auditLogProcessor =
-                new AuditLogProcessor(appName, restUsername, restUserPassword, restBaseUrl,
-                        auditLogPageLimit, auditLogPageSize);
+        restClient =
+                new CrowdRestClient(restBaseUrl, restUsername, restUserPassword, restMaxConnections,
+                        restMaxConnectionsPerRoute, restConnectTimeout, restSocketTimeout, restKeepAlive);
 
-        mirrorStrategy = new MirrorStrategy(syncPageSize, forceFullSyncOnBoot);
+        auditLogProcessor = new AuditLogProcessor(appName, auditLogPageLimit, auditLogPageSize);
+
+        fetchExecutor = Executors.newFixedThreadPool(syncFetchThreads + 1);
+        mirrorStrategy = new MirrorStrategy(syncPageSize, syncFetchThreads, syncBufferSize, forceFullSyncOnBoot);
+        snapshotFile = snapshotFileValue.isBlank() ? null : Paths.get(snapshotFileValue.trim());
+        snapshotInterval = snapshotIntervalMillis;
+        syncInterval = new PollingInterval(syncMinInterval, syncMaxInterval);
+        bindWait = bindWaitMillis;
     }
 
     @Override
@@ -161,17 +260,39 @@ public class MirroredCrowdDirectoryBackend
 
         super.startup();
 
-        scheduler.scheduleAtFixedRate(mirrorStrategy, 3, 4, TimeUnit.SECONDS);
+        synchronized (syncMonitor) {
+
+            scheduleSynchronization(3000);
+        }
+
+        scheduler.scheduleAtFixedRate(() -> logger.debug("REST client statistics: {}", restClient),
+                60, 60, TimeUnit.SECONDS);
+
+        // incremental updates only mark the snapshot as outdated; it is written on the same thread as the updates
+        if (snapshotFile != null)
+            scheduler.scheduleWithFixedDelay(mirrorStrategy::writePendingSnapshot,
+                    snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void shutdown() {
 
-        scheduler.shutdown();
+        synchronized (syncMonitor) {
+
+            if (nextSync != null)
+                nextSync.cancel(false);
+
+            scheduler.shutdown();
+            pendingSync.complete(false);
+        }
+
+        fetchExecutor.shutdown();
 
         try {
 
-            if (!scheduler.awaitTermination(60, TimeUnit.SECONDS))
+            if (scheduler.awaitTermination(60, TimeUnit.SECONDS))
+                mirrorStrategy.writePendingSnapshot();
+            else
                 scheduler.shutdownNow();
 
         } catch (InterruptedException e) {
@@ -181,9 +302,121 @@ public class MirroredCrowdDirectoryBackend
             Thread.currentThread().interrupt();
         }
 
+        try {
+
+            restClient.close();
+
+        } catch (IOException e) {
+
+            logger.warn("Could not close the REST client.", e);
+        }
+
+        logger.info("REST client statistics: {}", restClient);
+
         super.shutdown();
     }
 
+    /**
+     * Requests a synchronization with the Crowd server and waits until it is completed. A waiting synchronization is
+     * started at once; if a synchronization is running, another one follows immediately. A bind of a user who is not
+     * mirrored yet waits this way for up-to-date entities instead of the next scheduled poll.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the time unit of the timeout
+     * @return true if a synchronization started after the request was completed successfully within the timeout
+     */
+    public boolean awaitSynchronization(long timeout, TimeUnit unit) {
+
+        CompletableFuture<Boolean> completion;
+
+        synchronized (syncMonitor) {
+
+            completion = pendingSync;
+            syncRequested = true;
+
+            if (nextSync != null && nextSync.cancel(false))
+                scheduleSynchronization(0);
+        }
+
+        try {
+
+            return completion.get(timeout, unit);
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            return false;
+
+        } catch (ExecutionException | TimeoutException e) {
+
+            return false;
+        }
+    }
+
+    @Override
+    public UserEntity getAuthenticatedUser(String id, String password)
+            throws EntityNotFoundException {
+
+        UserEntity user = super.getAuthenticatedUser(id, password);
+
+        // a user created in Crowd after the last poll can bind before the mirror knows the user; the bind waits for
+        // a synchronization so that the following searches of the client find its own entry
+        if (bindWait > 0 && latch.getCount() == 0 && !isMirrored(user.getId()) &&
+                !awaitSynchronization(bindWait, TimeUnit.MILLISECONDS))
+            logger.warn("Could not synchronize the mirror in time for the authenticated user {}.", user.getId());
+
+        return user;
+    }
+
+    private boolean isMirrored(String userId) {
+
+        try {
+
+            withReadAccess(() -> directoryBackend.getUser(userId));
+
+            return true;
+
+        } catch (EntityNotFoundException e) {
+
+            return false;
+        }
+    }
+
+    private void runSynchronization() {
+
+        CompletableFuture<Boolean> completion;
+
+        synchronized (syncMonitor) {
+
+            completion = pendingSync;
+            pendingSync = new CompletableFuture<>();
+            syncRequested = false;
+        }
+
+        SyncResult result = mirrorStrategy.synchronize();
+
+        completion.complete(!result.equals(SyncResult.FAILED));
+
+        // the audit log is polled at the minimum interval while changes show up and less often while idle
+        long delay = syncInterval.next(result.equals(SyncResult.CHANGED));
+
+        synchronized (syncMonitor) {
+
+            scheduleSynchronization(syncRequested ? 0 : delay);
+        }
+    }
+
+    private void scheduleSynchronization(long delay) {
+
+        if (scheduler.isShutdown())
+            return;
+
+        logger.debug("Schedule next synchronization in {} ms.", delay);
+
+        nextSync = scheduler.schedule(this::runSynchronization, delay, TimeUnit.MILLISECONDS);
+    }
+
     private enum UpdateType {
 
         GROUP_VALIDATE, GROUP_INVALIDATE, USER_VALIDATE, USER_INVALIDATE, MEMBERSHIP_VALIDATE, MEMBERSHIP_INVALIDATE;
@@ -194,6 +427,11 @@ public class MirroredCrowdDirectoryBackend
         FULL_UPDATE_REQUIRED, DELTA_UPDATE_REQUIRED, UP_TO_DATE, CON_ISSUE, UNDEFINED,
     }
 
+    private enum SyncResult {
+
+        CHANGED, UNCHANGED, FAILED
+    }
+
     private enum SyncState {
 
         NO_SYNC, FOREIGN_SYNC, SYNC_START, SYNC_STOP, SYNC_COMPLETE,
@@ -254,23 +492,42 @@ public class MirroredCrowdDirectoryBackend
         });
     }
 
-    private class MirrorStrategy
-            implements Runnable {
+    private class MirrorStrategy {
 
         private final int pageSize;
+        private final int fetchThreads;
+        private final int bufferSize;
         private boolean forceFullSync;
         private boolean resetToggle = false;
+        private boolean snapshotToggle = false;
+        private Long resumeAuditLogId;
+        private Long pendingAuditLogId;
 
-        public MirrorStrategy(int pageSize, boolean forceFullSync) {
+        public MirrorStrategy(int pageSize, int fetchThreads, int bufferSize, boolean forceFullSync) {
 
             this.pageSize = pageSize;
+            this.fetchThreads = fetchThreads;
+            this.bufferSize = bufferSize;
             this.forceFullSync = forceFullSync;
         }
 
-        public void run() {
+        public SyncResult synchronize() {
 
             try {
 
+                // a valid snapshot replaces the full synchronization at boot time
+                if (snapshotFile != null && !snapshotToggle) {
+
+                    snapshotToggle = true;
+
+                    if ((forceFullSync || directoryBackend.requireReset()) && restoreSnapshot()) {
+
+                        forceFullSync = false;
+                        resetToggle = true;
+                        latch.countDown();
+                    }
+                }
+
                 if (directoryBackend.requireReset() && !resetToggle) {
 
                     forceFullSync = true;
@@ -279,88 +536,297 @@ public class MirroredCrowdDirectoryBackend
 
                 if (forceFullSync) {
 
+                    Long auditLogId = findLastAuditLogId();
+
                     logger.info("Start forced synchronization of a full copy.");
-                    performFullUpdate();
+                    boolean completed = performFullUpdate();
                     logger.info("End forced synchronization of a full copy.");
 
+                    if (completed)
+                        writeSnapshot(auditLogId);
+
                     forceFullSync = false;
                     latch.countDown();
 
-                    return;
+                    return completed ? SyncResult.CHANGED : SyncResult.FAILED;
+                }
+
+                if (resumeAuditLogId != null) {
+
+                    Long auditLogId = findLastAuditLogId();
+
+                    logger.info("Start incremental synchronization after audit log ID {} of the snapshot.",
+                            resumeAuditLogId);
+                    AuditLogState state = performDeltaUpdate(resumeAuditLogId);
+                    logger.info("End incremental synchronization after audit log ID {} of the snapshot.",
+                            resumeAuditLogId);
+
+                    if (state.equals(AuditLogState.FULL_UPDATE_REQUIRED)) {
+
+                        logger.info("Start synchronization of a full copy because the audit log does not reach " +
+                                "back to the snapshot.");
+                        state = performFullUpdate() ? AuditLogState.UP_TO_DATE : AuditLogState.CON_ISSUE;
+                        logger.info("End synchronization of a full copy.");
+                    }
+
+                    if (!state.equals(AuditLogState.UP_TO_DATE))
+                        return SyncResult.FAILED;
+
+                    resumeAuditLogId = null;
+                    markSnapshot(auditLogId);
+
+                    return SyncResult.CHANGED;
                 }
 
                 AuditLogState state = auditLogProcessor.getAuditLogState(true);
+                SyncResult result = SyncResult.UNCHANGED;
 
                 if (state.equals(AuditLogState.FULL_UPDATE_REQUIRED)) {
 
+                    Long auditLogId = findLastAuditLogId();
+
                     logger.info("Start synchronization of a full copy.");
-                    performFullUpdate();
+                    boolean completed = performFullUpdate();
                     logger.info("End synchronization of a full copy.");
 
+                    if (completed)
+                        writeSnapshot(auditLogId);
+
+                    result = completed ? SyncResult.CHANGED : SyncResult.FAILED;
+
                 } else if (state.equals(AuditLogState.DELTA_UPDATE_REQUIRED)) {
 
+                    Long auditLogId = findLastAuditLogId();
+
                     logger.info("Start incremental synchronization.");
-                    performDeltaUpdate();
+                    AuditLogState deltaState = performDeltaUpdate(null);
                     logger.info("End incremental synchronization.");
+
+                    if (deltaState.equals(AuditLogState.UP_TO_DATE))
+                        markSnapshot(auditLogId);
+
+                    result = deltaState.equals(AuditLogState.UP_TO_DATE) ? SyncResult.CHANGED : SyncResult.FAILED;
+
+                } else if (!state.equals(AuditLogState.UP_TO_DATE)) {
+
+                    result = SyncResult.FAILED;
                 }
 
                 latch.countDown();
 
+                return result;
+
             } catch (Exception e) {
 
                 logger.error("An error occurred during synchronization.", e);
+
+                return SyncResult.FAILED;
             }
         }
 
-        private void performFullUpdate() {
+        private boolean performFullUpdate() {
 
-            directoryBackend.withWriteAccess(() -> {
+            AuditLogState state;
 
-                auditLogProcessor.updateConcurrent(() -> {
+            if (directoryBackend.supportsStaging()) {
 
-                    directoryBackend.dropAllGroups();
-                    directoryBackend.dropAllUsers();
+                state = directoryBackend.withStagingAccess(() -> {
 
-                    MappableCursor<MembershipEntity> memberships = directoryBackend.getMemberships();
-                    int groupPage = 0;
-                    int userPage = 0;
+                    return auditLogProcessor.updateConcurrent(this::loadAllEntities);
+                });
 
-                    while (groupPage != -1 || userPage != -1) {
+                directoryBackend.withWriteAccess(directoryBackend::publishStagedEntities);
 
-                        if (groupPage >= 0) {
+            } else {
 
-                            if (directoryBackend.upsertAllGroups(groupPage++ * pageSize, pageSize) < pageSize)
-                                groupPage = -1;
-                        }
+                state = directoryBackend.withWriteAccess(() -> {
 
-                        if (userPage >= 0) {
+                    return auditLogProcessor.updateConcurrent(this::loadAllEntities);
+                });
+            }
 
-                            if (directoryBackend.upsertAllUsers(userPage++ * pageSize, pageSize) < pageSize)
-                                userPage = -1;
-                        }
-                    }
+            return state.equals(AuditLogState.UP_TO_DATE);
+        }
+
+        private boolean restoreSnapshot() {
+
+            MirrorSnapshot snapshot;
+
+            try {
 
-                    while (memberships.next())
-                        directoryBackend.upsertMembership(memberships.get());
+                Optional<MirrorSnapshot> result = MirrorSnapshot.read(snapshotFile);
 
+                if (result.isEmpty())
                     return false;
-                });
+
+                snapshot = result.get();
+
+            } catch (IOException e) {
+
+                logger.warn("Cannot restore entities from snapshot file " + snapshotFile + ".", e);
+
+                return false;
+            }
+
+            Runnable block = () -> {
+
+                directoryBackend.dropAllGroups();
+                directoryBackend.dropAllUsers();
+                directoryBackend.restoreGroups(snapshot.getGroups());
+                directoryBackend.restoreUsers(snapshot.getUsers());
+
+                for (MembershipEntity membership : snapshot.getMemberships())
+                    directoryBackend.upsertMembership(membership);
+            };
+
+            if (directoryBackend.supportsStaging()) {
+
+                directoryBackend.withStagingAccess(block);
+                directoryBackend.withWriteAccess(directoryBackend::publishStagedEntities);
+
+            } else {
+
+                directoryBackend.withWriteAccess(block);
+            }
+
+            resumeAuditLogId = snapshot.getAuditLogId();
+
+            logger.info("Restored {} groups and {} users from snapshot file {} with audit log ID {}.",
+                    snapshot.getGroups().size(), snapshot.getUsers().size(), snapshotFile, resumeAuditLogId);
+
+            return true;
+        }
+
+        private void markSnapshot(Long auditLogId) {
+
+            if (snapshotFile == null || auditLogId == null)
+                return;
+
+            pendingAuditLogId = auditLogId;
+        }
+
+        public void writePendingSnapshot() {
+
+            if (pendingAuditLogId == null)
+                return;
+
+            try {
+
+                writeSnapshot(pendingAuditLogId);
+
+            } catch (RuntimeException e) {
+
+                logger.error("Cannot read entities for snapshot file " + snapshotFile + ".", e);
+            }
+        }
+
+        private void writeSnapshot(Long auditLogId) {
+
+            if (snapshotFile == null || auditLogId == null)
+                return;
+
+            // the memberships are read from the cache because the nested backend passes them from Crowd
+            MirrorSnapshot snapshot = directoryBackend.withReadAccess(() -> {
+
+                List<MembershipEntity> memberships = new ArrayList<>();
+
+                for (MembershipEntity membership : directoryBackend.getDirectMemberships())
+                    memberships.add(membership);
+
+                return new MirrorSnapshot(auditLogId, System.currentTimeMillis(), directoryBackend.getAllGroups(),
+                        directoryBackend.getAllUsers(), memberships);
             });
+
+            try {
+
+                snapshot.write(snapshotFile);
+
+                // a snapshot written after a full copy supersedes the one of an earlier incremental update
+                pendingAuditLogId = null;
+
+                logger.info("Wrote {} groups and {} users to snapshot file {} with audit log ID {}.",
+                        snapshot.getGroups().size(), snapshot.getUsers().size(), snapshotFile, auditLogId);
+
+            } catch (IOException e) {
+
+                logger.error("Cannot write snapshot file " + snapshotFile + ".", e);
+
+                // the next attempt is made at the snapshot interval
+                pendingAuditLogId = auditLogId;
+            }
         }
 
-        private void performDeltaUpdate() {
+        private Long findLastAuditLogId() {
+
+            if (snapshotFile == null)
+                return null;
+
+            try {
+
+                return auditLogProcessor.getLastAuditLogId();
+
+            } catch (IOException e) {
+
+                logger.warn("Cannot query audit log for last entry; no snapshot is written.", e);
+
+                return null;
+            }
+        }
+
+        private boolean loadAllEntities() {
+
+            directoryBackend.dropAllGroups();
+            directoryBackend.dropAllUsers();
+
+            if (fetchThreads > 0) {
+
+                new FullSyncPipeline(directoryBackend, fetchExecutor, fetchThreads, pageSize, bufferSize).run();
+
+                return false;
+            }
 
-            directoryBackend.withWriteAccess(() -> {
+            MappableCursor<MembershipEntity> memberships = directoryBackend.getMemberships();
+            int groupPage = 0;
+            int userPage = 0;
+
+            while (groupPage != -1 || userPage != -1) {
+
+                if (groupPage >= 0) {
+
+                    if (directoryBackend.upsertAllGroups(groupPage++ * pageSize, pageSize) < pageSize)
+                        groupPage = -1;
+                }
+
+                if (userPage >= 0) {
+
+                    if (directoryBackend.upsertAllUsers(userPage++ * pageSize, pageSize) < pageSize)
+                        userPage = -1;
+                }
+            }
+
+            while (memberships.next())
+                directoryBackend.upsertMembership(memberships.get());
+
+            return false;
+        }
+
+        private AuditLogState performDeltaUpdate(Long sinceAuditLogId) {
+
+            return directoryBackend.withWriteAccess(() -> {
 
                 List<Pair<UpdateType, Object>> deltaUpdateList = new LinkedList<>();
+                AtomicBoolean markerMissing = new AtomicBoolean(false);
 
                 AuditLogState state = auditLogProcessor.updateConcurrent(() -> {
 
+                    AliasResolver aliasResolver = new AliasResolver();
                     boolean committed = false;
+                    boolean markerReached = false;
                     boolean lastPageDone = false;
                     int page = 0;
 
                     deltaUpdateList.clear();
+                    markerMissing.set(false);
 
                     while (!lastPageDone) {
 
@@ -382,14 +848,23 @@ public class MirroredCrowdDirectoryBackend
 
                         for (JsonElement valueElement : result.getAsJsonArray("values")) {
 
+                            long entryId = valueElement.getAsJsonObject().get("id").getAsLong();
                             String eventType = valueElement.getAsJsonObject().get("eventType").getAsString();
                             SyncState syncState = auditLogProcessor.getSynchronizationState(valueElement);
 
+                            // the entries are ordered from the newest to the oldest one
+                            if (sinceAuditLogId != null && entryId <= sinceAuditLogId) {
+
+                                markerReached = true;
+                                lastPageDone = true;
+                                break;
+                            }
+
                             if (syncState == SyncState.SYNC_COMPLETE) {
 
                                 committed = true;
 
-                            } else if (syncState == SyncState.SYNC_STOP && committed) {
+                            } else if (syncState == SyncState.SYNC_STOP && committed && sinceAuditLogId == null) {
 
                                 lastPageDone = true;
                                 break;
@@ -412,7 +887,7 @@ public class MirroredCrowdDirectoryBackend
 
                                         } else if (type.equals("USER")) {
 
-                                            String alias = auditLogProcessor.resolveToAlias(name);
+                                            String alias = aliasResolver.resolve(name);
 
                                             if (eventType.equals("USER_UPDATED")) {
 
@@ -426,7 +901,7 @@ public class MirroredCrowdDirectoryBackend
                                                 property.ifPresent(x -> {
 
                                                     String nameOld = x.get("oldValue").getAsString();
-                                                    String aliasOld = auditLogProcessor.resolveToAlias(nameOld);
+                                                    String aliasOld = aliasResolver.resolve(nameOld);
 
                                                     // remove the old user entity
                                                     deltaUpdateList.add(Pair.of(UpdateType.USER_INVALIDATE, aliasOld));
@@ -462,7 +937,7 @@ public class MirroredCrowdDirectoryBackend
                                         else if (type.equals("GROUP"))
                                             childGroupIds.add(name);
                                         else if (type.equals("USER"))
-                                            userIds.add(auditLogProcessor.resolveToAlias(name));
+                                            userIds.add(aliasResolver.resolve(name));
                                     }
 
                                     if (parentGroupId == null)
@@ -482,59 +957,119 @@ public class MirroredCrowdDirectoryBackend
                         }
                     }
 
+                    if (sinceAuditLogId != null && !markerReached) {
+
+                        markerMissing.set(true);
+
+                        return true;
+                    }
+
                     return false;
                 });
 
-                if (state.equals(AuditLogState.CON_ISSUE))
-                    return;
+                if (markerMissing.get())
+                    return AuditLogState.FULL_UPDATE_REQUIRED;
+
+                if (!state.equals(AuditLogState.UP_TO_DATE))
+                    return AuditLogState.CON_ISSUE;
 
                 downloadEntities(deltaUpdateList);
+
+                return AuditLogState.UP_TO_DATE;
             });
         }
 
         private void downloadEntities(List<Pair<UpdateType, Object>> deltaUpdateList) {
 
+            DeltaUpdate deltaUpdate = new DeltaUpdate(directoryBackend,
+                    x -> fetchEntities(x, directoryBackend::fetchGroups),
+                    x -> fetchEntities(x, directoryBackend::fetchUsers));
+
             for (Pair<UpdateType, Object> x : Lists.reverse(deltaUpdateList)) {
 
-                if (x.getLeft().equals(UpdateType.GROUP_VALIDATE) &&
-                        x.getRight() instanceof String) {
+                switch (x.getLeft()) {
 
-                    directoryBackend.upsertGroup(((String) x.getRight()).toLowerCase());
+                    case GROUP_VALIDATE:
+                        deltaUpdate.validateGroup(x.getRight().toString());
+                        break;
 
-                } else if (x.getLeft().equals(UpdateType.GROUP_INVALIDATE) &&
-                        x.getRight() instanceof String) {
+                    case GROUP_INVALIDATE:
+                        deltaUpdate.invalidateGroup(x.getRight().toString());
+                        break;
 
-                    directoryBackend.dropGroup(((String) x.getRight()).toLowerCase());
+                    case USER_VALIDATE:
 
-                } else if (x.getLeft().equals(UpdateType.USER_VALIDATE) &&
-                        x.getRight() instanceof String) {
+                        // a renamed user inherits the memberships of the old user at this point of the history
+                        if (x.getRight() instanceof Pair)
+                            deltaUpdate.renameUser(((Pair<?, ?>) x.getRight()).getLeft().toString(),
+                                    ((Pair<?, ?>) x.getRight()).getRight().toString());
+                        else
+                            deltaUpdate.validateUser(x.getRight().toString());
 
-                    directoryBackend.upsertUser(((String) x.getRight()).toLowerCase());
+                        break;
 
-                } else if (x.getLeft().equals(UpdateType.USER_VALIDATE) &&
-                        x.getRight() instanceof Pair) {
+                    case USER_INVALIDATE:
+                        deltaUpdate.invalidateUser(x.getRight().toString());
+                        break;
 
-                    String newName = ((Pair<?, ?>) x.getRight()).getLeft().toString();
-                    String oldName = ((Pair<?, ?>) x.getRight()).getRight().toString();
+                    case MEMBERSHIP_VALIDATE:
+                        deltaUpdate.validateMembership((MembershipEntity) x.getRight());
+                        break;
 
-                    directoryBackend.upsertUser(newName.toLowerCase(), oldName.toLowerCase());
+                    case MEMBERSHIP_INVALIDATE:
+                        deltaUpdate.invalidateMembership((MembershipEntity) x.getRight());
+                        break;
 
-                } else if (x.getLeft().equals(UpdateType.USER_INVALIDATE) &&
-                        x.getRight() instanceof String) {
+                    default:
+                        break;
+                }
+            }
 
-                    directoryBackend.dropUser(((String) x.getRight()).toLowerCase());
+            deltaUpdate.apply();
+        }
 
-                } else if (x.getLeft().equals(UpdateType.MEMBERSHIP_VALIDATE) &&
-                        x.getRight() instanceof MembershipEntity) {
+        private <T> List<T> fetchEntities(List<String> ids, Function<List<String>, Set<T>> fetch) {
 
-                    directoryBackend.upsertMembership((MembershipEntity) x.getRight());
+            List<List<String>> batches = Lists.partition(ids, DELTA_FETCH_BATCH_SIZE);
+            List<T> entities = new ArrayList<>();
 
-                } else if (x.getLeft().equals(UpdateType.MEMBERSHIP_INVALIDATE) &&
-                        x.getRight() instanceof MembershipEntity) {
+            if (fetchThreads == 0) {
 
-                    directoryBackend.dropMembership((MembershipEntity) x.getRight());
-                }
+                for (List<String> batch : batches)
+                    entities.addAll(fetch.apply(batch));
+
+                return entities;
             }
+
+            List<Future<Set<T>>> futures = new ArrayList<>();
+
+            for (List<String> batch : batches)
+                futures.add(fetchExecutor.submit(() -> fetch.apply(batch)));
+
+            try {
+
+                for (Future<Set<T>> future : futures)
+                    entities.addAll(future.get());
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException("Interrupted while waiting for downloaded entities.", e);
+
+            } catch (ExecutionException e) {
+
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+
+                throw new IllegalStateException("Cannot download entities.", e.getCause());
+
+            } finally {
+
+                futures.forEach(x -> x.cancel(false));
+            }
+
+            return entities;
         }
     }
 
@@ -542,19 +1077,12 @@ public class MirroredCrowdDirectoryBackend
 
         private final Random random = new Random();
         private final String appName;
-        private final String restUsername;
-        private final String restUserPassword;
-        private final String restBaseUrl;
         private final int pageLimit;
         private final int pageSize;
 
-        public AuditLogProcessor(String appName, String restUsername, String restUserPassword, String restBaseUrl,
-                                 int pageLimit, int pageSize) {
+        public AuditLogProcessor(String appName, int pageLimit, int pageSize) {
 
             this.appName = appName;
-            this.restUsername = restUsername;
-            this.restUserPassword = restUserPassword;
-            this.restBaseUrl = restBaseUrl;
             this.pageLimit = pageLimit;
             this.pageSize = pageSize;
         }
@@ -812,7 +1340,7 @@ public class MirroredCrowdDirectoryBackend
 
             try {
 
-                postRestApi(route, node, false);
+                restClient.post(route, node, false);
 
             } catch (IOException e) {
 
@@ -840,7 +1368,7 @@ public class MirroredCrowdDirectoryBackend
             String queryString = "?start=0&limit=1";
             String route = "/rest/admin/1.0/auditlog/query" + queryString;
 
-            JsonObject result = postRestApi(route, node, true).get();
+            JsonObject result = restClient.post(route, node, true).get();
             JsonArray array = result.getAsJsonArray("values");
 
             if (array.size() != 1)
@@ -871,37 +1399,32 @@ public class MirroredCrowdDirectoryBackend
             String queryString = "?start=" + (page * pageSize) + "&limit=" + pageSize;
             String route = "/rest/admin/1.0/auditlog/query" + queryString;
 
-            return postRestApi(route, node, true).get();
+            return restClient.post(route, node, true).get();
         }
 
-        public String resolveToAlias(String username) {
-
-            JsonObject applications;
-            JsonObject aliases;
-            String appId = null;
+        private String findApplicationId()
+                throws IOException {
 
-            try {
+            JsonObject applications = restClient.get("/rest/appmanagement/1/application", true).get();
 
-                applications = getRestApi("/rest/appmanagement/1/application", true).get();
-                aliases = getRestApi("/rest/appmanagement/1/aliases?user=" + username, true).get();
+            for (JsonElement element : applications.getAsJsonObject().getAsJsonArray("applications")) {
 
-            } catch (IOException e) {
+                JsonObject entry = element.getAsJsonObject().getAsJsonObject("ApplicationEntity");
 
-                throw new UncheckedIOException(e);
+                if (entry.get("name").getAsString().equals(appName))
+                    return entry.get("id").getAsString();
             }
 
-            for (JsonElement element : applications.getAsJsonObject().getAsJsonArray("applications")) {
-
-                JsonObject entry = element.getAsJsonObject().getAsJsonObject("ApplicationEntity");
+            return null;
+        }
 
-                String id = entry.get("id").getAsString();
-                String name = entry.get("name").getAsString();
+        private String findAlias(String appId, String username)
+                throws IOException {
 
-                if (name.equals(appName))
-                    appId = id;
-            }
+            String route = "/rest/appmanagement/1/aliases?user=" + URLEncoder.encode(username, StandardCharsets.UTF_8);
+            JsonObject aliases = restClient.get(route, true).get();
 
-            if (appId == null || !aliases.getAsJsonObject().has(appId))
+            if (!aliases.getAsJsonObject().has(appId))
                 return username;
 
             String alias = aliases.getAsJsonObject().get(appId).getAsString();
@@ -910,82 +1433,43 @@ public class MirroredCrowdDirectoryBackend
 
             return alias;
         }
+    }
 
-        private Optional<JsonObject> getRestApi(String route, boolean expectResult)
-                throws IOException {
-
-            CloseableHttpClient httpclient =
-                    HttpClientBuilder.create().setRedirectStrategy(new LaxRedirectStrategy()).build();
-
-            Gson gson = new Gson();
-
-            String credentials =
-                    new String(Base64.getEncoder().encode((restUsername + ":" + restUserPassword)
-                            .getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
-
-            HttpGet request = new HttpGet(restBaseUrl + route);
+    /**
+     * Resolves usernames to aliases for the duration of one synchronization run. The application ID is looked up
+     * once and every username is resolved only once, no matter how often it occurs in the audit log.
+     */
+    private class AliasResolver {
 
-            request.setHeader("Authorization", "Basic " + credentials);
-            request.setHeader("Accept", "application/json");
+        private final Map<String, String> aliases = new HashMap<>();
+        private boolean appIdResolved = false;
+        private String appId;
 
-            HttpResponse response = httpclient.execute(request);
+        public String resolve(String username) {
 
-            if (!expectResult)
-                return Optional.empty();
+            String alias = aliases.get(username);
 
-            String result = IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8.name());
+            if (alias != null)
+                return alias;
 
             try {
 
-                return Optional.of(gson.fromJson(result, JsonObject.class));
+                if (!appIdResolved) {
 
-            } catch (JsonSyntaxException e) {
-
-                logger.error("Cannot parse JSON object. Status code: {}; Result:\n {}",
-                        response.getStatusLine().getStatusCode(), result);
-
-                throw e;
-            }
-        }
-
-        private Optional<JsonObject> postRestApi(String route, JsonObject node, boolean expectResult)
-                throws IOException {
-
-            CloseableHttpClient httpclient =
-                    HttpClientBuilder.create().setRedirectStrategy(new LaxRedirectStrategy()).build();
-
-            Gson gson = new Gson();
-
-            String credentials =
-                    new String(Base64.getEncoder().encode((restUsername + ":" + restUserPassword)
-                            .getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
-
-            HttpPost request = new HttpPost(restBaseUrl + route);
-
-            request.setHeader("Authorization", "Basic " + credentials);
-            request.setHeader("Accept", "application/json");
-
-            if (node != null)
-                request.setEntity(new StringEntity(gson.toJson(node), ContentType.APPLICATION_JSON));
-
-            HttpResponse response = httpclient.execute(request);
-
-            if (!expectResult)
-                return Optional.empty();
+                    appId = auditLogProcessor.findApplicationId();
+                    appIdResolved = true;
+                }
 
-            String result = IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8.name());
+                alias = appId == null ? username : auditLogProcessor.findAlias(appId, username);
 
-            try {
-
-                return Optional.of(gson.fromJson(result, JsonObject.class));
+            } catch (IOException e) {
 
-            } catch (JsonSyntaxException e) {
+                throw new UncheckedIOException(e);
+            }
 
-                logger.error("Cannot parse JSON object. Status code: {}; Result:\n {}",
-                        response.getStatusLine().getStatusCode(), result);
+            aliases.put(username, alias);
 
-                throw e;
-            }
+            return alias;
         }
     }
 }
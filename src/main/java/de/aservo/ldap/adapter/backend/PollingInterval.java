@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+
+/**
+ * The interval between two polls of a changing source. The interval snaps back to the minimum as soon as a poll finds
+ * changes and doubles with every poll without changes up to the maximum.
+ */
+public class PollingInterval {
+
+    private final long minInterval;
+    private final long maxInterval;
+    private long interval;
+
+    /**
+     * Instantiates a new polling interval which starts with the minimum.
+     *
+     * @param minInterval the minimum interval in milliseconds
+     * @param maxInterval the maximum interval in milliseconds
+     */
+    public PollingInterval(long minInterval, long maxInterval) {
+
+        if (minInterval < 1)
+            throw new IllegalArgumentException("The synchronization interval cannot be less than one millisecond.");
+
+        if (maxInterval < minInterval)
+            throw new IllegalArgumentException("The maximum synchronization interval cannot be less than the minimum.");
+
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        interval = minInterval;
+    }
+
+    /**
+     * Gets the current interval.
+     *
+     * @return the interval in milliseconds
+     */
+    public synchronized long get() {
+
+        return interval;
+    }
+
+    /**
+     * Adapts the interval to the result of a poll.
+     *
+     * @param changed true if the poll found changes
+     * @return the interval in milliseconds until the next poll
+     */
+    public synchronized long next(boolean changed) {
+
+        if (changed)
+            interval = minInterval;
+        else
+            interval = Math.min(interval * 2, maxInterval);
+
+        return interval;
+    }
+}
@@ -20,6 +20,7 @@ package de.aservo.ldap.adapter.backend;
 import de.aservo.ldap.adapter.ServerConfiguration;
 import de.aservo.ldap.adapter.api.cursor.MappableCursor;
 import de.aservo.ldap.adapter.api.database.Row;
+import de.aservo.ldap.adapter.api.directory.EntityChangeListener;
 import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
 import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
 import de.aservo.ldap.adapter.api.entity.EntityType;
@@ -27,8 +28,11 @@ import de.aservo.ldap.adapter.api.entity.GroupEntity;
 import de.aservo.ldap.adapter.api.entity.MembershipEntity;
 import de.aservo.ldap.adapter.api.entity.UserEntity;
 import de.aservo.ldap.adapter.api.query.QueryExpression;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -93,6 +97,30 @@ public abstract class ProxyDirectoryBackend
         return directoryBackend.requireReset();
     }
 
+    @Override
+    public boolean supportsStaging() {
+
+        return directoryBackend.supportsStaging();
+    }
+
+    @Override
+    public <T> T withStagingAccess(Supplier<T> block) {
+
+        return directoryBackend.withStagingAccess(block);
+    }
+
+    @Override
+    public void withStagingAccess(Runnable block) {
+
+        directoryBackend.withStagingAccess(block);
+    }
+
+    @Override
+    public void publishStagedEntities() {
+
+        directoryBackend.publishStagedEntities();
+    }
+
     @Override
     public void upsertGroup(String id) {
 
@@ -135,6 +163,30 @@ public abstract class ProxyDirectoryBackend
         return directoryBackend.upsertAllUsers();
     }
 
+    @Override
+    public void restoreGroups(Collection<GroupEntity> entities) {
+
+        directoryBackend.restoreGroups(entities);
+    }
+
+    @Override
+    public void restoreUsers(Collection<UserEntity> entities) {
+
+        directoryBackend.restoreUsers(entities);
+    }
+
+    @Override
+    public void upsertGroups(Collection<GroupEntity> entities) {
+
+        directoryBackend.upsertGroups(entities);
+    }
+
+    @Override
+    public void upsertUsers(Collection<UserEntity> entities) {
+
+        directoryBackend.upsertUsers(entities);
+    }
+
     @Override
     public void upsertMembership(MembershipEntity membership) {
 
@@ -171,11 +223,19 @@ public abstract class ProxyDirectoryBackend
         directoryBackend.dropMembership(membership);
     }
 
+    @Override
+    public boolean addEntityChangeListener(EntityChangeListener listener) {
+
+        return directoryBackend.addEntityChangeListener(listener);
+    }
+
     @Override
     public MappableCursor<Row> runQueryExpression(String txId, SchemaManager schemaManager, QueryExpression expression,
-                                                  EntityType entityType) {
+                                                  EntityType entityType, Set<String> attributes, String lastId,
+                                                  int limit, List<SortKey> sortKeys) {
 
-        return directoryBackend.runQueryExpression(txId, schemaManager, expression, entityType);
+        return directoryBackend.runQueryExpression(txId, schemaManager, expression, entityType, attributes, lastId,
+                limit, sortKeys);
     }
 
     @Override
@@ -284,4 +344,22 @@ public abstract class ProxyDirectoryBackend
 
         return directoryBackend.getMemberships();
     }
+
+    @Override
+    public MappableCursor<MembershipEntity> getDirectMemberships() {
+
+        return directoryBackend.getDirectMemberships();
+    }
+
+    @Override
+    public Set<GroupEntity> fetchGroups(Collection<String> ids) {
+
+        return directoryBackend.fetchGroups(ids);
+    }
+
+    @Override
+    public Set<UserEntity> fetchUsers(Collection<String> ids) {
+
+        return directoryBackend.fetchUsers(ids);
+    }
 }
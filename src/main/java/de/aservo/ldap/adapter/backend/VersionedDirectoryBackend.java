@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.ServerConfiguration;
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+
+
+/**
+ * A drop-in replacement for {@link LockingDirectoryBackend} which does not lock readers.
+ * Readers pin an immutable generation of the entities of the nested directory backend while writers pass all
+ * modifications through and build the next generation, which is published by an atomic swap. The first generation
+ * is loaded from the nested directory backend at startup, so that its persisted state is kept.
+ * In contrast to {@link LockingDirectoryBackend} the whole directory is kept on the heap a second time next to the
+ * nested cache, see {@link InMemoryIndexedDirectoryBackend} for the memory needed.
+ */
+public class VersionedDirectoryBackend
+        extends InMemoryIndexedDirectoryBackend {
+
+    /**
+     * Instantiates a new directory backend.
+     *
+     * @param config           config the config instance of the server
+     * @param directoryBackend the directory backend
+     */
+    public VersionedDirectoryBackend(ServerConfiguration config, NestedDirectoryBackend directoryBackend) {
+
+        super(config, directoryBackend);
+    }
+
+    @Override
+    public void startup() {
+
+        super.startup();
+        loadSnapshot();
+    }
+
+    @Override
+    public boolean requireReset() {
+
+        return directoryBackend.requireReset();
+    }
+}
@@ -52,6 +52,7 @@ public class DatabaseService
 
     private final Logger logger;
     private final BasicDataSource dataSource;
+    private final StatementCache statementCache;
     private boolean updatedSchema = false;
     private final boolean applyNativeSql;
 
@@ -74,10 +75,11 @@ public class DatabaseService
      * @param maxOpenPreparedStatements the maximum number of open prepared statements
      * @param isolationLevel            the isolation level used for transactions
      * @param applyNativeSql            the flag to enable or disable native SQL for batch processing
+     * @param statementCacheSize        the maximum number of cached dialect specific SQL statements
      */
     public DatabaseService(Logger logger, String driver, String url, String user, String password, int minIdle,
                            int maxIdle, int maxTotal, int maxOpenPreparedStatements, int isolationLevel,
-                           boolean applyNativeSql) {
+                           boolean applyNativeSql, int statementCacheSize) {
 
         this.logger = logger;
 
@@ -90,10 +92,12 @@ public class DatabaseService
         dataSource.setMinIdle(minIdle);
         dataSource.setMaxIdle(maxIdle);
         dataSource.setMaxTotal(maxTotal);
+        dataSource.setPoolPreparedStatements(true);
         dataSource.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
         dataSource.setDefaultTransactionIsolation(isolationLevel);
 
         this.applyNativeSql = applyNativeSql;
+        this.statementCache = new StatementCache(statementCacheSize);
 
         System.setProperty("org.jooq.no-logo", "true");
     }
@@ -114,7 +118,7 @@ public class DatabaseService
             throw new UncheckedSQLException("Could not create connection from pool.", e);
         }
 
-        Executor executor = new Executor(logger, connection, VERSIONING_SCHEMA_CLAUSES);
+        Executor executor = new Executor(logger, connection, VERSIONING_SCHEMA_CLAUSES, statementCache);
 
         performSchemaEvolution(executor.newQueryDefFactory());
     }
@@ -124,6 +128,8 @@ public class DatabaseService
      */
     public void shutdown() {
 
+        logger.info("Statement cache statistics: {}", statementCache);
+
         try {
 
             dataSource.close();
@@ -144,6 +150,16 @@ public class DatabaseService
         return updatedSchema;
     }
 
+    /**
+     * Gets the cache for rendered SQL statements.
+     *
+     * @return the statement cache
+     */
+    public StatementCache getStatementCache() {
+
+        return statementCache;
+    }
+
     @Override
     public <T> T withTransaction(Function<QueryDefFactory, T> block) {
 
@@ -158,7 +174,7 @@ public class DatabaseService
             throw new UncheckedSQLException("Could not create connection from pool.", e);
         }
 
-        Executor executor = new Executor(logger, connection, QUERIES_CLAUSES);
+        Executor executor = new Executor(logger, connection, QUERIES_CLAUSES, statementCache);
         long start = System.currentTimeMillis();
         T result;
 
@@ -225,7 +241,7 @@ public class DatabaseService
             throw new UncheckedSQLException("Could not create connection from pool.", e);
         }
 
-        Executor executor = new Executor(logger, connection, QUERIES_CLAUSES);
+        Executor executor = new Executor(logger, connection, QUERIES_CLAUSES, statementCache);
 
         try {
 
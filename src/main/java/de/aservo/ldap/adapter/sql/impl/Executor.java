@@ -27,6 +27,8 @@ import de.aservo.ldap.adapter.api.database.exception.UnknownColumnException;
 import de.aservo.ldap.adapter.api.database.result.*;
 import org.apache.commons.io.IOUtils;
 import org.jooq.Query;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
 import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 import org.slf4j.Logger;
@@ -42,6 +44,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -51,17 +54,22 @@ import java.util.stream.Collectors;
  */
 public class Executor {
 
+    private static final Map<String, Map<String, String>> sqlFiles = new ConcurrentHashMap<>();
+
     private final Logger logger;
     private final Connection connection;
     private final Map<String, String> clauses;
+    private final StatementCache statementCache;
+    private SQLDialect dialect;
 
     public static final String NATIVE_SQL_INDICATOR = "NATIVE_SQL:";
 
-    public Executor(Logger logger, Connection connection, String resourcePath) {
+    public Executor(Logger logger, Connection connection, String resourcePath, StatementCache statementCache) {
 
         this.logger = logger;
         this.connection = connection;
-        this.clauses = parseSqlFile(resourcePath);
+        this.clauses = sqlFiles.computeIfAbsent(resourcePath, this::parseSqlFile);
+        this.statementCache = statementCache;
     }
 
     public <T extends Result> T executeById(String clauseId, Map<String, Object> parameters, Class<T> clazz)
@@ -79,7 +87,9 @@ public class Executor {
             throws SQLException {
 
         Query query = null;
+        StatementCache.Entry cachedStatement = null;
         String sql = null;
+        List<Object> bindValues = null;
         long start = System.currentTimeMillis();
         boolean nonStreamed = true;
 
@@ -91,19 +101,23 @@ public class Executor {
 
         } else {
 
-            logger.debug("[Thread ID {}] - Parse dialect free SQL statement:\n{}",
-                    Thread.currentThread().getId(), trimmedClause);
+            cachedStatement = statementCache.get(getCacheKey(trimmedClause, parameters));
 
-            query = DSL.using(connection).parser().parseQuery(trimmedClause);
+            if (cachedStatement == null)
+                query = parseQuery(trimmedClause);
         }
 
         try {
 
-            if (query != null) {
+            if (cachedStatement != null) {
+
+                sql = cachedStatement.getSql();
+                bindValues = getBindValues(cachedStatement, parameters);
 
-                findBinding(query, parameters);
+            } else if (query != null) {
 
-                sql = query.getSQL();
+                sql = renderQuery(trimmedClause, query, parameters);
+                bindValues = query.getBindValues();
             }
 
             Query finalQuery = query;
@@ -117,9 +131,9 @@ public class Executor {
 
                 Result concreteResult;
 
-                if (query != null) {
+                if (bindValues != null) {
 
-                    setValues(statement, query.getBindValues());
+                    setValues(statement, bindValues);
 
                 } else {
                     // TODO: support parameters for native SQL statements
@@ -133,6 +147,19 @@ public class Executor {
                             new IgnoredResult() {
                             };
 
+                } else if (clazz == UpdateCountResult.class) {
+
+                    int updateCount = statement.getUpdateCount();
+
+                    concreteResult =
+                            new UpdateCountResult() {
+
+                                public int getUpdateCount() {
+
+                                    return updateCount;
+                                }
+                            };
+
                 } else {
 
                     LinkedHashMap<String, JDBCType> metadata = getMetadata(statement);
@@ -310,6 +337,105 @@ public class Executor {
         }
     }
 
+    public int executeBatchById(String clauseId, Map<String, Object> parameters,
+                                List<Map<String, Object>> batchParameters)
+            throws SQLException {
+
+        String clause = clauses.get(clauseId);
+
+        if (clause == null)
+            throw new IllegalArgumentException("Cannot find clause with ID " + clauseId);
+
+        return executeBatch(clause, parameters, batchParameters);
+    }
+
+    public int executeBatch(String clause, Map<String, Object> parameters, List<Map<String, Object>> batchParameters)
+            throws SQLException {
+
+        if (batchParameters.isEmpty())
+            return 0;
+
+        long start = System.currentTimeMillis();
+        String trimmedClause = clause.trim();
+
+        if (trimmedClause.startsWith(NATIVE_SQL_INDICATOR))
+            throw new IllegalArgumentException("Cannot perform batch execution of native SQL statements.");
+
+        Query query = null;
+        PreparedStatement statement = null;
+        String sql = null;
+        int pending = 0;
+
+        try {
+
+            for (Map<String, Object> x : batchParameters) {
+
+                Map<String, Object> mergedParameters = new HashMap<>(parameters);
+
+                mergedParameters.putAll(x);
+
+                StatementCache.Entry cachedStatement =
+                        statementCache.get(getCacheKey(trimmedClause, mergedParameters));
+
+                String nextSql;
+                List<Object> bindValues;
+
+                if (cachedStatement != null) {
+
+                    nextSql = cachedStatement.getSql();
+                    bindValues = getBindValues(cachedStatement, mergedParameters);
+
+                } else {
+
+                    if (query == null)
+                        query = parseQuery(trimmedClause);
+
+                    nextSql = renderQuery(trimmedClause, query, mergedParameters);
+                    bindValues = query.getBindValues();
+                }
+
+                if (!nextSql.equals(sql)) {
+
+                    if (statement != null) {
+
+                        statement.executeBatch();
+                        statement.close();
+                    }
+
+                    sql = nextSql;
+                    pending = 0;
+
+                    logger.debug("[Thread ID {}] - Apply dialect specific SQL statement for batch execution:\n{}",
+                            Thread.currentThread().getId(), sql);
+
+                    statement = connection.prepareStatement(sql);
+                }
+
+                setValues(statement, bindValues);
+                statement.addBatch();
+                pending++;
+            }
+
+            if (pending > 0)
+                statement.executeBatch();
+
+        } finally {
+
+            if (statement != null)
+                statement.close();
+
+            if (query != null)
+                query.close();
+
+            long end = System.currentTimeMillis();
+
+            logger.debug("[Thread ID {}] - A batch of {} prepared statements was performed in {} ms.",
+                    Thread.currentThread().getId(), batchParameters.size(), end - start == 0 ? 1 : end - start);
+        }
+
+        return batchParameters.size();
+    }
+
     public QueryDefFactory newQueryDefFactory() {
 
         return new QueryDefFactory() {
@@ -331,9 +457,143 @@ public class Executor {
         return connection;
     }
 
+    private Query parseQuery(String clause) {
+
+        logger.debug("[Thread ID {}] - Parse dialect free SQL statement:\n{}",
+                Thread.currentThread().getId(), clause);
+
+        return DSL.using(connection).parser().parseQuery(clause);
+    }
+
+    private String renderQuery(String clause, Query query, Map<String, Object> parameters) {
+
+        findBinding(query, parameters);
+
+        String sql = query.getSQL();
+        List<String> parameterNames = getParameterNames(query.getSQL(ParamType.NAMED));
+        StatementCache.Entry entry = new StatementCache.Entry(sql, parameterNames);
+
+        // only cache statements whose bind values can be reproduced without jOOQ
+        if (Objects.deepEquals(query.getBindValues().toArray(), getBindValues(entry, parameters).toArray()))
+            statementCache.put(getCacheKey(clause, parameters), entry);
+
+        return sql;
+    }
+
+    private String getCacheKey(String clause, Map<String, Object> parameters) {
+
+        StringBuilder builder = new StringBuilder();
+
+        if (dialect == null)
+            dialect = DSL.using(connection).dialect();
+
+        builder.append(dialect.name()).append('\n').append(clause);
+
+        new TreeMap<>(parameters).forEach((key, value) -> {
+
+            Object bindValue = toBindValue(value);
+
+            builder
+                    .append('\n')
+                    .append(key)
+                    .append(':')
+                    .append(bindValue == null ? "null" : bindValue.getClass().getName());
+        });
+
+        return builder.toString();
+    }
+
+    private List<Object> getBindValues(StatementCache.Entry entry, Map<String, Object> parameters) {
+
+        List<Object> result = new ArrayList<>(entry.getParameterNames().size());
+
+        for (String name : entry.getParameterNames())
+            result.add(toBindValue(parameters.get(name)));
+
+        return result;
+    }
+
+    private List<String> getParameterNames(String namedSql) {
+
+        List<String> result = new ArrayList<>();
+        int length = namedSql.length();
+        int i = 0;
+
+        while (i < length) {
+
+            char c = namedSql.charAt(i);
+
+            if (c == '\'' || c == '"' || c == '`') {
+
+                int end = namedSql.indexOf(c, i + 1);
+
+                i = end == -1 ? length : end + 1;
+
+            } else if (c == ':' && (i == 0 || namedSql.charAt(i - 1) != ':') &&
+                    i + 1 < length && namedSql.charAt(i + 1) != ':') {
+
+                int end = i + 1;
+
+                while (end < length &&
+                        (Character.isLetterOrDigit(namedSql.charAt(end)) || namedSql.charAt(end) == '_'))
+                    end++;
+
+                if (end > i + 1)
+                    result.add(namedSql.substring(i + 1, end));
+
+                i = end;
+
+            } else {
+
+                i++;
+            }
+        }
+
+        return result;
+    }
+
+    private Object toBindValue(Object value) {
+
+        if (value == null)
+            return null;
+        else if (value instanceof Character)
+            return value.toString();
+        else if (value instanceof LocalDate)
+            return java.sql.Date.valueOf((LocalDate) value);
+        else if (value instanceof LocalTime)
+            return java.sql.Time.valueOf((LocalTime) value);
+        else if (value instanceof LocalDateTime)
+            return java.sql.Timestamp.valueOf((LocalDateTime) value);
+        else if (isByteSequence(value))
+            return toByteArray(value);
+        else if (value instanceof Optional)
+            return toBindValue(((Optional<?>) value).orElse(null));
+        else
+            return value;
+    }
+
     private void findBinding(Query query, Map<String, Object> parameters) {
 
-        parameters.forEach((k, v) -> findBinding(query, k, v));
+        // positional arguments refer to bind markers only, but the parser also counts inlined literals
+        List<String> bindMarkers = query.getParams().entrySet().stream()
+                .filter(x -> !x.getValue().isInline())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        parameters.forEach((k, v) -> findBinding(query, getBindMarker(k, bindMarkers), v));
+    }
+
+    private String getBindMarker(String key, List<String> bindMarkers) {
+
+        if (key.isEmpty() || !key.chars().allMatch(Character::isDigit))
+            return key;
+
+        int index = Integer.parseInt(key);
+
+        if (index < 1 || index > bindMarkers.size())
+            return key;
+
+        return bindMarkers.get(index - 1);
     }
 
     private void findBinding(Query query, String key, Object value) {
@@ -680,6 +940,16 @@ public class Executor {
                                 " and with type [" + clazz.getName() + "].", e);
             }
         }
+
+        public boolean hasColumn(String columnName) {
+
+            return metadata.containsKey(columnName.toLowerCase());
+        }
+
+        public Row copy() {
+
+            return new RowProxyImpl(this, new ArrayList<>(metadata.keySet()));
+        }
     }
 
     private class RowProxyImpl
@@ -718,6 +988,11 @@ public class Executor {
                                 " and with type [" + clazz.getName() + "].", e);
             }
         }
+
+        public boolean hasColumn(String columnName) {
+
+            return underlying.containsKey(columnName);
+        }
     }
 
     private class QueryDefImpl
@@ -769,6 +1044,21 @@ public class Executor {
             }
         }
 
+        public int executeBatch(List<Map<String, Object>> batchArguments) {
+
+            try {
+
+                if (byId)
+                    return Executor.this.executeBatchById(clauseOrId, parameters, batchArguments);
+                else
+                    return Executor.this.executeBatch(clauseOrId, parameters, batchArguments);
+
+            } catch (SQLException e) {
+
+                throw new UncheckedSQLException(e);
+            }
+        }
+
         @Override
         public boolean equals(Object that) {
 
@@ -20,14 +20,14 @@ package de.aservo.ldap.adapter.sql.impl;
 import de.aservo.ldap.adapter.api.LdapUtils;
 import de.aservo.ldap.adapter.api.database.QueryDef;
 import de.aservo.ldap.adapter.api.database.QueryDefFactory;
+import de.aservo.ldap.adapter.api.entity.ColumnNames;
 import de.aservo.ldap.adapter.api.entity.EntityType;
 import de.aservo.ldap.adapter.api.query.*;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 
 public class QueryGenerator {
@@ -42,18 +42,21 @@ public class QueryGenerator {
     private final boolean flattening;
     private final boolean activeUsersOnly;
     private final boolean useMaterializedViews;
+    private final boolean aggregateMemberships;
 
     public QueryGenerator(SchemaManager schemaManager, String dcId, boolean flattening, boolean activeUsersOnly,
-                          boolean useMaterializedViews) {
+                          boolean useMaterializedViews, boolean aggregateMemberships) {
 
         this.schemaManager = schemaManager;
         this.dcId = dcId;
         this.flattening = flattening;
         this.activeUsersOnly = activeUsersOnly;
         this.useMaterializedViews = useMaterializedViews;
+        this.aggregateMemberships = aggregateMemberships;
     }
 
-    public QueryDef generate(EntityType entityType, QueryDefFactory factory, QueryExpression expression) {
+    public QueryDef generate(EntityType entityType, QueryDefFactory factory, QueryExpression expression,
+                             Set<String> attributes, String lastId, int limit, List<SortKey> sortKeys) {
 
         if (entityType == EntityType.GROUP)
             expression = LdapUtils.preEvaluateExpressionForGroup(expression);
@@ -64,18 +67,103 @@ public class QueryGenerator {
 
         expression = LdapUtils.removeNotExpressions(LdapUtils.removeValueExpressions(expression));
 
+        // all values are bound as arguments, so a canonical operand order lets all filters of the same shape
+        // share one SQL statement
+        expression = LdapUtils.normalizeExpression(expression);
+
         StringBuilder builder = new StringBuilder();
         List<Object> arguments = new ArrayList<>();
         int joinPlan = createJoinPlan(entityType);
+        int projectionPlan = createProjectionPlan(joinPlan, expression, attributes);
+
+        // presence checks in the where clause refer to the joined membership columns
+        boolean aggregated = aggregateMemberships && !hasMembershipPresenceOperator(expression);
+        boolean joined = !aggregated && projectionPlan != 0;
+
+        if (lastId != null && !sortKeys.isEmpty())
+            throw new IllegalArgumentException("Cannot continue after an entity ID with custom sort keys.");
+
+        if (aggregated) {
+
+            generateAggregatedSelectClause(builder, entityType, projectionPlan, arguments);
+            generateWhereClause(builder, entityType, joinPlan, 0, expression, arguments);
+
+        } else {
+
+            generateSelectClause(builder, entityType, projectionPlan, arguments);
 
-        generateSelectClause(builder, entityType, joinPlan, arguments);
-        generateJoinClauses(builder, entityType, joinPlan);
-        generateWhereClause(builder, entityType, joinPlan, expression, arguments);
-        generateOrderByClause(builder, entityType);
+            // a limit on rows is not a limit on entities if membership rows are joined, so the entities of the page
+            // are selected first and only their membership rows are joined
+            if (limit > 0 && joined)
+                generatePageClause(builder, entityType, joinPlan, projectionPlan, expression, lastId, limit,
+                        sortKeys, arguments);
+
+            generateJoinClauses(builder, entityType, projectionPlan);
+            generateWhereClause(builder, entityType, joinPlan, projectionPlan, expression, arguments);
+        }
+
+        generateKeysetCondition(builder, entityType, lastId, arguments);
+        generateOrderByClause(builder, entityType, sortKeys);
+
+        if (limit > 0 && !joined) {
+
+            builder.append(" limit ?");
+            arguments.add(limit);
+        }
 
         return factory.query(builder.toString()).on(arguments);
     }
 
+    private void generatePageClause(StringBuilder builder, EntityType entityType, int joinPlan, int projectionPlan,
+                                    QueryExpression expression, String lastId, int limit, List<SortKey> sortKeys,
+                                    List<Object> arguments) {
+
+        String idColumn = entityType == EntityType.GROUP ? "g.id" : "u.id";
+        Set<String> groupColumns = new LinkedHashSet<>();
+
+        // the sort columns depend on the ID, so grouping by them does not split any entity
+        groupColumns.add(idColumn);
+
+        for (SortKey sortKey : sortKeys) {
+
+            String column = getSortColumn(entityType, sortKey.getAttributeTypeDesc());
+
+            if (column != null)
+                groupColumns.add(column);
+        }
+
+        // the page is filtered with the same joins as the outer query, so it contains the same entities
+        builder.append("inner join ( select ").append(idColumn).append(" as page_id");
+
+        if (entityType == EntityType.GROUP)
+            builder.append(" from _Group g ");
+        else
+            builder.append(" from _User u ");
+
+        generateJoinClauses(builder, entityType, projectionPlan);
+        generateWhereClause(builder, entityType, joinPlan, projectionPlan, expression, arguments);
+        generateKeysetCondition(builder, entityType, lastId, arguments);
+        builder.append("group by ").append(String.join(", ", groupColumns)).append(" ");
+        generateOrderByClause(builder, entityType, sortKeys);
+        builder.append(" limit ? ) p on p.page_id = ").append(idColumn).append(" ");
+        arguments.add(limit);
+    }
+
+    private void generateKeysetCondition(StringBuilder builder, EntityType entityType, String lastId,
+                                         List<Object> arguments) {
+
+        // keyset pagination continues right after the last entity of the previous page
+        if (lastId != null) {
+
+            if (entityType == EntityType.GROUP)
+                builder.append("and g.id > ? ");
+            else
+                builder.append("and u.id > ? ");
+
+            arguments.add(lastId);
+        }
+    }
+
     private int createJoinPlan(EntityType entityType) {
 
         int mask = 0;
@@ -92,6 +180,41 @@ public class QueryGenerator {
         return mask;
     }
 
+    private int createProjectionPlan(int joinPlan, QueryExpression expression, Set<String> attributes) {
+
+        // membership columns are only needed for requested attributes or presence checks in the where clause
+        if (attributes.isEmpty() || hasMembershipPresenceOperator(expression))
+            return joinPlan;
+
+        int mask = 0;
+
+        if (attributes.contains(LdapUtils.MEMBER_OF_AT_OID))
+            mask |= GROUP_MEMBER_OF_FLAG | USER_MEMBER_OF_FLAG;
+
+        if (attributes.contains(SchemaConstants.MEMBER_AT_OID))
+            mask |= GROUP_MEMBER_GROUP_FLAG | GROUP_MEMBER_USER_FLAG;
+
+        return joinPlan & mask;
+    }
+
+    private boolean hasMembershipPresenceOperator(QueryExpression expression) {
+
+        if (expression instanceof LogicExpression)
+            return ((LogicExpression) expression).getChildren().stream()
+                    .anyMatch(this::hasMembershipPresenceOperator);
+
+        if (expression instanceof PresenceOperator) {
+
+            String attribute = LdapUtils.normalizeAttribute(((PresenceOperator) expression).getAttribute());
+
+            return attribute.equals(SchemaConstants.MEMBER_AT_OID) ||
+                    attribute.equals(SchemaConstants.UNIQUE_MEMBER_AT_OID) ||
+                    attribute.equals(LdapUtils.MEMBER_OF_AT_OID);
+        }
+
+        return false;
+    }
+
     private void generateSelectClause(StringBuilder builder, EntityType entityType, int joinPlan,
                                       List<Object> arguments) {
 
@@ -123,6 +246,98 @@ public class QueryGenerator {
         }
     }
 
+    private void generateAggregatedSelectClause(StringBuilder builder, EntityType entityType, int joinPlan,
+                                                List<Object> arguments) {
+
+        if (entityType == EntityType.GROUP) {
+
+            builder.append("select ? as type, g.*");
+            arguments.add(EntityType.GROUP.toString().toLowerCase());
+
+            if ((joinPlan & GROUP_MEMBER_OF_FLAG) != 0) {
+
+                builder.append(", ( select ");
+                appendAggregation(builder, "gp.name");
+                builder.append("from ").append(getGroupMembershipTable()).append(" mp ");
+                builder.append("join _Group gp on gp.id = mp.parent_group_id ");
+                builder.append("where mp.member_group_id = g.id ) as parent_group_names");
+            }
+
+            if ((joinPlan & GROUP_MEMBER_GROUP_FLAG) != 0) {
+
+                builder.append(", ( select ");
+                appendAggregation(builder, "gc.name");
+                builder.append("from ").append(getGroupMembershipTable()).append(" mc ");
+                builder.append("join _Group gc on gc.id = mc.member_group_id ");
+                builder.append("where mc.parent_group_id = g.id ) as member_group_names");
+            }
+
+            if ((joinPlan & GROUP_MEMBER_USER_FLAG) != 0) {
+
+                builder.append(", ( select ");
+                appendAggregation(builder, "u.username");
+                builder.append("from ").append(getUserMembershipTable()).append(" mu ");
+                builder.append("join _User u on u.id = mu.member_user_id ");
+                builder.append("where mu.parent_group_id = g.id and ( u.active or ? = 'false' ) ) ");
+                builder.append("as member_user_usernames");
+                arguments.add(activeUsersOnly);
+            }
+
+            builder.append(" from _Group g ");
+
+        } else if (entityType == EntityType.USER) {
+
+            builder.append("select ? as type, u.*");
+            arguments.add(EntityType.USER.toString().toLowerCase());
+
+            if ((joinPlan & USER_MEMBER_OF_FLAG) != 0) {
+
+                builder.append(", ( select ");
+                appendAggregation(builder, "g.name");
+                builder.append("from ").append(getUserMembershipTable()).append(" mu ");
+                builder.append("join _Group g on g.id = mu.parent_group_id ");
+                builder.append("where mu.member_user_id = u.id ) as parent_group_names");
+            }
+
+            builder.append(" from _User u ");
+        }
+    }
+
+    private void appendAggregation(StringBuilder builder, String column) {
+
+        // the parser translates listagg into string_agg or group_concat depending on the dialect;
+        // names are escaped so that a separator within a name cannot split it
+        builder.append("listagg(replace(replace(").append(column).append(", '")
+                .append(ColumnNames.AGGREGATE_ESCAPE).append("', '")
+                .append(ColumnNames.AGGREGATE_ESCAPE).append(ColumnNames.AGGREGATE_ESCAPE).append("'), '")
+                .append(ColumnNames.AGGREGATE_SEPARATOR).append("', '")
+                .append(ColumnNames.AGGREGATE_ESCAPE).append(ColumnNames.AGGREGATE_ESCAPED_SEPARATOR).append("'), '")
+                .append(ColumnNames.AGGREGATE_SEPARATOR).append("') ");
+        builder.append("within group ( order by ").append(column).append(" ) ");
+    }
+
+    private String getGroupMembershipTable() {
+
+        if (flattening)
+            if (useMaterializedViews)
+                return "_Group_Membership_Closure";
+            else
+                return "_Group_Membership_Transitive_Non_Materialized";
+        else
+            return "_Group_Membership";
+    }
+
+    private String getUserMembershipTable() {
+
+        if (flattening)
+            if (useMaterializedViews)
+                return "_User_Membership_Closure";
+            else
+                return "_User_Membership_Transitive_Non_Materialized";
+        else
+            return "_User_Membership";
+    }
+
     private void generateJoinClauses(StringBuilder builder, EntityType entityType, int joinPlan) {
 
         if (entityType == EntityType.GROUP) {
@@ -131,7 +346,7 @@ public class QueryGenerator {
 
                 if (flattening)
                     if (useMaterializedViews)
-                        builder.append("left outer join _Group_Membership_Transitive mp ");
+                        builder.append("left outer join _Group_Membership_Closure mp ");
                     else
                         builder.append("left outer join _Group_Membership_Transitive_Non_Materialized mp ");
                 else
@@ -146,7 +361,7 @@ public class QueryGenerator {
 
                 if (flattening)
                     if (useMaterializedViews)
-                        builder.append("left outer join _Group_Membership_Transitive mc ");
+                        builder.append("left outer join _Group_Membership_Closure mc ");
                     else
                         builder.append("left outer join _Group_Membership_Transitive_Non_Materialized mc ");
                 else
@@ -161,7 +376,7 @@ public class QueryGenerator {
 
                 if (flattening)
                     if (useMaterializedViews)
-                        builder.append("left outer join _User_Membership_Transitive mu ");
+                        builder.append("left outer join _User_Membership_Closure mu ");
                     else
                         builder.append("left outer join _User_Membership_Transitive_Non_Materialized mu ");
                 else
@@ -178,7 +393,7 @@ public class QueryGenerator {
 
                 if (flattening)
                     if (useMaterializedViews)
-                        builder.append("left outer join _User_Membership_Transitive mu ");
+                        builder.append("left outer join _User_Membership_Closure mu ");
                     else
                         builder.append("left outer join _User_Membership_Transitive_Non_Materialized mu ");
                 else
@@ -191,31 +406,62 @@ public class QueryGenerator {
         }
     }
 
-    private void generateWhereClause(StringBuilder builder, EntityType entityType, int joinPlan,
+    private void generateWhereClause(StringBuilder builder, EntityType entityType, int joinPlan, int projectionPlan,
                                      QueryExpression expression, List<Object> arguments) {
 
+        boolean filterActiveUsers =
+                entityType == EntityType.USER || (projectionPlan & GROUP_MEMBER_USER_FLAG) != 0;
+
         builder.append("where ");
 
-        if ((joinPlan & (USER_MEMBER_OF_FLAG | GROUP_MEMBER_USER_FLAG)) != 0) {
+        if (filterActiveUsers) {
 
             builder.append("( ");
         }
 
         transformQueryExpressionToSql(builder, entityType, joinPlan, expression, arguments);
 
-        if ((joinPlan & (USER_MEMBER_OF_FLAG | GROUP_MEMBER_USER_FLAG)) != 0) {
+        if (filterActiveUsers) {
 
             builder.append(") and ( u.active is null or u.active or ? = 'false' ) ");
             arguments.add(activeUsersOnly);
         }
     }
 
-    private void generateOrderByClause(StringBuilder builder, EntityType entityType) {
+    private void generateOrderByClause(StringBuilder builder, EntityType entityType, List<SortKey> sortKeys) {
+
+        builder.append("order by ");
+
+        for (SortKey sortKey : sortKeys) {
 
+            String column = getSortColumn(entityType, sortKey.getAttributeTypeDesc());
+            String direction = sortKey.isReverseOrder() ? " desc" : "";
+
+            // entities of this type without the attribute are equal in respect of this sort key
+            if (column == null)
+                continue;
+
+            // missing values are ordered as if they were greater than all other values on each database,
+            // so they come first for reverse sort keys as required by RFC 2891
+            builder.append("case when ").append(column).append(" is null then 1 else 0 end").append(direction);
+            builder.append(", lower(").append(column).append(")").append(direction).append(", ");
+        }
+
+        // the ID is always the last sort key, so that all rows of an entity follow each other
         if (entityType == EntityType.GROUP)
-            builder.append("order by g.id");
+            builder.append("g.id");
         else if (entityType == EntityType.USER)
-            builder.append("order by u.id");
+            builder.append("u.id");
+    }
+
+    private String getSortColumn(EntityType entityType, String attribute) {
+
+        String column = LdapUtils.getSortColumn(entityType, attribute);
+
+        if (column == null)
+            return null;
+
+        return (entityType == EntityType.GROUP ? "g." : "u.") + column;
     }
 
     private void transformQueryExpressionToSql(StringBuilder builder, EntityType entityType, int joinPlan,
@@ -445,7 +691,7 @@ public class QueryGenerator {
 
                             if (flattening)
                                 if (useMaterializedViews)
-                                    builder.append("from _Group_Membership_Transitive ");
+                                    builder.append("from _Group_Membership_Closure ");
                                 else
                                     builder.append("from _Group_Membership_Transitive_Non_Materialized ");
                             else
@@ -465,7 +711,7 @@ public class QueryGenerator {
 
                             if (flattening)
                                 if (useMaterializedViews)
-                                    builder.append("from _User_Membership_Transitive ");
+                                    builder.append("from _User_Membership_Closure ");
                                 else
                                     builder.append("from _User_Membership_Transitive_Non_Materialized ");
                             else
@@ -520,7 +766,7 @@ public class QueryGenerator {
 
                             if (flattening)
                                 if (useMaterializedViews)
-                                    builder.append("from _Group_Membership_Transitive ");
+                                    builder.append("from _Group_Membership_Closure ");
                                 else
                                     builder.append("from _Group_Membership_Transitive_Non_Materialized ");
                             else
@@ -562,7 +808,7 @@ public class QueryGenerator {
 
                             if (flattening)
                                 if (useMaterializedViews)
-                                    builder.append("from _User_Membership_Transitive ");
+                                    builder.append("from _User_Membership_Closure ");
                                 else
                                     builder.append("from _User_Membership_Transitive_Non_Materialized ");
                             else
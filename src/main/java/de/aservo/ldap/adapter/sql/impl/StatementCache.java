@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2019 ASERVO Software GmbH
+ * contact@aservo.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.aservo.ldap.adapter.sql.impl;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A bounded and thread-safe cache for dialect specific SQL statements rendered from dialect free clauses.
+ */
+public class StatementCache {
+
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Instantiates a new statement cache.
+     *
+     * @param maxSize the maximum number of cached statements; zero disables the cache
+     */
+    public StatementCache(int maxSize) {
+
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Expect a non-negative size for the statement cache.");
+
+        this.maxSize = maxSize;
+
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+
+                return size() > StatementCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Finds a cached statement.
+     *
+     * @param key the key built from dialect, clause and parameter types
+     * @return the cached statement or null if there is none
+     */
+    public Entry get(String key) {
+
+        if (maxSize == 0)
+            return null;
+
+        Entry entry;
+
+        synchronized (entries) {
+
+            entry = entries.get(key);
+        }
+
+        if (entry == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+
+        return entry;
+    }
+
+    /**
+     * Adds a statement to the cache and evicts the least recently used one if the limit is exceeded.
+     *
+     * @param key   the key built from dialect, clause and parameter types
+     * @param entry the rendered statement
+     */
+    public void put(String key, Entry entry) {
+
+        if (maxSize == 0)
+            return;
+
+        synchronized (entries) {
+
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Gets the number of cache hits.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of cache misses.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of cached statements.
+     *
+     * @return the size
+     */
+    public int getSize() {
+
+        synchronized (entries) {
+
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+
+        return String.format("size=%d/%d, hits=%d, misses=%d, hit-rate=%.1f%%",
+                getSize(), maxSize, hitCount, total - hitCount, total == 0 ? 0.0 : 100.0 * hitCount / total);
+    }
+
+    /**
+     * A rendered statement with the parameter names in order of their bind positions.
+     */
+    public static class Entry {
+
+        private final String sql;
+        private final List<String> parameterNames;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param sql            the dialect specific SQL statement
+         * @param parameterNames the parameter names in order of their bind positions
+         */
+        public Entry(String sql, List<String> parameterNames) {
+
+            this.sql = sql;
+            this.parameterNames = parameterNames;
+        }
+
+        /**
+         * Gets the dialect specific SQL statement.
+         *
+         * @return the SQL statement
+         */
+        public String getSql() {
+
+            return sql;
+        }
+
+        /**
+         * Gets the parameter names in order of their bind positions.
+         *
+         * @return the parameter names
+         */
+        public List<String> getParameterNames() {
+
+            return parameterNames;
+        }
+    }
+}
@@ -12,6 +12,12 @@ NATIVE_SQL:drop materialized view if exists _User_Membership_Transitive;
 drop view if exists _Group_Membership_Transitive_Non_Materialized;
 drop view if exists _User_Membership_Transitive_Non_Materialized;
 
+drop index if exists _Group_Membership_Closure_member_group_id;
+drop index if exists _User_Membership_Closure_member_user_id;
+
+drop table if exists _Group_Membership_Closure;
+drop table if exists _User_Membership_Closure;
+
 drop index if exists _Group_Membership_parent_group_id;
 drop index if exists _Group_Membership_member_group_id;
 drop index if exists _User_Membership_parent_group_id;
@@ -21,3 +27,10 @@ drop table if exists _Group_Membership;
 drop table if exists _User_Membership;
 drop table if exists _Group;
 drop table if exists _User;
+
+drop table if exists _Group_Membership_Closure_Staging;
+drop table if exists _User_Membership_Closure_Staging;
+drop table if exists _Group_Membership_Staging;
+drop table if exists _User_Membership_Staging;
+drop table if exists _Group_Staging;
+drop table if exists _User_Staging;
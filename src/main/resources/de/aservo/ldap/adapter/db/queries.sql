@@ -102,6 +102,96 @@ where parent_group_id = :parent_group_id and member_group_id = :member_group_id
 delete from _User_Membership
 where parent_group_id = :parent_group_id and member_user_id = :member_user_id
 
+--[ID: create_or_update_staged_group]--
+insert into _Group_Staging (id, name, description)
+  values (:id, :name, :description)
+  on conflict (id) do
+    update set
+      name = :name,
+      description = :description
+
+--[ID: create_or_update_staged_user]--
+insert into _User_Staging (id, username, last_name, first_name, display_name, email, active)
+  values (:id, :username, :last_name, :first_name, :display_name, :email, :active)
+  on conflict (id) do
+    update set
+      username = :username,
+      last_name = :last_name,
+      first_name = :first_name,
+      display_name = :display_name,
+      email = :email,
+      active = :active
+
+--[ID: create_staged_group_membership_if_not_exists]--
+insert into _Group_Membership_Staging (parent_group_id, member_group_id)
+  values (:parent_group_id, :member_group_id)
+  on conflict (parent_group_id, member_group_id) do nothing
+
+--[ID: create_staged_user_membership_if_not_exists]--
+insert into _User_Membership_Staging (parent_group_id, member_user_id)
+  values (:parent_group_id, :member_user_id)
+  on conflict (parent_group_id, member_user_id) do nothing
+
+--[ID: remove_all_staged_groups]--
+delete from _Group_Staging
+
+--[ID: remove_all_staged_users]--
+delete from _User_Staging
+
+--[ID: publish_staged_groups]--
+insert into _Group (id, name, description)
+select s.id, s.name, s.description
+from _Group_Staging s
+
+--[ID: publish_staged_users]--
+insert into _User (id, username, last_name, first_name, display_name, email, active)
+select s.id, s.username, s.last_name, s.first_name, s.display_name, s.email, s.active
+from _User_Staging s
+
+--[ID: publish_staged_group_memberships]--
+insert into _Group_Membership (parent_group_id, member_group_id)
+select s.parent_group_id, s.member_group_id
+from _Group_Membership_Staging s
+
+--[ID: publish_staged_user_memberships]--
+insert into _User_Membership (parent_group_id, member_user_id)
+select s.parent_group_id, s.member_user_id
+from _User_Membership_Staging s
+
+--[ID: find_all_direct_staged_group_memberships]--
+select m.*
+from _Group_Membership_Staging m
+
+--[ID: remove_all_transitive_staged_group_memberships]--
+delete from _Group_Membership_Closure_Staging
+
+--[ID: remove_all_transitive_staged_user_memberships]--
+delete from _User_Membership_Closure_Staging
+
+--[ID: create_transitive_staged_group_membership]--
+insert into _Group_Membership_Closure_Staging (parent_group_id, member_group_id)
+  values (:parent_group_id, :member_group_id)
+
+--[ID: create_all_transitive_staged_user_memberships]--
+insert into _User_Membership_Closure_Staging (parent_group_id, member_user_id)
+select m.parent_group_id, m.member_user_id
+from _User_Membership_Staging m
+union
+select t.parent_group_id, m.member_user_id
+from _Group_Membership_Closure_Staging t
+inner join _User_Membership_Staging m
+  on m.parent_group_id = t.member_group_id
+
+--[ID: publish_staged_transitive_group_memberships]--
+insert into _Group_Membership_Closure (parent_group_id, member_group_id)
+select s.parent_group_id, s.member_group_id
+from _Group_Membership_Closure_Staging s
+
+--[ID: publish_staged_transitive_user_memberships]--
+insert into _User_Membership_Closure (parent_group_id, member_user_id)
+select s.parent_group_id, s.member_user_id
+from _User_Membership_Closure_Staging s
+
 --[ID: find_direct_users_of_group]--
 select u.*
 from _User_Membership m
@@ -120,7 +210,7 @@ where m.member_user_id = :user_id and (u.active or :active_only = false)
 
 --[ID: find_transitive_users_of_group]--
 select u.*
-from _User_Membership_Transitive m
+from _User_Membership_Closure m
 inner join _User u
   on u.id = m.member_user_id
 where m.parent_group_id = :group_id and (u.active or :active_only = false)
@@ -134,7 +224,7 @@ where m.parent_group_id = :group_id and (u.active or :active_only = false)
 
 --[ID: find_transitive_groups_of_user]--
 select g.*
-from _User_Membership_Transitive m
+from _User_Membership_Closure m
 inner join _Group g
   on g.id = m.parent_group_id
 inner join _User u
@@ -166,7 +256,7 @@ where m.member_group_id = :group_id
 
 --[ID: find_transitive_child_groups_of_group]--
 select g.*
-from _Group_Membership_Transitive m
+from _Group_Membership_Closure m
 inner join _Group g
   on g.id = m.member_group_id
 where m.parent_group_id = :group_id
@@ -180,7 +270,7 @@ where m.parent_group_id = :group_id
 
 --[ID: find_transitive_parent_groups_of_group]--
 select g.*
-from _Group_Membership_Transitive m
+from _Group_Membership_Closure m
 inner join _Group g
   on g.id = m.parent_group_id
 where m.member_group_id = :group_id
@@ -205,7 +295,7 @@ where u.active or :active_only = false
 
 --[ID: find_all_transitive_group_memberships]--
 select m.*
-from _Group_Membership_Transitive m
+from _Group_Membership_Closure m
 
 --[ID: find_all_transitive_group_memberships_non_materialized]--
 select m.*
@@ -213,7 +303,7 @@ from _Group_Membership_Transitive_Non_Materialized m
 
 --[ID: find_all_transitive_user_memberships]--
 select m.*
-from _User_Membership_Transitive m
+from _User_Membership_Closure m
 inner join _User u
   on u.id = m.member_user_id
 where u.active or :active_only = false
@@ -225,8 +315,127 @@ inner join _User u
   on u.id = m.member_user_id
 where u.active or :active_only = false
 
---[ID: refresh_materialized_view_for_transitive_group_memberships]--
-NATIVE_SQL:refresh materialized view concurrently _Group_Membership_Transitive
+--[ID: create_transitive_group_memberships_for_group_membership]--
+insert into _Group_Membership_Closure (parent_group_id, member_group_id)
+select a.parent_group_id, d.member_group_id
+from (
+  select g.id as parent_group_id
+  from _Group g
+  where g.id = :parent_group_id
+  union
+  select t.parent_group_id
+  from _Group_Membership_Closure t
+  where t.member_group_id = :parent_group_id
+) a
+cross join (
+  select g.id as member_group_id
+  from _Group g
+  where g.id = :member_group_id
+  union
+  select t.member_group_id
+  from _Group_Membership_Closure t
+  where t.parent_group_id = :member_group_id
+) d
+where not exists (
+  select 1
+  from _Group_Membership_Closure x
+  where x.parent_group_id = a.parent_group_id and x.member_group_id = d.member_group_id
+)
+
+--[ID: create_transitive_user_memberships_for_group_membership]--
+insert into _User_Membership_Closure (parent_group_id, member_user_id)
+select a.parent_group_id, d.member_user_id
+from (
+  select g.id as parent_group_id
+  from _Group g
+  where g.id = :parent_group_id
+  union
+  select t.parent_group_id
+  from _Group_Membership_Closure t
+  where t.member_group_id = :parent_group_id
+) a
+cross join (
+  select t.member_user_id
+  from _User_Membership_Closure t
+  where t.parent_group_id = :member_group_id
+) d
+where not exists (
+  select 1
+  from _User_Membership_Closure x
+  where x.parent_group_id = a.parent_group_id and x.member_user_id = d.member_user_id
+)
+
+--[ID: create_transitive_user_memberships_for_user_membership]--
+insert into _User_Membership_Closure (parent_group_id, member_user_id)
+select a.parent_group_id, u.id
+from (
+  select g.id as parent_group_id
+  from _Group g
+  where g.id = :parent_group_id
+  union
+  select t.parent_group_id
+  from _Group_Membership_Closure t
+  where t.member_group_id = :parent_group_id
+) a
+cross join _User u
+where u.id = :member_user_id and not exists (
+  select 1
+  from _User_Membership_Closure x
+  where x.parent_group_id = a.parent_group_id and x.member_user_id = u.id
+)
+
+--[ID: remove_transitive_group_memberships_of_group]--
+delete from _Group_Membership_Closure
+where parent_group_id = :group_id
+
+--[ID: remove_transitive_user_memberships_of_group]--
+delete from _User_Membership_Closure
+where parent_group_id = :group_id
+
+--[ID: create_transitive_group_membership]--
+insert into _Group_Membership_Closure (parent_group_id, member_group_id)
+  values (:parent_group_id, :member_group_id)
+
+--[ID: create_transitive_user_memberships_of_group]--
+insert into _User_Membership_Closure (parent_group_id, member_user_id)
+select m.parent_group_id, m.member_user_id
+from _User_Membership m
+where m.parent_group_id = :group_id
+union
+select t.parent_group_id, m.member_user_id
+from _Group_Membership_Closure t
+inner join _User_Membership m
+  on m.parent_group_id = t.member_group_id
+where t.parent_group_id = :group_id
+
+--[ID: remove_transitive_user_memberships_of_user]--
+delete from _User_Membership_Closure
+where member_user_id = :user_id
+
+--[ID: create_transitive_user_memberships_of_user]--
+insert into _User_Membership_Closure (parent_group_id, member_user_id)
+select m.parent_group_id, m.member_user_id
+from _User_Membership m
+where m.member_user_id = :user_id
+union
+select t.parent_group_id, m.member_user_id
+from _User_Membership m
+inner join _Group_Membership_Closure t
+  on t.member_group_id = m.parent_group_id
+where m.member_user_id = :user_id
+
+--[ID: remove_all_transitive_group_memberships]--
+delete from _Group_Membership_Closure
+
+--[ID: remove_all_transitive_user_memberships]--
+delete from _User_Membership_Closure
 
---[ID: refresh_materialized_view_for_transitive_user_memberships]--
-NATIVE_SQL:refresh materialized view concurrently _User_Membership_Transitive
+--[ID: create_all_transitive_user_memberships]--
+insert into _User_Membership_Closure (parent_group_id, member_user_id)
+select m.parent_group_id, m.member_user_id
+from _User_Membership m
+union
+select t.parent_group_id, m.member_user_id
+from _Group_Membership_Closure t
+inner join _User_Membership m
+  on m.parent_group_id = t.member_group_id
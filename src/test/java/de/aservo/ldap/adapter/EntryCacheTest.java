@@ -0,0 +1,170 @@
+package de.aservo.ldap.adapter;
+
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.junit.jupiter.api.*;
+
+import java.util.Collections;
+import java.util.Set;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class EntryCacheTest {
+
+    private static final Set<String> ALL_ATTRIBUTES = Collections.emptySet();
+    private static final Set<String> CN_ATTRIBUTES = Set.of("cn");
+
+    @Test
+    @Order(1)
+    @DisplayName("it should count each set of requested attributes and evict the least recently used entry")
+    public void test001()
+            throws Exception {
+
+        EntryCache cache = new EntryCache(3, false);
+        long generation = cache.getGeneration();
+
+        cache.put(EntityType.GROUP, "groupa", ALL_ATTRIBUTES, createEntry("cn=GroupA"), generation);
+        cache.put(EntityType.GROUP, "groupa", CN_ATTRIBUTES, createEntry("cn=GroupA"), generation);
+        cache.put(EntityType.USER, "usera", ALL_ATTRIBUTES, createEntry("cn=UserA"), generation);
+
+        Assertions.assertEquals(3, cache.size());
+
+        // the access makes the variant with all attributes of GroupA the most recently used entry
+        Assertions.assertTrue(cache.get(EntityType.GROUP, "groupa", ALL_ATTRIBUTES).isPresent());
+
+        cache.put(EntityType.USER, "userb", ALL_ATTRIBUTES, createEntry("cn=UserB"), generation);
+
+        Assertions.assertEquals(3, cache.size());
+        Assertions.assertFalse(cache.get(EntityType.GROUP, "groupa", CN_ATTRIBUTES).isPresent());
+        Assertions.assertTrue(cache.get(EntityType.GROUP, "groupa", ALL_ATTRIBUTES).isPresent());
+        Assertions.assertTrue(cache.get(EntityType.USER, "usera", ALL_ATTRIBUTES).isPresent());
+        Assertions.assertTrue(cache.get(EntityType.USER, "userb", ALL_ATTRIBUTES).isPresent());
+
+        // a replaced entry does not grow the cache
+        cache.put(EntityType.USER, "userb", ALL_ATTRIBUTES, createEntry("cn=UserB"), generation);
+
+        Assertions.assertEquals(3, cache.size());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            new EntryCache(0, false);
+        });
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should return copies of cached entries")
+    public void test002()
+            throws Exception {
+
+        EntryCache cache = new EntryCache(10, false);
+        Entry entry = createEntry("cn=GroupA");
+
+        cache.put(EntityType.GROUP, "groupa", ALL_ATTRIBUTES, entry, cache.getGeneration());
+        entry.add("description", "modified after put");
+
+        Entry result = cache.get(EntityType.GROUP, "groupa", ALL_ATTRIBUTES).orElseThrow(AssertionError::new);
+
+        Assertions.assertFalse(result.containsAttribute("description"));
+
+        result.add("description", "modified after get");
+
+        Assertions.assertFalse(cache.get(EntityType.GROUP, "groupa", ALL_ATTRIBUTES)
+                .orElseThrow(AssertionError::new).containsAttribute("description"));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should not cache entries built before a modification")
+    public void test003()
+            throws Exception {
+
+        EntryCache cache = new EntryCache(10, false);
+        long generation = cache.getGeneration();
+
+        // an unrelated entity changes while the entry of GroupA is built
+        cache.entityChanged(EntityType.USER, "userz");
+        cache.put(EntityType.GROUP, "groupa", ALL_ATTRIBUTES, createEntry("cn=GroupA"), generation);
+
+        Assertions.assertEquals(0, cache.size());
+
+        cache.put(EntityType.GROUP, "groupa", ALL_ATTRIBUTES, createEntry("cn=GroupA"), cache.getGeneration());
+
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should drop all entries of changed entities and members of changed memberships")
+    public void test004()
+            throws Exception {
+
+        EntryCache cache = createFilledCache(false);
+
+        cache.entityChanged(EntityType.GROUP, "GroupA");
+
+        Assertions.assertFalse(cache.get(EntityType.GROUP, "groupa", ALL_ATTRIBUTES).isPresent());
+        Assertions.assertFalse(cache.get(EntityType.GROUP, "groupa", CN_ATTRIBUTES).isPresent());
+        Assertions.assertEquals(8, cache.size());
+
+        cache.membershipChanged(new MembershipEntity("GroupB", Collections.singleton("GroupC"),
+                Collections.singleton("UserA")));
+
+        Assertions.assertFalse(cache.get(EntityType.GROUP, "groupb", ALL_ATTRIBUTES).isPresent());
+        Assertions.assertFalse(cache.get(EntityType.GROUP, "groupc", CN_ATTRIBUTES).isPresent());
+        Assertions.assertFalse(cache.get(EntityType.USER, "usera", ALL_ATTRIBUTES).isPresent());
+        Assertions.assertTrue(cache.get(EntityType.USER, "userb", ALL_ATTRIBUTES).isPresent());
+        Assertions.assertTrue(cache.get(EntityType.USER, "userb", CN_ATTRIBUTES).isPresent());
+        Assertions.assertEquals(2, cache.size());
+
+        cache.allEntitiesChanged();
+
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("it should drop all entries for a changed membership with flattening")
+    public void test005()
+            throws Exception {
+
+        EntryCache cache = createFilledCache(true);
+
+        cache.entityChanged(EntityType.USER, "userb");
+
+        Assertions.assertEquals(8, cache.size());
+
+        cache.membershipChanged(new MembershipEntity("GroupB", Collections.emptySet(),
+                Collections.singleton("UserA")));
+
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    private EntryCache createFilledCache(boolean flattening)
+            throws Exception {
+
+        EntryCache cache = new EntryCache(100, flattening);
+        long generation = cache.getGeneration();
+
+        for (String name : new String[]{"GroupA", "GroupB", "GroupC"})
+            for (Set<String> attributes : Set.of(ALL_ATTRIBUTES, CN_ATTRIBUTES))
+                cache.put(EntityType.GROUP, name.toLowerCase(), attributes, createEntry("cn=" + name), generation);
+
+        for (String name : new String[]{"UserA", "UserB"})
+            for (Set<String> attributes : Set.of(ALL_ATTRIBUTES, CN_ATTRIBUTES))
+                cache.put(EntityType.USER, name.toLowerCase(), attributes, createEntry("cn=" + name), generation);
+
+        Assertions.assertEquals(10, cache.size());
+
+        return cache;
+    }
+
+    private Entry createEntry(String dn)
+            throws Exception {
+
+        return new DefaultEntry(dn);
+    }
+}
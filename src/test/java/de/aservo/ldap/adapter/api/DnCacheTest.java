@@ -0,0 +1,115 @@
+package de.aservo.ldap.adapter.api;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.jupiter.api.*;
+
+import java.util.function.Supplier;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DnCacheTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should rotate the generations once the young generation holds half of the maximum size")
+    public void test001()
+            throws Exception {
+
+        DnCache cache = new DnCache(4);
+
+        Dn dnA = cache.get(null, "a", createDn(null, "cn=a"));
+
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertSame(dnA, cache.get(null, "a", createDn(null, "cn=a")));
+
+        // the second DN fills the young generation, which becomes the old generation
+        cache.get(null, "b", createDn(null, "cn=b"));
+
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(0, cache.getEvictionCount());
+
+        cache.get(null, "c", createDn(null, "cn=c"));
+        cache.get(null, "d", createDn(null, "cn=d"));
+
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(2, cache.getEvictionCount());
+        Assertions.assertNotSame(dnA, cache.get(null, "a", createDn(null, "cn=a")));
+
+        Assertions.assertEquals(1, cache.getHitCount());
+        Assertions.assertEquals(5, cache.getMissCount());
+        Assertions.assertEquals(1.0 / 6, cache.getHitRate(), 1e-9);
+
+        cache.clear();
+
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(5, cache.getEvictionCount());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should keep DNs of the old generation which are requested before the next rotation")
+    public void test002()
+            throws Exception {
+
+        DnCache cache = new DnCache(4);
+
+        Dn dnA = cache.get(null, "a", createDn(null, "cn=a"));
+        Dn dnB = cache.get(null, "b", createDn(null, "cn=b"));
+
+        // the hit in the old generation promotes the DN to the young generation
+        Assertions.assertSame(dnA, cache.get(null, "a", createDn(null, "cn=a")));
+
+        cache.get(null, "c", createDn(null, "cn=c"));
+
+        Assertions.assertSame(dnA, cache.get(null, "a", createDn(null, "cn=a")));
+        Assertions.assertNotSame(dnB, cache.get(null, "b", createDn(null, "cn=b")));
+
+        Assertions.assertEquals(2, cache.getHitCount());
+        Assertions.assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should not share DNs between different schema managers")
+    public void test003()
+            throws Exception {
+
+        DnCache cache = new DnCache(100);
+        SchemaManager schemaManager = new DefaultSchemaManager();
+
+        Dn dn = cache.get(null, "a", createDn(null, "cn=a"));
+        Dn normalizedDn = cache.get(schemaManager, "a", createDn(schemaManager, "cn=a"));
+
+        Assertions.assertNotSame(dn, normalizedDn);
+        Assertions.assertSame(schemaManager, normalizedDn.getSchemaManager());
+        Assertions.assertEquals(0, cache.getHitCount());
+        Assertions.assertEquals(2, cache.getMissCount());
+
+        // the DN of the other schema manager has replaced the cached one
+        Assertions.assertSame(normalizedDn, cache.get(schemaManager, "a", createDn(schemaManager, "cn=a")));
+        Assertions.assertNotSame(normalizedDn, cache.get(null, "a", createDn(null, "cn=a")));
+
+        Assertions.assertEquals(1, cache.getHitCount());
+        Assertions.assertEquals(3, cache.getMissCount());
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    private Supplier<Dn> createDn(SchemaManager schemaManager, String dn) {
+
+        return () -> {
+
+            try {
+
+                return new Dn(schemaManager, dn);
+
+            } catch (LdapInvalidDnException e) {
+
+                throw new IllegalArgumentException(e);
+            }
+        };
+    }
+}
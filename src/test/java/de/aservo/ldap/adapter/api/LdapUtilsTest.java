@@ -0,0 +1,157 @@
+package de.aservo.ldap.adapter.api;
+
+import de.aservo.ldap.adapter.api.entity.ColumnNames;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.query.*;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class LdapUtilsTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should normalize operands in any order to the same expression")
+    public void test001()
+            throws Exception {
+
+        QueryExpression expression1 = new AndLogicExpression(Arrays.asList(
+                new EqualOperator("cn", "a"),
+                new PresenceOperator("mail"),
+                new EqualOperator("sn", "b")));
+
+        QueryExpression expression2 = new AndLogicExpression(Arrays.asList(
+                new EqualOperator("sn", "b"),
+                new EqualOperator("cn", "a"),
+                new PresenceOperator("mail")));
+
+        QueryExpression normalized1 = LdapUtils.normalizeExpression(expression1);
+        QueryExpression normalized2 = LdapUtils.normalizeExpression(expression2);
+
+        Assertions.assertEquals(normalized1, normalized2);
+        Assertions.assertEquals(LdapUtils.getExpressionShape(normalized1), LdapUtils.getExpressionShape(normalized2));
+        Assertions.assertNotEquals(LdapUtils.getExpressionShape(expression1), LdapUtils.getExpressionShape(expression2));
+
+        // a normalized expression stays as it is
+        Assertions.assertEquals(normalized1, LdapUtils.normalizeExpression(normalized1));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should flatten nested conjunctions and disjunctions of the same kind only")
+    public void test002()
+            throws Exception {
+
+        QueryExpression expression = LdapUtils.normalizeExpression(new AndLogicExpression(Arrays.asList(
+                new EqualOperator("cn", "a"),
+                new AndLogicExpression(Arrays.asList(
+                        new EqualOperator("sn", "b"),
+                        new AndLogicExpression(Arrays.asList(
+                                new EqualOperator("mail", "c"))))),
+                new OrLogicExpression(Arrays.asList(
+                        new EqualOperator("uid", "d"),
+                        new OrLogicExpression(Arrays.asList(
+                                new EqualOperator("uid", "e"),
+                                new EqualOperator("uid", "f"))))))));
+
+        Assertions.assertTrue(expression instanceof AndLogicExpression);
+
+        QueryExpression disjunction = ((AndLogicExpression) expression).getChildren().stream()
+                .filter(x -> x instanceof OrLogicExpression)
+                .findAny()
+                .orElseThrow(AssertionError::new);
+
+        Assertions.assertEquals(4, ((AndLogicExpression) expression).getChildren().size());
+        Assertions.assertEquals(3, ((OrLogicExpression) disjunction).getChildren().size());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should describe filters with a shape free of values")
+    public void test003()
+            throws Exception {
+
+        String shape = LdapUtils.getExpressionShape(new EqualOperator("cn", "a"));
+
+        Assertions.assertEquals(shape, LdapUtils.getExpressionShape(new EqualOperator("cn", "b")));
+        Assertions.assertEquals(shape, LdapUtils.getExpressionShape(new EqualOperator("commonName", "c")));
+        Assertions.assertEquals(shape, LdapUtils.getExpressionShape(new EqualOperator("CN", "d")));
+
+        Assertions.assertNotEquals(shape, LdapUtils.getExpressionShape(new EqualOperator("sn", "a")));
+        Assertions.assertNotEquals(shape, LdapUtils.getExpressionShape(new PresenceOperator("cn")));
+        Assertions.assertNotEquals(shape,
+                LdapUtils.getExpressionShape(new EqualOperator("cn", "a", true, true)));
+
+        Assertions.assertEquals(LdapUtils.getExpressionShape(BooleanValue.trueValue()),
+                LdapUtils.getExpressionShape(BooleanValue.falseValue()));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should normalize the operands below a negation")
+    public void test004()
+            throws Exception {
+
+        QueryExpression expression1 = new NotLogicExpression(Arrays.asList(
+                new OrLogicExpression(Arrays.asList(
+                        new EqualOperator("sn", "b"),
+                        new EqualOperator("cn", "a")))));
+
+        QueryExpression expression2 = new NotLogicExpression(Arrays.asList(
+                new OrLogicExpression(Arrays.asList(
+                        new EqualOperator("cn", "a"),
+                        new EqualOperator("sn", "b")))));
+
+        QueryExpression normalized = LdapUtils.normalizeExpression(expression1);
+
+        Assertions.assertTrue(normalized instanceof NotLogicExpression);
+        Assertions.assertEquals(normalized, LdapUtils.normalizeExpression(expression2));
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("it should split aggregated names which contain the separator")
+    public void test005()
+            throws Exception {
+
+        List<String> names = Arrays.asList("GroupA", "Group\u001eB", "Group\u001fC", "\u001f\u001e", "GroupE+,");
+        String value = LdapUtils.joinAggregatedNames(names.stream());
+
+        Assertions.assertEquals(names.size(), value.split(ColumnNames.AGGREGATE_SEPARATOR).length);
+        Assertions.assertEquals(new HashSet<>(names), new HashSet<>(LdapUtils.splitAggregatedNames(value)));
+
+        Assertions.assertEquals(Arrays.asList("GroupA", "GroupB"),
+                LdapUtils.splitAggregatedNames("GroupA" + ColumnNames.AGGREGATE_SEPARATOR + "GroupB"));
+
+        Assertions.assertNull(LdapUtils.joinAggregatedNames(Stream.empty()));
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("it should map each sortable attribute to a column")
+    public void test006()
+            throws Exception {
+
+        for (String attribute : LdapUtils.SORTABLE_ATTRIBUTES)
+            Assertions.assertNotNull(LdapUtils.getSortColumn(EntityType.USER, attribute), attribute);
+
+        Assertions.assertEquals(ColumnNames.NAME, LdapUtils.getSortColumn(EntityType.GROUP, "CN"));
+        Assertions.assertEquals(ColumnNames.USERNAME, LdapUtils.getSortColumn(EntityType.USER, "cn"));
+        Assertions.assertEquals(ColumnNames.EMAIL, LdapUtils.getSortColumn(EntityType.USER, SchemaConstants.MAIL_AT));
+
+        // groups do not have the attributes of persons
+        Assertions.assertNull(LdapUtils.getSortColumn(EntityType.GROUP, SchemaConstants.MAIL_AT));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            LdapUtils.getSortColumn(EntityType.USER, SchemaConstants.DESCRIPTION_AT);
+        });
+    }
+}
@@ -0,0 +1,205 @@
+package de.aservo.ldap.adapter.api.cursor;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PrefetchingCursorTest {
+
+    private ExecutorService executor;
+
+    @BeforeAll
+    public void setup() {
+
+        executor = new ThreadPoolExecutor(0, 4, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    @AfterAll
+    public void shutdown() {
+
+        executor.shutdownNow();
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should return elements in the order of sequential flattening")
+    public void test001()
+            throws Exception {
+
+        AtomicBoolean closed1 = new AtomicBoolean();
+        AtomicBoolean closed2 = new AtomicBoolean();
+        AtomicBoolean closed3 = new AtomicBoolean();
+
+        List<Supplier<? extends Cursor<Integer>>> suppliers = Arrays.asList(
+                () -> createCursor(0, 10, -1, closed1),
+                () -> createCursor(10, 10, -1, closed2),
+                () -> createCursor(10, 25, -1, closed3));
+
+        PrefetchingCursor<Integer> cursor = new PrefetchingCursor<>(suppliers, 2, executor);
+        List<Integer> values = new ArrayList<>();
+
+        while (cursor.next())
+            values.add(cursor.get());
+
+        cursor.close();
+
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 25; i++)
+            expected.add(i);
+
+        Assertions.assertEquals(expected, values);
+        Assertions.assertFalse(cursor.next());
+
+        Assertions.assertTrue(closed1.get());
+        Assertions.assertTrue(closed2.get());
+        Assertions.assertTrue(closed3.get());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should stop a producer blocked on a full buffer when closed")
+    public void test002()
+            throws Exception {
+
+        AtomicBoolean closed1 = new AtomicBoolean();
+        AtomicBoolean closed2 = new AtomicBoolean();
+
+        List<Supplier<? extends Cursor<Integer>>> suppliers = Arrays.asList(
+                () -> createCursor(0, Integer.MAX_VALUE, -1, closed1),
+                () -> createCursor(0, Integer.MAX_VALUE, -1, closed2));
+
+        PrefetchingCursor<Integer> cursor = new PrefetchingCursor<>(suppliers, 1, executor);
+
+        Assertions.assertTrue(cursor.next());
+        Assertions.assertEquals(0, cursor.get());
+
+        // both producers wait for free buffer space; an abandoned search closes the cursor at this point
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), cursor::close);
+
+        Assertions.assertTrue(closed1.get());
+        Assertions.assertTrue(closed2.get());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should pass failures of cursors to the reading thread")
+    public void test003()
+            throws Exception {
+
+        AtomicBoolean closed1 = new AtomicBoolean();
+        AtomicBoolean closed2 = new AtomicBoolean();
+
+        List<Supplier<? extends Cursor<Integer>>> suppliers = Arrays.asList(
+                () -> createCursor(0, 5, -1, closed1),
+                () -> createCursor(5, 10, 7, closed2));
+
+        PrefetchingCursor<Integer> cursor = new PrefetchingCursor<>(suppliers, 2, executor);
+        List<Integer> values = new ArrayList<>();
+
+        IllegalStateException exception = Assertions.assertThrows(IllegalStateException.class, () -> {
+
+            while (cursor.next())
+                values.add(cursor.get());
+        });
+
+        cursor.close();
+
+        Assertions.assertEquals("Cannot read element 7.", exception.getMessage());
+        Assertions.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), values);
+        Assertions.assertTrue(closed1.get());
+        Assertions.assertTrue(closed2.get());
+
+        // a cursor which cannot be opened fails on reading as well
+        PrefetchingCursor<Integer> failingCursor = new PrefetchingCursor<>(Arrays.asList(
+                () -> createCursor(0, 5, -1, new AtomicBoolean()),
+                () -> {
+
+                    throw new IllegalArgumentException("Cannot open cursor.");
+                }), 2, executor);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            while (failingCursor.next())
+                failingCursor.get();
+        });
+
+        failingCursor.close();
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should stop started producers if the executor rejects a task")
+    public void test004()
+            throws Exception {
+
+        ExecutorService singleThreadExecutor =
+                new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+
+        AtomicBoolean closed1 = new AtomicBoolean();
+
+        List<Supplier<? extends Cursor<Integer>>> suppliers = Arrays.asList(
+                () -> createCursor(0, Integer.MAX_VALUE, -1, closed1),
+                () -> createCursor(0, Integer.MAX_VALUE, -1, new AtomicBoolean()));
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+
+            Assertions.assertThrows(RejectedExecutionException.class, () -> {
+
+                new PrefetchingCursor<>(suppliers, 1, singleThreadExecutor);
+            });
+        });
+
+        Assertions.assertTrue(closed1.get());
+
+        singleThreadExecutor.shutdownNow();
+    }
+
+    private MappableCursor<Integer> createCursor(int from, int to, int failure, AtomicBoolean closed) {
+
+        return new MappableCursor<Integer>() {
+
+            private int next = from;
+            private Integer element;
+
+            @Override
+            public boolean next() {
+
+                if (next == failure)
+                    throw new IllegalStateException("Cannot read element " + next + ".");
+
+                if (next >= to) {
+
+                    element = null;
+
+                    return false;
+                }
+
+                element = next++;
+
+                return true;
+            }
+
+            @Override
+            public Integer get() {
+
+                return element;
+            }
+
+            @Override
+            public void close() {
+
+                closed.set(true);
+            }
+        };
+    }
+}
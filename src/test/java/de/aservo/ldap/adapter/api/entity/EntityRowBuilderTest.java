@@ -0,0 +1,131 @@
+package de.aservo.ldap.adapter.api.entity;
+
+import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.database.Row;
+import de.aservo.ldap.adapter.api.membership.MembershipEngine;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class EntityRowBuilderTest {
+
+    private final Map<String, GroupEntity> groups = new HashMap<>();
+    private final Map<String, UserEntity> users = new HashMap<>();
+    private final MembershipEngine membershipEngine = new MembershipEngine();
+
+    @BeforeAll
+    public void setup() {
+
+        for (String name : Arrays.asList("GroupA", "GroupB", "GroupC"))
+            groups.put(name.toLowerCase(), new GroupEntity(name, "Description of " + name + "."));
+
+        users.put("usera", new UserEntity("UserA", "Zeta", "First", "User A", "usera@example.com", true));
+        users.put("userb", new UserEntity("UserB", null, "First", "User B", "userb@example.com", true));
+        users.put("userc", new UserEntity("UserC", "alpha", "First", "User C", "userc@example.com", false));
+
+        membershipEngine.addGroupMembership("GroupA", "GroupB");
+        membershipEngine.addGroupMembership("GroupB", "GroupC");
+        membershipEngine.addUserMembership("GroupA", "UserA");
+        membershipEngine.addUserMembership("GroupC", "UserB");
+        membershipEngine.addUserMembership("GroupC", "UserC");
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should sort entity IDs by sort keys and the ID")
+    public void test001()
+            throws Exception {
+
+        EntityRowBuilder rowBuilder = new EntityRowBuilder(false, groups::get, users::get, membershipEngine);
+
+        Assertions.assertEquals(Arrays.asList("userc", "usera", "userb"),
+                sort(rowBuilder, EntityType.USER, new SortKey(SchemaConstants.SN_AT, null, false)));
+
+        // a reverse sort key reverses the order of missing values as well
+        Assertions.assertEquals(Arrays.asList("userb", "usera", "userc"),
+                sort(rowBuilder, EntityType.USER, new SortKey(SchemaConstants.SN_AT, null, true)));
+
+        // groups have no surname, so they are ordered by ID only
+        Assertions.assertEquals(Arrays.asList("groupa", "groupb", "groupc"),
+                sort(rowBuilder, EntityType.GROUP, new SortKey(SchemaConstants.SN_AT, null, true)));
+
+        Assertions.assertEquals(Arrays.asList("groupc", "groupb", "groupa"),
+                sort(rowBuilder, EntityType.GROUP, new SortKey(SchemaConstants.CN_AT, null, true)));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should create rows with aggregated names of visible entities")
+    public void test002()
+            throws Exception {
+
+        // inactive users are hidden by the lookup
+        EntityRowBuilder rowBuilder = new EntityRowBuilder(false, groups::get,
+                x -> Optional.ofNullable(users.get(x)).filter(UserEntity::isActive).orElse(null), membershipEngine);
+
+        Row row = rowBuilder.createRow(EntityType.GROUP, "groupc", Collections.emptySet());
+
+        Assertions.assertEquals("GroupC", row.apply(ColumnNames.NAME, String.class));
+        Assertions.assertEquals(aggregate("GroupB"), row.apply("parent_group_names", String.class));
+        Assertions.assertNull(row.apply("member_group_names", String.class));
+        Assertions.assertEquals(aggregate("UserB"), row.apply("member_user_usernames", String.class));
+
+        row = rowBuilder.createRow(EntityType.USER, "userb", Collections.singleton(LdapUtils.MEMBER_OF_AT_OID));
+
+        Assertions.assertEquals("UserB", row.apply(ColumnNames.USERNAME, String.class));
+        Assertions.assertEquals(aggregate("GroupC"), row.apply("parent_group_names", String.class));
+
+        // only the requested membership columns are resolved
+        row = rowBuilder.createRow(EntityType.GROUP, "groupa", Collections.singleton(SchemaConstants.CN_AT_OID));
+
+        Assertions.assertFalse(row.hasColumn("member_user_usernames"));
+        Assertions.assertFalse(row.hasColumn("parent_group_names"));
+
+        // flattened groups have no member groups but the users of their nested groups
+        rowBuilder = new EntityRowBuilder(true, groups::get, users::get, membershipEngine);
+        row = rowBuilder.createRow(EntityType.GROUP, "groupa", Collections.emptySet());
+
+        Assertions.assertFalse(row.hasColumn("member_group_names"));
+        Assertions.assertEquals(aggregate("UserA", "UserB", "UserC"), row.apply("member_user_usernames", String.class));
+
+        row = rowBuilder.createRow(EntityType.USER, "userc", Collections.emptySet());
+
+        Assertions.assertEquals(aggregate("GroupA", "GroupB", "GroupC"), row.apply("parent_group_names", String.class));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should page entities like Crowd")
+    public void test003()
+            throws Exception {
+
+        List<String> entities = Arrays.asList("a", "b", "c", "d", "e");
+
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("a", "b")), EntityRowBuilder.getPage(entities, 0, 2));
+        Assertions.assertEquals(new HashSet<>(Collections.singletonList("e")),
+                EntityRowBuilder.getPage(entities, 4, 2));
+        Assertions.assertEquals(new HashSet<>(), EntityRowBuilder.getPage(entities, 6, 2));
+        Assertions.assertEquals(new HashSet<>(entities), EntityRowBuilder.getPage(entities, 0, Integer.MAX_VALUE));
+    }
+
+    private List<String> sort(EntityRowBuilder rowBuilder, EntityType entityType, SortKey sortKey) {
+
+        Set<String> ids = entityType == EntityType.GROUP ? groups.keySet() : users.keySet();
+
+        return ids.stream()
+                .sorted(rowBuilder.createComparator(entityType, Collections.singletonList(sortKey)))
+                .collect(Collectors.toList());
+    }
+
+    private String aggregate(String... names) {
+
+        return LdapUtils.joinAggregatedNames(Stream.of(names));
+    }
+}
@@ -0,0 +1,164 @@
+package de.aservo.ldap.adapter.api.membership;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class IdBitmapTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should keep values while a partition changes between array and bitmap")
+    public void test001()
+            throws Exception {
+
+        IdBitmap bitmap = new IdBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        // even values keep the partition sparse enough to cross the limit of 4096 values in both directions
+        for (int i = 0; i < 5000; i++) {
+
+            Assertions.assertTrue(bitmap.add(i * 2));
+            expected.add(i * 2);
+        }
+
+        Assertions.assertFalse(bitmap.add(42));
+        assertBitmap(expected, bitmap);
+
+        for (int i = 0; i < 5000; i += 3) {
+
+            Assertions.assertTrue(bitmap.remove(i * 2));
+            expected.remove(i * 2);
+        }
+
+        Assertions.assertFalse(bitmap.remove(0));
+        Assertions.assertFalse(bitmap.remove(1));
+        assertBitmap(expected, bitmap);
+
+        // the partition holds an array again and grows beyond the limit once more
+        for (int i = 0; i < 5000; i++) {
+
+            bitmap.add(i * 2 + 1);
+            expected.add(i * 2 + 1);
+        }
+
+        assertBitmap(expected, bitmap);
+
+        for (int value : new ArrayList<>(expected)) {
+
+            Assertions.assertTrue(bitmap.remove(value));
+            expected.remove(value);
+        }
+
+        Assertions.assertTrue(bitmap.isEmpty());
+        assertBitmap(expected, bitmap);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should merge bitmaps with any combination of container kinds")
+    public void test002()
+            throws Exception {
+
+        List<TreeSet<Integer>> values = Arrays.asList(
+                createValues(0, 100, 7),
+                createValues(0, 4000, 3),
+                createValues(0, 6000, 2),
+                createValues(65536, 5000, 1),
+                createValues(3 * 65536, 10, 1));
+
+        for (TreeSet<Integer> values1 : values) {
+
+            for (TreeSet<Integer> values2 : values) {
+
+                IdBitmap bitmap1 = createBitmap(values1);
+                IdBitmap bitmap2 = createBitmap(values2);
+                TreeSet<Integer> expected = new TreeSet<>(values1);
+
+                expected.addAll(values2);
+                bitmap1.or(bitmap2);
+
+                assertBitmap(expected, bitmap1);
+
+                // the merged bitmap does not share containers with the other one
+                bitmap1.add(2 * 65536 + 1);
+                bitmap1.remove(values2.first());
+
+                assertBitmap(values2, bitmap2);
+            }
+        }
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should create independent copies")
+    public void test003()
+            throws Exception {
+
+        TreeSet<Integer> values = createValues(0, 5000, 1);
+        IdBitmap bitmap = createBitmap(values);
+        IdBitmap copy = bitmap.copy();
+
+        copy.remove(0);
+        copy.add(Integer.MAX_VALUE);
+
+        assertBitmap(values, bitmap);
+        Assertions.assertTrue(copy.contains(Integer.MAX_VALUE));
+        Assertions.assertFalse(copy.contains(0));
+        Assertions.assertEquals(values.size(), copy.getCardinality());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should reject negative values")
+    public void test004()
+            throws Exception {
+
+        IdBitmap bitmap = new IdBitmap();
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            bitmap.add(-1);
+        });
+
+        Assertions.assertFalse(bitmap.contains(-1));
+        Assertions.assertFalse(bitmap.remove(-1));
+        Assertions.assertTrue(bitmap.isEmpty());
+    }
+
+    private TreeSet<Integer> createValues(int start, int count, int step) {
+
+        TreeSet<Integer> values = new TreeSet<>();
+
+        for (int i = 0; i < count; i++)
+            values.add(start + i * step);
+
+        return values;
+    }
+
+    private IdBitmap createBitmap(Set<Integer> values) {
+
+        IdBitmap bitmap = new IdBitmap();
+
+        values.forEach(bitmap::add);
+
+        return bitmap;
+    }
+
+    private void assertBitmap(SortedSet<Integer> expected, IdBitmap bitmap) {
+
+        List<Integer> values = new ArrayList<>();
+
+        bitmap.forEach(values::add);
+
+        Assertions.assertEquals(new ArrayList<>(expected), values);
+        Assertions.assertEquals(expected.size(), bitmap.getCardinality());
+        Assertions.assertEquals(expected.isEmpty(), bitmap.isEmpty());
+
+        for (int value : expected)
+            Assertions.assertTrue(bitmap.contains(value));
+    }
+}
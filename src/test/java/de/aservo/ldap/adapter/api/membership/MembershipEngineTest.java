@@ -0,0 +1,191 @@
+package de.aservo.ldap.adapter.api.membership;
+
+import org.junit.jupiter.api.*;
+import test.api.helper.MembershipGenerator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MembershipEngineTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should resolve direct and nested memberships case-insensitively")
+    public void test001()
+            throws Exception {
+
+        MembershipEngine engine = new MembershipEngine();
+
+        engine.addGroupMembership("GroupA", "GroupB");
+        engine.addGroupMembership("GroupB", "GroupC");
+        engine.addUserMembership("GroupA", "UserA");
+        engine.addUserMembership("GroupC", "UserC");
+
+        Assertions.assertEquals(new HashSet<>(Collections.singletonList("groupb")),
+                engine.getDirectChildGroupIds("groupa"));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupb", "groupc")),
+                engine.getTransitiveChildGroupIds("GROUPA"));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupa", "groupb")),
+                engine.getTransitiveParentGroupIds("GroupC"));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("usera", "userc")),
+                engine.getTransitiveUserIdsOfGroup("GroupA"));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupa", "groupb", "groupc")),
+                engine.getTransitiveGroupIdsOfUser("UserC"));
+
+        Assertions.assertTrue(engine.isTransitiveMember("groupa", "userc"));
+        Assertions.assertFalse(engine.isTransitiveMember("groupc", "usera"));
+        Assertions.assertFalse(engine.isPartOfCycle("GroupA"));
+
+        Assertions.assertEquals(Collections.emptySet(), engine.getTransitiveUserIdsOfGroup("unknown"));
+        Assertions.assertEquals(Collections.emptySet(), engine.getTransitiveGroupIdsOfUser("unknown"));
+
+        // the resolved relations follow modifications
+        engine.removeGroupMembership("GroupB", "GroupC");
+
+        Assertions.assertFalse(engine.isTransitiveMember("groupa", "userc"));
+        Assertions.assertEquals(new HashSet<>(Collections.singletonList("groupc")),
+                engine.getTransitiveGroupIdsOfUser("UserC"));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should resolve memberships of groups in cycles")
+    public void test002()
+            throws Exception {
+
+        MembershipEngine engine = new MembershipEngine();
+
+        engine.addGroupMembership("GroupA", "GroupB");
+        engine.addGroupMembership("GroupB", "GroupC");
+        engine.addGroupMembership("GroupC", "GroupA");
+        engine.addGroupMembership("GroupC", "GroupD");
+        engine.addGroupMembership("GroupE", "GroupE");
+        engine.addUserMembership("GroupB", "UserB");
+        engine.addUserMembership("GroupD", "UserD");
+
+        for (String groupId : Arrays.asList("groupa", "groupb", "groupc")) {
+
+            Assertions.assertTrue(engine.isPartOfCycle(groupId));
+            Assertions.assertEquals(new HashSet<>(Arrays.asList("userb", "userd")),
+                    engine.getTransitiveUserIdsOfGroup(groupId));
+        }
+
+        // a group is never returned as its own child or parent
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupb", "groupc", "groupd")),
+                engine.getTransitiveChildGroupIds("groupa"));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupa", "groupb", "groupc")),
+                engine.getTransitiveParentGroupIds("groupd"));
+
+        Assertions.assertFalse(engine.isPartOfCycle("groupd"));
+        Assertions.assertTrue(engine.isPartOfCycle("groupe"));
+        Assertions.assertEquals(Collections.emptySet(), engine.getTransitiveChildGroupIds("groupe"));
+
+        engine.removeGroupMembership("GroupC", "GroupA");
+
+        Assertions.assertFalse(engine.isPartOfCycle("groupa"));
+        Assertions.assertEquals(new HashSet<>(Collections.singletonList("userd")),
+                engine.getTransitiveUserIdsOfGroup("groupc"));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should reuse the interned values of removed groups and users")
+    public void test003()
+            throws Exception {
+
+        MembershipEngine engine = new MembershipEngine();
+
+        for (int i = 0; i < 100; i++) {
+
+            engine.addGroupMembership("group-a" + i, "group-b" + i);
+            engine.addUserMembership("group-a" + i, "user-a" + i);
+        }
+
+        long size = engine.getSizeInBytes();
+
+        for (int i = 0; i < 100; i++) {
+
+            engine.removeGroup("group-a" + i);
+            engine.removeUser("user-a" + i);
+        }
+
+        Assertions.assertEquals(Collections.emptySet(), engine.getTransitiveParentGroupIds("group-b0"));
+        Assertions.assertTrue(engine.getMemoryReport().startsWith("groups=0, users=0,"));
+
+        // IDs of the same length occupy the released values instead of new ones
+        for (int i = 0; i < 100; i++) {
+
+            engine.addGroupMembership("group-c" + i, "group-d" + i);
+            engine.addUserMembership("group-c" + i, "user-c" + i);
+        }
+
+        Assertions.assertEquals(size, engine.getSizeInBytes());
+        Assertions.assertTrue(engine.getMemoryReport().startsWith("groups=200, users=100,"));
+        Assertions.assertTrue(engine.isTransitiveMember("group-c7", "user-c7"));
+        Assertions.assertFalse(engine.isTransitiveMember("group-a7", "user-c7"));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should resolve generated memberships like a plain graph walk")
+    public void test004()
+            throws Exception {
+
+        MembershipGenerator generator = new MembershipGenerator(200, 2000, 5, 1);
+        MembershipEngine engine = generator.createEngine();
+
+        for (int i = 0; i < generator.getGroupCount(); i++) {
+
+            String groupId = generator.getGroupId(i);
+
+            Assertions.assertEquals(generator.findTransitiveChildGroupIds(groupId),
+                    engine.getTransitiveChildGroupIds(groupId));
+            Assertions.assertEquals(generator.findTransitiveUserIds(groupId),
+                    engine.getTransitiveUserIdsOfGroup(groupId));
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("it should copy memberships independently of the original engine")
+    public void test005()
+            throws Exception {
+
+        MembershipGenerator generator = new MembershipGenerator(100, 1000, 5, 1);
+        MembershipEngine engine = generator.createEngine();
+        MembershipEngine copy = engine.copy();
+
+        for (int i = 0; i < generator.getGroupCount(); i++) {
+
+            String groupId = generator.getGroupId(i);
+
+            Assertions.assertEquals(engine.getTransitiveChildGroupIds(groupId),
+                    copy.getTransitiveChildGroupIds(groupId));
+            Assertions.assertEquals(engine.getTransitiveUserIdsOfGroup(groupId),
+                    copy.getTransitiveUserIdsOfGroup(groupId));
+        }
+
+        String groupId = generator.getGroupId(0);
+        Set<String> childGroupIds = engine.getTransitiveChildGroupIds(groupId);
+        Set<String> userIds = engine.getTransitiveUserIdsOfGroup(groupId);
+
+        // modifications of the copy including newly interned IDs stay invisible to the original
+        copy.removeGroup(generator.getGroupId(1));
+        copy.addGroupMembership(groupId, "group-new");
+        copy.addUserMembership("group-new", "user-new");
+
+        Assertions.assertEquals(childGroupIds, engine.getTransitiveChildGroupIds(groupId));
+        Assertions.assertEquals(userIds, engine.getTransitiveUserIdsOfGroup(groupId));
+        Assertions.assertFalse(engine.isTransitiveMember(groupId, "user-new"));
+        Assertions.assertTrue(copy.isTransitiveMember(groupId, "user-new"));
+
+        engine.addUserMembership(generator.getGroupId(2), "user-other");
+
+        Assertions.assertEquals(Collections.emptySet(), copy.getTransitiveGroupIdsOfUser("user-other"));
+    }
+}
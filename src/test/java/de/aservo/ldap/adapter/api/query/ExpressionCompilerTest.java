@@ -0,0 +1,187 @@
+package de.aservo.ldap.adapter.api.query;
+
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ExpressionCompilerTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should not let initial and final segments of wildcards overlap")
+    public void test001()
+            throws Exception {
+
+        QueryExpression expression = createWildcard("cn", "ab", "b", false, true);
+
+        Assertions.assertTrue(matches(expression, "abb"));
+        Assertions.assertTrue(matches(expression, "abXb"));
+        Assertions.assertFalse(matches(expression, "ab"));
+        Assertions.assertFalse(matches(expression, "b"));
+
+        expression = createWildcard("cn", "abc", "bcd", false, true);
+
+        Assertions.assertTrue(matches(expression, "abcbcd"));
+        Assertions.assertFalse(matches(expression, "abcd"));
+        Assertions.assertFalse(matches(expression, "abcbc"));
+
+        // without middle segments only the length of the value decides about an overlap
+        expression = createWildcard("cn", "a", "a", false, true);
+
+        Assertions.assertTrue(matches(expression, "aa"));
+        Assertions.assertFalse(matches(expression, "a"));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should match repeated middle segments of wildcards at separate positions")
+    public void test002()
+            throws Exception {
+
+        QueryExpression expression = createWildcard("cn", null, null, false, true, "a", "a");
+
+        Assertions.assertTrue(matches(expression, "aa"));
+        Assertions.assertTrue(matches(expression, "bab-ab"));
+        Assertions.assertFalse(matches(expression, "a"));
+        Assertions.assertFalse(matches(expression, "ba"));
+
+        // the middle segments must not reach into the initial or final segment
+        expression = createWildcard("cn", "ab", "cd", false, true, "c", "c");
+
+        Assertions.assertTrue(matches(expression, "abcccd"));
+        Assertions.assertTrue(matches(expression, "abcxccd"));
+        Assertions.assertFalse(matches(expression, "abccd"));
+        Assertions.assertFalse(matches(expression, "abcd"));
+
+        // overlapping occurrences of a segment count once
+        expression = createWildcard("cn", null, null, false, true, "aba", "aba");
+
+        Assertions.assertTrue(matches(expression, "abaaba"));
+        Assertions.assertFalse(matches(expression, "ababa"));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should bind the values of negated operators sharing a shape")
+    public void test003()
+            throws Exception {
+
+        QueryExpression negatedA = new EqualOperator("cn", "UserA", true, true);
+        QueryExpression negatedB = new EqualOperator("cn", "UserB", true, true);
+        QueryExpression notA = new NotLogicExpression(Collections.singletonList(new EqualOperator("cn", "UserA")));
+        QueryExpression notB = new NotLogicExpression(Collections.singletonList(new EqualOperator("cn", "UserB")));
+
+        for (QueryExpression expression : Arrays.asList(negatedA, notA)) {
+
+            Assertions.assertFalse(matches(expression, "UserA"));
+            Assertions.assertTrue(matches(expression, "UserB"));
+        }
+
+        for (QueryExpression expression : Arrays.asList(negatedB, notB)) {
+
+            Assertions.assertTrue(matches(expression, "UserA"));
+            Assertions.assertFalse(matches(expression, "UserB"));
+        }
+
+        // the negation of the operator and of the expression is not the same
+        Assertions.assertFalse(matches(new EqualOperator("mail", "a@example.com", true, true), "UserA"));
+        Assertions.assertTrue(matches(new NotLogicExpression(Collections.singletonList(
+                new EqualOperator("mail", "a@example.com"))), "UserA"));
+
+        QueryExpression negatedWildcard = createWildcard("cn", "User", null, true, true);
+
+        Assertions.assertFalse(matches(negatedWildcard, "UserA"));
+        Assertions.assertTrue(matches(negatedWildcard, "GuestA"));
+        Assertions.assertTrue(matches(createWildcard("cn", "User", null, false, true), "UserA"));
+
+        // the same operators in a conjunction and a disjunction
+        QueryExpression conjunction = new AndLogicExpression(Arrays.asList(negatedA, negatedB));
+        QueryExpression disjunction = new OrLogicExpression(Arrays.asList(negatedA, negatedB));
+
+        Assertions.assertFalse(matches(conjunction, "UserA"));
+        Assertions.assertTrue(matches(conjunction, "UserC"));
+        Assertions.assertTrue(matches(disjunction, "UserA"));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should keep plans for case sensitive and case insensitive operators apart")
+    public void test004()
+            throws Exception {
+
+        QueryExpression caseSensitive = new EqualOperator("cn", "UserA", false, false);
+        QueryExpression caseInsensitive = new EqualOperator("cn", "UserA", false, true);
+
+        for (int i = 0; i < 2; i++) {
+
+            Assertions.assertTrue(matches(caseSensitive, "UserA"));
+            Assertions.assertFalse(matches(caseSensitive, "usera"));
+            Assertions.assertTrue(matches(caseInsensitive, "UserA"));
+            Assertions.assertTrue(matches(caseInsensitive, "usera"));
+        }
+
+        QueryExpression wildcardCaseSensitive = createWildcard("cn", "Us", "A", false, false, "er");
+        QueryExpression wildcardCaseInsensitive = createWildcard("cn", "Us", "A", false, true, "er");
+
+        for (int i = 0; i < 2; i++) {
+
+            Assertions.assertTrue(matches(wildcardCaseSensitive, "UserA"));
+            Assertions.assertFalse(matches(wildcardCaseSensitive, "USERA"));
+            Assertions.assertTrue(matches(wildcardCaseInsensitive, "UserA"));
+            Assertions.assertTrue(matches(wildcardCaseInsensitive, "USERA"));
+        }
+
+        // the operands of a conjunction differ in case sensitivity only
+        QueryExpression mixed1 = new AndLogicExpression(Arrays.asList(
+                new EqualOperator("cn", "UserA", false, false),
+                new EqualOperator("sn", "Last", false, true)));
+
+        QueryExpression mixed2 = new AndLogicExpression(Arrays.asList(
+                new EqualOperator("cn", "UserA", false, true),
+                new EqualOperator("sn", "Last", false, false)));
+
+        Assertions.assertFalse(matches(mixed1, createUser("usera", "Last")));
+        Assertions.assertTrue(matches(mixed1, createUser("UserA", "last")));
+        Assertions.assertTrue(matches(mixed2, createUser("usera", "Last")));
+        Assertions.assertFalse(matches(mixed2, createUser("UserA", "last")));
+    }
+
+    private boolean matches(QueryExpression expression, String username) {
+
+        return matches(expression, createUser(username, "Last"));
+    }
+
+    private boolean matches(QueryExpression expression, UserEntity entity) {
+
+        return ExpressionCompiler.compile(expression, EntityType.USER).test(entity);
+    }
+
+    private UserEntity createUser(String username, String lastName) {
+
+        return new UserEntity(username, lastName, "First", "First " + lastName, null, true);
+    }
+
+    private WildcardOperator createWildcard(String attribute, String initialSegment, String finalSegment,
+                                            boolean negated, boolean ignoreCase, String... middleSegments) {
+
+        List<String> segments = Arrays.asList(middleSegments);
+
+        String regex = Stream.concat(Stream.of(initialSegment == null ? "" : initialSegment),
+                        Stream.concat(segments.stream(), Stream.of(finalSegment == null ? "" : finalSegment)))
+                .map(Pattern::quote)
+                .collect(Collectors.joining(".*"));
+
+        return new WildcardOperator(attribute, Pattern.compile(regex), initialSegment, finalSegment, segments,
+                negated, ignoreCase);
+    }
+}
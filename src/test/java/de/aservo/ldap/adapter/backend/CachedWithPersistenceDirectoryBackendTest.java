@@ -0,0 +1,332 @@
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.EntryCache;
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.junit.jupiter.api.*;
+import test.api.AbstractBackendTest;
+import test.configuration.backend.JsonWithPersistenceBackend;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class CachedWithPersistenceDirectoryBackendTest
+        extends AbstractBackendTest {
+
+    public CachedWithPersistenceDirectoryBackendTest() {
+
+        super(new JsonWithPersistenceBackend("cached-with-persistence-test"));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should publish staged entities at once")
+    public void test001()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        Assertions.assertTrue(directory.supportsStaging());
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+        });
+
+        directory.withStagingAccess(() -> {
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        directory.withReadAccess(() -> {
+
+            Assertions.assertEquals(new HashSet<>(), directory.getAllGroups());
+            Assertions.assertEquals(new HashSet<>(), directory.getAllUsers());
+        });
+
+        directory.withWriteAccess(directory::publishStagedEntities);
+
+        directory.withReadAccess(() -> {
+
+            Assertions.assertEquals(getGroupNames(directory.getAllGroups()),
+                    getGroupNames(getNestedDirectory(directory).getAllGroups()));
+
+            Assertions.assertEquals(getUserNames(directory.getAllUsers()),
+                    getUserNames(getNestedDirectory(directory).getAllUsers()));
+
+            Assertions.assertEquals(new HashSet<>(Arrays.asList("UserA", "UserB", "UserD")),
+                    getUserNames(directory.getDirectUsersOfGroup("GroupA")));
+
+            Assertions.assertEquals(new HashSet<>(Arrays.asList("GroupA", "GroupC")),
+                    getGroupNames(directory.getDirectGroupsOfUser("UserD")));
+        });
+
+        // the staging area is emptied by the publication
+        directory.withStagingAccess(() -> {
+        });
+
+        directory.withWriteAccess(directory::publishStagedEntities);
+
+        directory.withReadAccess(() -> {
+
+            Assertions.assertEquals(new HashSet<>(), directory.getAllGroups());
+            Assertions.assertEquals(new HashSet<>(), directory.getAllUsers());
+        });
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should cache the same rows with batched and single upserts")
+    public void test002()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+        NestedDirectoryBackend nestedDirectory = getNestedDirectory(directory);
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+
+            for (GroupEntity entity : nestedDirectory.getAllGroups())
+                directory.upsertGroup(entity.getId());
+
+            for (UserEntity entity : nestedDirectory.getAllUsers())
+                directory.upsertUser(entity.getId());
+
+            for (MembershipEntity membership : directory.getMemberships()) {
+
+                for (String id : membership.getMemberGroupIds())
+                    directory.upsertMembership(new MembershipEntity(membership.getParentGroupId(),
+                            Collections.singleton(id), Collections.emptySet()));
+
+                for (String id : membership.getMemberUserIds())
+                    directory.upsertMembership(new MembershipEntity(membership.getParentGroupId(),
+                            Collections.emptySet(), Collections.singleton(id)));
+            }
+        });
+
+        Set<String> expected = directory.withReadAccess(() -> describeCache(directory));
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        Assertions.assertEquals(expected, directory.withReadAccess(() -> describeCache(directory)));
+
+        // a repeated batch updates the existing rows instead of failing on duplicates
+        directory.withWriteAccess(() -> {
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        Assertions.assertEquals(expected, directory.withReadAccess(() -> describeCache(directory)));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should read all direct memberships of the cache at once")
+    public void test003()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        Set<String> expected = describeMemberships(getNestedDirectory(directory).getMemberships());
+
+        Assertions.assertFalse(expected.isEmpty());
+        Assertions.assertEquals(expected,
+                directory.withReadAccess(() -> describeMemberships(directory.getDirectMemberships())));
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+        });
+
+        // unlike the memberships of the source the direct memberships follow the cache
+        Assertions.assertEquals(expected, describeMemberships(directory.getMemberships()));
+        Assertions.assertEquals(new HashSet<>(),
+                directory.withReadAccess(() -> describeMemberships(directory.getDirectMemberships())));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should invalidate cached entries once modifications are committed")
+    public void test004()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+        EntryCache cache = new EntryCache(100, false);
+
+        Assertions.assertTrue(directory.addEntityChangeListener(cache));
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        fillCache(cache);
+
+        // the notification follows the commit and not the single modification
+        directory.withWriteAccess(() -> {
+
+            directory.upsertUser("UserC");
+
+            Assertions.assertTrue(isCached(cache, EntityType.USER, "userc"));
+        });
+
+        Assertions.assertFalse(isCached(cache, EntityType.USER, "userc"));
+        Assertions.assertTrue(isCached(cache, EntityType.USER, "usera"));
+        Assertions.assertTrue(isCached(cache, EntityType.GROUP, "groupa"));
+
+        fillCache(cache);
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropMembership(new MembershipEntity("GroupA", Collections.emptySet(),
+                    Collections.singleton("UserB")));
+        });
+
+        Assertions.assertFalse(isCached(cache, EntityType.GROUP, "groupa"));
+        Assertions.assertFalse(isCached(cache, EntityType.USER, "userb"));
+        Assertions.assertTrue(isCached(cache, EntityType.USER, "usera"));
+
+        // an entry built before a committed modification is not cached
+        long generation = cache.getGeneration();
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+        });
+
+        Assertions.assertEquals(0, cache.size());
+
+        cache.put(EntityType.USER, "usera", Collections.emptySet(), new DefaultEntry("cn=UserA"), generation);
+
+        Assertions.assertFalse(isCached(cache, EntityType.USER, "usera"));
+    }
+
+    private void fillCache(EntryCache cache)
+            throws Exception {
+
+        long generation = cache.getGeneration();
+
+        for (String name : new String[]{"GroupA", "GroupB"})
+            cache.put(EntityType.GROUP, name.toLowerCase(), Collections.emptySet(), new DefaultEntry("cn=" + name),
+                    generation);
+
+        for (String name : new String[]{"UserA", "UserB", "UserC"})
+            cache.put(EntityType.USER, name.toLowerCase(), Collections.emptySet(), new DefaultEntry("cn=" + name),
+                    generation);
+    }
+
+    private boolean isCached(EntryCache cache, EntityType entityType, String id) {
+
+        return cache.get(entityType, id, Collections.emptySet()).isPresent();
+    }
+
+    private Set<String> describeMemberships(Iterable<MembershipEntity> memberships) {
+
+        Set<String> result = new HashSet<>();
+
+        for (MembershipEntity membership : memberships) {
+
+            membership.getMemberGroupIds()
+                    .forEach(x -> result.add("group:" + membership.getParentGroupId() + ":" + x));
+
+            membership.getMemberUserIds()
+                    .forEach(x -> result.add("user:" + membership.getParentGroupId() + ":" + x));
+        }
+
+        return result;
+    }
+
+    private Set<String> describeCache(NestedDirectoryBackend directory) {
+
+        Set<String> result = new HashSet<>();
+
+        for (GroupEntity entity : directory.getAllGroups()) {
+
+            result.add("group:" + entity.getId() + ":" + entity.getName() + ":" + entity.getDescription());
+
+            directory.getDirectChildGroupsOfGroup(entity.getId())
+                    .forEach(x -> result.add("member:" + entity.getId() + ":" + x.getId()));
+
+            directory.getDirectUsersOfGroup(entity.getId())
+                    .forEach(x -> result.add("member:" + entity.getId() + ":" + x.getId()));
+        }
+
+        for (UserEntity entity : directory.getAllUsers())
+            result.add("user:" + entity.getId() + ":" + entity.getUsername() + ":" + entity.getLastName() + ":" +
+                    entity.getFirstName() + ":" + entity.getDisplayName() + ":" + entity.getEmail() + ":" +
+                    entity.isActive());
+
+        return result;
+    }
+
+    private NestedDirectoryBackend getNestedDirectory(NestedDirectoryBackend directory) {
+
+        return ((CachedWithPersistenceDirectoryBackend) directory).directoryBackend;
+    }
+
+    private Set<String> getGroupNames(Set<GroupEntity> entities) {
+
+        return entities.stream()
+                .map(GroupEntity::getName)
+                .collect(Collectors.toSet());
+    }
+
+    private Set<String> getUserNames(Set<UserEntity> entities) {
+
+        return entities.stream()
+                .map(UserEntity::getUsername)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,242 @@
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DeltaUpdateTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should apply only the last change of an entity or membership")
+    public void test001()
+            throws Exception {
+
+        StubDirectoryBackend directory = new StubDirectoryBackend();
+        DeltaUpdate deltaUpdate = directory.createDeltaUpdate();
+
+        deltaUpdate.validateGroup("GroupA");
+        deltaUpdate.validateGroup("groupa");
+        deltaUpdate.validateGroup("GroupB");
+        deltaUpdate.invalidateGroup("GroupB");
+        deltaUpdate.validateUser("UserA");
+        deltaUpdate.validateUser("UserA");
+
+        deltaUpdate.validateMembership(createMembership("groupa", "groupc", "usera"));
+        deltaUpdate.invalidateMembership(createMembership("groupa", "groupc", null));
+        deltaUpdate.invalidateMembership(createMembership("groupa", null, "userb"));
+        deltaUpdate.validateMembership(createMembership("groupa", null, "userb"));
+
+        deltaUpdate.apply();
+
+        Assertions.assertEquals(Arrays.asList(
+                        "dropGroup:groupb",
+                        "upsertGroup:groupa",
+                        "upsertUser:usera",
+                        "upsertMembership:groupa:[]:[usera, userb]",
+                        "dropMembership:groupa:[groupc]:[]"),
+                directory.events);
+
+        // every entity is downloaded once
+        Assertions.assertEquals(Arrays.asList(Collections.singletonList("groupa")), directory.groupRequests);
+        Assertions.assertEquals(Arrays.asList(Collections.singletonList("usera")), directory.userRequests);
+
+        // the applied changes are not repeated
+        directory.events.clear();
+        deltaUpdate.apply();
+
+        Assertions.assertEquals(Collections.emptyList(), directory.events);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should drop and recreate an entity which is deleted and created again")
+    public void test002()
+            throws Exception {
+
+        StubDirectoryBackend directory = new StubDirectoryBackend();
+        DeltaUpdate deltaUpdate = directory.createDeltaUpdate();
+
+        deltaUpdate.validateMembership(createMembership("groupa", null, "usera"));
+        deltaUpdate.invalidateGroup("GroupA");
+        deltaUpdate.validateGroup("GroupA");
+        deltaUpdate.validateMembership(createMembership("groupa", null, "userb"));
+
+        deltaUpdate.invalidateUser("UserC");
+        deltaUpdate.validateUser("UserC");
+
+        deltaUpdate.apply();
+
+        // the membership of the deleted group is gone, only the one of the recreated group remains
+        Assertions.assertEquals(Arrays.asList(
+                        "dropGroup:groupa",
+                        "dropUser:userc",
+                        "upsertGroup:groupa",
+                        "upsertUser:userc",
+                        "upsertMembership:groupa:[]:[userb]"),
+                directory.events);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should skip memberships whose entities are dropped later")
+    public void test003()
+            throws Exception {
+
+        StubDirectoryBackend directory = new StubDirectoryBackend();
+        DeltaUpdate deltaUpdate = directory.createDeltaUpdate();
+
+        deltaUpdate.validateMembership(createMembership("groupa", "groupb", "usera"));
+        deltaUpdate.validateMembership(createMembership("groupc", "groupd", "userb"));
+        deltaUpdate.invalidateMembership(createMembership("groupe", null, "userc"));
+        deltaUpdate.invalidateGroup("GroupB");
+        deltaUpdate.invalidateUser("UserB");
+        deltaUpdate.invalidateGroup("GroupE");
+
+        // groups which no longer exist are not upserted
+        deltaUpdate.validateGroup("GroupF");
+        directory.missingIds.add("groupf");
+
+        deltaUpdate.apply();
+
+        Assertions.assertEquals(Arrays.asList(
+                        "dropGroup:groupb",
+                        "dropGroup:groupe",
+                        "dropUser:userb",
+                        "upsertMembership:groupa:[]:[usera]",
+                        "upsertMembership:groupc:[groupd]:[]"),
+                directory.events.stream()
+                        .sorted()
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should apply the changes before a renamed user first")
+    public void test004()
+            throws Exception {
+
+        StubDirectoryBackend directory = new StubDirectoryBackend();
+        DeltaUpdate deltaUpdate = directory.createDeltaUpdate();
+
+        deltaUpdate.validateUser("UserA");
+        deltaUpdate.validateMembership(createMembership("groupa", null, "usera"));
+        deltaUpdate.renameUser("UserB", "UserA");
+        deltaUpdate.invalidateMembership(createMembership("groupa", null, "userb"));
+        deltaUpdate.validateUser("UserB");
+        deltaUpdate.invalidateUser("UserA");
+
+        deltaUpdate.apply();
+
+        // the membership of the old user exists before the renamed user inherits it
+        Assertions.assertEquals(Arrays.asList(
+                        "upsertUser:usera",
+                        "upsertMembership:groupa:[]:[usera]",
+                        "renameUser:userb:usera",
+                        "dropUser:usera",
+                        "upsertUser:userb",
+                        "dropMembership:groupa:[]:[userb]"),
+                directory.events);
+    }
+
+    private MembershipEntity createMembership(String parentGroupId, String memberGroupId, String memberUserId) {
+
+        return new MembershipEntity(parentGroupId,
+                memberGroupId == null ? Collections.emptySet() : Collections.singleton(memberGroupId),
+                memberUserId == null ? Collections.emptySet() : Collections.singleton(memberUserId));
+    }
+
+    private static class StubDirectoryBackend
+            extends ProxyDirectoryBackend {
+
+        private final List<String> events = new ArrayList<>();
+        private final List<List<String>> groupRequests = new ArrayList<>();
+        private final List<List<String>> userRequests = new ArrayList<>();
+        private final Set<String> missingIds = new HashSet<>();
+
+        public StubDirectoryBackend() {
+
+            super(null, null);
+        }
+
+        public DeltaUpdate createDeltaUpdate() {
+
+            return new DeltaUpdate(this,
+                    ids -> {
+
+                        groupRequests.add(new ArrayList<>(ids));
+
+                        return ids.stream()
+                                .filter(x -> !missingIds.contains(x))
+                                .map(x -> new GroupEntity(x, "Description of " + x + "."))
+                                .collect(Collectors.toList());
+                    },
+                    ids -> {
+
+                        userRequests.add(new ArrayList<>(ids));
+
+                        return ids.stream()
+                                .filter(x -> !missingIds.contains(x))
+                                .map(x -> new UserEntity(x, "LastNameOf" + x, "FirstNameOf" + x, x,
+                                        x + "@example.com", true))
+                                .collect(Collectors.toList());
+                    });
+        }
+
+        @Override
+        public void upsertUser(String id, String idOther) {
+
+            events.add("renameUser:" + id + ":" + idOther);
+        }
+
+        @Override
+        public void upsertGroups(Collection<GroupEntity> entities) {
+
+            entities.forEach(x -> events.add("upsertGroup:" + x.getId()));
+        }
+
+        @Override
+        public void upsertUsers(Collection<UserEntity> entities) {
+
+            entities.forEach(x -> events.add("upsertUser:" + x.getId()));
+        }
+
+        @Override
+        public void upsertMembership(MembershipEntity membership) {
+
+            events.add("upsertMembership:" + describe(membership));
+        }
+
+        @Override
+        public void dropGroup(String id) {
+
+            events.add("dropGroup:" + id);
+        }
+
+        @Override
+        public void dropUser(String id) {
+
+            events.add("dropUser:" + id);
+        }
+
+        @Override
+        public void dropMembership(MembershipEntity membership) {
+
+            events.add("dropMembership:" + describe(membership));
+        }
+
+        private String describe(MembershipEntity membership) {
+
+            return membership.getParentGroupId() + ":" +
+                    new TreeSet<>(membership.getMemberGroupIds()) + ":" +
+                    new TreeSet<>(membership.getMemberUserIds());
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.cursor.MappableCursor;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class FullSyncPipelineTest {
+
+    private ExecutorService executor;
+
+    @BeforeAll
+    public void setup() {
+
+        executor = new ThreadPoolExecutor(0, 8, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    @AfterAll
+    public void shutdown() {
+
+        executor.shutdownNow();
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should write all pages of groups and users before the memberships")
+    public void test001()
+            throws Exception {
+
+        // the number of groups is a multiple of the page size and ends with an empty page
+        StubDirectoryBackend directory = new StubDirectoryBackend(100, 203, 57);
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+
+            new FullSyncPipeline(directory, executor, 3, 10, 2).run();
+        });
+
+        Assertions.assertEquals(100, directory.restoredGroups.size());
+        Assertions.assertEquals(203, directory.restoredUsers.size());
+        Assertions.assertEquals(57, directory.upsertedMemberships.size());
+
+        Assertions.assertEquals(new HashSet<>(directory.groups), new HashSet<>(directory.restoredGroups));
+        Assertions.assertEquals(new HashSet<>(directory.users), new HashSet<>(directory.restoredUsers));
+        Assertions.assertEquals(directory.memberships, directory.upsertedMemberships);
+
+        Assertions.assertEquals(Arrays.asList("entities", "memberships"), directory.writes.stream()
+                .distinct()
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should abort if a page cannot be fetched")
+    public void test002()
+            throws Exception {
+
+        StubDirectoryBackend directory1 = new StubDirectoryBackend(100, 100, 50);
+
+        directory1.failingGroupPage = 3;
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+
+            IllegalStateException exception = Assertions.assertThrows(IllegalStateException.class, () -> {
+
+                new FullSyncPipeline(directory1, executor, 2, 10, 1).run();
+            });
+
+            Assertions.assertEquals("Cannot fetch page 3 of groups.", exception.getMessage());
+        });
+
+        Assertions.assertTrue(directory1.restoredGroups.size() < 100);
+        Assertions.assertEquals(Collections.emptyList(), directory1.upsertedMemberships);
+
+        StubDirectoryBackend directory2 = new StubDirectoryBackend(20, 20, 50);
+
+        directory2.failingMembership = 25;
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+
+            IllegalStateException exception = Assertions.assertThrows(IllegalStateException.class, () -> {
+
+                new FullSyncPipeline(directory2, executor, 2, 10, 1).run();
+            });
+
+            Assertions.assertEquals("Cannot fetch membership 25.", exception.getMessage());
+        });
+
+        Assertions.assertTrue(directory2.upsertedMemberships.size() < 25);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should stop fetching while the writer is slower than the fetchers")
+    public void test003()
+            throws Exception {
+
+        StubDirectoryBackend directory = new StubDirectoryBackend(100, 100, 10);
+        CountDownLatch latch = new CountDownLatch(1);
+        int fetchThreads = 2;
+        int bufferSize = 2;
+
+        directory.writeLatch = latch;
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+
+        Future<?> future = writer.submit(() -> {
+
+            new FullSyncPipeline(directory, executor, fetchThreads, 10, bufferSize).run();
+        });
+
+        // wait until the fetchers cannot hand over any further page
+        for (int fetched = -1; fetched != directory.fetchedPages.get(); ) {
+
+            fetched = directory.fetchedPages.get();
+            Thread.sleep(500);
+        }
+
+        // one page is being written, the buffer is full and every fetcher holds another page
+        Assertions.assertTrue(directory.fetchedPages.get() <= 1 + bufferSize + fetchThreads);
+        Assertions.assertEquals(Collections.emptyList(), directory.restoredGroups);
+        Assertions.assertEquals(Collections.emptyList(), directory.restoredUsers);
+
+        latch.countDown();
+
+        future.get(10, TimeUnit.SECONDS);
+        writer.shutdown();
+
+        Assertions.assertEquals(100, directory.restoredGroups.size());
+        Assertions.assertEquals(100, directory.restoredUsers.size());
+        Assertions.assertEquals(10, directory.upsertedMemberships.size());
+    }
+
+    private static class StubDirectoryBackend
+            extends ProxyDirectoryBackend {
+
+        private final List<GroupEntity> groups = new ArrayList<>();
+        private final List<UserEntity> users = new ArrayList<>();
+        private final List<MembershipEntity> memberships = new ArrayList<>();
+        private final List<GroupEntity> restoredGroups = Collections.synchronizedList(new ArrayList<>());
+        private final List<UserEntity> restoredUsers = Collections.synchronizedList(new ArrayList<>());
+        private final List<MembershipEntity> upsertedMemberships = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger fetchedPages = new AtomicInteger();
+        private volatile int failingGroupPage = -1;
+        private volatile int failingMembership = -1;
+        private volatile CountDownLatch writeLatch;
+
+        public StubDirectoryBackend(int groupCount, int userCount, int membershipCount) {
+
+            super(null, null);
+
+            for (int i = 0; i < groupCount; i++)
+                groups.add(new GroupEntity(String.format("Group%03d", i), "Description of group " + i + "."));
+
+            for (int i = 0; i < userCount; i++)
+                users.add(new UserEntity(String.format("User%03d", i), "Last" + i, "First" + i, "User " + i,
+                        "user" + i + "@example.com", true));
+
+            for (int i = 0; i < membershipCount; i++)
+                memberships.add(new MembershipEntity(groups.get(i % groupCount).getId(), Collections.emptySet(),
+                        Collections.singleton(users.get(i % userCount).getId())));
+        }
+
+        @Override
+        public Set<GroupEntity> getAllGroups(int startIndex, int maxResults) {
+
+            fetchedPages.incrementAndGet();
+
+            if (startIndex / maxResults == failingGroupPage)
+                throw new IllegalStateException("Cannot fetch page " + failingGroupPage + " of groups.");
+
+            return new LinkedHashSet<>(groups.subList(Math.min(startIndex, groups.size()),
+                    Math.min(startIndex + maxResults, groups.size())));
+        }
+
+        @Override
+        public Set<UserEntity> getAllUsers(int startIndex, int maxResults) {
+
+            fetchedPages.incrementAndGet();
+
+            return new LinkedHashSet<>(users.subList(Math.min(startIndex, users.size()),
+                    Math.min(startIndex + maxResults, users.size())));
+        }
+
+        @Override
+        public MappableCursor<MembershipEntity> getMemberships() {
+
+            Iterator<MembershipEntity> iterator = memberships.iterator();
+
+            return MappableCursor.fromIterator(new Iterator<MembershipEntity>() {
+
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public MembershipEntity next() {
+
+                    if (next == failingMembership)
+                        throw new IllegalStateException("Cannot fetch membership " + failingMembership + ".");
+
+                    next++;
+
+                    return iterator.next();
+                }
+            });
+        }
+
+        @Override
+        public void restoreGroups(Collection<GroupEntity> entities) {
+
+            awaitWrite();
+            writes.add("entities");
+            restoredGroups.addAll(entities);
+        }
+
+        @Override
+        public void restoreUsers(Collection<UserEntity> entities) {
+
+            awaitWrite();
+            writes.add("entities");
+            restoredUsers.addAll(entities);
+        }
+
+        @Override
+        public void upsertMembership(MembershipEntity membership) {
+
+            writes.add("memberships");
+            upsertedMemberships.add(membership);
+        }
+
+        private void awaitWrite() {
+
+            try {
+
+                if (writeLatch != null)
+                    writeLatch.await();
+
+            } catch (InterruptedException e) {
+
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.junit.jupiter.api.*;
+import test.api.AbstractBackendTest;
+import test.configuration.backend.JsonWithPersistenceBackend;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MaterializedMembershipTest
+        extends AbstractBackendTest {
+
+    public MaterializedMembershipTest() {
+
+        super(new JsonWithPersistenceBackend("materialized-membership-test", true));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should materialize the transitive memberships of all groups")
+    public void test001()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupd", "groupc", "groupa")),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("groupe+,"))));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should rebuild the transitive memberships of ancestors of a modified membership")
+    public void test002()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        // the chain of nested groups reaches the cycle of GroupG and GroupH
+        directory.withWriteAccess(() -> {
+
+            directory.upsertMembership(new MembershipEntity("groupa", Collections.singleton("groupg"),
+                    Collections.emptySet()));
+        });
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertTrue(directory.withReadAccess(() ->
+                getIds(directory.getTransitiveUsersOfGroup("groupe+,")).contains("userh")));
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropMembership(new MembershipEntity("groupc", Collections.singleton("groupa"),
+                    Collections.emptySet()));
+        });
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupd", "groupc")),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("groupe+,"))));
+
+        // breaking the cycle removes the closure rows of both groups for themselves
+        directory.withWriteAccess(() -> {
+
+            directory.upsertMembership(new MembershipEntity("groupc", Collections.singleton("groupa"),
+                    Collections.emptySet()));
+
+            directory.dropMembership(new MembershipEntity("groupg", Collections.singleton("grouph"),
+                    Collections.emptySet()));
+        });
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertEquals(new HashSet<>(Collections.singletonList("groupg")),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("grouph"))));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should rebuild the transitive memberships of ancestors of a dropped group")
+    public void test003()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropGroup("groupc");
+        });
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertEquals(new HashSet<>(Collections.singletonList("groupd")),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("groupe+,"))));
+
+        directory.withWriteAccess(() -> {
+
+            directory.dropGroup("groupg");
+        });
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertEquals(new HashSet<>(),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("grouph"))));
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should publish the transitive memberships built in the staging session")
+    public void test004()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        directory.withStagingAccess(() -> {
+
+            directory.dropAllGroups();
+            directory.dropAllUsers();
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        // the published closure rows are still the ones of the modified memberships
+        Assertions.assertEquals(new HashSet<>(),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("grouph"))));
+
+        directory.withWriteAccess(directory::publishStagedEntities);
+
+        assertTransitiveMemberships(directory);
+
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupd", "groupc", "groupa")),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("groupe+,"))));
+
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("groupg", "grouph")),
+                directory.withReadAccess(() -> getIds(directory.getTransitiveChildGroupsOfGroup("grouph"))));
+    }
+
+    private void assertTransitiveMemberships(NestedDirectoryBackend directory)
+            throws Exception {
+
+        directory.withReadAccess(() -> {
+
+            for (GroupEntity entity : directory.getAllGroups()) {
+
+                Set<String> expectedGroupIds = findReachableGroupIds(directory, entity.getId());
+                Set<String> expectedUserIds = new HashSet<>(getIds(directory.getDirectUsersOfGroup(entity.getId())));
+
+                for (String groupId : expectedGroupIds)
+                    expectedUserIds.addAll(getIds(directory.getDirectUsersOfGroup(groupId)));
+
+                Assertions.assertEquals(expectedGroupIds,
+                        getIds(directory.getTransitiveChildGroupsOfGroup(entity.getId())), entity.getId());
+
+                Assertions.assertEquals(expectedUserIds,
+                        getIds(directory.getTransitiveUsersOfGroup(entity.getId())), entity.getId());
+            }
+        });
+    }
+
+    private Set<String> findReachableGroupIds(NestedDirectoryBackend directory, String groupId) {
+
+        // a plain graph walk which reaches the group itself only if it is part of a cycle
+        Set<String> result = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(Collections.singleton(groupId));
+
+        while (!pending.isEmpty())
+            for (GroupEntity entity : directory.getDirectChildGroupsOfGroup(pending.pop()))
+                if (result.add(entity.getId()))
+                    pending.push(entity.getId());
+
+        return result;
+    }
+
+    private Set<String> getIds(Set<?> entities) {
+
+        return entities.stream()
+                .map(x -> x instanceof GroupEntity ? ((GroupEntity) x).getId() : ((UserEntity) x).getId())
+                .collect(Collectors.toSet());
+    }
+}
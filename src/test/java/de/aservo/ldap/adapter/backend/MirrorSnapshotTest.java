@@ -0,0 +1,195 @@
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import de.aservo.ldap.adapter.api.entity.UserEntity;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MirrorSnapshotTest {
+
+    private Path directory;
+
+    @BeforeAll
+    public void setup()
+            throws Exception {
+
+        directory = Files.createTempDirectory("mirror-snapshot-test");
+    }
+
+    @AfterAll
+    public void shutdown()
+            throws Exception {
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+
+            for (Path file : files)
+                Files.delete(file);
+        }
+
+        Files.delete(directory);
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should read the written entities and memberships")
+    public void test001()
+            throws Exception {
+
+        Path file = directory.resolve("round-trip.bin");
+        MirrorSnapshot snapshot = createSnapshot();
+
+        snapshot.write(file);
+
+        MirrorSnapshot result = MirrorSnapshot.read(file).orElseThrow(AssertionError::new);
+
+        Assertions.assertEquals(snapshot.getAuditLogId(), result.getAuditLogId());
+        Assertions.assertEquals(snapshot.getCreatedAt(), result.getCreatedAt());
+        Assertions.assertEquals(describeGroups(snapshot.getGroups()), describeGroups(result.getGroups()));
+        Assertions.assertEquals(describeUsers(snapshot.getUsers()), describeUsers(result.getUsers()));
+        Assertions.assertEquals(describeMemberships(snapshot.getMemberships()),
+                describeMemberships(result.getMemberships()));
+
+        // a second write replaces the file
+        new MirrorSnapshot(43, 0, Collections.emptyList(), Collections.emptyList(), Collections.emptyList())
+                .write(file);
+
+        result = MirrorSnapshot.read(file).orElseThrow(AssertionError::new);
+
+        Assertions.assertEquals(43, result.getAuditLogId());
+        Assertions.assertTrue(result.getGroups().isEmpty());
+        Assertions.assertTrue(result.getUsers().isEmpty());
+        Assertions.assertTrue(result.getMemberships().isEmpty());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should reject a snapshot with a changed byte or a wrong checksum")
+    public void test002()
+            throws Exception {
+
+        Path file = directory.resolve("corrupted.bin");
+
+        createSnapshot().write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int index : new int[]{0, bytes.length / 2, bytes.length - Long.BYTES - 1, bytes.length - 1}) {
+
+            byte[] corrupted = bytes.clone();
+
+            corrupted[index] ^= 0x01;
+            Files.write(file, corrupted);
+
+            Assertions.assertThrows(IOException.class, () -> MirrorSnapshot.read(file));
+        }
+
+        // a truncated file is rejected as well
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        Assertions.assertThrows(IOException.class, () -> MirrorSnapshot.read(file));
+
+        Files.write(file, new byte[Long.BYTES - 1]);
+
+        Assertions.assertThrows(IOException.class, () -> MirrorSnapshot.read(file));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should return nothing for a missing snapshot file")
+    public void test003()
+            throws Exception {
+
+        Assertions.assertFalse(MirrorSnapshot.read(directory.resolve("missing.bin")).isPresent());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should reject a snapshot with an invalid string length and a valid checksum")
+    public void test004()
+            throws Exception {
+
+        Path file = directory.resolve("invalid-length.bin");
+
+        createSnapshot().write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+
+        // the name of the first group follows the header and the number of groups
+        int offset = Integer.BYTES + Short.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+
+        for (int length : new int[]{-2, Integer.MIN_VALUE, bytes.length, Integer.MAX_VALUE}) {
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.clone());
+            CRC32 checksum = new CRC32();
+
+            buffer.putInt(offset, length);
+            checksum.update(buffer.array(), 0, bytes.length - Long.BYTES);
+            buffer.putLong(bytes.length - Long.BYTES, checksum.getValue());
+            Files.write(file, buffer.array());
+
+            Assertions.assertThrows(IOException.class, () -> MirrorSnapshot.read(file));
+        }
+    }
+
+    private MirrorSnapshot createSnapshot() {
+
+        List<GroupEntity> groups = Arrays.asList(
+                new GroupEntity("GroupA", "Description of GroupA."),
+                new GroupEntity("GroupB", null),
+                new GroupEntity("Grüppe\u001eC", ""));
+
+        List<UserEntity> users = Arrays.asList(
+                new UserEntity("UserA", "Last", "First", "First Last", "user-a@example.com", true),
+                new UserEntity("UserB", null, null, null, null, false));
+
+        List<MembershipEntity> memberships = Arrays.asList(
+                new MembershipEntity("groupa", new HashSet<>(Arrays.asList("groupb", "grüppe\u001ec")),
+                        Collections.singleton("usera")),
+                new MembershipEntity("groupb", Collections.emptySet(), new HashSet<>(Arrays.asList("usera", "userb"))));
+
+        return new MirrorSnapshot(42, 1600000000000L, groups, users, memberships);
+    }
+
+    private List<String> describeGroups(List<GroupEntity> entities) {
+
+        List<String> result = new ArrayList<>();
+
+        for (GroupEntity entity : entities)
+            result.add(entity.getName() + ":" + entity.getDescription());
+
+        return result;
+    }
+
+    private List<String> describeUsers(List<UserEntity> entities) {
+
+        List<String> result = new ArrayList<>();
+
+        for (UserEntity entity : entities)
+            result.add(entity.getUsername() + ":" + entity.getLastName() + ":" + entity.getFirstName() + ":" +
+                    entity.getDisplayName() + ":" + entity.getEmail() + ":" + entity.isActive());
+
+        return result;
+    }
+
+    private List<String> describeMemberships(List<MembershipEntity> entities) {
+
+        List<String> result = new ArrayList<>();
+
+        for (MembershipEntity entity : entities)
+            result.add(entity.getParentGroupId() + ":" + new TreeSet<>(entity.getMemberGroupIds()) + ":" +
+                    new TreeSet<>(entity.getMemberUserIds()));
+
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package de.aservo.ldap.adapter.backend;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PollingIntervalTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should double the interval without changes up to the maximum")
+    public void test001()
+            throws Exception {
+
+        PollingInterval interval = new PollingInterval(4000, 60000);
+        List<Long> delays = new ArrayList<>();
+
+        Assertions.assertEquals(4000, interval.get());
+
+        for (int i = 0; i < 6; i++)
+            delays.add(interval.next(false));
+
+        Assertions.assertEquals(Arrays.asList(8000L, 16000L, 32000L, 60000L, 60000L, 60000L), delays);
+        Assertions.assertEquals(60000, interval.get());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should snap back to the minimum interval as soon as changes show up")
+    public void test002()
+            throws Exception {
+
+        PollingInterval interval = new PollingInterval(4000, 60000);
+
+        for (int i = 0; i < 10; i++)
+            interval.next(false);
+
+        Assertions.assertEquals(4000, interval.next(true));
+        Assertions.assertEquals(4000, interval.next(true));
+        Assertions.assertEquals(8000, interval.next(false));
+        Assertions.assertEquals(4000, interval.next(true));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should poll at a fixed rate with the same minimum and maximum")
+    public void test003()
+            throws Exception {
+
+        PollingInterval interval = new PollingInterval(5000, 5000);
+
+        Assertions.assertEquals(5000, interval.next(false));
+        Assertions.assertEquals(5000, interval.next(true));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            new PollingInterval(0, 5000);
+        });
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            new PollingInterval(5000, 4000);
+        });
+    }
+}
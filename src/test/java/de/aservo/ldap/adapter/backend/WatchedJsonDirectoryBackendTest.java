@@ -0,0 +1,117 @@
+package de.aservo.ldap.adapter.backend;
+
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import org.junit.jupiter.api.*;
+import test.api.AbstractBackendTest;
+import test.configuration.backend.JsonWithWatchedFileBackend;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class WatchedJsonDirectoryBackendTest
+        extends AbstractBackendTest {
+
+    private static final Path SOURCE_FILE = Paths.get("./src/test/resources/de/aservo/ldap/adapter/db.json");
+
+    public WatchedJsonDirectoryBackendTest() {
+
+        super(new JsonWithWatchedFileBackend("watched-json-test", createFile()));
+    }
+
+    @AfterAll
+    public void deleteFile()
+            throws Exception {
+
+        Path file = ((JsonWithWatchedFileBackend) getBackendSetup()).getFile();
+
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.getParent());
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should serve the data of a rewritten file from the cache")
+    public void test001()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+        NestedDirectoryBackend nestedDirectory = ((CachedDirectoryBackend) directory).directoryBackend;
+        Path file = ((JsonWithWatchedFileBackend) getBackendSetup()).getFile();
+
+        directory.withWriteAccess(() -> {
+
+            directory.upsertAllGroups();
+            directory.upsertAllUsers();
+
+            for (MembershipEntity membership : directory.getMemberships())
+                directory.upsertMembership(membership);
+        });
+
+        Assertions.assertEquals("Description of GroupA.", getDescription(directory, "GroupA"));
+        Assertions.assertTrue(directory.withReadAccess(() -> getGroupIds(directory)).contains("groupi"));
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8)
+                .replace("Description of GroupA.", "Modified description of GroupA.")
+                .replace("\"GroupI\"", "\"GroupJ\"");
+
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+
+        awaitCondition(() -> "Modified description of GroupA.".equals(getDescription(directory, "GroupA")));
+
+        Assertions.assertEquals("Modified description of GroupA.", getDescription(nestedDirectory, "GroupA"));
+
+        Assertions.assertEquals(directory.withReadAccess(() -> getGroupIds(directory)),
+                directory.withReadAccess(() -> getGroupIds(nestedDirectory)));
+
+        Assertions.assertFalse(directory.withReadAccess(() -> getGroupIds(directory)).contains("groupi"));
+        Assertions.assertTrue(directory.withReadAccess(() -> getGroupIds(directory)).contains("groupj"));
+    }
+
+    private static Path createFile() {
+
+        try {
+
+            Path file = Files.createTempDirectory("watched-json-test").resolve("db.json");
+
+            Files.copy(SOURCE_FILE, file);
+
+            return file;
+
+        } catch (IOException e) {
+
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String getDescription(NestedDirectoryBackend directory, String groupId) {
+
+        return directory.withReadAccess(() -> directory.getGroup(groupId).getDescription());
+    }
+
+    private Set<String> getGroupIds(NestedDirectoryBackend directory) {
+
+        return directory.getAllGroups().stream()
+                .map(GroupEntity::getId)
+                .collect(Collectors.toSet());
+    }
+
+    private void awaitCondition(Supplier<Boolean> condition)
+            throws Exception {
+
+        // the file is reloaded asynchronously after the watch service reports the modification
+        for (int i = 0; i < 200 && !condition.get(); i++)
+            Thread.sleep(50);
+    }
+}
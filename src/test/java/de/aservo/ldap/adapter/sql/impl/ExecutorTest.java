@@ -0,0 +1,157 @@
+package de.aservo.ldap.adapter.sql.impl;
+
+import de.aservo.ldap.adapter.api.database.result.IgnoredResult;
+import de.aservo.ldap.adapter.api.database.result.IndexedSeqResult;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.*;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ExecutorTest {
+
+    private static final String RESOURCE_PATH = "de/aservo/ldap/adapter/db/queries.sql";
+
+    private final Logger logger = LoggerFactory.getLogger(ExecutorTest.class);
+    private Connection connection;
+
+    @BeforeAll
+    public void setup()
+            throws Exception {
+
+        connection = DriverManager.getConnection("jdbc:h2:mem:executor-test;DB_CLOSE_DELAY=-1");
+
+        Executor executor = new Executor(logger, connection, RESOURCE_PATH, new StatementCache(0));
+
+        executor.execute(Executor.NATIVE_SQL_INDICATOR +
+                "create table Test_Batch (id varchar(64) primary key, name varchar(64), description varchar(64))",
+                Collections.emptyMap(), IgnoredResult.class);
+
+        executor.execute(Executor.NATIVE_SQL_INDICATOR +
+                "create table Test_Single (id varchar(64) primary key, name varchar(64), description varchar(64))",
+                Collections.emptyMap(), IgnoredResult.class);
+    }
+
+    @AfterAll
+    public void shutdown()
+            throws Exception {
+
+        connection.close();
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should apply a batch like single statements")
+    public void test001()
+            throws Exception {
+
+        Executor executor = new Executor(logger, connection, RESOURCE_PATH, new StatementCache(10));
+        List<Map<String, Object>> batchArguments = new ArrayList<>();
+
+        // the missing description changes the bind value type and the last row updates the first one
+        batchArguments.add(createArguments("a", "A", Optional.of("first")));
+        batchArguments.add(createArguments("b", "B", Optional.empty()));
+        batchArguments.add(createArguments("c", "C", Optional.of("third")));
+        batchArguments.add(createArguments("a", "A2", Optional.empty()));
+
+        Assertions.assertEquals(4, executor.executeBatch(createUpsertClause("Test_Batch"),
+                Collections.emptyMap(), batchArguments));
+
+        for (Map<String, Object> arguments : batchArguments)
+            executor.execute(createUpsertClause("Test_Single"), arguments, IgnoredResult.class);
+
+        Assertions.assertEquals(Arrays.asList("a:A2:null", "b:B:null", "c:C:third"),
+                findAll(executor, "Test_Batch"));
+
+        Assertions.assertEquals(findAll(executor, "Test_Single"), findAll(executor, "Test_Batch"));
+
+        Assertions.assertEquals(0, executor.executeBatch(createUpsertClause("Test_Batch"),
+                Collections.emptyMap(), Collections.emptyList()));
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should cache statements separately per bind value type")
+    public void test002()
+            throws Exception {
+
+        StatementCache statementCache = new StatementCache(10);
+        Executor executor = new Executor(logger, connection, RESOURCE_PATH, statementCache);
+        String clause = "select t.id from Test_Types t where t.amount = :amount";
+
+        executor.execute(Executor.NATIVE_SQL_INDICATOR +
+                "create table Test_Types (id varchar(64) primary key, amount bigint)",
+                Collections.emptyMap(), IgnoredResult.class);
+
+        executor.execute(Executor.NATIVE_SQL_INDICATOR +
+                "insert into Test_Types (id, amount) values ('a', 1), ('b', 2)",
+                Collections.emptyMap(), IgnoredResult.class);
+
+        Assertions.assertEquals(Collections.singletonList("a"), findIds(executor, clause, 1));
+        Assertions.assertEquals(Collections.singletonList("b"), findIds(executor, clause, 2));
+
+        Assertions.assertEquals(1, statementCache.getSize());
+        Assertions.assertEquals(1, statementCache.getHits());
+
+        // another parameter type must not reuse the statement rendered for integers
+        Assertions.assertEquals(Collections.singletonList("a"), findIds(executor, clause, 1L));
+        Assertions.assertEquals(Collections.singletonList("a"), findIds(executor, clause, "1"));
+
+        Assertions.assertEquals(3, statementCache.getSize());
+
+        // values with the same bind value type share the statement
+        Assertions.assertEquals(Collections.singletonList("b"), findIds(executor, clause, Optional.of("2")));
+
+        Assertions.assertEquals(3, statementCache.getSize());
+        Assertions.assertEquals(2, statementCache.getHits());
+
+        // another clause results in another statement
+        Assertions.assertEquals(Collections.singletonList("b"),
+                findIds(executor, clause.replace("=", ">"), 1));
+
+        Assertions.assertEquals(4, statementCache.getSize());
+    }
+
+    private Map<String, Object> createArguments(String id, String name, Optional<String> description) {
+
+        Map<String, Object> arguments = new HashMap<>();
+
+        arguments.put("id", id);
+        arguments.put("name", name);
+        arguments.put("description", description);
+
+        return arguments;
+    }
+
+    private String createUpsertClause(String table) {
+
+        return "insert into " + table + " (id, name, description)\n" +
+                "  values (:id, :name, :description)\n" +
+                "  on conflict (id) do\n" +
+                "    update set\n" +
+                "      name = :name,\n" +
+                "      description = :description";
+    }
+
+    private List<String> findAll(Executor executor, String table)
+            throws Exception {
+
+        return executor.execute("select t.* from " + table + " t order by t.id", Collections.emptyMap(),
+                        IndexedSeqResult.class)
+                .transform(row -> row.apply("id", String.class) + ":" +
+                        row.apply("name", String.class) + ":" +
+                        row.apply("description", String.class));
+    }
+
+    private List<String> findIds(Executor executor, String clause, Object amount)
+            throws Exception {
+
+        return executor.execute(clause, Collections.singletonMap("amount", amount), IndexedSeqResult.class)
+                .transform(row -> row.apply("id", String.class));
+    }
+}
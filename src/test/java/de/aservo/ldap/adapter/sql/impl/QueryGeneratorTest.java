@@ -0,0 +1,151 @@
+package de.aservo.ldap.adapter.sql.impl;
+
+import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.database.QueryDef;
+import de.aservo.ldap.adapter.api.database.QueryDefFactory;
+import de.aservo.ldap.adapter.api.database.result.Result;
+import de.aservo.ldap.adapter.api.entity.EntityType;
+import de.aservo.ldap.adapter.api.query.BooleanValue;
+import de.aservo.ldap.adapter.api.query.EqualOperator;
+import de.aservo.ldap.adapter.api.query.PresenceOperator;
+import de.aservo.ldap.adapter.api.query.QueryExpression;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class QueryGeneratorTest {
+
+    private final Set<String> membershipAttributes =
+            new HashSet<>(Arrays.asList(SchemaConstants.MEMBER_AT_OID, LdapUtils.MEMBER_OF_AT_OID));
+
+    @Test
+    @Order(1)
+    @DisplayName("it should limit the entities of a page with joined membership rows")
+    public void test001()
+            throws Exception {
+
+        QueryGenerator generator = new QueryGenerator(null, "json", false, false, false, false);
+
+        for (EntityType entityType : Arrays.asList(EntityType.GROUP, EntityType.USER)) {
+
+            CapturedQuery query = generate(generator, entityType, BooleanValue.trueValue(),
+                    Collections.emptySet(), null, 10);
+
+            Assertions.assertTrue(query.clause.contains(" left outer join "), query.clause);
+            Assertions.assertTrue(query.clause.contains("inner join ( select "), query.clause);
+            Assertions.assertEquals(1, count(query.clause, "limit ?"), query.clause);
+            Assertions.assertFalse(query.clause.endsWith("limit ?"), query.clause);
+            Assertions.assertTrue(query.arguments.contains(10));
+        }
+
+        CapturedQuery query = generate(generator, EntityType.GROUP, new PresenceOperator(LdapUtils.MEMBER_OF_AT),
+                membershipAttributes, "groupc", 10);
+
+        // the page and the outer query continue after the same entity
+        Assertions.assertEquals(2, count(query.clause, "g.id > ?"), query.clause);
+        Assertions.assertEquals(1, count(query.clause, "limit ?"), query.clause);
+        Assertions.assertEquals(2, query.arguments.stream().filter("groupc"::equals).count());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should limit the rows of a page without joined membership rows")
+    public void test002()
+            throws Exception {
+
+        QueryGenerator generator = new QueryGenerator(null, "json", false, false, false, false);
+        QueryExpression expression = new EqualOperator(SchemaConstants.CN_AT, "groupa");
+
+        CapturedQuery query = generate(generator, EntityType.GROUP, expression,
+                Collections.singleton(SchemaConstants.CN_AT_OID), "groupa", 10);
+
+        Assertions.assertFalse(query.clause.contains(" join "), query.clause);
+        Assertions.assertTrue(query.clause.endsWith(" limit ?"), query.clause);
+        Assertions.assertEquals(10, query.arguments.get(query.arguments.size() - 1));
+
+        // aggregated memberships result in one row per entity as well
+        query = generate(new QueryGenerator(null, "json", false, false, false, true), EntityType.GROUP,
+                expression, membershipAttributes, null, 10);
+
+        Assertions.assertFalse(query.clause.contains("inner join ( select "), query.clause);
+        Assertions.assertTrue(query.clause.endsWith(" limit ?"), query.clause);
+
+        // queries without a page are not limited
+        query = generate(generator, EntityType.GROUP, expression, membershipAttributes, null, 0);
+
+        Assertions.assertEquals(0, count(query.clause, "limit"), query.clause);
+    }
+
+    private CapturedQuery generate(QueryGenerator generator, EntityType entityType, QueryExpression expression,
+                                   Set<String> attributes, String lastId, int limit) {
+
+        CapturedQuery query = new CapturedQuery();
+
+        generator.generate(entityType, new QueryDefFactory() {
+
+            @Override
+            public QueryDef queryById(String clauseId) {
+
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public QueryDef query(String clause) {
+
+                query.clause = clause.trim();
+
+                return query;
+            }
+
+        }, expression, attributes, lastId, limit, Collections.emptyList());
+
+        return query;
+    }
+
+    private int count(String value, String part) {
+
+        int result = 0;
+
+        for (int i = value.indexOf(part); i >= 0; i = value.indexOf(part, i + part.length()))
+            result++;
+
+        return result;
+    }
+
+    private static class CapturedQuery
+            implements QueryDef {
+
+        private String clause;
+        private List<Object> arguments = new ArrayList<>();
+
+        @Override
+        public QueryDef on(String key, Object value) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryDef on(List<Object> arguments) {
+
+            this.arguments = new ArrayList<>(arguments);
+
+            return this;
+        }
+
+        @Override
+        public <T extends Result> T execute(Class<T> clazz) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int executeBatch(List<Map<String, Object>> batchArguments) {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+}
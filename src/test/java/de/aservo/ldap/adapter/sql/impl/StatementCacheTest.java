@@ -0,0 +1,82 @@
+package de.aservo.ldap.adapter.sql.impl;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Collections;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StatementCacheTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("it should evict the least recently used statement")
+    public void test001()
+            throws Exception {
+
+        StatementCache cache = new StatementCache(2);
+
+        cache.put("a", createEntry("select 'a'"));
+        cache.put("b", createEntry("select 'b'"));
+
+        // the access makes b the least recently used statement
+        Assertions.assertEquals("select 'a'", cache.get("a").getSql());
+
+        cache.put("c", createEntry("select 'c'"));
+
+        Assertions.assertEquals(2, cache.getSize());
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertEquals("select 'a'", cache.get("a").getSql());
+        Assertions.assertEquals("select 'c'", cache.get("c").getSql());
+
+        // a replaced statement does not grow the cache
+        cache.put("c", createEntry("select 'd'"));
+
+        Assertions.assertEquals(2, cache.getSize());
+        Assertions.assertEquals("select 'd'", cache.get("c").getSql());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should count hits and misses")
+    public void test002()
+            throws Exception {
+
+        StatementCache cache = new StatementCache(10);
+
+        Assertions.assertNull(cache.get("a"));
+
+        cache.put("a", createEntry("select 'a'"));
+
+        Assertions.assertNotNull(cache.get("a"));
+        Assertions.assertNotNull(cache.get("a"));
+
+        Assertions.assertEquals(2, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should not cache anything with a size of zero")
+    public void test003()
+            throws Exception {
+
+        StatementCache cache = new StatementCache(0);
+
+        cache.put("a", createEntry("select 'a'"));
+
+        Assertions.assertNull(cache.get("a"));
+        Assertions.assertEquals(0, cache.getSize());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+
+            new StatementCache(-1);
+        });
+    }
+
+    private StatementCache.Entry createEntry(String sql) {
+
+        return new StatementCache.Entry(sql, Collections.emptyList());
+    }
+}
@@ -0,0 +1,221 @@
+package it;
+
+import de.aservo.ldap.adapter.api.LdapUtils;
+import de.aservo.ldap.adapter.api.directory.DirectoryBackend;
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import de.aservo.ldap.adapter.api.entity.MembershipEntity;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.junit.jupiter.api.*;
+import test.api.AbstractServerTest;
+import test.api.helper.ThrowingConsumer;
+import test.configuration.server.JsonWithGroupNestingAndAggregation;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.*;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AggregatedMembershipTest
+        extends AbstractServerTest {
+
+    public AggregatedMembershipTest() {
+
+        super(new JsonWithGroupNestingAndAggregation(10940));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("it should show group attributes correctly with aggregated memberships")
+    public void test001()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=groups,dc=json";
+            String filter = "objectClass=groupOfUniqueNames";
+
+            InitialDirContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
+
+            NamingEnumeration results = context.search(base, filter, sc);
+
+            getLdapAssertions().assertCorrectEntries(directory, results, directory.getAllGroups());
+
+            context.close();
+        });
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("it should show user attributes correctly with aggregated memberships")
+    public void test002()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=users,dc=json";
+            String filter = "objectClass=inetOrgPerson";
+
+            InitialDirContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
+
+            NamingEnumeration results = context.search(base, filter, sc);
+
+            getLdapAssertions().assertCorrectEntries(directory, results, directory.getAllUsers());
+
+            context.close();
+        });
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("it should show requested membership attributes with aggregated memberships")
+    public void test003()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            assertGroupMemberships(directory);
+            assertUserMemberships(directory);
+        });
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should keep names containing the separator of aggregated memberships")
+    public void test004()
+            throws Exception {
+
+        NestedDirectoryBackend permanentDirectory =
+                (NestedDirectoryBackend) getServer().getDirectoryBackendFactory().getPermanentDirectory();
+
+        GroupEntity entity =
+                new GroupEntity("Group" + "\u001e" + "S" + "\u001f", "Description of a group with control characters.");
+
+        permanentDirectory.withWriteAccess(() -> {
+
+            permanentDirectory.upsertGroups(Collections.singleton(entity));
+
+            permanentDirectory.upsertMembership(new MembershipEntity(entity.getId(),
+                    Collections.singleton("groupb"), Collections.singleton("usera")));
+
+            permanentDirectory.upsertMembership(new MembershipEntity("groupa",
+                    Collections.singleton(entity.getId()), Collections.emptySet()));
+        });
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            Assertions.assertTrue(directory.getDirectGroupsOfUser("usera").contains(entity));
+
+            assertGroupMemberships(directory);
+            assertUserMemberships(directory);
+        });
+    }
+
+    private void assertGroupMemberships(DirectoryBackend directory)
+            throws Exception {
+
+        String base = "ou=groups,dc=json";
+        String filter = "objectClass=groupOfUniqueNames";
+
+        InitialDirContext context = createContext("UserA", "pw-user-a");
+
+        SearchControls sc = new SearchControls();
+        sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+        sc.setReturningAttributes(new String[]{SchemaConstants.CN_AT, SchemaConstants.MEMBER_AT,
+                LdapUtils.MEMBER_OF_AT});
+
+        NamingEnumeration<SearchResult> results = context.search(base, filter, sc);
+        int count = 0;
+
+        while (results.hasMore()) {
+
+            Attributes attributes = results.next().getAttributes();
+            String id = attributes.get(SchemaConstants.CN_AT).get().toString().toLowerCase();
+
+            Assertions.assertNull(attributes.get(SchemaConstants.DESCRIPTION_AT));
+
+            Assertions.assertEquals(Stream.concat(
+                                    directory.getDirectUsersOfGroup(id).stream()
+                                            .map(x -> "cn=" + Rdn.escapeValue(x.getUsername()) + ",ou=users,dc=json"),
+                                    directory.getDirectChildGroupsOfGroup(id).stream()
+                                            .map(x -> "cn=" + Rdn.escapeValue(x.getName()) + ",ou=groups,dc=json"))
+                            .collect(Collectors.toSet()),
+                    getValues(attributes.get(SchemaConstants.MEMBER_AT)));
+
+            Assertions.assertEquals(directory.getDirectParentGroupsOfGroup(id).stream()
+                            .map(x -> "cn=" + Rdn.escapeValue(x.getName()) + ",ou=groups,dc=json")
+                            .collect(Collectors.toSet()),
+                    getValues(attributes.get(LdapUtils.MEMBER_OF_AT)));
+
+            count++;
+        }
+
+        Assertions.assertEquals(directory.getAllGroups().size(), count);
+
+        context.close();
+    }
+
+    private void assertUserMemberships(DirectoryBackend directory)
+            throws Exception {
+
+        String base = "ou=users,dc=json";
+        String filter = "objectClass=inetOrgPerson";
+
+        InitialDirContext context = createContext("UserA", "pw-user-a");
+
+        SearchControls sc = new SearchControls();
+        sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+        sc.setReturningAttributes(new String[]{SchemaConstants.CN_AT, LdapUtils.MEMBER_OF_AT});
+
+        NamingEnumeration<SearchResult> results = context.search(base, filter, sc);
+        int count = 0;
+
+        while (results.hasMore()) {
+
+            Attributes attributes = results.next().getAttributes();
+            String id = attributes.get(SchemaConstants.CN_AT).get().toString().toLowerCase();
+
+            Assertions.assertNull(attributes.get(SchemaConstants.MAIL_AT));
+
+            Assertions.assertEquals(directory.getDirectGroupsOfUser(id).stream()
+                            .map(x -> "cn=" + Rdn.escapeValue(x.getName()) + ",ou=groups,dc=json")
+                            .collect(Collectors.toSet()),
+                    getValues(attributes.get(LdapUtils.MEMBER_OF_AT)));
+
+            count++;
+        }
+
+        Assertions.assertEquals(directory.getAllUsers().size(), count);
+
+        context.close();
+    }
+
+    private Set<String> getValues(Attribute attribute)
+            throws Exception {
+
+        Set<String> values = new HashSet<>();
+
+        if (attribute != null) {
+
+            NamingEnumeration<?> ne = attribute.getAll();
+
+            while (ne.hasMore())
+                values.add(ne.next().toString());
+        }
+
+        return values;
+    }
+}
@@ -1,6 +1,7 @@
 package it;
 
 import de.aservo.ldap.adapter.api.directory.DirectoryBackend;
+import de.aservo.ldap.adapter.api.directory.NestedDirectoryBackend;
 import de.aservo.ldap.adapter.api.directory.exception.EntityNotFoundException;
 import de.aservo.ldap.adapter.api.directory.exception.SecurityProblemException;
 import de.aservo.ldap.adapter.api.entity.GroupEntity;
@@ -10,6 +11,7 @@ import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
 import test.api.AbstractBackendTest;
 import test.configuration.backend.CrowdBackendIntegration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -392,4 +394,39 @@ public class CrowdDirectoryBackendTest
                         .map(GroupEntity::getName)
                         .collect(Collectors.toSet()));
     }
+
+    @Test
+    @Order(12)
+    @DisplayName("it should fetch entities with a disjunction of a hundred names")
+    public void test012()
+            throws Exception {
+
+        NestedDirectoryBackend directory = (NestedDirectoryBackend) getBackendFactory().getPermanentDirectory();
+
+        // a batch of the delta update requests up to a hundred entities with a single search restriction
+        List<String> groupNames = new ArrayList<>();
+        List<String> userNames = new ArrayList<>();
+
+        for (String index : indices) {
+
+            groupNames.add("Group" + index);
+            userNames.add("User" + index);
+        }
+
+        for (int i = groupNames.size(); i < 100; i++) {
+
+            groupNames.add("UnknownGroup" + i);
+            userNames.add("UnknownUser" + i);
+        }
+
+        Assertions.assertEquals(indices.stream().map(x -> "Group" + x).collect(Collectors.toSet()),
+                directory.fetchGroups(groupNames).stream()
+                        .map(GroupEntity::getName)
+                        .collect(Collectors.toSet()));
+
+        Assertions.assertEquals(indices.stream().map(x -> "User" + x).collect(Collectors.toSet()),
+                directory.fetchUsers(userNames).stream()
+                        .map(UserEntity::getUsername)
+                        .collect(Collectors.toSet()));
+    }
 }
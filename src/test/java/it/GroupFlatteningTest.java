@@ -32,7 +32,6 @@ public class GroupFlatteningTest
     }
 
     @Test
-    @Disabled
     @Order(2)
     @DisplayName("it should show group attributes correctly in flattening mode")
     public void test002()
@@ -57,7 +56,6 @@ public class GroupFlatteningTest
     }
 
     @Test
-    @Disabled
     @Order(3)
     @DisplayName("it should show user attributes correctly in flattening mode")
     public void test003()
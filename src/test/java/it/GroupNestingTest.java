@@ -1,14 +1,20 @@
 package it;
 
+import de.aservo.ldap.adapter.api.LdapUtils;
 import de.aservo.ldap.adapter.api.directory.DirectoryBackend;
+import de.aservo.ldap.adapter.api.entity.GroupEntity;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.name.Rdn;
 import org.junit.jupiter.api.*;
 import test.api.AbstractServerTest;
 import test.api.helper.ThrowingConsumer;
 import test.configuration.server.JsonWithGroupNesting;
 
 import javax.naming.NamingEnumeration;
-import javax.naming.directory.InitialDirContext;
-import javax.naming.directory.SearchControls;
+import javax.naming.directory.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -78,4 +84,91 @@ public class GroupNestingTest
             context.close();
         });
     }
+
+    @Test
+    @Order(4)
+    @DisplayName("it should omit membership attributes of groups which are not requested")
+    public void test004()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=groups,dc=json";
+            String filter = "objectClass=groupOfUniqueNames";
+
+            InitialDirContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+            sc.setReturningAttributes(new String[]{SchemaConstants.CN_AT});
+
+            NamingEnumeration<SearchResult> results = context.search(base, filter, sc);
+            Set<String> names = new HashSet<>();
+
+            while (results.hasMore()) {
+
+                Attributes attributes = results.next().getAttributes();
+
+                Assertions.assertNull(attributes.get(SchemaConstants.MEMBER_AT));
+                Assertions.assertNull(attributes.get(LdapUtils.MEMBER_OF_AT));
+                Assertions.assertEquals(1, attributes.get(SchemaConstants.CN_AT).size());
+                Assertions.assertTrue(names.add(attributes.get(SchemaConstants.CN_AT).get().toString()));
+            }
+
+            Assertions.assertEquals(directory.getAllGroups().stream()
+                    .map(GroupEntity::getName)
+                    .collect(Collectors.toSet()), names);
+
+            context.close();
+        });
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("it should show requested membership attributes of users only")
+    public void test005()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=users,dc=json";
+            String filter = "objectClass=inetOrgPerson";
+
+            InitialDirContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+            sc.setReturningAttributes(new String[]{SchemaConstants.CN_AT, LdapUtils.MEMBER_OF_AT});
+
+            NamingEnumeration<SearchResult> results = context.search(base, filter, sc);
+            int count = 0;
+
+            while (results.hasMore()) {
+
+                Attributes attributes = results.next().getAttributes();
+                String username = attributes.get(SchemaConstants.CN_AT).get().toString();
+                Attribute memberOfAttribute = attributes.get(LdapUtils.MEMBER_OF_AT);
+                Set<String> memberOf = new HashSet<>();
+
+                if (memberOfAttribute != null) {
+
+                    NamingEnumeration<?> ne = memberOfAttribute.getAll();
+
+                    while (ne.hasMore())
+                        memberOf.add(ne.next().toString());
+                }
+
+                Assertions.assertNull(attributes.get(SchemaConstants.MAIL_AT));
+                Assertions.assertEquals(directory.getDirectGroupsOfUser(username.toLowerCase()).stream()
+                        .map(x -> "cn=" + Rdn.escapeValue(x.getName()) + ",ou=groups,dc=json")
+                        .collect(Collectors.toSet()), memberOf);
+
+                count++;
+            }
+
+            Assertions.assertEquals(directory.getAllUsers().size(), count);
+
+            context.close();
+        });
+    }
 }
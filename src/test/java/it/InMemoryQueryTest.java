@@ -0,0 +1,14 @@
+package it;
+
+import test.api.AbstractQueryTest;
+import test.configuration.server.JsonWithGroupNestingInMemory;
+
+
+public class InMemoryQueryTest
+        extends AbstractQueryTest {
+
+    public InMemoryQueryTest() {
+
+        super(new JsonWithGroupNestingInMemory(10937));
+    }
+}
@@ -0,0 +1,14 @@
+package it;
+
+import test.api.AbstractQueryTest;
+import test.configuration.server.JsonWithGroupNestingUncached;
+
+
+public class JsonQueryTest
+        extends AbstractQueryTest {
+
+    public JsonQueryTest() {
+
+        super(new JsonWithGroupNestingUncached(10939));
+    }
+}
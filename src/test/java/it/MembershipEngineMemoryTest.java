@@ -0,0 +1,61 @@
+package it;
+
+import de.aservo.ldap.adapter.api.membership.MembershipEngine;
+import org.junit.jupiter.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import test.api.helper.MembershipGenerator;
+
+import java.util.Random;
+
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MembershipEngineMemoryTest {
+
+    private final Logger logger = LoggerFactory.getLogger(MembershipEngineMemoryTest.class);
+
+    @Test
+    @Order(1)
+    @DisplayName("it should report the memory footprint for 100k users in 10k nested groups")
+    public void test001()
+            throws Exception {
+
+        MembershipGenerator generator = new MembershipGenerator(10000, 100000, 5, 1);
+        MembershipEngine engine = generator.createEngine();
+
+        logger.info("Memory report after adding all memberships: {}", engine.getMemoryReport());
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < generator.getGroupCount(); i++)
+            engine.getTransitiveUserIdsOfGroup(generator.getGroupId(i));
+
+        logger.info("Resolved the users of all groups in {} ms.", (System.nanoTime() - start) / 1000000);
+        logger.info("Memory report after resolving all groups: {}", engine.getMemoryReport());
+
+        Random random = new Random(1);
+        int matches = 0;
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < 1000000; i++)
+            if (engine.isTransitiveMember(generator.getGroupId(random.nextInt(generator.getGroupCount())),
+                    generator.getUserId(random.nextInt(generator.getUserCount()))))
+                matches++;
+
+        logger.info("Checked 1M nested memberships with {} matches in {} ms.", matches,
+                (System.nanoTime() - start) / 1000000);
+
+        // the cycle through the root group makes all groups on its path members of each other
+        for (int i = 0; i < 100; i++) {
+
+            String groupId = generator.getGroupId(random.nextInt(generator.getGroupCount()));
+
+            Assertions.assertEquals(generator.findTransitiveUserIds(groupId),
+                    engine.getTransitiveUserIdsOfGroup(groupId));
+        }
+
+        Assertions.assertTrue(engine.getSizeInBytes() < 256L * 1024 * 1024);
+    }
+}
@@ -3,6 +3,7 @@ package it;
 import de.aservo.ldap.adapter.api.LdapUtils;
 import de.aservo.ldap.adapter.api.directory.DirectoryBackend;
 import de.aservo.ldap.adapter.api.entity.EntityType;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.junit.jupiter.api.*;
 import test.api.AbstractServerTest;
@@ -10,10 +11,21 @@ import test.api.helper.ThrowingConsumer;
 import test.configuration.server.JsonWithGroupNesting;
 
 import javax.naming.NamingEnumeration;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
+import javax.naming.ldap.SortResponseControl;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -376,4 +388,172 @@ public class ScopeTest
             context2.close();
         });
     }
+
+    @Test
+    @Order(9)
+    @DisplayName("it should be able to browse the users OU entry page by page")
+    public void test009()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=users,dc=json";
+            String filter = "objectClass=*";
+            int pageSize = 2;
+
+            InitialLdapContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+
+            List<String> userIds = new ArrayList<>();
+            byte[] cookie = null;
+            int pages = 0;
+
+            do {
+
+                context.setRequestControls(new Control[]{new PagedResultsControl(pageSize, cookie, Control.CRITICAL)});
+
+                NamingEnumeration results = context.search(base, filter, sc);
+                int entries = 0;
+
+                while (results.hasMore()) {
+
+                    Attributes attributes = ((SearchResult) results.next()).getAttributes();
+
+                    if (attributes.get(SchemaConstants.UID_AT) != null)
+                        userIds.add(attributes.get(SchemaConstants.UID_AT).get().toString().toLowerCase());
+
+                    entries++;
+                }
+
+                Assertions.assertTrue(entries <= pageSize);
+
+                cookie = null;
+                pages++;
+
+                for (Control control : context.getResponseControls())
+                    if (control instanceof PagedResultsResponseControl)
+                        cookie = ((PagedResultsResponseControl) control).getCookie();
+
+            } while (cookie != null && cookie.length > 0);
+
+            List<String> expectedUserIds =
+                    directory.getAllUsers().stream()
+                            .map(x -> x.getId())
+                            .sorted()
+                            .collect(Collectors.toList());
+
+            Assertions.assertTrue(pages > 1);
+            Assertions.assertEquals(expectedUserIds, userIds.stream().sorted().collect(Collectors.toList()));
+
+            context.close();
+        });
+    }
+
+    @Test
+    @Order(10)
+    @DisplayName("it should be able to browse the users OU entry sorted by common name")
+    public void test010()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=users,dc=json";
+            String filter = "objectClass=*";
+
+            InitialLdapContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+
+            context.setRequestControls(new Control[]{
+                    new SortControl(new SortKey[]{new SortKey(SchemaConstants.CN_AT, false, null)}, Control.CRITICAL)
+            });
+
+            NamingEnumeration results = context.search(base, filter, sc);
+
+            Assertions.assertTrue(results.hasMore());
+
+            // the unit entry has no common name and comes first in reverse order
+            getLdapAssertions().assertCorrectEntry(directory, ((SearchResult) results.next()).getAttributes(),
+                    EntityType.USER_UNIT, LdapUtils.OU_USERS);
+
+            List<String> userNames = new ArrayList<>();
+
+            while (results.hasMore()) {
+
+                Attributes attributes = ((SearchResult) results.next()).getAttributes();
+
+                userNames.add(attributes.get(SchemaConstants.CN_AT).get().toString());
+            }
+
+            List<String> expectedUserNames =
+                    directory.getAllUsers().stream()
+                            .map(x -> x.getUsername())
+                            .sorted(Comparator.comparing((String x) -> x.toLowerCase()).reversed())
+                            .collect(Collectors.toList());
+
+            Assertions.assertEquals(expectedUserNames, userNames);
+
+            SortResponseControl sortResponseControl = null;
+
+            for (Control control : context.getResponseControls())
+                if (control instanceof SortResponseControl)
+                    sortResponseControl = (SortResponseControl) control;
+
+            Assertions.assertNotNull(sortResponseControl);
+            Assertions.assertTrue(sortResponseControl.isSorted());
+
+            context.close();
+        });
+    }
+
+    @Test
+    @Order(11)
+    @DisplayName("it should stop sorted results at the size limit of the request")
+    public void test011()
+            throws Exception {
+
+        getServer().getDirectoryBackendFactory().withSession((ThrowingConsumer<DirectoryBackend>) directory -> {
+
+            String base = "ou=users,dc=json";
+            String filter = "objectClass=inetOrgPerson";
+
+            InitialLdapContext context = createContext("UserA", "pw-user-a");
+
+            SearchControls sc = new SearchControls();
+            sc.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+            sc.setCountLimit(2);
+
+            context.setRequestControls(new Control[]{
+                    new SortControl(new SortKey[]{new SortKey(SchemaConstants.CN_AT, true, null)}, Control.CRITICAL)
+            });
+
+            NamingEnumeration results = context.search(base, filter, sc);
+            List<String> userNames = new ArrayList<>();
+
+            Assertions.assertThrows(SizeLimitExceededException.class, () -> {
+
+                while (results.hasMore()) {
+
+                    Attributes attributes = ((SearchResult) results.next()).getAttributes();
+
+                    userNames.add(attributes.get(SchemaConstants.CN_AT).get().toString());
+                }
+            });
+
+            List<String> expectedUserNames =
+                    directory.getAllUsers().stream()
+                            .map(x -> x.getUsername())
+                            .sorted(Comparator.comparing((String x) -> x.toLowerCase()))
+                            .limit(2)
+                            .collect(Collectors.toList());
+
+            Assertions.assertTrue(directory.getAllUsers().size() > 2);
+            Assertions.assertEquals(expectedUserNames, userNames);
+
+            context.close();
+        });
+    }
 }
@@ -0,0 +1,14 @@
+package it;
+
+import test.api.AbstractQueryTest;
+import test.configuration.server.JsonWithGroupNestingVersioned;
+
+
+public class VersionedQueryTest
+        extends AbstractQueryTest {
+
+    public VersionedQueryTest() {
+
+        super(new JsonWithGroupNestingVersioned(10938));
+    }
+}
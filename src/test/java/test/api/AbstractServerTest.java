@@ -10,7 +10,7 @@ import org.junit.jupiter.api.*;
 import test.api.helper.AssertionsLdap;
 
 import javax.naming.Context;
-import javax.naming.directory.InitialDirContext;
+import javax.naming.ldap.InitialLdapContext;
 import java.nio.file.Files;
 import java.util.Hashtable;
 
@@ -43,7 +43,7 @@ public abstract class AbstractServerTest {
         return ldapAssertions;
     }
 
-    protected InitialDirContext createContext(String userId, String password)
+    protected InitialLdapContext createContext(String userId, String password)
             throws Exception {
 
         Hashtable<String, String> env = new Hashtable<>();
@@ -57,7 +57,7 @@ public abstract class AbstractServerTest {
         if (serverSetup.isSslEnabled())
             env.put(Context.SECURITY_PROTOCOL, "ssl");
 
-        return new InitialDirContext(env);
+        return new InitialLdapContext(env, null);
     }
 
     @BeforeAll
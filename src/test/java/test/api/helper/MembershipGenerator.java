@@ -0,0 +1,95 @@
+package test.api.helper;
+
+import de.aservo.ldap.adapter.api.membership.MembershipEngine;
+
+import java.util.*;
+
+
+/**
+ * Generates random memberships of a directory: the groups are nested as a tree with ten member groups per group and
+ * the root group is a member of the last group, which closes a cycle. Each user is a member of several random groups.
+ */
+public class MembershipGenerator {
+
+    private final int groupCount;
+    private final int userCount;
+    private final Map<String, Set<String>> memberGroupIds = new HashMap<>();
+    private final Map<String, Set<String>> memberUserIds = new HashMap<>();
+
+    public MembershipGenerator(int groupCount, int userCount, int groupsPerUser, long seed) {
+
+        Random random = new Random(seed);
+
+        this.groupCount = groupCount;
+        this.userCount = userCount;
+
+        for (int i = 1; i < groupCount; i++)
+            memberGroupIds.computeIfAbsent(getGroupId((i - 1) / 10), x -> new HashSet<>()).add(getGroupId(i));
+
+        if (groupCount > 1)
+            memberGroupIds.computeIfAbsent(getGroupId(groupCount - 1), x -> new HashSet<>()).add(getGroupId(0));
+
+        for (int i = 0; i < userCount; i++)
+            for (int j = 0; j < groupsPerUser; j++)
+                memberUserIds.computeIfAbsent(getGroupId(random.nextInt(groupCount)), x -> new HashSet<>())
+                        .add(getUserId(i));
+    }
+
+    public String getGroupId(int index) {
+
+        return "group-" + index;
+    }
+
+    public String getUserId(int index) {
+
+        return "user-" + index;
+    }
+
+    public int getGroupCount() {
+
+        return groupCount;
+    }
+
+    public int getUserCount() {
+
+        return userCount;
+    }
+
+    public MembershipEngine createEngine() {
+
+        MembershipEngine engine = new MembershipEngine();
+
+        memberGroupIds.forEach((parentGroupId, ids) -> ids.forEach(x -> engine.addGroupMembership(parentGroupId, x)));
+        memberUserIds.forEach((parentGroupId, ids) -> ids.forEach(x -> engine.addUserMembership(parentGroupId, x)));
+
+        return engine;
+    }
+
+    public Set<String> findTransitiveChildGroupIds(String groupId) {
+
+        Set<String> result = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(memberGroupIds.getOrDefault(groupId, Collections.emptySet()));
+
+        while (!pending.isEmpty()) {
+
+            String id = pending.pop();
+
+            if (result.add(id))
+                pending.addAll(memberGroupIds.getOrDefault(id, Collections.emptySet()));
+        }
+
+        result.remove(groupId);
+
+        return result;
+    }
+
+    public Set<String> findTransitiveUserIds(String groupId) {
+
+        Set<String> result = new HashSet<>(memberUserIds.getOrDefault(groupId, Collections.emptySet()));
+
+        for (String id : findTransitiveChildGroupIds(groupId))
+            result.addAll(memberUserIds.getOrDefault(id, Collections.emptySet()));
+
+        return result;
+    }
+}
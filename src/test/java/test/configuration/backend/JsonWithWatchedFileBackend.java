@@ -0,0 +1,44 @@
+package test.configuration.backend;
+
+import test.api.BackendSetup;
+
+import java.nio.file.Path;
+import java.util.Properties;
+
+
+public class JsonWithWatchedFileBackend
+        implements BackendSetup {
+
+    private final String databaseName;
+    private final Path file;
+
+    public JsonWithWatchedFileBackend(String databaseName, Path file) {
+
+        this.databaseName = databaseName;
+        this.file = file;
+    }
+
+    public Path getFile() {
+
+        return file;
+    }
+
+    public Properties getProperties() {
+
+        Properties properties = new Properties();
+
+        properties.put("directory-backend.permanent",
+                "de.aservo.ldap.adapter.backend.JsonDirectoryBackend," +
+                        "de.aservo.ldap.adapter.backend.CachedWithPersistenceDirectoryBackend");
+
+        properties.put("directory-backend.session", "");
+
+        properties.put("db-uri", file.toUri().toString());
+        properties.put("json.watch-file", "true");
+
+        properties.put("database.jdbc.connection.url", "jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1");
+        properties.put("persistence.use-staging-tables", "true");
+
+        return properties;
+    }
+}
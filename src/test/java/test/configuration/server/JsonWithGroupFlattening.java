@@ -54,6 +54,7 @@ public class JsonWithGroupFlattening
         properties.put("db-uri", "file:./src/test/resources/de/aservo/ldap/adapter/db.json");
 
         properties.put("database.jdbc.connection.url", "jdbc:h2:" + getTestDirectory() + "/db");
+        properties.put("persistence.use-materialized-views", "true");
 
         return properties;
     }